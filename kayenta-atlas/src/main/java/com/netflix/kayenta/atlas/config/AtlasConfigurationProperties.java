@@ -19,6 +19,7 @@ package com.netflix.kayenta.atlas.config;
 import lombok.Getter;
 import lombok.Setter;
 
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -32,6 +33,32 @@ public class AtlasConfigurationProperties {
   @Setter
   private int stageTimeoutMinutes = 3;
 
+  @Getter
+  @Setter
+  private int connectTimeoutSeconds = 90;
+
+  @Getter
+  @Setter
+  private int readTimeoutSeconds = 90;
+
+  @Getter
+  @Setter
+  // Connections to every Atlas backend come from one shared pool; this is how many idle connections it keeps open.
+  private int maxIdleConnections = 20;
+
+  @Getter
+  @Setter
+  private long keepAliveDurationMS = Duration.ofMinutes(5).toMillis();
+
+  @Getter
+  @Setter
+  // Clients are cached by backend URI, which is built from scope-supplied values, so the cache is bounded.
+  private long maxCachedClients = 100;
+
+  @Getter
+  @Setter
+  private long cachedClientExpireAfterAccessMS = Duration.ofHours(1).toMillis();
+
   @Getter
   private List<AtlasManagedAccount> accounts = new ArrayList<>();
 }
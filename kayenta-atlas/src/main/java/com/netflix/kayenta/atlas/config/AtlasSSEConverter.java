@@ -16,8 +16,13 @@
 
 package com.netflix.kayenta.atlas.config;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.primitives.Doubles;
 import com.netflix.kayenta.atlas.model.AtlasResults;
+import com.netflix.kayenta.atlas.model.TimeseriesData;
 import com.netflix.kayenta.metrics.FatalQueryException;
 import com.netflix.kayenta.metrics.RetryableQueryException;
 import lombok.extern.slf4j.Slf4j;
@@ -33,19 +38,24 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Objects;
-import java.util.stream.Collectors;
+import java.util.Map;
 
 @Component
 @Slf4j
 // Atlas returns one json stanza per line; we rely on that here.
 // We are not implementing full, proper SSE handling here.
+// Each line is parsed as it is read, with the values of each series going straight into a primitive buffer, so only
+// the results themselves are held onto; reading stops at the first 'error' or 'close'.
 public class AtlasSSEConverter implements Converter {
 
   private static final List<String> EXPECTED_RESULTS_TYPE_LIST = Arrays.asList("timeseries", "close");
 
+  private static final int INITIAL_VALUES_BUFFER_SIZE = 64;
+
   private final ObjectMapper kayentaObjectMapper;
 
   @Autowired
@@ -55,68 +65,206 @@ public class AtlasSSEConverter implements Converter {
 
   @Override
   public List<AtlasResults> fromBody(TypedInput body, Type type) throws ConversionException {
-    try (BufferedReader reader = new BufferedReader(new InputStreamReader(body.in()))) {
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(body.in(), StandardCharsets.UTF_8))) {
       return processInput(reader);
     } catch (IOException e) {
       log.error("Cannot process Atlas results", e);
+      throw new RetryableQueryException("Atlas response could not be read: " + e.getMessage());
     }
-    return null;
   }
 
   protected List<AtlasResults> processInput(BufferedReader reader) {
-    List<String[]> tokenizedLines =
-      reader
-        .lines()
-        .filter(line -> !StringUtils.isEmpty(line))
-        .map(line -> line.split(": ", 2))
-        .collect(Collectors.toList());
-
-    tokenizedLines
-      .stream()
-      .map(tokenizedLine -> tokenizedLine[0])
-      .filter(openingToken -> !openingToken.equals("data"))
-      .forEach(nonDataOpeningToken -> log.info("Received opening token other than 'data' from Atlas: {}", nonDataOpeningToken));
-
-    List<AtlasResults> atlasResultsList =
-      tokenizedLines
-        .stream()
-        .map(this::convertTokenizedLineToAtlasResults)
-        .filter(Objects::nonNull)
-        .collect(Collectors.toList());
-
-    if (!atlasResultsList.get(atlasResultsList.size() - 1).getType().equals("close")) {
-      log.error("Received data from Atlas that did not terminate with a 'close'.");
-      throw new RetryableQueryException("Atlas response did not end in a 'close', we cannot guarantee all data was received.");
+    List<AtlasResults> atlasResultsList = new ArrayList<>();
+    String line;
+
+    try {
+      while ((line = reader.readLine()) != null) {
+        if (StringUtils.isEmpty(line)) {
+          continue;
+        }
+
+        String[] tokenizedLine = line.split(": ", 2);
+
+        if (!tokenizedLine[0].equals("data")) {
+          log.info("Received opening token other than 'data' from Atlas: {}", tokenizedLine[0]);
+          continue;
+        }
+
+        AtlasResults atlasResults = convertTokenizedLineToAtlasResults(tokenizedLine);
+
+        if (atlasResults != null) {
+          atlasResultsList.add(atlasResults);
+
+          // Anything after the close is not part of the response.
+          if (atlasResults.getType().equals("close")) {
+            return atlasResultsList;
+          }
+        }
+      }
+    } catch (IOException e) {
+      // The connection failed part way through the response, so what was read so far can't be used.
+      log.error("Cannot read Atlas results", e);
+      throw new RetryableQueryException("Atlas response could not be read: " + e.getMessage());
     }
 
-    return atlasResultsList;
+    log.error("Received data from Atlas that did not terminate with a 'close'.");
+    throw new RetryableQueryException("Atlas response did not end in a 'close', we cannot guarantee all data was received.");
   }
 
   protected AtlasResults convertTokenizedLineToAtlasResults(String[] tokenizedLine) {
-    try {
-      AtlasResults atlasResults = kayentaObjectMapper.readValue(tokenizedLine[1], AtlasResults.class);
-      String atlasResultsType = atlasResults.getType();
+    if (tokenizedLine.length < 2) {
+      log.info("Received 'data' line without a payload from Atlas.");
+      return null;
+    }
 
-      if (StringUtils.isEmpty(atlasResultsType) || !EXPECTED_RESULTS_TYPE_LIST.contains(atlasResultsType)) {
-        if (atlasResultsType.equals("error")) {
-          if (atlasResults.getMessage().contains("IllegalStateException")) {
-            throw new FatalQueryException("Atlas query failed: " + atlasResults.getMessage());
-          } else {
-            throw new RetryableQueryException("Atlas query failed: " + atlasResults.getMessage());
-          }
+    try (JsonParser parser = kayentaObjectMapper.getFactory().createParser(tokenizedLine[1])) {
+      parser.enable(JsonParser.Feature.ALLOW_NON_NUMERIC_NUMBERS);
+
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        log.error("Cannot process Atlas results, expected an object: {}", tokenizedLine[1]);
+        return null;
+      }
+
+      AtlasResults.AtlasResultsBuilder atlasResultsBuilder = AtlasResults.builder();
+      String atlasResultsType = null;
+
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String fieldName = parser.getCurrentName();
+
+        parser.nextToken();
+
+        switch (fieldName) {
+          case "type":
+            atlasResultsType = parser.getValueAsString();
+            atlasResultsBuilder.type(atlasResultsType);
+            break;
+          case "message":
+            atlasResultsBuilder.message(parser.getValueAsString());
+            break;
+          case "id":
+            atlasResultsBuilder.id(parser.getValueAsString());
+            break;
+          case "query":
+            atlasResultsBuilder.query(parser.getValueAsString());
+            break;
+          case "label":
+            atlasResultsBuilder.label(parser.getValueAsString());
+            break;
+          case "start":
+            atlasResultsBuilder.start(parser.getValueAsLong());
+            break;
+          case "step":
+            atlasResultsBuilder.step(parser.getValueAsLong());
+            break;
+          case "end":
+            atlasResultsBuilder.end(parser.getValueAsLong());
+            break;
+          case "tags":
+            atlasResultsBuilder.tags(kayentaObjectMapper.readValue(parser, new TypeReference<Map<String, String>>() {}));
+            break;
+          case "groupByKeys":
+            atlasResultsBuilder.groupByKeys(kayentaObjectMapper.readValue(parser, new TypeReference<List<String>>() {}));
+            break;
+          case "data":
+            atlasResultsBuilder.data(readTimeseriesData(parser));
+            break;
+          default:
+            parser.skipChildren();
         }
+
+        // An error ends the response, so there is no point in reading anything more.
+        if ("error".equals(atlasResultsType)) {
+          failOnError(atlasResultsBuilder, parser);
+        }
+      }
+
+      if (StringUtils.isEmpty(atlasResultsType) || !EXPECTED_RESULTS_TYPE_LIST.contains(atlasResultsType)) {
+        AtlasResults atlasResults = atlasResultsBuilder.build();
+
         log.info("Received results of type other than 'timeseries' or 'close' from Atlas: {}", atlasResults);
 
         return null;
       }
 
-      return atlasResults;
+      return atlasResultsBuilder.build();
     } catch (IOException e) {
       log.error("Cannot process Atlas results", e);
       return null;
     }
   }
 
+  // The message may come before or after the type, so whatever is left of the event is read for it first.
+  private void failOnError(AtlasResults.AtlasResultsBuilder atlasResultsBuilder, JsonParser parser) throws IOException {
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String fieldName = parser.getCurrentName();
+
+      parser.nextToken();
+
+      if (fieldName.equals("message")) {
+        atlasResultsBuilder.message(parser.getValueAsString());
+      } else {
+        parser.skipChildren();
+      }
+    }
+
+    String message = atlasResultsBuilder.build().getMessage();
+
+    if (message != null && message.contains("IllegalStateException")) {
+      throw new FatalQueryException("Atlas query failed: " + message);
+    } else {
+      throw new RetryableQueryException("Atlas query failed: " + message);
+    }
+  }
+
+  private static TimeseriesData readTimeseriesData(JsonParser parser) throws IOException {
+    if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+      parser.skipChildren();
+      return null;
+    }
+
+    TimeseriesData.TimeseriesDataBuilder timeseriesDataBuilder = TimeseriesData.builder();
+
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String fieldName = parser.getCurrentName();
+
+      parser.nextToken();
+
+      if (fieldName.equals("type")) {
+        timeseriesDataBuilder.type(parser.getValueAsString());
+      } else if (fieldName.equals("values") && parser.getCurrentToken() == JsonToken.START_ARRAY) {
+        timeseriesDataBuilder.values(readValues(parser));
+      } else {
+        parser.skipChildren();
+      }
+    }
+
+    return timeseriesDataBuilder.build();
+  }
+
+  // The values are boxed lazily, by the list view over the buffer, rather than one Double per value up front.
+  private static List<Double> readValues(JsonParser parser) throws IOException {
+    double[] values = new double[INITIAL_VALUES_BUFFER_SIZE];
+    int valueCount = 0;
+    JsonToken token;
+
+    while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+      if (valueCount == values.length) {
+        values = Arrays.copyOf(values, values.length * 2);
+      }
+
+      if (token == JsonToken.VALUE_NUMBER_INT || token == JsonToken.VALUE_NUMBER_FLOAT) {
+        values[valueCount++] = parser.getDoubleValue();
+      } else if (token == JsonToken.VALUE_STRING) {
+        values[valueCount++] = parser.getValueAsDouble(Double.NaN);
+      } else {
+        parser.skipChildren();
+        values[valueCount++] = Double.NaN;
+      }
+    }
+
+    return Doubles.asList(Arrays.copyOf(values, valueCount));
+  }
+
   @Override
   public TypedOutput toBody(Object object) {
     return null;
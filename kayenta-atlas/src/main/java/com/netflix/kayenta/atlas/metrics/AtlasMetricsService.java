@@ -17,23 +17,20 @@
 package com.netflix.kayenta.atlas.metrics;
 
 import com.netflix.kayenta.atlas.canary.AtlasCanaryScope;
-import com.netflix.kayenta.atlas.config.AtlasSSEConverter;
 import com.netflix.kayenta.atlas.model.AtlasResults;
 import com.netflix.kayenta.atlas.model.AtlasResultsHelper;
 import com.netflix.kayenta.atlas.model.Backend;
 import com.netflix.kayenta.atlas.security.AtlasNamedAccountCredentials;
 import com.netflix.kayenta.atlas.service.AtlasRemoteService;
+import com.netflix.kayenta.atlas.service.AtlasRemoteServiceCache;
 import com.netflix.kayenta.canary.CanaryConfig;
 import com.netflix.kayenta.canary.CanaryMetricConfig;
 import com.netflix.kayenta.canary.CanaryScope;
 import com.netflix.kayenta.canary.providers.metrics.AtlasCanaryMetricSetQueryConfig;
 import com.netflix.kayenta.metrics.MetricSet;
 import com.netflix.kayenta.metrics.MetricsService;
-import com.netflix.kayenta.retrofit.config.RemoteService;
-import com.netflix.kayenta.retrofit.config.RetrofitClientFactory;
 import com.netflix.kayenta.security.AccountCredentialsRepository;
 import com.netflix.spectator.api.Registry;
-import com.squareup.okhttp.OkHttpClient;
 import lombok.Builder;
 import lombok.Getter;
 import lombok.Singular;
@@ -63,10 +60,7 @@ public class AtlasMetricsService implements MetricsService {
   private final AccountCredentialsRepository accountCredentialsRepository;
 
   @Autowired
-  private final RetrofitClientFactory retrofitClientFactory;
-
-  @Autowired
-  private final AtlasSSEConverter atlasSSEConverter;
+  private final AtlasRemoteServiceCache atlasRemoteServiceCache;
 
   @Autowired
   private final Registry registry;
@@ -86,12 +80,6 @@ public class AtlasMetricsService implements MetricsService {
                                       CanaryConfig canaryConfig,
                                       CanaryMetricConfig canaryMetricConfig,
                                       CanaryScope canaryScope) throws IOException {
-
-    OkHttpClient okHttpClient = new OkHttpClient();
-    // TODO: (mgraff, duftler) -- we should find out the defaults, and if too small, make this reasonable / configurable
-    okHttpClient.setConnectTimeout(90, TimeUnit.SECONDS);
-    okHttpClient.setReadTimeout(90, TimeUnit.SECONDS);
-
     if (!(canaryScope instanceof AtlasCanaryScope)) {
       throw new IllegalArgumentException("Canary scope not instance of AtlasCanaryScope: " + canaryScope +
                                          ". One common cause is having multiple METRICS_STORE accounts configured but " +
@@ -119,13 +107,8 @@ public class AtlasMetricsService implements MetricsService {
                                       atlasCanaryScope.getDataset(),
                                       atlasCanaryScope.getLocation(),
                                       atlasCanaryScope.getEnvironment());
-    RemoteService remoteService = new RemoteService();
     log.info("Using Atlas backend {}", uri);
-    remoteService.setBaseUrl(uri);
-    AtlasRemoteService atlasRemoteService = retrofitClientFactory.createClient(AtlasRemoteService.class,
-                                                                               atlasSSEConverter,
-                                                                               remoteService,
-                                                                               okHttpClient);
+    AtlasRemoteService atlasRemoteService = atlasRemoteServiceCache.getAtlasRemoteService(uri);
     AtlasCanaryMetricSetQueryConfig atlasMetricSetQuery = (AtlasCanaryMetricSetQueryConfig)canaryMetricConfig.getQuery();
     String decoratedQuery = atlasMetricSetQuery.getQ() + "," + atlasCanaryScope.cq();
     String isoStep = Duration.of(atlasCanaryScope.getStep(), SECONDS) + "";
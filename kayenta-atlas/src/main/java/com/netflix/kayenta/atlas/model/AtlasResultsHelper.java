@@ -16,9 +16,10 @@
 
 package com.netflix.kayenta.atlas.model;
 
+import com.google.common.primitives.Doubles;
+
 import java.util.*;
 import java.util.stream.Collectors;
-import java.util.stream.DoubleStream;
 
 public class AtlasResultsHelper {
 
@@ -45,28 +46,44 @@ public class AtlasResultsHelper {
         .end(lastAtlasResults.getEnd())
         .tags(firstAtlasResults.getTags())
         .groupByKeys(firstAtlasResults.getGroupByKeys());
-    List<Double> values = new ArrayList<>();
+    // The values are merged into a primitive buffer, sized up front, so that they stay unboxed as they were read.
+    double[] values = new double[countMergedValues(atlasResultsList)];
+    int valueCount = 0;
+    Long lastTimestamp = null;
+
+    for (AtlasResults atlasResults : atlasResultsList) {
+      if (lastTimestamp != null) {
+        int offset = (int)((atlasResults.getStart() - lastTimestamp) / atlasResults.getStep());
+
+        Arrays.fill(values, valueCount, valueCount + offset, Double.NaN);
+        valueCount += offset;
+      }
+
+      double[] atlasResultsValues = Doubles.toArray(atlasResults.getData().getValues());
+
+      System.arraycopy(atlasResultsValues, 0, values, valueCount, atlasResultsValues.length);
+      valueCount += atlasResultsValues.length;
+      lastTimestamp = atlasResults.getEnd();
+    }
+
+    return atlasResultsBuilder.data(TimeseriesData.builder().values(Doubles.asList(values)).type(firstAtlasResults.getData().getType()).build()).build();
+  }
+
+  // The number of values the sorted results merge into, including the NaN padding between them.
+  private static int countMergedValues(List<AtlasResults> atlasResultsList) {
+    long valueCount = 0;
     Long lastTimestamp = null;
 
     for (AtlasResults atlasResults : atlasResultsList) {
       if (lastTimestamp != null) {
-        long nextTimestamp = atlasResults.getStart();
-        long offset = (nextTimestamp - lastTimestamp) / atlasResults.getStep();
-        List<Double> padding =
-          DoubleStream
-            .generate(() -> Double.NaN)
-            .limit(offset)
-            .boxed()
-            .collect(Collectors.toList());
-
-        values.addAll(padding);
+        valueCount += (atlasResults.getStart() - lastTimestamp) / atlasResults.getStep();
       }
 
-      values.addAll(atlasResults.getData().getValues());
+      valueCount += atlasResults.getData().getValues().size();
       lastTimestamp = atlasResults.getEnd();
     }
 
-    return atlasResultsBuilder.data(TimeseriesData.builder().values(values).type(firstAtlasResults.getData().getType()).build()).build();
+    return Math.toIntExact(valueCount);
   }
 
   public static Map<String, AtlasResults> merge(List<AtlasResults> atlasResultsList) {
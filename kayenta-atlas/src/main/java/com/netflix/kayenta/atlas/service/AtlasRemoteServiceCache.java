@@ -0,0 +1,128 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.kayenta.atlas.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.netflix.kayenta.atlas.config.AtlasConfigurationProperties;
+import com.netflix.kayenta.atlas.config.AtlasSSEConverter;
+import com.netflix.kayenta.retrofit.config.RemoteService;
+import com.netflix.kayenta.retrofit.config.RetrofitClientFactory;
+import com.netflix.spectator.api.Id;
+import com.netflix.spectator.api.Registry;
+import com.squareup.okhttp.Connection;
+import com.squareup.okhttp.ConnectionPool;
+import com.squareup.okhttp.Interceptor;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Response;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One Atlas client per backend URI, all sharing a single OkHttp client and so a single connection pool, so that
+ * successive fetches from the same backend reuse its connections instead of paying for a new handshake every time.
+ * The least recently used clients are dropped once maxCachedClients are cached, as are clients that go unused for a while.
+ */
+@Component
+@ConditionalOnProperty("kayenta.atlas.enabled")
+@Slf4j
+public class AtlasRemoteServiceCache {
+
+  private final RetrofitClientFactory retrofitClientFactory;
+  private final AtlasSSEConverter atlasSSEConverter;
+  private final Registry registry;
+  private final OkHttpClient okHttpClient;
+  private final Cache<String, AtlasRemoteService> atlasRemoteServicesByUri;
+  // Connections that have served at least one request; the pool drops the rest of its references once they are evicted.
+  private final Set<Connection> usedConnections = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+  private final Id clientsId;
+  private final Id requestsId;
+
+  @Autowired
+  public AtlasRemoteServiceCache(RetrofitClientFactory retrofitClientFactory,
+                                 AtlasSSEConverter atlasSSEConverter,
+                                 AtlasConfigurationProperties atlasConfigurationProperties,
+                                 Registry registry) {
+    this.retrofitClientFactory = retrofitClientFactory;
+    this.atlasSSEConverter = atlasSSEConverter;
+    this.registry = registry;
+
+    ConnectionPool connectionPool = new ConnectionPool(atlasConfigurationProperties.getMaxIdleConnections(),
+                                                       atlasConfigurationProperties.getKeepAliveDurationMS());
+
+    okHttpClient = new OkHttpClient();
+    okHttpClient.setConnectTimeout(atlasConfigurationProperties.getConnectTimeoutSeconds(), TimeUnit.SECONDS);
+    okHttpClient.setReadTimeout(atlasConfigurationProperties.getReadTimeoutSeconds(), TimeUnit.SECONDS);
+    okHttpClient.setConnectionPool(connectionPool);
+    okHttpClient.networkInterceptors().add(this::recordConnectionReuse);
+
+    atlasRemoteServicesByUri =
+      CacheBuilder.newBuilder()
+        .maximumSize(atlasConfigurationProperties.getMaxCachedClients())
+        .expireAfterAccess(atlasConfigurationProperties.getCachedClientExpireAfterAccessMS(), TimeUnit.MILLISECONDS)
+        .build();
+
+    clientsId = registry.createId("atlas.clients");
+    requestsId = registry.createId("atlas.requests");
+
+    registry.gauge(registry.createId("atlas.connectionPool.connections"), connectionPool, ConnectionPool::getConnectionCount);
+    registry.gauge(registry.createId("atlas.connectionPool.idleConnections"), connectionPool, ConnectionPool::getIdleConnectionCount);
+    registry.gauge(registry.createId("atlas.clients.cached"), atlasRemoteServicesByUri, Cache::size);
+  }
+
+  public AtlasRemoteService getAtlasRemoteService(String uri) {
+    AtlasRemoteService atlasRemoteService = atlasRemoteServicesByUri.getIfPresent(uri);
+
+    if (atlasRemoteService != null) {
+      registry.counter(clientsId.withTag("reused", true)).increment();
+
+      return atlasRemoteService;
+    }
+
+    try {
+      return atlasRemoteServicesByUri.get(uri, () -> {
+        RemoteService remoteService = new RemoteService();
+
+        log.info("Creating Atlas client for backend {}", uri);
+        remoteService.setBaseUrl(uri);
+        registry.counter(clientsId.withTag("reused", false)).increment();
+
+        return retrofitClientFactory.createClient(AtlasRemoteService.class, atlasSSEConverter, remoteService, okHttpClient);
+      });
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Unable to create Atlas client for backend " + uri + ".", e.getCause());
+    }
+  }
+
+  private Response recordConnectionReuse(Interceptor.Chain chain) throws IOException {
+    boolean connectionReused = !usedConnections.add(chain.connection());
+
+    registry.counter(requestsId.withTag("connectionReused", connectionReused)).increment();
+
+    return chain.proceed(chain.request());
+  }
+}
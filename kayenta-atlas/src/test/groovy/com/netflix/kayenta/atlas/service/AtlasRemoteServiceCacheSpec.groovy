@@ -0,0 +1,116 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.kayenta.atlas.service
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.netflix.kayenta.atlas.config.AtlasConfigurationProperties
+import com.netflix.kayenta.atlas.config.AtlasSSEConverter
+import com.netflix.kayenta.retrofit.config.RetrofitClientFactory
+import com.netflix.spectator.api.DefaultRegistry
+import com.netflix.spectator.api.Registry
+import com.sun.net.httpserver.HttpExchange
+import com.sun.net.httpserver.HttpServer
+import spock.lang.Specification
+import spock.lang.Subject
+
+import java.nio.charset.StandardCharsets
+import java.util.concurrent.CopyOnWriteArrayList
+
+class AtlasRemoteServiceCacheSpec extends Specification {
+
+  static final byte[] CLOSE_RESPONSE = "data: {\"type\":\"close\"}\n".getBytes(StandardCharsets.UTF_8)
+
+  HttpServer httpServer
+  // The client-side port of the connection each request arrived on.
+  List<Integer> requestPorts = new CopyOnWriteArrayList<>()
+
+  Registry registry = new DefaultRegistry()
+  AtlasConfigurationProperties atlasConfigurationProperties = new AtlasConfigurationProperties()
+
+  @Subject
+  AtlasRemoteServiceCache atlasRemoteServiceCache
+
+  def setup() {
+    httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0)
+    httpServer.createContext("/api/v2/fetch") { HttpExchange exchange ->
+      requestPorts << exchange.remoteAddress.port
+      exchange.sendResponseHeaders(200, CLOSE_RESPONSE.length)
+      exchange.responseBody.withCloseable { it.write(CLOSE_RESPONSE) }
+    }
+    httpServer.start()
+
+    atlasRemoteServiceCache = buildAtlasRemoteServiceCache()
+  }
+
+  def cleanup() {
+    httpServer.stop(0)
+  }
+
+  def "one client should be created per backend URI and reused after that"() {
+    when:
+    AtlasRemoteService first = atlasRemoteServiceCache.getAtlasRemoteService(backendUri("first"))
+    AtlasRemoteService firstAgain = atlasRemoteServiceCache.getAtlasRemoteService(backendUri("first"))
+    AtlasRemoteService second = atlasRemoteServiceCache.getAtlasRemoteService(backendUri("second"))
+
+    then:
+    first.is(firstAgain)
+    !first.is(second)
+    registry.counter("atlas.clients", "reused", "false").count() == 2
+    registry.counter("atlas.clients", "reused", "true").count() == 1
+  }
+
+  def "fetches through clients for the same backend should share a connection"() {
+    when:
+    atlasRemoteServiceCache.getAtlasRemoteService(backendUri("first")).fetch("some-query", 0L, 1L, "PT1M", "some-id", "uuid-1")
+    atlasRemoteServiceCache.getAtlasRemoteService(backendUri("first")).fetch("some-query", 0L, 1L, "PT1M", "some-id", "uuid-2")
+
+    then:
+    requestPorts.size() == 2
+    requestPorts.unique(false).size() == 1
+    registry.counter("atlas.requests", "connectionReused", "false").count() == 1
+    registry.counter("atlas.requests", "connectionReused", "true").count() == 1
+  }
+
+  def "the least recently used clients should be dropped once the cache is full"() {
+    given:
+    atlasConfigurationProperties.maxCachedClients = 1
+    atlasRemoteServiceCache = buildAtlasRemoteServiceCache()
+
+    when:
+    AtlasRemoteService first = atlasRemoteServiceCache.getAtlasRemoteService(backendUri("first"))
+    atlasRemoteServiceCache.getAtlasRemoteService(backendUri("second"))
+    AtlasRemoteService firstAgain = atlasRemoteServiceCache.getAtlasRemoteService(backendUri("first"))
+
+    then:
+    !first.is(firstAgain)
+    registry.counter("atlas.clients", "reused", "false").count() == 3
+  }
+
+  AtlasRemoteServiceCache buildAtlasRemoteServiceCache() {
+    new AtlasRemoteServiceCache(new RetrofitClientFactory(retrofitLogLevel: "NONE"),
+                                new AtlasSSEConverter(new ObjectMapper()),
+                                atlasConfigurationProperties,
+                                registry)
+  }
+
+  // Distinct URIs that both reach the same server.
+  String backendUri(String backend) {
+    String host = backend == "first" ? "127.0.0.1" : "localhost"
+
+    "http://$host:${httpServer.address.port}"
+  }
+}
@@ -7,8 +7,11 @@ import com.netflix.kayenta.metrics.RetryableQueryException;
 import org.junit.Test;
 
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.Reader;
 import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import static org.junit.Assert.*;
@@ -19,6 +22,9 @@ public class AtlasSSEConverterTest {
   private String timeseriesMessage = "data: {\"type\":\"timeseries\",\"id\":\"randomIdHere\",\"query\":\"name,apache.http.request,:eq,statistic,count,:eq,:and,:sum,(,status,method,),:by\",\"tags\":{\"method\":\"get\",\"name\":\"apache.http.request\",\"statistic\":\"count\",\"atlas.offset\":\"0w\",\"status\":\"2xx\",\"nf.cluster\":\"foocluster\"},\"start\":1517860320000,\"end\":1517863920000,\"step\":60000,\"data\":{\"type\":\"array\",\"values\":[0.8666666666666667]}}\n";
   private String errorMessageIllegalStateMessage = "data: {\"type\":\"error\",\"message\":\"IllegalStateException: unknown word ':eqx'\"}\n";
   private String retryableErrorMessage = "data: {\"type\":\"error\",\"message\":\"something went wrong\"}\n";
+  private String messageBeforeTypeErrorMessage = "data: {\"message\":\"IllegalStateException: unknown word ':eqx'\",\"type\":\"error\"}\n";
+  private String nanTimeseriesMessage = "data: {\"type\":\"timeseries\",\"id\":\"otherIdHere\",\"groupByKeys\":[\"status\"],\"tags\":{\"status\":\"5xx\"},\"start\":1517860320000,\"end\":1517863920000,\"step\":60000,\"data\":{\"type\":\"array\",\"values\":[1,NaN,\"NaN\",2.5]}}\n";
+  private String heartbeatMessage = "data: {\"type\":\"heartbeat\"}\n";
 
   private List<AtlasResults> atlasResultsFromSSE(String sse) {
     BufferedReader bufferedReader = new BufferedReader(new StringReader(sse));
@@ -52,4 +58,72 @@ public class AtlasSSEConverterTest {
   public void retryableErrorWithoutClose() {
     atlasResultsFromSSE(retryableErrorMessage);
   }
+
+  @Test(expected = FatalQueryException.class)
+  public void fatalErrorWithMessageBeforeType() {
+    atlasResultsFromSSE(messageBeforeTypeErrorMessage);
+  }
+
+  @Test(expected = FatalQueryException.class)
+  public void errorFailsBeforeRemainingData() {
+    atlasResultsFromSSE(errorMessageIllegalStateMessage + timeseriesMessage + closeMessage);
+  }
+
+  @Test
+  public void timeseriesFieldsAreParsed() {
+    List<AtlasResults> results = atlasResultsFromSSE(timeseriesMessage + nanTimeseriesMessage + closeMessage);
+    assertEquals(3, results.size());
+
+    AtlasResults first = results.get(0);
+    assertEquals("timeseries", first.getType());
+    assertEquals("randomIdHere", first.getId());
+    assertEquals(1517860320000L, first.getStart());
+    assertEquals(1517863920000L, first.getEnd());
+    assertEquals(60000L, first.getStep());
+    assertEquals("2xx", first.getTags().get("status"));
+    assertEquals("array", first.getData().getType());
+    assertEquals(Collections.singletonList(0.8666666666666667), first.getData().getValues());
+
+    AtlasResults second = results.get(1);
+    assertEquals(Collections.singletonList("status"), second.getGroupByKeys());
+    assertEquals(Arrays.asList(1.0, Double.NaN, Double.NaN, 2.5), second.getData().getValues());
+  }
+
+  @Test
+  public void otherTypesAndDataAfterCloseAreDropped() {
+    List<AtlasResults> results = atlasResultsFromSSE(heartbeatMessage + timeseriesMessage + closeMessage + timeseriesMessage);
+    assertEquals(2, results.size());
+    assertEquals("close", results.get(1).getType());
+  }
+
+  @Test(expected = RetryableQueryException.class)
+  public void emptyResponseThrows() {
+    atlasResultsFromSSE("");
+  }
+
+  @Test(expected = RetryableQueryException.class)
+  public void readFailurePartWayThroughThrows() {
+    Reader failingReader = new Reader() {
+      private final Reader data = new StringReader(timeseriesMessage);
+
+      @Override
+      public int read(char[] cbuf, int off, int len) throws IOException {
+        int read = data.read(cbuf, off, len);
+
+        if (read == -1) {
+          throw new IOException("Connection reset");
+        }
+
+        return read;
+      }
+
+      @Override
+      public void close() throws IOException {
+        data.close();
+      }
+    };
+    AtlasSSEConverter atlasSSEConverter = new AtlasSSEConverter(new ObjectMapper());
+
+    atlasSSEConverter.processInput(new BufferedReader(failingReader));
+  }
 }
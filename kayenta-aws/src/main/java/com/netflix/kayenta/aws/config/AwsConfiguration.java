@@ -62,7 +62,12 @@ public class AwsConfiguration {
 
       log.info("Registering AWS account {} with supported types {}.", name, supportedTypes);
 
+      if (awsManagedAccount.getMaxConnections() < 1) {
+        throw new IllegalArgumentException("AWS account " + name + " must specify a positive maxConnections.");
+      }
+
       ClientConfiguration clientConfiguration = new ClientConfiguration();
+      clientConfiguration.setMaxConnections(awsManagedAccount.getMaxConnections());
 
       if (awsManagedAccount.getProxyProtocol() != null) {
         if (awsManagedAccount.getProxyProtocol().equalsIgnoreCase("HTTPS")) {
@@ -77,7 +82,7 @@ public class AwsConfiguration {
           .ifPresent(clientConfiguration::setProxyPort);
       }
 
-      AmazonS3ClientBuilder amazonS3ClientBuilder = AmazonS3ClientBuilder.standard();
+      AmazonS3ClientBuilder amazonS3ClientBuilder = AmazonS3ClientBuilder.standard().withClientConfiguration(clientConfiguration);
       String profileName = awsManagedAccount.getProfileName();
 
       if (!StringUtils.isEmpty(profileName)) {
@@ -118,9 +123,30 @@ public class AwsConfiguration {
               throw new IllegalArgumentException("AWS/S3 account " + name + " is required to specify a rootFolder.");
             }
 
+            if (awsManagedAccount.getMultipartUploadPartSizeBytes() < 5 * 1024 * 1024) {
+              throw new IllegalArgumentException("AWS/S3 account " + name + " must specify a multipartUploadPartSizeBytes of at least 5MB.");
+            }
+
+            if (awsManagedAccount.getMultipartUploadConcurrency() < 1) {
+              throw new IllegalArgumentException("AWS/S3 account " + name + " must specify a positive multipartUploadConcurrency.");
+            }
+
+            if (awsManagedAccount.getRangedDownloadPartSizeBytes() < 1) {
+              throw new IllegalArgumentException("AWS/S3 account " + name + " must specify a positive rangedDownloadPartSizeBytes.");
+            }
+
+            if (awsManagedAccount.getRangedDownloadConcurrency() < 1) {
+              throw new IllegalArgumentException("AWS/S3 account " + name + " must specify a positive rangedDownloadConcurrency.");
+            }
+
             awsNamedAccountCredentialsBuilder.bucket(bucket);
             awsNamedAccountCredentialsBuilder.region(awsManagedAccount.getRegion());
             awsNamedAccountCredentialsBuilder.rootFolder(rootFolder);
+            awsNamedAccountCredentialsBuilder.multipartUploadPartSizeBytes(awsManagedAccount.getMultipartUploadPartSizeBytes());
+            awsNamedAccountCredentialsBuilder.multipartUploadConcurrency(awsManagedAccount.getMultipartUploadConcurrency());
+            awsNamedAccountCredentialsBuilder.rangedDownloadPartSizeBytes(awsManagedAccount.getRangedDownloadPartSizeBytes());
+            awsNamedAccountCredentialsBuilder.rangedDownloadConcurrency(awsManagedAccount.getRangedDownloadConcurrency());
+            awsNamedAccountCredentialsBuilder.shardedKeyLayout(awsManagedAccount.isShardedKeyLayout());
             awsNamedAccountCredentialsBuilder.amazonS3(amazonS3);
           }
 
@@ -16,6 +16,7 @@
 
 package com.netflix.kayenta.aws.config;
 
+import com.amazonaws.ClientConfiguration;
 import com.netflix.kayenta.security.AccountCredentials;
 import lombok.Data;
 
@@ -37,5 +38,21 @@ public class AwsManagedAccount {
   private String proxyPort;
   private String proxyProtocol;
 
+  // Objects that do not fit in a single part are uploaded as multipart uploads, with at most
+  // multipartUploadConcurrency parts in flight at once. S3 requires all parts but the last to be at least 5MB.
+  private int multipartUploadPartSizeBytes = 8 * 1024 * 1024;
+  private int multipartUploadConcurrency = 4;
+
+  // Objects larger than rangedDownloadPartSizeBytes are downloaded as concurrent byte-range GETs, with at most
+  // rangedDownloadConcurrency ranges in flight at once. maxConnections bounds the client's connection pool, and should
+  // allow for the concurrent ranges of every load running at the same time.
+  private int rangedDownloadPartSizeBytes = 8 * 1024 * 1024;
+  private int rangedDownloadConcurrency = 4;
+  private int maxConnections = ClientConfiguration.DEFAULT_MAX_CONNECTIONS;
+
+  // Store objects under a hash-derived folder (rootFolder/group/shard/objectKey/filename) to spread writes across key
+  // prefixes. Objects stored before this was enabled remain readable.
+  private boolean shardedKeyLayout;
+
   private List<AccountCredentials.Type> supportedTypes;
 }
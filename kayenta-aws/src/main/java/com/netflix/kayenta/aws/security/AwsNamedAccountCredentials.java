@@ -43,6 +43,11 @@ public class AwsNamedAccountCredentials implements AccountCredentials<AwsCredent
   private String bucket;
   private String region;
   private String rootFolder;
+  private int multipartUploadPartSizeBytes;
+  private int multipartUploadConcurrency;
+  private int rangedDownloadPartSizeBytes;
+  private int rangedDownloadConcurrency;
+  private boolean shardedKeyLayout;
 
   @Override
   public String getType() {
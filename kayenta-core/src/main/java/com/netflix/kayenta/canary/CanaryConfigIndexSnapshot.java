@@ -0,0 +1,66 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.kayenta.canary;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A copy of one account's by-application canary config index, written to the account's configuration store after each
+ * indexing cycle so that an empty redis can be seeded with it instead of waiting for a full re-index. The index is
+ * stored as gzipped JSON, which Jackson in turn writes as base64.
+ */
+@ToString
+@NoArgsConstructor
+@AllArgsConstructor
+public class CanaryConfigIndexSnapshot {
+
+  public static final String SNAPSHOT_OBJECT_KEY = "canary-config-index-snapshot";
+
+  @Getter
+  private long createdTimestamp;
+
+  @Getter
+  private byte[] compressedMapByApplication;
+
+  public static CanaryConfigIndexSnapshot of(long createdTimestamp,
+                                             Map<String, String> applicationToSerializedCanaryConfigListMap,
+                                             ObjectMapper kayentaObjectMapper) throws IOException {
+    ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+
+    try (OutputStream outputStream = new GZIPOutputStream(byteArrayOutputStream)) {
+      kayentaObjectMapper.writeValue(outputStream, applicationToSerializedCanaryConfigListMap);
+    }
+
+    return new CanaryConfigIndexSnapshot(createdTimestamp, byteArrayOutputStream.toByteArray());
+  }
+
+  public Map<String, String> decompressMapByApplication(ObjectMapper kayentaObjectMapper) throws IOException {
+    try (InputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(compressedMapByApplication))) {
+      return kayentaObjectMapper.readValue(inputStream, new TypeReference<Map<String, String>>() {});
+    }
+  }
+}
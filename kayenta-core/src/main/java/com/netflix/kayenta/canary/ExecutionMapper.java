@@ -22,11 +22,13 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
 import com.netflix.kayenta.canary.orca.CanaryStageNames;
 import com.netflix.kayenta.canary.providers.metrics.QueryConfigUtils;
+import com.netflix.kayenta.canary.results.CanaryResult;
 import com.netflix.kayenta.security.AccountCredentials;
 import com.netflix.kayenta.security.AccountCredentialsRepository;
 import com.netflix.kayenta.security.CredentialsHelper;
 import com.netflix.kayenta.storage.ObjectType;
 import com.netflix.kayenta.storage.StorageService;
+import com.netflix.kayenta.storage.StorageServiceFutures;
 import com.netflix.kayenta.storage.StorageServiceRepository;
 import com.netflix.spectator.api.Id;
 import com.netflix.spectator.api.Registry;
@@ -45,6 +47,7 @@ import javax.validation.constraints.NotNull;
 import java.io.IOException;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -117,6 +120,18 @@ public class ExecutionMapper {
       .orElseThrow(() -> new IllegalArgumentException("Unable to find stage '" + CanaryStageNames.REFID_JUDGE + "' in pipeline ID '" + canaryExecutionId + "'"));
     Map<String, Object> judgeOutputs = judgeStage.getOutputs();
 
+    Boolean isComplete = pipeline.getStatus().isComplete();
+    String pipelineStatus = pipeline.getStatus().toString().toLowerCase();
+
+    // Start loading the result now, so that it is fetched while the rest of the response is assembled.
+    CompletableFuture<CanaryResult> resultFuture = null;
+    if (isComplete && pipelineStatus.equals("succeeded")) {
+      if (judgeOutputs.containsKey("canaryJudgeResultId")) {
+        String canaryJudgeResultId = (String)judgeOutputs.get("canaryJudgeResultId");
+        resultFuture = storageService.loadObjectAsync(storageAccountName, ObjectType.CANARY_RESULT, canaryJudgeResultId);
+      }
+    }
+
     Stage contextStage = pipeline.getStages().stream()
       .filter(stage -> stage.getRefId().equals(CanaryStageNames.REFID_SET_CONTEXT))
       .findFirst()
@@ -155,9 +170,6 @@ public class ExecutionMapper {
       .stream()
       .collect(Collectors.toMap(Stage::getRefId, s -> s.getStatus().toString().toLowerCase()));
 
-    Boolean isComplete = pipeline.getStatus().isComplete();
-    String pipelineStatus = pipeline.getStatus().toString().toLowerCase();
-
     canaryExecutionStatusResponseBuilder
       .stageStatus(stageStatus)
       .complete(isComplete)
@@ -184,11 +196,8 @@ public class ExecutionMapper {
         .endTimeIso(Instant.ofEpochMilli(endTime) + "");
     }
 
-    if (isComplete && pipelineStatus.equals("succeeded")) {
-      if (judgeOutputs.containsKey("canaryJudgeResultId")) {
-        String canaryJudgeResultId = (String)judgeOutputs.get("canaryJudgeResultId");
-        canaryExecutionStatusResponseBuilder.result(storageService.loadObject(storageAccountName, ObjectType.CANARY_RESULT, canaryJudgeResultId));
-      }
+    if (resultFuture != null) {
+      canaryExecutionStatusResponseBuilder.result(StorageServiceFutures.join(resultFuture));
     }
 
     // Propagate the first canary pipeline exception we can locate.
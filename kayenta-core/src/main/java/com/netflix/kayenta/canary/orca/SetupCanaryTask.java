@@ -17,10 +17,10 @@
 package com.netflix.kayenta.canary.orca;
 
 import com.netflix.kayenta.canary.CanaryConfig;
+import com.netflix.kayenta.index.CanaryConfigCache;
 import com.netflix.kayenta.security.AccountCredentials;
 import com.netflix.kayenta.security.AccountCredentialsRepository;
 import com.netflix.kayenta.security.CredentialsHelper;
-import com.netflix.kayenta.storage.ObjectType;
 import com.netflix.kayenta.storage.StorageService;
 import com.netflix.kayenta.storage.StorageServiceRepository;
 import com.netflix.spinnaker.orca.ExecutionStatus;
@@ -40,11 +40,15 @@ public class SetupCanaryTask implements RetryableTask {
 
   private final AccountCredentialsRepository accountCredentialsRepository;
   private final StorageServiceRepository storageServiceRepository;
+  private final CanaryConfigCache canaryConfigCache;
 
   @Autowired
-  public SetupCanaryTask(AccountCredentialsRepository accountCredentialsRepository, StorageServiceRepository storageServiceRepository) {
+  public SetupCanaryTask(AccountCredentialsRepository accountCredentialsRepository,
+                         StorageServiceRepository storageServiceRepository,
+                         CanaryConfigCache canaryConfigCache) {
     this.accountCredentialsRepository = accountCredentialsRepository;
     this.storageServiceRepository = storageServiceRepository;
+    this.canaryConfigCache = canaryConfigCache;
   }
 
   @Override
@@ -79,7 +83,7 @@ public class SetupCanaryTask implements RetryableTask {
         storageServiceRepository
           .getOne(resolvedConfigurationAccountName)
           .orElseThrow(() -> new IllegalArgumentException("No configuration service was configured; unable to load configurations."));
-      CanaryConfig canaryConfig = configurationService.loadObject(resolvedConfigurationAccountName, ObjectType.CANARY_CONFIG, canaryConfigId);
+      CanaryConfig canaryConfig = canaryConfigCache.load(configurationService, resolvedConfigurationAccountName, canaryConfigId);
       outputs = Collections.singletonMap("canaryConfig", canaryConfig);
     }
 
@@ -32,6 +32,7 @@ import com.netflix.spinnaker.kork.jackson.ObjectMapperSubtypeConfigurer;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
@@ -52,6 +53,7 @@ import static com.fasterxml.jackson.databind.DeserializationFeature.FAIL_ON_UNKN
   "com.netflix.kayenta.index.config",
   "com.netflix.kayenta.metrics",
   "com.netflix.kayenta.persistence.config",
+  "com.netflix.kayenta.retention.config",
   "com.netflix.kayenta.retrofit.config"
 })
 public class KayentaConfiguration {
@@ -74,6 +76,12 @@ public class KayentaConfiguration {
     return new MetricSetMixerService();
   }
 
+  @Bean
+  @ConfigurationProperties("kayenta.storage")
+  StorageConfigurationProperties storageConfigurationProperties() {
+    return new StorageConfigurationProperties();
+  }
+
   @Bean
   @ConditionalOnMissingBean(StorageServiceRepository.class)
   StorageServiceRepository storageServiceRepository() {
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.kayenta.config;
+
+import com.netflix.kayenta.storage.ObjectType;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+
+public class StorageConfigurationProperties {
+
+  // Objects of these types are stored in the named account, regardless of which account the caller specified. This
+  // allows short-lived intermediate artifacts (metric set lists and pair lists) to be kept out of durable storage.
+  @Getter
+  @Setter
+  private Map<ObjectType, String> objectTypeAccounts = new EnumMap<>(ObjectType.class);
+
+  // Storage operations that take at least this long are logged.
+  @Getter
+  @Setter
+  private long slowCallThresholdMS = Duration.ofSeconds(5).toMillis();
+
+  // Measuring the serialized size of the objects loaded and stored costs an extra serialization of each object, so it is
+  // off unless asked for.
+  @Getter
+  @Setter
+  private boolean recordSerializedBytes = false;
+}
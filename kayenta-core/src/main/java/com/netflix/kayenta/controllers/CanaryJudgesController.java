@@ -21,6 +21,7 @@ import com.netflix.kayenta.canary.CanaryConfig;
 import com.netflix.kayenta.canary.CanaryJudge;
 import com.netflix.kayenta.canary.CanaryJudgeConfig;
 import com.netflix.kayenta.canary.results.CanaryJudgeResult;
+import com.netflix.kayenta.index.CanaryConfigCache;
 import com.netflix.kayenta.metrics.MetricSetPair;
 import com.netflix.kayenta.security.AccountCredentials;
 import com.netflix.kayenta.security.AccountCredentialsRepository;
@@ -45,14 +46,17 @@ public class CanaryJudgesController {
   private final AccountCredentialsRepository accountCredentialsRepository;
   private final StorageServiceRepository storageServiceRepository;
   private final List<CanaryJudge> canaryJudges;
+  private final CanaryConfigCache canaryConfigCache;
 
   @Autowired
   public CanaryJudgesController(AccountCredentialsRepository accountCredentialsRepository,
                                 StorageServiceRepository storageServiceRepository,
-                                List<CanaryJudge> canaryJudges) {
+                                List<CanaryJudge> canaryJudges,
+                                CanaryConfigCache canaryConfigCache) {
     this.accountCredentialsRepository = accountCredentialsRepository;
     this.storageServiceRepository = storageServiceRepository;
     this.canaryJudges = canaryJudges;
+    this.canaryConfigCache = canaryConfigCache;
   }
 
   @ApiOperation(value = "Retrieve a list of all configured canary judges")
@@ -84,7 +88,7 @@ public class CanaryJudgesController {
         .getOne(resolvedStorageAccountName)
         .orElseThrow(() -> new IllegalArgumentException("No storage service was configured; unable to read metric set pair list from bucket."));
 
-    CanaryConfig canaryConfig = configurationService.loadObject(resolvedConfigurationAccountName, ObjectType.CANARY_CONFIG, canaryConfigId);
+    CanaryConfig canaryConfig = canaryConfigCache.load(configurationService, resolvedConfigurationAccountName, canaryConfigId);
     CanaryJudgeConfig canaryJudgeConfig = canaryConfig.getJudge();
     CanaryJudge canaryJudge = null;
 
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.kayenta.index;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.netflix.kayenta.canary.CanaryConfig;
+import com.netflix.kayenta.security.AccountCredentials;
+import com.netflix.kayenta.security.AccountCredentialsRepository;
+import com.netflix.kayenta.storage.ObjectType;
+import com.netflix.kayenta.storage.StorageService;
+import com.netflix.spectator.api.Id;
+import com.netflix.spectator.api.Registry;
+import lombok.AllArgsConstructor;
+
+import java.util.Map;
+
+/**
+ * Caches canary configs by id, along with the updated timestamp the canary config index had for them when they were
+ * loaded. A cached config is served for as long as the index (including its pending updates, which record every
+ * in-flight or recent store and delete) still has the same updated timestamp for it, so an update or deletion made by
+ * any instance invalidates it. A loaded config is only cached if its own updated timestamp is the indexed one.
+ * Configs the index does not know about, including those of accounts that are not indexed and of configuration stores
+ * that do not maintain the index, are always loaded from the configuration store.
+ *
+ * Cached configs are shared between callers, so they must not be modified.
+ */
+public class CanaryConfigCache {
+
+  private final AccountCredentialsRepository accountCredentialsRepository;
+  private final CanaryConfigIndex canaryConfigIndex;
+  private final Registry registry;
+  private final Cache<String, VersionedCanaryConfig> canaryConfigs;
+
+  private final Id lookupsId;
+
+  public CanaryConfigCache(AccountCredentialsRepository accountCredentialsRepository,
+                           CanaryConfigIndex canaryConfigIndex,
+                           Registry registry,
+                           long maximumSize) {
+    this.accountCredentialsRepository = accountCredentialsRepository;
+    this.canaryConfigIndex = canaryConfigIndex;
+    this.registry = registry;
+    this.canaryConfigs = CacheBuilder.newBuilder().maximumSize(maximumSize).build();
+
+    this.lookupsId = registry.createId("canary.configs.cache.lookups");
+  }
+
+  public CanaryConfig load(StorageService configurationService, String accountName, String canaryConfigId) {
+    AccountCredentials credentials = accountCredentialsRepository
+      .getOne(accountName)
+      .orElseThrow(() -> new IllegalArgumentException("Unable to resolve account " + accountName + "."));
+    String cacheKey = accountName + ":" + canaryConfigId;
+    // The index only has the current version of configs kept in stores that record their updates in it.
+    Object indexedVersion = configurationService.maintainsCanaryConfigIndex() ? getIndexedVersion(credentials, canaryConfigId) : null;
+
+    if (indexedVersion == null) {
+      canaryConfigs.invalidate(cacheKey);
+      registry.counter(lookupsId.withTag("result", "unindexed")).increment();
+
+      return configurationService.loadObject(accountName, ObjectType.CANARY_CONFIG, canaryConfigId);
+    }
+
+    VersionedCanaryConfig cachedCanaryConfig = canaryConfigs.getIfPresent(cacheKey);
+
+    if (cachedCanaryConfig != null && cachedCanaryConfig.version.equals(indexedVersion)) {
+      registry.counter(lookupsId.withTag("result", "hit")).increment();
+
+      return cachedCanaryConfig.canaryConfig;
+    }
+
+    registry.counter(lookupsId.withTag("result", "miss")).increment();
+
+    CanaryConfig canaryConfig = configurationService.loadObject(accountName, ObjectType.CANARY_CONFIG, canaryConfigId);
+
+    // A store records the new version in the index before uploading the config, so a load in between reads the
+    // previous config; only a config that is itself the indexed version is cached. If the config was updated again
+    // while it was being loaded, the index will have moved on and the next lookup will load it again.
+    if (indexedVersion instanceof Number
+        && canaryConfig.getUpdatedTimestamp() != null
+        && ((Number) indexedVersion).longValue() == canaryConfig.getUpdatedTimestamp()) {
+      canaryConfigs.put(cacheKey, new VersionedCanaryConfig(indexedVersion, canaryConfig));
+    }
+
+    return canaryConfig;
+  }
+
+  private Object getIndexedVersion(AccountCredentials credentials, String canaryConfigId) {
+    Map<String, Object> canaryConfigSummary;
+
+    try {
+      canaryConfigSummary = canaryConfigIndex.getSummaryFromId(credentials, canaryConfigId);
+    } catch (IllegalArgumentException e) {
+      // The index is not ready, or this account is not indexed.
+      return null;
+    }
+
+    return canaryConfigSummary != null ? canaryConfigSummary.get("updatedTimestamp") : null;
+  }
+
+  @AllArgsConstructor
+  private static class VersionedCanaryConfig {
+    private final Object version;
+    private final CanaryConfig canaryConfig;
+  }
+}
@@ -21,136 +21,96 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.netflix.kayenta.index.config.CanaryConfigIndexAction;
 import com.netflix.kayenta.security.AccountCredentials;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.lang.StringUtils;
-import redis.clients.jedis.Jedis;
-import redis.clients.jedis.JedisPool;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.io.IOException;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
 
 import static com.netflix.kayenta.index.CanaryConfigIndexingAgent.*;
 
+/**
+ * Lookups are served from an in-process materialized copy of each account's index (see MaterializedCanaryConfigIndex).
+ * Every change this class makes to a pending updates queue increments the account's index version and is passed on to
+ * every other instance by the backend, so every instance sees the changes in queue order and can apply them
+ * incrementally. Lookups made on the instance that made a change see it immediately.
+ *
+ * Lookups by name and by id, which the storage services make on every store and delete, go to the backend instead so
+ * that they also see changes other instances made a moment ago. Alongside the by-application map, the persisted index
+ * has hashes from (application, name) to id and from id to summary, all three replaced together; a lookup reads the
+ * relevant fields of those plus the (short) pending updates queue.
+ */
 @Slf4j
 public class CanaryConfigIndex {
 
-  private final JedisPool jedisPool;
+  private final CanaryConfigIndexBackend backend;
   private final ObjectMapper kayentaObjectMapper;
+  private final long materializedIndexMaxAgeMS;
+  private final Map<String, MaterializedCanaryConfigIndex> materializedIndexes = new ConcurrentHashMap<>();
 
-  public CanaryConfigIndex(JedisPool jedisPool,
+  public CanaryConfigIndex(CanaryConfigIndexBackend backend,
                            ObjectMapper kayentaObjectMapper) {
-    this.jedisPool = jedisPool;
+    this(backend, kayentaObjectMapper, Duration.ofMinutes(1).toMillis());
+  }
+
+  public CanaryConfigIndex(CanaryConfigIndexBackend backend,
+                           ObjectMapper kayentaObjectMapper,
+                           long materializedIndexMaxAgeMS) {
+    this.backend = backend;
     this.kayentaObjectMapper = kayentaObjectMapper;
+    this.materializedIndexMaxAgeMS = materializedIndexMaxAgeMS;
   }
 
-  // Build a list of canary config summaries, including the current persisted index plus entries in the pending updates queue.
-  public Set<Map<String, Object>> getCanaryConfigSummarySet(AccountCredentials credentials, List<String> applications) {
-    String accountName = credentials.getName();
-    String mapByApplicationKey = "kayenta:" + credentials.getType() + ":" + accountName + MAP_BY_APPLICATION_KEY_SUFFIX;
-    Set<Map<String, Object>> canaryConfigSummarySet = new HashSet<>();
-
-    try (Jedis jedis = jedisPool.getResource()) {
-      if (jedis.exists(mapByApplicationKey)) {
-        if (applications != null && applications.size() > 0) {
-          // If any applications were specified, populate the response with all of the canary configs scoped to those applications.
-          for (String application : applications) {
-            String appScopedCanaryConfigListJson = jedis.hget(mapByApplicationKey, application);
-
-            populateCanaryConfigSummarySet(mapByApplicationKey, canaryConfigSummarySet, appScopedCanaryConfigListJson);
-          }
-        } else {
-          // No applications were specified so populate the response with all persisted canary configs.
-          List<String> allAppScopedCanaryConfigListJson = jedis.hvals(mapByApplicationKey);
+  /**
+   * Listen for changes made by other instances. Until this is called, and whenever changes may have been missed, copies
+   * of the index are only refreshed once they reach their maximum age.
+   */
+  @PostConstruct
+  public void subscribe() {
+    backend.subscribe(new CanaryConfigIndexBackend.IndexUpdateListener() {
+      @Override
+      public void onIndexUpdate(String indexKey, long version, String pendingUpdate) {
+        CanaryConfigIndex.this.onIndexUpdate(indexKey, version, pendingUpdate);
+      }
 
-          for (String appScopedCanaryConfigListJson : allAppScopedCanaryConfigListJson) {
-            populateCanaryConfigSummarySet(mapByApplicationKey, canaryConfigSummarySet, appScopedCanaryConfigListJson);
-          }
-        }
-      } else {
-        throw new IllegalArgumentException("Canary config index not ready.");
+      @Override
+      public void onUpdatesMissed() {
+        materializedIndexes.values().forEach(MaterializedCanaryConfigIndex::markStale);
       }
+    });
+  }
 
-      populateWithPendingUpdates(credentials, accountName, jedis, canaryConfigSummarySet, applications);
-    }
+  @PreDestroy
+  public void unsubscribe() {
+    backend.unsubscribe();
+  }
 
-    return canaryConfigSummarySet;
+  // Build a list of canary config summaries, including the current persisted index plus entries in the pending updates queue.
+  public Set<Map<String, Object>> getCanaryConfigSummarySet(AccountCredentials credentials, List<String> applications) {
+    return getMaterializedIndex(credentials).getCanaryConfigSummarySet(applications);
   }
 
-  // Populate the response with the canary configs scoped to the application, while deduping based on canary config id.
-  private void populateCanaryConfigSummarySet(String mapByApplicationKey, Set<Map<String, Object>> canaryConfigSummarySet, String appScopedCanaryConfigSetJson) {
-    if (!StringUtils.isEmpty(appScopedCanaryConfigSetJson)) {
-      if (appScopedCanaryConfigSetJson.equals(NO_INDEXED_CONFIGS_SENTINEL_VALUE)) {
-        return;
-      }
+  /**
+   * One page of the summaries of the canary configs matching a search query, ordered by name. See
+   * MaterializedCanaryConfigIndex.search() for how queries are matched.
+   */
+  public List<Map<String, Object>> searchCanaryConfigSummaries(AccountCredentials credentials, String query, List<String> applications, int offset, int limit) {
+    if (offset < 0) {
+      throw new IllegalArgumentException("Offset must not be negative.");
+    } else if (limit < 1) {
+      throw new IllegalArgumentException("Limit must be at least 1.");
+    }
 
-      try {
-        List<Map<String, Object>> appScopedCanaryConfigList = kayentaObjectMapper.readValue(appScopedCanaryConfigSetJson, new TypeReference<List<Map<String, Object>>>() {});
+    List<Map<String, Object>> canaryConfigSummaries = getMaterializedIndex(credentials).search(query, applications);
 
-        for (Map<String, Object> canaryConfigSummary : appScopedCanaryConfigList) {
-          String canaryConfigId = (String)canaryConfigSummary.get("id");
-          boolean alreadyInList =
-            canaryConfigSummarySet
-              .stream()
-              .filter(it -> it.get("id").equals(canaryConfigId))
-              .findFirst()
-              .isPresent();
-
-          if (!alreadyInList) {
-            canaryConfigSummarySet.add(canaryConfigSummary);
-          }
-        }
-      } catch (IOException e) {
-        throw new IllegalArgumentException("Unable to parse index '" + mapByApplicationKey + "': " + e.getMessage(), e);
-      }
+    if (offset >= canaryConfigSummaries.size()) {
+      return Collections.emptyList();
     }
-  }
 
-  // Populate the response with canary config summaries from the pending updates queue.
-  private void populateWithPendingUpdates(AccountCredentials credentials, String accountName, Jedis jedis, Set<Map<String, Object>> canaryConfigSummarySet, List<String> applications) {
-    String pendingUpdatesKey = buildMapPendingUpdatesByApplicationKey(credentials, accountName);
-
-    if (jedis.exists(pendingUpdatesKey)) {
-      List<String> pendingUpdatesJsonList = jedis.lrange(pendingUpdatesKey, 0, -1);
-
-      if (pendingUpdatesJsonList != null && pendingUpdatesJsonList.size() > 0) {
-        for (String pendingUpdateCanaryConfigSummaryJson : pendingUpdatesJsonList) {
-          try {
-            String[] updateTokens = pendingUpdateCanaryConfigSummaryJson.split(":", 5);
-            CanaryConfigIndexAction action = CanaryConfigIndexAction.valueOf(updateTokens[1]);
-            String startOrFinish = updateTokens[2];
-
-            // In-flight operations are considered already completed as far as the index is concerned.
-            if (startOrFinish.equals("start")) {
-              pendingUpdateCanaryConfigSummaryJson = updateTokens[4];
-
-              Map<String, Object> pendingUpdateCanaryConfigSummary = kayentaObjectMapper.readValue(pendingUpdateCanaryConfigSummaryJson, new TypeReference<Map<String, Object>>() {});
-              String pendingUpdateCanaryConfigId = (String)pendingUpdateCanaryConfigSummary.get("id");
-              Map<String, Object> existingCanaryConfigSummary =
-                canaryConfigSummarySet
-                  .stream()
-                  .filter(it -> it.get("id").equals(pendingUpdateCanaryConfigId))
-                  .findFirst()
-                  .orElse(null);
-
-              // Remove any existing matching summary from the response.
-              if (existingCanaryConfigSummary != null) {
-                canaryConfigSummarySet.remove(existingCanaryConfigSummary);
-              }
-
-              // If the pending update represents an update action, as opposed to a delete, populate the response with the updated summary.
-              if (action == CanaryConfigIndexAction.UPDATE) {
-                // Populate the response with the canary config summary if either no applications were specified in the request or if the canary config is scoped to at
-                // least one of the specified applications.
-                if (applications == null || applications.size() == 0 || haveCommonElements(applications, (List<String>)pendingUpdateCanaryConfigSummary.get("applications"))) {
-                  canaryConfigSummarySet.add(pendingUpdateCanaryConfigSummary);
-                }
-              }
-            }
-          } catch (IOException e) {
-            log.error("Problem deserializing pendingUpdateCanaryConfigSummaryJson -> {}: {}", pendingUpdateCanaryConfigSummaryJson, e);
-          }
-        }
-      }
-    }
+    return new ArrayList<>(canaryConfigSummaries.subList(offset, Math.min(offset + limit, canaryConfigSummaries.size())));
   }
 
   // Determine if there is at least one common element between these two lists.
@@ -162,74 +122,225 @@ public class CanaryConfigIndex {
   }
 
   public String getIdFromName(AccountCredentials credentials, String canaryConfigName, List<String> applications) {
-    Set<Map<String, Object>> canaryConfigSummarySet = getCanaryConfigSummarySet(credentials, applications);
-
-    if (canaryConfigSummarySet != null) {
-      Map<String, Object> canaryConfigSummary =
-        canaryConfigSummarySet
-          .stream()
-          .filter(it -> it.get("name").equals(canaryConfigName))
-          .findFirst()
-          .orElse(null);
-
-      if (canaryConfigSummary != null) {
-        return (String)canaryConfigSummary.get("id");
+    // There is no by-name hash across all applications, so unscoped lookups are served from the materialized copy.
+    if (applications == null || applications.isEmpty()) {
+      return getMaterializedIndex(credentials).getIdFromName(canaryConfigName);
+    }
+
+    List<String> applicationAndNameFields =
+      applications.stream().map(application -> buildApplicationAndNameField(application, canaryConfigName)).collect(Collectors.toList());
+    CanaryConfigIndexBackend.IndexRead indexRead =
+      backend.readFields(buildIndexKey(credentials), ID_BY_APPLICATION_AND_NAME_KEY_SUFFIX, applicationAndNameFields);
+
+    ensureIndexExists(indexRead.isIndexExists());
+
+    List<String> indexedCanaryConfigIds = indexRead.getValues();
+    Map<String, Map<String, Object>> pendingCanaryConfigSummaries = getPendingCanaryConfigSummaries(indexRead.getPendingUpdates());
+
+    for (Map.Entry<String, Map<String, Object>> pendingCanaryConfigSummaryEntry : pendingCanaryConfigSummaries.entrySet()) {
+      Map<String, Object> pendingCanaryConfigSummary = pendingCanaryConfigSummaryEntry.getValue();
+
+      if (pendingCanaryConfigSummary != null
+          && canaryConfigName.equals(pendingCanaryConfigSummary.get("name"))
+          && haveCommonElements(applications, (List<String>)pendingCanaryConfigSummary.get("applications"))) {
+        return pendingCanaryConfigSummaryEntry.getKey();
       }
     }
 
-    return null;
+    // A pending update of an indexed config supersedes its indexed name and applications.
+    return indexedCanaryConfigIds
+      .stream()
+      .filter(canaryConfigId -> canaryConfigId != null && !pendingCanaryConfigSummaries.containsKey(canaryConfigId))
+      .findFirst()
+      .orElse(null);
   }
 
   public Map<String, Object> getSummaryFromId(AccountCredentials credentials, String canaryConfigId) {
-    Set<Map<String, Object>> canaryConfigSummarySet = getCanaryConfigSummarySet(credentials, null);
-
-    if (canaryConfigSummarySet != null) {
-      return canaryConfigSummarySet
-        .stream()
-        .filter(it -> it.get("id").equals(canaryConfigId))
-        .findFirst()
-        .orElse(null);
+    CanaryConfigIndexBackend.IndexRead indexRead =
+      backend.readFields(buildIndexKey(credentials), SUMMARY_BY_ID_KEY_SUFFIX, Collections.singletonList(canaryConfigId));
+
+    ensureIndexExists(indexRead.isIndexExists());
+
+    String indexedCanaryConfigSummaryJson = indexRead.getValues().get(0);
+    Map<String, Map<String, Object>> pendingCanaryConfigSummaries = getPendingCanaryConfigSummaries(indexRead.getPendingUpdates());
+
+    if (pendingCanaryConfigSummaries.containsKey(canaryConfigId)) {
+      return pendingCanaryConfigSummaries.get(canaryConfigId);
+    }
+
+    if (indexedCanaryConfigSummaryJson == null) {
+      return null;
     }
 
-    return null;
+    try {
+      return kayentaObjectMapper.readValue(indexedCanaryConfigSummaryJson, new TypeReference<Map<String, Object>>() {});
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Unable to parse summary of canary config " + canaryConfigId + ": " + e.getMessage(), e);
+    }
   }
 
-  public long getRedisTime() {
-    try (Jedis jedis = jedisPool.getResource()) {
-      List<String> redisTimeList = jedis.time();
+  /**
+   * Replace the persisted index of an account, along with its by-name and by-id hashes, atomically, and tell
+   * every instance to rebuild its copy. An empty map is recorded as an index with no canary configs.
+   */
+  public void replaceIndex(AccountCredentials credentials, Map<String, String> applicationToSerializedCanaryConfigListMap, String currentInstanceId) {
+    Map<String, String> mapByApplication = new HashMap<>(applicationToSerializedCanaryConfigListMap);
+    Map<String, String> idByApplicationAndName = new HashMap<>();
+    Map<String, String> summaryById = new HashMap<>();
+
+    for (String appScopedCanaryConfigListJson : applicationToSerializedCanaryConfigListMap.values()) {
+      if (appScopedCanaryConfigListJson.equals(NO_INDEXED_CONFIGS_SENTINEL_VALUE)) {
+        continue;
+      }
+
+      try {
+        List<Map<String, Object>> appScopedCanaryConfigList = kayentaObjectMapper.readValue(appScopedCanaryConfigListJson, new TypeReference<List<Map<String, Object>>>() {});
+
+        for (Map<String, Object> canaryConfigSummary : appScopedCanaryConfigList) {
+          String canaryConfigId = (String)canaryConfigSummary.get("id");
+          List<String> applications = (List<String>)canaryConfigSummary.get("applications");
+
+          Map<String, Object> summaryWithoutSearchTerms = new HashMap<>(canaryConfigSummary);
 
-      return Long.parseLong(redisTimeList.get(0)) * 1000 + Long.parseLong(redisTimeList.get(1)) / 1000;
+          summaryWithoutSearchTerms.remove(CanaryConfigSearchTerms.SEARCH_TERMS_KEY);
+          summaryWithoutSearchTerms.remove(OBJECT_UPDATED_TIMESTAMP_KEY);
+          summaryById.put(canaryConfigId, kayentaObjectMapper.writeValueAsString(summaryWithoutSearchTerms));
+
+          if (applications != null) {
+            for (String application : applications) {
+              idByApplicationAndName.put(buildApplicationAndNameField(application, (String)canaryConfigSummary.get("name")), canaryConfigId);
+            }
+          }
+        }
+      } catch (IOException e) {
+        throw new IllegalArgumentException("Unable to parse index of account " + credentials.getName() + ": " + e.getMessage(), e);
+      }
     }
+
+    // We do this so we can distinguish between a completely empty index and an unavailable/missing index.
+    if (mapByApplication.isEmpty()) {
+      mapByApplication.put("not-a-real-application:" + currentInstanceId, NO_INDEXED_CONFIGS_SENTINEL_VALUE);
+    }
+
+    Map<String, Map<String, String>> hashesByKeySuffix = new HashMap<>();
+
+    hashesByKeySuffix.put(MAP_BY_APPLICATION_KEY_SUFFIX, mapByApplication);
+    hashesByKeySuffix.put(ID_BY_APPLICATION_AND_NAME_KEY_SUFFIX, idByApplicationAndName);
+    hashesByKeySuffix.put(SUMMARY_BY_ID_KEY_SUFFIX, summaryById);
+    backend.replaceIndex(buildIndexKey(credentials), hashesByKeySuffix);
+
+    invalidate(credentials);
+  }
+
+  // The backend's clock, which every instance agrees on; with the redis backend, the redis server's clock.
+  public long getRedisTime() {
+    return backend.getTime();
   }
 
   public void startPendingUpdate(AccountCredentials credentials, String updatedTimestamp, CanaryConfigIndexAction action, String correlationId, String canaryConfigSummaryJson) {
-    String accountName = credentials.getName();
-    String mapPendingUpdatesByApplicationKey = buildMapPendingUpdatesByApplicationKey(credentials, accountName);
+    pushPendingUpdate(credentials, updatedTimestamp + ":" + action + ":start:" + correlationId + ":" + canaryConfigSummaryJson);
+  }
+
+  public void finishPendingUpdate(AccountCredentials credentials, CanaryConfigIndexAction action, String correlationId) {
+    pushPendingUpdate(credentials, getRedisTime() + ":" + action + ":finish:" + correlationId);
+  }
+
+  public void removeFailedPendingUpdate(AccountCredentials credentials, String updatedTimestamp, CanaryConfigIndexAction action, String correlationId, String canaryConfigSummaryJson) {
+    flushPendingUpdates(credentials, Collections.singletonList(updatedTimestamp + ":" + action + ":start:" + correlationId + ":" + canaryConfigSummaryJson));
+  }
+
+  /**
+   * Remove entries from the pending updates queue, all in one round trip, and tell every instance to rebuild its copy of
+   * this account's index.
+   */
+  public void flushPendingUpdates(AccountCredentials credentials, Collection<String> pendingUpdates) {
+    String indexKey = buildIndexKey(credentials);
+    long version = backend.removePendingUpdates(indexKey, pendingUpdates);
 
-    try (Jedis jedis = jedisPool.getResource()) {
-      jedis.rpush(mapPendingUpdatesByApplicationKey, updatedTimestamp + ":" + action + ":start:" + correlationId + ":" + canaryConfigSummaryJson);
+    onIndexUpdate(indexKey, version, null);
+  }
+
+  /**
+   * Tell every instance to rebuild its copy of this account's index, after the persisted index was rewritten.
+   */
+  public void invalidate(AccountCredentials credentials) {
+    flushPendingUpdates(credentials, Collections.emptyList());
+  }
+
+  private void pushPendingUpdate(AccountCredentials credentials, String pendingUpdate) {
+    String indexKey = buildIndexKey(credentials);
+    long version = backend.pushPendingUpdate(indexKey, pendingUpdate);
+
+    onIndexUpdate(indexKey, version, pendingUpdate);
+  }
+
+  // The summaries recorded by the start entries of the pending updates queue, by canary config id, with later entries
+  // superseding earlier ones. Deleted canary configs map to null.
+  private Map<String, Map<String, Object>> getPendingCanaryConfigSummaries(Collection<String> pendingUpdates) {
+    Map<String, Map<String, Object>> pendingCanaryConfigSummaries = new LinkedHashMap<>();
+
+    for (String pendingUpdate : pendingUpdates) {
+      try {
+        String[] updateTokens = pendingUpdate.split(":", 5);
+
+        // In-flight operations are considered already completed as far as the index is concerned.
+        if (updateTokens[2].equals("start")) {
+          CanaryConfigIndexAction action = CanaryConfigIndexAction.valueOf(updateTokens[1]);
+          Map<String, Object> pendingCanaryConfigSummary = kayentaObjectMapper.readValue(updateTokens[4], new TypeReference<Map<String, Object>>() {});
+
+          pendingCanaryConfigSummary.remove(CanaryConfigSearchTerms.SEARCH_TERMS_KEY);
+
+          pendingCanaryConfigSummaries.put((String)pendingCanaryConfigSummary.get("id"), action == CanaryConfigIndexAction.UPDATE ? pendingCanaryConfigSummary : null);
+        }
+      } catch (IOException e) {
+        log.error("Problem deserializing pendingUpdateCanaryConfigSummaryJson -> {}: {}", pendingUpdate, e);
+      }
     }
+
+    return pendingCanaryConfigSummaries;
   }
 
-  public void finishPendingUpdate(AccountCredentials credentials, CanaryConfigIndexAction action, String correlationId) {
-    String accountName = credentials.getName();
-    String mapPendingUpdatesByApplicationKey = buildMapPendingUpdatesByApplicationKey(credentials, accountName);
+  private static void ensureIndexExists(boolean indexExists) {
+    if (!indexExists) {
+      throw new IllegalArgumentException("Canary config index not ready.");
+    }
+  }
+
+  private static String buildApplicationAndNameField(String application, String canaryConfigName) {
+    return application + ":" + canaryConfigName;
+  }
 
-    try (Jedis jedis = jedisPool.getResource()) {
-      jedis.rpush(mapPendingUpdatesByApplicationKey, getRedisTime() + ":" + action + ":finish:" + correlationId);
+  private void onIndexUpdate(String indexKey, long version, String pendingUpdate) {
+    MaterializedCanaryConfigIndex materializedIndex = materializedIndexes.get(indexKey);
+
+    // There is nothing to keep up to date until this instance has looked something up in the account's index.
+    if (materializedIndex != null) {
+      materializedIndex.onIndexUpdate(version, pendingUpdate);
     }
   }
 
-  public void removeFailedPendingUpdate(AccountCredentials credentials, String updatedTimestamp, CanaryConfigIndexAction action, String correlationId, String canaryConfigSummaryJson) {
-    String accountName = credentials.getName();
-    String mapPendingUpdatesByApplicationKey = buildMapPendingUpdatesByApplicationKey(credentials, accountName);
+  private MaterializedCanaryConfigIndex getMaterializedIndex(AccountCredentials credentials) {
+    String indexKey = buildIndexKey(credentials);
+    String mapByApplicationKey = indexKey + MAP_BY_APPLICATION_KEY_SUFFIX;
+    MaterializedCanaryConfigIndex materializedIndex =
+      materializedIndexes.computeIfAbsent(indexKey, k -> new MaterializedCanaryConfigIndex(mapByApplicationKey, kayentaObjectMapper));
+
+    // Concurrent lookups wait for a single rebuild rather than each reading the whole index from the backend. Holding the
+    // monitor also holds back updates published after the snapshot is read until it has been applied.
+    synchronized (materializedIndex) {
+      long nowMS = System.currentTimeMillis();
 
-    try (Jedis jedis = jedisPool.getResource()) {
-      jedis.lrem(mapPendingUpdatesByApplicationKey, 1, updatedTimestamp + ":" + action + ":start:" + correlationId + ":" + canaryConfigSummaryJson);
+      if (materializedIndex.needsRebuild(nowMS, materializedIndexMaxAgeMS)) {
+        CanaryConfigIndexBackend.IndexRead indexRead = backend.readIndex(indexKey);
+
+        materializedIndex.rebuild(indexRead.getVersion(), indexRead.getValues(), indexRead.getPendingUpdates(), nowMS);
+      }
     }
+
+    return materializedIndex;
   }
 
-  private String buildMapPendingUpdatesByApplicationKey(AccountCredentials credentials, String accountName) {
-    return "kayenta:" + credentials.getType() + ":" + accountName + PENDING_UPDATES_KEY_SUFFIX;
+  private static String buildIndexKey(AccountCredentials credentials) {
+    return "kayenta:" + credentials.getType() + ":" + credentials.getName();
   }
 }
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.kayenta.index;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Where canary config indexes are kept. Each account's index is addressed by its index key and consists of a few hashes
+ * (the by-application map plus the hashes derived from it, each named by a key suffix), an index version, and the
+ * pending updates queue. Every change to the queue increments the version, and every read returns a consistent view.
+ *
+ * The backend also coordinates indexing between instances: each account's index is only rewritten by the instance
+ * holding its indexing lease, so instances can index different accounts at the same time.
+ */
+public interface CanaryConfigIndexBackend {
+
+  interface IndexUpdateListener {
+
+    // A pending update is null when the index changed in some other way, and the listener should rebuild its copy.
+    void onIndexUpdate(String indexKey, long version, String pendingUpdate);
+
+    // Updates made by other instances may have been missed, e.g. while a subscription was being re-established.
+    void onUpdatesMissed();
+  }
+
+  @AllArgsConstructor
+  @Getter
+  class IndexRead {
+
+    private final boolean indexExists;
+
+    private final long version;
+
+    private final List<String> values;
+
+    private final Collection<String> pendingUpdates;
+  }
+
+  /**
+   * The current time in milliseconds, as agreed on by every instance sharing the backend.
+   */
+  long getTime();
+
+  boolean indexExists(String indexKey);
+
+  /**
+   * Every value of the by-application map, along with the version and the pending updates queue, in queue order.
+   */
+  IndexRead readIndex(String indexKey);
+
+  /**
+   * The values of the given fields of one of the index's hashes (null where there is no such field), along with the
+   * version and the pending updates queue, in queue order.
+   */
+  IndexRead readFields(String indexKey, String hashKeySuffix, List<String> fields);
+
+  /**
+   * Atomically replace all of the index's hashes. Empty hashes are removed.
+   */
+  void replaceIndex(String indexKey, Map<String, Map<String, String>> hashesByKeySuffix);
+
+  /**
+   * Append to the pending updates queue, and tell other instances about it.
+   *
+   * @return the new index version
+   */
+  long pushPendingUpdate(String indexKey, String pendingUpdate);
+
+  /**
+   * Remove entries from the pending updates queue, if any are given, and tell other instances that the index changed.
+   *
+   * @return the new index version
+   */
+  long removePendingUpdates(String indexKey, Collection<String> pendingUpdates);
+
+  void subscribe(IndexUpdateListener listener);
+
+  void unsubscribe();
+
+  /**
+   * Take the indexing lease of an index, unless another instance holds it and is still recording heartbeats. The lease
+   * expires after leaseTTLSec even if it is never released.
+   */
+  boolean tryAcquireIndexingLease(String indexKey, String instanceId, int leaseTTLSec);
+
+  /**
+   * Give up the indexing lease of an index, if the given instance still holds it.
+   */
+  void releaseIndexingLease(String indexKey, String instanceId);
+
+  void recordHeartbeat(String instanceId);
+}
@@ -17,268 +17,434 @@
 package com.netflix.kayenta.index;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ImmutableMap;
 import com.netflix.kayenta.canary.CanaryConfig;
+import com.netflix.kayenta.canary.CanaryConfigIndexSnapshot;
 import com.netflix.kayenta.index.config.IndexConfigurationProperties;
 import com.netflix.kayenta.security.AccountCredentials;
 import com.netflix.kayenta.security.AccountCredentialsRepository;
 import com.netflix.kayenta.security.CredentialsHelper;
 import com.netflix.kayenta.storage.ObjectType;
 import com.netflix.kayenta.storage.StorageService;
+import com.netflix.kayenta.storage.StorageServiceBatches;
 import com.netflix.kayenta.storage.StorageServiceRepository;
+import com.netflix.spectator.api.Id;
+import com.netflix.spectator.api.Registry;
 import com.netflix.spinnaker.kork.web.exceptions.NotFoundException;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.boot.actuate.health.AbstractHealthIndicator;
 import org.springframework.boot.actuate.health.Health;
 import org.springframework.scheduling.annotation.Scheduled;
-import redis.clients.jedis.Jedis;
-import redis.clients.jedis.JedisPool;
-import redis.clients.jedis.exceptions.JedisException;
 
+import java.io.IOException;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Slf4j
 public class CanaryConfigIndexingAgent extends AbstractHealthIndicator {
 
-  public static final String INDEXING_INSTANCE_KEY = "kayenta:indexing-instance";
+  public static final String INDEXING_LEASE_KEY_SUFFIX = ":canaryConfig:indexing-instance";
   public static final String HEARTBEAT_KEY_PREFIX = "kayenta:heartbeat:";
-  public static final String PENDING_UPDATES_KEY_SUFFIX = ":canaryConfig:pending-updates";
+  public static final String PENDING_UPDATES_KEY_SUFFIX = ":canaryConfig:pending-updates-by-version";
   public static final String MAP_BY_APPLICATION_KEY_SUFFIX = ":canaryConfig:by-application";
+  public static final String INDEX_VERSION_KEY_SUFFIX = ":canaryConfig:index-version";
+  public static final String ID_BY_APPLICATION_AND_NAME_KEY_SUFFIX = ":canaryConfig:id-by-application-and-name";
+  public static final String SUMMARY_BY_ID_KEY_SUFFIX = ":canaryConfig:summary-by-id";
   public static final String NO_INDEXED_CONFIGS_SENTINEL_VALUE = "[\"no-indexed-canary-configs\"]";
+  // The updated timestamp the configuration store listed for a config when it was indexed, which is what a re-index
+  // compares against to find changed configs; the indexed updatedTimestamp is the config's own.
+  public static final String OBJECT_UPDATED_TIMESTAMP_KEY = "objectUpdatedTimestamp";
 
   private final String currentInstanceId;
-  private final JedisPool jedisPool;
+  private final CanaryConfigIndexBackend canaryConfigIndexBackend;
   private final AccountCredentialsRepository accountCredentialsRepository;
   private final StorageServiceRepository storageServiceRepository;
   private final ObjectMapper kayentaObjectMapper;
   private final CanaryConfigIndex canaryConfigIndex;
   private final IndexConfigurationProperties indexConfigurationProperties;
+  private final Registry registry;
+
+  private final Id cycleTimeId;
+  private final Id scannedId;
+  private final Id loadedId;
+  private final Id leasedElsewhereId;
 
   private int cyclesInitiated = 0;
   private int cyclesCompleted = 0;
+  private volatile boolean snapshotsRestored = false;
 
   public CanaryConfigIndexingAgent(String currentInstanceId,
-                                   JedisPool jedisPool,
+                                   CanaryConfigIndexBackend canaryConfigIndexBackend,
                                    AccountCredentialsRepository accountCredentialsRepository,
                                    StorageServiceRepository storageServiceRepository,
                                    ObjectMapper kayentaObjectMapper,
                                    CanaryConfigIndex canaryConfigIndex,
-                                   IndexConfigurationProperties indexConfigurationProperties) {
+                                   IndexConfigurationProperties indexConfigurationProperties,
+                                   Registry registry) {
     this.currentInstanceId = currentInstanceId;
-    this.jedisPool = jedisPool;
+    this.canaryConfigIndexBackend = canaryConfigIndexBackend;
     this.accountCredentialsRepository = accountCredentialsRepository;
     this.storageServiceRepository = storageServiceRepository;
     this.kayentaObjectMapper = kayentaObjectMapper;
     this.canaryConfigIndex = canaryConfigIndex;
     this.indexConfigurationProperties = indexConfigurationProperties;
+    this.registry = registry;
+
+    this.cycleTimeId = registry.createId("canary.configs.indexing.cycleTime");
+    this.scannedId = registry.createId("canary.configs.indexing.scanned");
+    this.loadedId = registry.createId("canary.configs.indexing.loaded");
+    this.leasedElsewhereId = registry.createId("canary.configs.indexing.leasedElsewhere");
   }
 
   @Scheduled(fixedDelayString = "#{@indexConfigurationProperties.heartbeatIntervalMS}")
   public void heartbeat() {
-    try (Jedis jedis = jedisPool.getResource()) {
-      long timestamp = canaryConfigIndex.getRedisTime();
-
-      jedis.setex(HEARTBEAT_KEY_PREFIX + currentInstanceId, 15, timestamp + "");
-    }
+    canaryConfigIndexBackend.recordHeartbeat(currentInstanceId);
   }
 
   @Scheduled(initialDelayString = "#{@indexConfigurationProperties.indexingInitialDelayMS}", fixedDelayString = "#{@indexConfigurationProperties.indexingIntervalMS}")
   public void indexCanaryConfigs() {
     cyclesInitiated++;
 
-    int indexingLockTTLSec = indexConfigurationProperties.getIndexingLockTTLSec();
+    int indexingLeaseTTLSec = indexConfigurationProperties.getIndexingLockTTLSec();
     long staleThresholdMS = indexConfigurationProperties.getPendingUpdateStaleEntryThresholdMS();
 
-    try (Jedis jedis = jedisPool.getResource()) {
+    try {
       long startTime = System.currentTimeMillis();
-      String acquiredIndexingLock = jedis.set(INDEXING_INSTANCE_KEY, currentInstanceId, "NX", "EX", indexingLockTTLSec);
+      int indexedAccountCount = 0;
 
-      if (!"OK".equals(acquiredIndexingLock)) {
-        String lockHolderInstanceId = jedis.get(INDEXING_INSTANCE_KEY);
+      Set<AccountCredentials> accountCredentialsSet =
+        CredentialsHelper.getAllAccountsOfType(AccountCredentials.Type.CONFIGURATION_STORE, accountCredentialsRepository);
+      Map<AccountCredentials, StorageService> configurationServices = new LinkedHashMap<>();
 
-        if (lockHolderInstanceId != null) {
-          // If the instance holding the indexing lock is not showing a heartbeat, we can appropriate the lock.
-          if (!jedis.exists(HEARTBEAT_KEY_PREFIX + lockHolderInstanceId)) {
-            log.info("Purloining indexing lock from instance " + lockHolderInstanceId + " because that instance has no heartbeat.");
+      // Seed any missing indexes from their snapshots before scanning anything, so that every account is usable within
+      // seconds of the index backend being emptied; the scan below then only needs to catch up on what changed since.
+      for (AccountCredentials credentials : accountCredentialsSet) {
+        String accountName = credentials.getName();
 
-            acquiredIndexingLock = jedis.setex(INDEXING_INSTANCE_KEY, indexingLockTTLSec, currentInstanceId);
-          }
+        try {
+          StorageService configurationService =
+            storageServiceRepository
+              .getOne(accountName)
+              .orElseThrow(() -> new IllegalArgumentException("No storage service was configured; unable to index configurations."));
+
+          configurationServices.put(credentials, configurationService);
+          restoreSnapshotIfMissing(credentials, configurationService, indexingLeaseTTLSec);
+        } catch (Exception e) {
+          log.error("Problem indexing account {}: ", accountName, e);
         }
       }
 
-      if ("OK".equals(acquiredIndexingLock)) {
-        Set<AccountCredentials> accountCredentialsSet =
-          CredentialsHelper.getAllAccountsOfType(AccountCredentials.Type.CONFIGURATION_STORE, accountCredentialsRepository);
-
-        for (AccountCredentials credentials : accountCredentialsSet) {
-          String accountName = credentials.getName();
-
-          try {
-            String pendingUpdatesKey = "kayenta:" + credentials.getType() + ":" + accountName + PENDING_UPDATES_KEY_SUFFIX;
+      snapshotsRestored = true;
 
-            // We atomically capture all of the current entries in the pending updates queue here to avoid flushing entries
-            // that appeared after we already began scanning the storage system (since that could allow us to flush an
-            // un-indexed change). This approach also allows for open start entries to disappear from the pending updates
-            // queue while a re-indexing is underway (this can happen if a storage service operation fails prior to closing
-            // an open start entry by recording the matching finish entry).
-            List<String> updatesThroughCheckpoint = jedis.lrange(pendingUpdatesKey, 0, -1);
-            StorageService configurationService =
-              storageServiceRepository
-                .getOne(accountName)
-                .orElseThrow(() -> new IllegalArgumentException("No storage service was configured; unable to index configurations."));
+      for (Map.Entry<AccountCredentials, StorageService> configurationServiceEntry : configurationServices.entrySet()) {
+        AccountCredentials credentials = configurationServiceEntry.getKey();
+        StorageService configurationService = configurationServiceEntry.getValue();
+        String accountName = credentials.getName();
+        String indexKey = buildIndexKey(credentials);
+
+        // Each account is indexed by whichever instance takes its lease first, so instances running at the same time
+        // work through different accounts; the accounts leased by other instances are skipped this cycle.
+        if (!canaryConfigIndexBackend.tryAcquireIndexingLease(indexKey, currentInstanceId, indexingLeaseTTLSec)) {
+          log.debug("Skipping account {}, which another instance is indexing.", accountName);
+          registry.counter(leasedElsewhereId.withTag("account", accountName)).increment();
+          continue;
+        }
 
-            List<Map<String, Object>> canaryConfigObjectKeys = configurationService.listObjectKeys(accountName, ObjectType.CANARY_CONFIG, null, true);
-            Map<String, List<Map>> applicationToCanaryConfigListMap = new HashMap<>();
+        try {
+          // We atomically capture all of the current entries in the pending updates queue here to avoid flushing entries
+          // that appeared after we already began scanning the storage system (since that could allow us to flush an
+          // un-indexed change). This approach also allows for open start entries to disappear from the pending updates
+          // queue while a re-indexing is underway (this can happen if a storage service operation fails prior to closing
+          // an open start entry by recording the matching finish entry).
+          // The current index is read along with them.
+          CanaryConfigIndexBackend.IndexRead indexRead = canaryConfigIndexBackend.readIndex(indexKey);
+          Collection<String> updatesThroughCheckpoint = indexRead.getPendingUpdates();
+          Map<String, Map<String, Object>> indexedCanaryConfigSummaries =
+            getIndexedCanaryConfigSummaries(indexKey + MAP_BY_APPLICATION_KEY_SUFFIX, indexRead.getValues());
+          Map<String, List<Map>> applicationToCanaryConfigListMap = new HashMap<>();
+          List<Map<String, Object>> changedCanaryConfigSummaries = new ArrayList<>();
+          AtomicInteger scannedCount = new AtomicInteger();
+
+          // The listing is streamed, so that only the summaries of changed configs are held onto.
+          configurationService.forEachObjectKey(accountName, ObjectType.CANARY_CONFIG, null, true, canaryConfigSummary -> {
+            scannedCount.incrementAndGet();
+
+            Long objectUpdatedTimestamp = (Long) canaryConfigSummary.get("updatedTimestamp");
+            Map<String, Object> indexedCanaryConfigSummary = indexedCanaryConfigSummaries.get((String) canaryConfigSummary.get("id"));
+
+            // A config that was indexed with the same object updated timestamp has not changed, so its own timestamp,
+            // applications and search terms are already known. Configs without a stored timestamp can't be compared and
+            // are always reloaded, as are configs indexed before search terms or object timestamps were.
+            if (objectUpdatedTimestamp != null
+                && indexedCanaryConfigSummary != null
+                && indexedCanaryConfigSummary.get(OBJECT_UPDATED_TIMESTAMP_KEY) instanceof Number
+                && ((Number) indexedCanaryConfigSummary.get(OBJECT_UPDATED_TIMESTAMP_KEY)).longValue() == objectUpdatedTimestamp
+                && indexedCanaryConfigSummary.get("updatedTimestamp") instanceof Number
+                && indexedCanaryConfigSummary.get(CanaryConfigSearchTerms.SEARCH_TERMS_KEY) instanceof List) {
+              addToApplicationMap(applicationToCanaryConfigListMap,
+                                  canaryConfigSummary,
+                                  ((Number) indexedCanaryConfigSummary.get("updatedTimestamp")).longValue(),
+                                  (String) indexedCanaryConfigSummary.get("updatedTimestampIso"),
+                                  objectUpdatedTimestamp,
+                                  (List<String>) indexedCanaryConfigSummary.get("applications"),
+                                  (List<String>) indexedCanaryConfigSummary.get(CanaryConfigSearchTerms.SEARCH_TERMS_KEY));
+            } else {
+              changedCanaryConfigSummaries.add(canaryConfigSummary);
+            }
+          });
 
-            for (Map<String, Object> canaryConfigSummary : canaryConfigObjectKeys) {
+          List<CanaryConfig> changedCanaryConfigs =
+            StorageServiceBatches.map(changedCanaryConfigSummaries, indexConfigurationProperties.getIndexingConcurrency(), canaryConfigSummary -> {
               try {
-                String canaryConfigId = (String) canaryConfigSummary.get("id");
-                String canaryConfigName = (String) canaryConfigSummary.get("name");
-                Long updatedTimestamp = (Long) canaryConfigSummary.get("updatedTimestamp");
-                String updatedTimestampIso = (String) canaryConfigSummary.get("updatedTimestampIso");
-
-                if (updatedTimestamp == null) {
-                  updatedTimestamp = canaryConfigIndex.getRedisTime();
-                  updatedTimestampIso = Instant.ofEpochMilli(updatedTimestamp).toString();
-                }
-
-                CanaryConfig canaryConfig = configurationService.loadObject(accountName, ObjectType.CANARY_CONFIG, canaryConfigId);
-                List<String> applications = canaryConfig.getApplications();
-
-                for (String application : applications) {
-                  List<Map> canaryConfigList = applicationToCanaryConfigListMap.get(application);
-
-                  if (canaryConfigList == null) {
-                    canaryConfigList = new ArrayList<Map>();
-                    applicationToCanaryConfigListMap.put(application, canaryConfigList);
-                  }
-
-                  canaryConfigList.add(
-                    new ImmutableMap.Builder<String, Object>()
-                      .put("id", canaryConfigId)
-                      .put("name", canaryConfigName)
-                      .put("updatedTimestamp", updatedTimestamp)
-                      .put("updatedTimestampIso", updatedTimestampIso)
-                      .put("applications", applications)
-                      .build());
-                }
+                return configurationService.loadObject(accountName, ObjectType.CANARY_CONFIG, (String) canaryConfigSummary.get("id"));
               } catch (NotFoundException e) {
                 // This can happen if a re-indexing is underway and we attempt to retrieve a canary config that has been
                 // deleted. Don't need to take any action.
+                return null;
               }
-            }
+            });
 
-            Map<String, String> applicationToSerializedCanaryConfigListMap = new HashMap<String, String>();
+          for (int i = 0; i < changedCanaryConfigSummaries.size(); i++) {
+            Map<String, Object> canaryConfigSummary = changedCanaryConfigSummaries.get(i);
+            CanaryConfig canaryConfig = changedCanaryConfigs.get(i);
 
-            for (Map.Entry<String, List<Map>> entry : applicationToCanaryConfigListMap.entrySet()) {
-              try {
-                applicationToSerializedCanaryConfigListMap.put(entry.getKey(), kayentaObjectMapper.writeValueAsString(entry.getValue()));
-              } catch (JsonProcessingException e) {
-                log.error("Problem serializing applicationToCanaryConfigListMap entry -> {}: {}", entry.getValue(), e);
-              }
+            if (canaryConfig == null) {
+              continue;
             }
 
-            String mapByApplicationKey = "kayenta:" + credentials.getType() + ":" + accountName + MAP_BY_APPLICATION_KEY_SUFFIX;
-            Set<String> oldMapByApplicationKeys = jedis.hkeys(mapByApplicationKey);
-            Set<String> byApplicationKeysToDelete = new HashSet<>();
-            // Application keys to delete should be all the original applications minus all the currently-observed applications.
-            byApplicationKeysToDelete.addAll(oldMapByApplicationKeys);
-            byApplicationKeysToDelete.removeAll(applicationToSerializedCanaryConfigListMap.keySet());
+            Long objectUpdatedTimestamp = (Long) canaryConfigSummary.get("updatedTimestamp");
+            // Configs are indexed with their own updated timestamp, which the indexed configuration stores set to the
+            // version they record in the index, so that the canary config cache can tell a loaded config is current.
+            Long updatedTimestamp = canaryConfig.getUpdatedTimestamp();
 
-            if (applicationToSerializedCanaryConfigListMap.size() > 0) {
-              jedis.hmset(mapByApplicationKey, applicationToSerializedCanaryConfigListMap);
+            if (updatedTimestamp == null) {
+              updatedTimestamp = objectUpdatedTimestamp;
             }
 
-            if (byApplicationKeysToDelete.size() > 0) {
-              jedis.hdel(mapByApplicationKey, byApplicationKeysToDelete.toArray(new String[byApplicationKeysToDelete.size()]));
+            if (updatedTimestamp == null) {
+              updatedTimestamp = canaryConfigIndex.getRedisTime();
             }
 
-            // We do this so we can distinguish between a completely empty index and an unavailable/missing index.
-            if (!jedis.exists(mapByApplicationKey)) {
-              jedis.hset(mapByApplicationKey, "not-a-real-application:" + currentInstanceId, NO_INDEXED_CONFIGS_SENTINEL_VALUE);
+            addToApplicationMap(applicationToCanaryConfigListMap,
+                                canaryConfigSummary,
+                                updatedTimestamp,
+                                Instant.ofEpochMilli(updatedTimestamp).toString(),
+                                objectUpdatedTimestamp,
+                                canaryConfig.getApplications(),
+                                CanaryConfigSearchTerms.of(canaryConfig, kayentaObjectMapper));
+          }
+
+          registry.counter(scannedId.withTag("account", accountName)).increment(scannedCount.get());
+          registry.counter(loadedId.withTag("account", accountName)).increment(changedCanaryConfigSummaries.size());
+
+          Map<String, String> applicationToSerializedCanaryConfigListMap = new HashMap<String, String>();
+
+          for (Map.Entry<String, List<Map>> entry : applicationToCanaryConfigListMap.entrySet()) {
+            try {
+              applicationToSerializedCanaryConfigListMap.put(entry.getKey(), kayentaObjectMapper.writeValueAsString(entry.getValue()));
+            } catch (JsonProcessingException e) {
+              log.error("Problem serializing applicationToCanaryConfigListMap entry -> {}: {}", entry.getValue(), e);
             }
+          }
 
-            // Now that we've scanned all of the canary configs in the storage system and updated the index, we can flush
-            // the pending updates queue entries subsumed by the up-to-date index.
-            if (updatesThroughCheckpoint.size() > 0) {
-              long currentTimestamp = canaryConfigIndex.getRedisTime();
-              Map<String, String> encounteredUpdateStarts = new HashMap<>();
-              List<String> updatesToFlush = new ArrayList<>();
+          // The by-application map is replaced along with the by-name and by-id hashes derived from it.
+          canaryConfigIndex.replaceIndex(credentials, applicationToSerializedCanaryConfigListMap, currentInstanceId);
 
-              for (String updateDescriptor : updatesThroughCheckpoint) {
-                String[] updateTokens = updateDescriptor.split(":", 5);
-                long updateTimestamp = Long.parseLong(updateTokens[0]);
-                long ageMS = currentTimestamp - updateTimestamp;
+          if (indexConfigurationProperties.isSnapshotsEnabled() && configurationService.storesCanaryConfigIndexSnapshots()) {
+            writeSnapshot(credentials, configurationService, applicationToSerializedCanaryConfigListMap);
+          }
 
-                // This can happen if we lose a kayenta instance while an operation is in-flight.
-                if (ageMS > staleThresholdMS) {
+          // Now that we've scanned all of the canary configs in the storage system and updated the index, we can flush
+          // the pending updates queue entries subsumed by the up-to-date index.
+          List<String> updatesToFlush = new ArrayList<>();
+
+          if (updatesThroughCheckpoint.size() > 0) {
+            long currentTimestamp = canaryConfigIndex.getRedisTime();
+            Map<String, String> encounteredUpdateStarts = new HashMap<>();
+
+            for (String updateDescriptor : updatesThroughCheckpoint) {
+              String[] updateTokens = updateDescriptor.split(":", 5);
+              long updateTimestamp = Long.parseLong(updateTokens[0]);
+              long ageMS = currentTimestamp - updateTimestamp;
+
+              // This can happen if we lose a kayenta instance while an operation is in-flight.
+              if (ageMS > staleThresholdMS) {
+                updatesToFlush.add(updateDescriptor);
+              } else {
+                String startOrFinish = updateTokens[2];
+                String updateId = updateTokens[3];
+
+                if (startOrFinish.equals("finish") && encounteredUpdateStarts.containsKey("start:" + updateId)) {
+                  // Mark matching start/finish entries for removal.
+                  updatesToFlush.add(encounteredUpdateStarts.get("start:" + updateId));
                   updatesToFlush.add(updateDescriptor);
-                } else {
-                  String startOrFinish = updateTokens[2];
-                  String updateId = updateTokens[3];
-
-                  if (startOrFinish.equals("finish") && encounteredUpdateStarts.containsKey("start:" + updateId)) {
-                    // Mark matching start/finish entries for removal.
-                    updatesToFlush.add(encounteredUpdateStarts.get("start:" + updateId));
-                    updatesToFlush.add(updateDescriptor);
-                    encounteredUpdateStarts.remove("start:" + updateId);
-                  } else if (startOrFinish.equals("start")) {
-                    // Note that we've seen this start entry so that we can potentially match it up with its finish entry.
-                    encounteredUpdateStarts.put("start:" + updateId, updateDescriptor);
-                  }
+                  encounteredUpdateStarts.remove("start:" + updateId);
+                } else if (startOrFinish.equals("start")) {
+                  // Note that we've seen this start entry so that we can potentially match it up with its finish entry.
+                  encounteredUpdateStarts.put("start:" + updateId, updateDescriptor);
                 }
               }
-
-              for (String updateToFlush : updatesToFlush) {
-                jedis.lrem(pendingUpdatesKey, 1, updateToFlush);
-              }
             }
-          } catch (Exception e) {
-            log.error("Problem indexing account {}: ", accountName, e);
           }
+
+          // Every instance's copy of the index is rebuilt from the index we just wrote, less the flushed entries.
+          canaryConfigIndex.flushPendingUpdates(credentials, updatesToFlush);
+          indexedAccountCount++;
+        } catch (Exception e) {
+          log.error("Problem indexing account {}: ", accountName, e);
+        } finally {
+          canaryConfigIndexBackend.releaseIndexingLease(indexKey, currentInstanceId);
         }
+      }
+
+      long endTime = System.currentTimeMillis();
+      Duration duration = Duration.between(Instant.ofEpochMilli(startTime), Instant.ofEpochMilli(endTime));
 
-        jedis.del(INDEXING_INSTANCE_KEY);
+      registry.timer(cycleTimeId).record(endTime - startTime, TimeUnit.MILLISECONDS);
+      log.info("Re-indexed canary configs of " + indexedAccountCount + " of " + configurationServices.size() + " accounts in " + duration + ".");
 
-        long endTime = System.currentTimeMillis();
-        Duration duration = Duration.between(Instant.ofEpochMilli(startTime), Instant.ofEpochMilli(endTime));
+      cyclesCompleted++;
+    } catch (RuntimeException e) {
+      log.error("Index backend issue in canary config indexing agent: ", e);
+    }
+  }
 
-        log.info("Re-indexed canary configs in " + duration + ".");
-      } else {
-        log.debug("Failed to acquire indexing lock.");
+  private void restoreSnapshotIfMissing(AccountCredentials credentials, StorageService configurationService, int indexingLeaseTTLSec) {
+    String accountName = credentials.getName();
+    String indexKey = buildIndexKey(credentials);
+
+    if (!indexConfigurationProperties.isSnapshotsEnabled()
+        || !configurationService.storesCanaryConfigIndexSnapshots()
+        || canaryConfigIndexBackend.indexExists(indexKey)) {
+      return;
+    }
+
+    // Without the lease, an old snapshot could overwrite the index another instance has just written.
+    if (!canaryConfigIndexBackend.tryAcquireIndexingLease(indexKey, currentInstanceId, indexingLeaseTTLSec)) {
+      return;
+    }
+
+    try {
+      if (canaryConfigIndexBackend.indexExists(indexKey)) {
+        return;
       }
 
-      cyclesCompleted++;
-    } catch (JedisException e) {
-      log.error("Jedis issue in canary config indexing agent: ", e);
+      CanaryConfigIndexSnapshot snapshot =
+        configurationService.loadObject(accountName, ObjectType.CANARY_CONFIG_INDEX_SNAPSHOT, CanaryConfigIndexSnapshot.SNAPSHOT_OBJECT_KEY);
+
+      if (snapshot == null) {
+        return;
+      }
+
+      Map<String, String> applicationToSerializedCanaryConfigListMap = snapshot.decompressMapByApplication(kayentaObjectMapper);
+
+      if (applicationToSerializedCanaryConfigListMap.size() > 0) {
+        canaryConfigIndex.replaceIndex(credentials, applicationToSerializedCanaryConfigListMap, currentInstanceId);
+
+        log.info("Restored canary config index of account {} from snapshot taken at {}.", accountName, Instant.ofEpochMilli(snapshot.getCreatedTimestamp()));
+      }
+    } catch (NotFoundException e) {
+      // No snapshot has been written for this account yet.
+    } catch (Exception e) {
+      log.warn("Unable to restore canary config index of account {} from snapshot.", accountName, e);
+    } finally {
+      canaryConfigIndexBackend.releaseIndexingLease(indexKey, currentInstanceId);
+    }
+  }
+
+  private void writeSnapshot(AccountCredentials credentials, StorageService configurationService, Map<String, String> applicationToSerializedCanaryConfigListMap) {
+    String accountName = credentials.getName();
+
+    try {
+      CanaryConfigIndexSnapshot snapshot =
+        CanaryConfigIndexSnapshot.of(canaryConfigIndex.getRedisTime(), applicationToSerializedCanaryConfigListMap, kayentaObjectMapper);
+
+      configurationService.storeObject(accountName, ObjectType.CANARY_CONFIG_INDEX_SNAPSHOT, CanaryConfigIndexSnapshot.SNAPSHOT_OBJECT_KEY, snapshot);
+    } catch (Exception e) {
+      // The index itself is up to date; only the next restore would be older than it could have been.
+      log.warn("Unable to write snapshot of canary config index of account {}.", accountName, e);
     }
   }
 
+  // The summaries in the persisted index, by canary config id. An unreadable index just means everything is reloaded.
+  private Map<String, Map<String, Object>> getIndexedCanaryConfigSummaries(String mapByApplicationKey, List<String> appScopedCanaryConfigListJsons) {
+    Map<String, Map<String, Object>> indexedCanaryConfigSummaries = new HashMap<>();
+
+    for (String appScopedCanaryConfigListJson : appScopedCanaryConfigListJsons) {
+      if (appScopedCanaryConfigListJson.equals(NO_INDEXED_CONFIGS_SENTINEL_VALUE)) {
+        continue;
+      }
+
+      try {
+        List<Map<String, Object>> appScopedCanaryConfigList = kayentaObjectMapper.readValue(appScopedCanaryConfigListJson, new TypeReference<List<Map<String, Object>>>() {});
+
+        for (Map<String, Object> canaryConfigSummary : appScopedCanaryConfigList) {
+          indexedCanaryConfigSummaries.put((String) canaryConfigSummary.get("id"), canaryConfigSummary);
+        }
+      } catch (IOException e) {
+        log.warn("Unable to parse index '{}'; reloading all canary configs.", mapByApplicationKey, e);
+
+        return Collections.emptyMap();
+      }
+    }
+
+    return indexedCanaryConfigSummaries;
+  }
+
+  private static void addToApplicationMap(Map<String, List<Map>> applicationToCanaryConfigListMap,
+                                          Map<String, Object> canaryConfigSummary,
+                                          Long updatedTimestamp,
+                                          String updatedTimestampIso,
+                                          Long objectUpdatedTimestamp,
+                                          List<String> applications,
+                                          List<String> searchTerms) {
+    ImmutableMap.Builder<String, Object> indexedCanaryConfigSummaryBuilder =
+      new ImmutableMap.Builder<String, Object>()
+        .put("id", canaryConfigSummary.get("id"))
+        .put("name", canaryConfigSummary.get("name"))
+        .put("updatedTimestamp", updatedTimestamp)
+        .put("updatedTimestampIso", updatedTimestampIso)
+        .put("applications", applications)
+        .put(CanaryConfigSearchTerms.SEARCH_TERMS_KEY, searchTerms);
+
+    if (objectUpdatedTimestamp != null) {
+      indexedCanaryConfigSummaryBuilder.put(OBJECT_UPDATED_TIMESTAMP_KEY, objectUpdatedTimestamp);
+    }
+
+    Map<String, Object> indexedCanaryConfigSummary = indexedCanaryConfigSummaryBuilder.build();
+
+    for (String application : applications) {
+      applicationToCanaryConfigListMap.computeIfAbsent(application, k -> new ArrayList<>()).add(indexedCanaryConfigSummary);
+    }
+  }
+
+  private static String buildIndexKey(AccountCredentials credentials) {
+    return "kayenta:" + credentials.getType() + ":" + credentials.getName();
+  }
+
   @Override
   protected void doHealthCheck(Health.Builder builder) throws Exception {
     Set<AccountCredentials> configurationStoreAccountCredentialsSet =
       CredentialsHelper.getAllAccountsOfType(AccountCredentials.Type.CONFIGURATION_STORE, accountCredentialsRepository);
     int existingByApplicationIndexCount = 0;
 
-    try (Jedis jedis = jedisPool.getResource()) {
-      for (AccountCredentials credentials : configurationStoreAccountCredentialsSet) {
-        String accountName = credentials.getName();
-        String mapByApplicationKey = "kayenta:" + credentials.getType() + ":" + accountName + MAP_BY_APPLICATION_KEY_SUFFIX;
-
-        if (jedis.exists(mapByApplicationKey)) {
-          existingByApplicationIndexCount++;
-        }
+    for (AccountCredentials credentials : configurationStoreAccountCredentialsSet) {
+      if (canaryConfigIndexBackend.indexExists(buildIndexKey(credentials))) {
+        existingByApplicationIndexCount++;
       }
     }
 
     int expectedByApplicationIndexCount = configurationStoreAccountCredentialsSet.size();
-    // So long as this instance has performed an indexing, or failed to acquire the lock since another instance was in
-    // the process of indexing, the index should be available. We also verify that the number of by-application index
-    // keys matches the number of configured configuration store accounts.
-    if (cyclesCompleted > 0 && existingByApplicationIndexCount == expectedByApplicationIndexCount) {
+    // So long as this instance has completed an indexing cycle (indexing whichever accounts other instances were not
+    // already indexing), or has seeded the indexes from snapshots ahead of its first indexing, the index should be
+    // available. We also verify that the number of by-application index keys matches the number of configured
+    // configuration store accounts.
+    if ((cyclesCompleted > 0 || snapshotsRestored) && existingByApplicationIndexCount == expectedByApplicationIndexCount) {
       builder.up();
     } else {
       builder.down();
@@ -288,5 +454,6 @@ public class CanaryConfigIndexingAgent extends AbstractHealthIndicator {
     builder.withDetail("expectedByApplicationIndexCount", expectedByApplicationIndexCount);
     builder.withDetail("cyclesInitiated", cyclesInitiated);
     builder.withDetail("cyclesCompleted", cyclesCompleted);
+    builder.withDetail("snapshotsRestored", snapshotsRestored);
   }
 }
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.kayenta.index;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.netflix.kayenta.canary.CanaryConfig;
+import com.netflix.kayenta.canary.CanaryMetricConfig;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang.StringUtils;
+
+import java.util.*;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * The terms a canary config can be found by: the words of its name, its template names, and its metrics' names, groups
+ * and query fields. Query configs are provider-specific, so every string field of a query (including its type) is
+ * indexed.
+ *
+ * The terms are stored in the persisted index alongside each summary, under SEARCH_TERMS_KEY, so that a re-index only
+ * needs to load the canary configs that changed. They are never returned as part of a summary.
+ */
+@Slf4j
+public class CanaryConfigSearchTerms {
+
+  public static final String SEARCH_TERMS_KEY = "searchTerms";
+
+  private static final Pattern TOKEN_SEPARATOR_PATTERN = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+  public static List<String> of(CanaryConfig canaryConfig, ObjectMapper kayentaObjectMapper) {
+    Set<String> searchTerms = new TreeSet<>();
+
+    searchTerms.addAll(tokenize(canaryConfig.getName()));
+
+    if (canaryConfig.getTemplates() != null) {
+      canaryConfig.getTemplates().keySet().forEach(templateName -> searchTerms.addAll(tokenize(templateName)));
+    }
+
+    if (canaryConfig.getMetrics() != null) {
+      for (CanaryMetricConfig metricConfig : canaryConfig.getMetrics()) {
+        searchTerms.addAll(tokenize(metricConfig.getName()));
+
+        if (metricConfig.getGroups() != null) {
+          metricConfig.getGroups().forEach(group -> searchTerms.addAll(tokenize(group)));
+        }
+
+        if (metricConfig.getQuery() != null) {
+          try {
+            addStringValueTokens(searchTerms, kayentaObjectMapper.convertValue(metricConfig.getQuery(), Map.class));
+          } catch (IllegalArgumentException e) {
+            log.warn("Unable to index query of metric '{}' of canary config '{}'.", metricConfig.getName(), canaryConfig.getName(), e);
+          }
+        }
+      }
+    }
+
+    return new ArrayList<>(searchTerms);
+  }
+
+  /**
+   * Split text into lower-cased words; the same splitting is applied to indexed fields and to search queries.
+   */
+  public static List<String> tokenize(String text) {
+    if (StringUtils.isEmpty(text)) {
+      return Collections.emptyList();
+    }
+
+    return Arrays
+      .stream(TOKEN_SEPARATOR_PATTERN.split(text.toLowerCase(Locale.ROOT)))
+      .filter(token -> !token.isEmpty())
+      .collect(Collectors.toList());
+  }
+
+  private static void addStringValueTokens(Set<String> searchTerms, Object value) {
+    if (value instanceof String) {
+      searchTerms.addAll(tokenize((String)value));
+    } else if (value instanceof Map) {
+      ((Map<?, ?>)value).values().forEach(v -> addStringValueTokens(searchTerms, v));
+    } else if (value instanceof Collection) {
+      ((Collection<?>)value).forEach(v -> addStringValueTokens(searchTerms, v));
+    }
+  }
+}
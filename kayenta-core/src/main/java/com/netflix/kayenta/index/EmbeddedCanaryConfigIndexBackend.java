@@ -0,0 +1,256 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.kayenta.index;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import static com.netflix.kayenta.index.CanaryConfigIndexingAgent.MAP_BY_APPLICATION_KEY_SUFFIX;
+
+/**
+ * Keeps indexes in memory, persisted to a local directory so that they survive a restart, for single-instance
+ * deployments. Lookups never leave the process.
+ *
+ * Each index is persisted as two files: its hashes, rewritten when the index is replaced, and its version and pending
+ * updates queue, rewritten on every change to the queue. Files are written to a temporary file and renamed over the
+ * previous one, so a crash leaves either the old or the new contents.
+ *
+ * There are no other instances to tell about changes or to share indexing with, so indexing leases are always granted.
+ * The directory must not be shared by more than one instance.
+ */
+@Slf4j
+public class EmbeddedCanaryConfigIndexBackend implements CanaryConfigIndexBackend {
+
+  private final Path directory;
+  private final ObjectMapper kayentaObjectMapper;
+  private final Map<String, EmbeddedIndex> indexes = new HashMap<>();
+
+  @Data
+  static class PersistedHashes {
+
+    private Map<String, Map<String, String>> hashesByKeySuffix = new HashMap<>();
+  }
+
+  @Data
+  static class PersistedPendingUpdates {
+
+    private long version;
+
+    private List<String> pendingUpdates = new ArrayList<>();
+  }
+
+  private static class EmbeddedIndex {
+
+    PersistedHashes hashes = new PersistedHashes();
+    PersistedPendingUpdates pendingUpdates = new PersistedPendingUpdates();
+  }
+
+  public EmbeddedCanaryConfigIndexBackend(Path directory, ObjectMapper kayentaObjectMapper) {
+    this.directory = directory;
+    this.kayentaObjectMapper = kayentaObjectMapper;
+  }
+
+  @Override
+  public long getTime() {
+    return System.currentTimeMillis();
+  }
+
+  @Override
+  public synchronized boolean indexExists(String indexKey) {
+    return !getHash(indexKey, MAP_BY_APPLICATION_KEY_SUFFIX).isEmpty();
+  }
+
+  @Override
+  public synchronized IndexRead readIndex(String indexKey) {
+    EmbeddedIndex index = getIndex(indexKey);
+    Map<String, String> mapByApplication = getHash(indexKey, MAP_BY_APPLICATION_KEY_SUFFIX);
+
+    return new IndexRead(!mapByApplication.isEmpty(),
+                         index.pendingUpdates.getVersion(),
+                         new ArrayList<>(mapByApplication.values()),
+                         new ArrayList<>(index.pendingUpdates.getPendingUpdates()));
+  }
+
+  @Override
+  public synchronized IndexRead readFields(String indexKey, String hashKeySuffix, List<String> fields) {
+    EmbeddedIndex index = getIndex(indexKey);
+    Map<String, String> hash = getHash(indexKey, hashKeySuffix);
+    List<String> values = new ArrayList<>(fields.size());
+
+    for (String field : fields) {
+      values.add(hash.get(field));
+    }
+
+    return new IndexRead(indexExists(indexKey),
+                         index.pendingUpdates.getVersion(),
+                         values,
+                         new ArrayList<>(index.pendingUpdates.getPendingUpdates()));
+  }
+
+  @Override
+  public synchronized void replaceIndex(String indexKey, Map<String, Map<String, String>> hashesByKeySuffix) {
+    PersistedHashes hashes = new PersistedHashes();
+
+    hashesByKeySuffix.forEach((hashKeySuffix, hash) -> {
+      if (!hash.isEmpty()) {
+        hashes.getHashesByKeySuffix().put(hashKeySuffix, new HashMap<>(hash));
+      }
+    });
+
+    writeAtomically(indexFile(indexKey, "hashes"), hashes);
+    getIndex(indexKey).hashes = hashes;
+  }
+
+  @Override
+  public synchronized long pushPendingUpdate(String indexKey, String pendingUpdate) {
+    PersistedPendingUpdates pendingUpdates = copyPendingUpdates(indexKey);
+
+    pendingUpdates.setVersion(pendingUpdates.getVersion() + 1);
+    pendingUpdates.getPendingUpdates().add(pendingUpdate);
+
+    return storePendingUpdates(indexKey, pendingUpdates);
+  }
+
+  @Override
+  public synchronized long removePendingUpdates(String indexKey, Collection<String> pendingUpdatesToRemove) {
+    PersistedPendingUpdates pendingUpdates = copyPendingUpdates(indexKey);
+
+    pendingUpdates.setVersion(pendingUpdates.getVersion() + 1);
+    pendingUpdates.getPendingUpdates().removeAll(new HashSet<>(pendingUpdatesToRemove));
+
+    return storePendingUpdates(indexKey, pendingUpdates);
+  }
+
+  @Override
+  public void subscribe(IndexUpdateListener listener) {
+    // Every change is made by this instance, which applies it itself.
+  }
+
+  @Override
+  public void unsubscribe() {
+  }
+
+  @Override
+  public boolean tryAcquireIndexingLease(String indexKey, String instanceId, int leaseTTLSec) {
+    return true;
+  }
+
+  @Override
+  public void releaseIndexingLease(String indexKey, String instanceId) {
+  }
+
+  @Override
+  public void recordHeartbeat(String instanceId) {
+  }
+
+  private Map<String, String> getHash(String indexKey, String hashKeySuffix) {
+    return getIndex(indexKey).hashes.getHashesByKeySuffix().getOrDefault(hashKeySuffix, Collections.emptyMap());
+  }
+
+  // The in-memory state is only replaced once the new state has been persisted.
+  private PersistedPendingUpdates copyPendingUpdates(String indexKey) {
+    PersistedPendingUpdates pendingUpdates = getIndex(indexKey).pendingUpdates;
+    PersistedPendingUpdates copy = new PersistedPendingUpdates();
+
+    copy.setVersion(pendingUpdates.getVersion());
+    copy.setPendingUpdates(new ArrayList<>(pendingUpdates.getPendingUpdates()));
+
+    return copy;
+  }
+
+  private long storePendingUpdates(String indexKey, PersistedPendingUpdates pendingUpdates) {
+    writeAtomically(indexFile(indexKey, "pending-updates"), pendingUpdates);
+    getIndex(indexKey).pendingUpdates = pendingUpdates;
+
+    return pendingUpdates.getVersion();
+  }
+
+  private EmbeddedIndex getIndex(String indexKey) {
+    return indexes.computeIfAbsent(indexKey, this::loadIndex);
+  }
+
+  private EmbeddedIndex loadIndex(String indexKey) {
+    EmbeddedIndex index = new EmbeddedIndex();
+    Path hashesFile = indexFile(indexKey, "hashes");
+    Path pendingUpdatesFile = indexFile(indexKey, "pending-updates");
+
+    try {
+      if (Files.exists(hashesFile)) {
+        index.hashes = kayentaObjectMapper.readValue(hashesFile.toFile(), PersistedHashes.class);
+      }
+
+      if (Files.exists(pendingUpdatesFile)) {
+        index.pendingUpdates = kayentaObjectMapper.readValue(pendingUpdatesFile.toFile(), PersistedPendingUpdates.class);
+      }
+    } catch (IOException e) {
+      // The next re-index rewrites the hashes; the pending updates it would have flushed are lost.
+      log.warn("Unable to read canary config index '{}' from {}; starting with an empty index.", indexKey, directory, e);
+
+      return new EmbeddedIndex();
+    }
+
+    return index;
+  }
+
+  private Path indexFile(String indexKey, String kind) {
+    try {
+      return directory.resolve(URLEncoder.encode(indexKey, StandardCharsets.UTF_8.name()) + "." + kind + ".json");
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private void writeAtomically(Path file, Object obj) {
+    try {
+      Files.createDirectories(directory);
+
+      Path tempFile = Files.createTempFile(directory, ".", ".tmp");
+
+      try {
+        try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+          OutputStream outputStream = new BufferedOutputStream(Channels.newOutputStream(channel));
+
+          kayentaObjectMapper.writer().without(JsonGenerator.Feature.AUTO_CLOSE_TARGET).writeValue(outputStream, obj);
+          outputStream.flush();
+          channel.force(true);
+        }
+
+        Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      } finally {
+        Files.deleteIfExists(tempFile);
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to write " + file + ".", e);
+    }
+  }
+}
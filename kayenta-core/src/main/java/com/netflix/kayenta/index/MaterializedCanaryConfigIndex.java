@@ -0,0 +1,283 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.kayenta.index;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.SetMultimap;
+import com.google.common.collect.TreeMultimap;
+import com.netflix.kayenta.index.config.CanaryConfigIndexAction;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang.StringUtils;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static com.netflix.kayenta.index.CanaryConfigIndex.haveCommonElements;
+import static com.netflix.kayenta.index.CanaryConfigIndexingAgent.NO_INDEXED_CONFIGS_SENTINEL_VALUE;
+import static com.netflix.kayenta.index.CanaryConfigIndexingAgent.OBJECT_UPDATED_TIMESTAMP_KEY;
+
+/**
+ * An in-process copy of one configuration account's canary config index: the persisted by-application index with the
+ * entries of the pending updates queue applied over it, in queue order. Lookups by application and by name are served
+ * from hash maps instead of re-reading and re-parsing the index from redis, and searches from an inverted index of the
+ * search terms stored with each summary (see CanaryConfigSearchTerms).
+ *
+ * Every change to the pending updates queue increments the account's index version and is published along with that
+ * version (see CanaryConfigIndex), so updates are applied only in order: an update this copy has already seen (or that
+ * is already part of the snapshot it was built from) is ignored, and a gap in the versions marks the copy stale so that
+ * it is rebuilt from redis on the next lookup.
+ *
+ * Rebuilds and updates are serialized on this object's monitor, so an update published while a snapshot is being read
+ * from redis is applied once the rebuild completes.
+ */
+@Slf4j
+class MaterializedCanaryConfigIndex {
+
+  private final String mapByApplicationKey;
+  private final ObjectMapper kayentaObjectMapper;
+
+  private final Map<String, Map<String, Object>> summariesById = new HashMap<>();
+  private final SetMultimap<String, String> idsByApplication = HashMultimap.create();
+  private final SetMultimap<String, String> idsByName = HashMultimap.create();
+  // Sorted by term, so that all the terms starting with a prefix are adjacent.
+  private final TreeMultimap<String, String> idsBySearchTerm = TreeMultimap.create();
+  private final SetMultimap<String, String> searchTermsById = HashMultimap.create();
+
+  private boolean ready = false;
+  private boolean stale = true;
+  private long version = 0;
+  private long builtAtMS = 0;
+
+  MaterializedCanaryConfigIndex(String mapByApplicationKey, ObjectMapper kayentaObjectMapper) {
+    this.mapByApplicationKey = mapByApplicationKey;
+    this.kayentaObjectMapper = kayentaObjectMapper;
+  }
+
+  synchronized boolean needsRebuild(long nowMS, long maxAgeMS) {
+    return !ready || stale || nowMS - builtAtMS > maxAgeMS;
+  }
+
+  synchronized void markStale() {
+    stale = true;
+  }
+
+  /**
+   * Replace the contents with a snapshot of the persisted index and the pending updates queue, taken atomically along
+   * with the index version. An empty by-application index means the index has not been built yet.
+   */
+  synchronized void rebuild(long snapshotVersion, List<String> appScopedCanaryConfigListJsons, Collection<String> pendingUpdates, long nowMS) {
+    summariesById.clear();
+    idsByApplication.clear();
+    idsByName.clear();
+    idsBySearchTerm.clear();
+    searchTermsById.clear();
+
+    ready = false;
+    stale = false;
+    version = snapshotVersion;
+    builtAtMS = nowMS;
+
+    if (appScopedCanaryConfigListJsons.isEmpty()) {
+      return;
+    }
+
+    for (String appScopedCanaryConfigListJson : appScopedCanaryConfigListJsons) {
+      if (StringUtils.isEmpty(appScopedCanaryConfigListJson) || appScopedCanaryConfigListJson.equals(NO_INDEXED_CONFIGS_SENTINEL_VALUE)) {
+        continue;
+      }
+
+      try {
+        List<Map<String, Object>> appScopedCanaryConfigList = kayentaObjectMapper.readValue(appScopedCanaryConfigListJson, new TypeReference<List<Map<String, Object>>>() {});
+
+        for (Map<String, Object> canaryConfigSummary : appScopedCanaryConfigList) {
+          String canaryConfigId = (String)canaryConfigSummary.get("id");
+
+          if (!summariesById.containsKey(canaryConfigId)) {
+            putSummary(canaryConfigId, canaryConfigSummary);
+          }
+        }
+      } catch (IOException e) {
+        stale = true;
+
+        throw new IllegalArgumentException("Unable to parse index '" + mapByApplicationKey + "': " + e.getMessage(), e);
+      }
+    }
+
+    pendingUpdates.forEach(this::applyPendingUpdate);
+    ready = true;
+  }
+
+  /**
+   * Apply a published change to the pending updates queue. A null pending update means the queue or the persisted index
+   * changed in some other way (a failed update was removed, or the account was re-indexed).
+   */
+  synchronized void onIndexUpdate(long updateVersion, String pendingUpdate) {
+    // A copy that is not ready is rebuilt from scratch on the next lookup anyway.
+    if (!ready || updateVersion <= version) {
+      return;
+    }
+
+    if (updateVersion != version + 1 || pendingUpdate == null) {
+      stale = true;
+    } else {
+      applyPendingUpdate(pendingUpdate);
+    }
+
+    version = updateVersion;
+  }
+
+  synchronized Set<Map<String, Object>> getCanaryConfigSummarySet(List<String> applications) {
+    ensureReady();
+
+    if (applications == null || applications.isEmpty()) {
+      return new HashSet<>(summariesById.values());
+    }
+
+    Set<Map<String, Object>> canaryConfigSummarySet = new HashSet<>();
+
+    for (String application : applications) {
+      for (String canaryConfigId : idsByApplication.get(application)) {
+        canaryConfigSummarySet.add(summariesById.get(canaryConfigId));
+      }
+    }
+
+    return canaryConfigSummarySet;
+  }
+
+  synchronized String getIdFromName(String canaryConfigName) {
+    ensureReady();
+
+    return idsByName.get(canaryConfigName).stream().findFirst().orElse(null);
+  }
+
+  /**
+   * The summaries of the canary configs matching every word of the query, ordered by name. Each word of the query matches
+   * any search term it is a prefix of, so results narrow as a query is typed. An empty query matches every canary config.
+   */
+  synchronized List<Map<String, Object>> search(String query, List<String> applications) {
+    ensureReady();
+
+    Set<String> matchingIds = null;
+
+    for (String queryToken : CanaryConfigSearchTerms.tokenize(query)) {
+      Set<String> queryTokenMatchingIds = new HashSet<>();
+
+      idsBySearchTerm
+        .asMap()
+        .subMap(queryToken, true, queryToken + Character.MAX_VALUE, true)
+        .values()
+        .forEach(queryTokenMatchingIds::addAll);
+
+      if (matchingIds == null) {
+        matchingIds = queryTokenMatchingIds;
+      } else {
+        matchingIds.retainAll(queryTokenMatchingIds);
+      }
+    }
+
+    Collection<String> candidateIds = matchingIds != null ? matchingIds : summariesById.keySet();
+
+    return candidateIds
+      .stream()
+      .map(summariesById::get)
+      .filter(canaryConfigSummary -> applications == null || applications.isEmpty() || haveCommonElements(applications, getApplications(canaryConfigSummary)))
+      .sorted(Comparator.<Map<String, Object>, String>comparing(canaryConfigSummary -> String.valueOf(canaryConfigSummary.get("name")), String.CASE_INSENSITIVE_ORDER)
+                .thenComparing(canaryConfigSummary -> (String)canaryConfigSummary.get("id")))
+      .collect(Collectors.toList());
+  }
+
+  private void ensureReady() {
+    if (!ready) {
+      throw new IllegalArgumentException("Canary config index not ready.");
+    }
+  }
+
+  // In-flight operations are considered already completed as far as the index is concerned, so only start entries matter.
+  private void applyPendingUpdate(String pendingUpdate) {
+    try {
+      String[] updateTokens = pendingUpdate.split(":", 5);
+
+      if (!updateTokens[2].equals("start")) {
+        return;
+      }
+
+      CanaryConfigIndexAction action = CanaryConfigIndexAction.valueOf(updateTokens[1]);
+      Map<String, Object> pendingUpdateCanaryConfigSummary = kayentaObjectMapper.readValue(updateTokens[4], new TypeReference<Map<String, Object>>() {});
+      String pendingUpdateCanaryConfigId = (String)pendingUpdateCanaryConfigSummary.get("id");
+
+      removeSummary(pendingUpdateCanaryConfigId);
+
+      if (action == CanaryConfigIndexAction.UPDATE) {
+        putSummary(pendingUpdateCanaryConfigId, pendingUpdateCanaryConfigSummary);
+      }
+    } catch (IOException e) {
+      log.error("Problem deserializing pendingUpdateCanaryConfigSummaryJson -> {}: {}", pendingUpdate, e);
+    }
+  }
+
+  private void putSummary(String canaryConfigId, Map<String, Object> canaryConfigSummary) {
+    String canaryConfigName = (String)canaryConfigSummary.get("name");
+    // Summaries queued by storage services carry their search terms too, but the name is always searchable.
+    Object indexedSearchTerms = canaryConfigSummary.remove(CanaryConfigSearchTerms.SEARCH_TERMS_KEY);
+    canaryConfigSummary.remove(OBJECT_UPDATED_TIMESTAMP_KEY);
+    Set<String> searchTerms = new HashSet<>(CanaryConfigSearchTerms.tokenize(canaryConfigName));
+
+    if (indexedSearchTerms instanceof List) {
+      searchTerms.addAll((List<String>)indexedSearchTerms);
+    }
+
+    summariesById.put(canaryConfigId, Collections.unmodifiableMap(canaryConfigSummary));
+    idsByName.put(canaryConfigName, canaryConfigId);
+    searchTermsById.putAll(canaryConfigId, searchTerms);
+
+    for (String searchTerm : searchTerms) {
+      idsBySearchTerm.put(searchTerm, canaryConfigId);
+    }
+
+    for (String application : getApplications(canaryConfigSummary)) {
+      idsByApplication.put(application, canaryConfigId);
+    }
+  }
+
+  private void removeSummary(String canaryConfigId) {
+    Map<String, Object> canaryConfigSummary = summariesById.remove(canaryConfigId);
+
+    if (canaryConfigSummary == null) {
+      return;
+    }
+
+    String canaryConfigName = (String)canaryConfigSummary.get("name");
+
+    idsByName.remove(canaryConfigName, canaryConfigId);
+
+    for (String searchTerm : searchTermsById.removeAll(canaryConfigId)) {
+      idsBySearchTerm.remove(searchTerm, canaryConfigId);
+    }
+
+    for (String application : getApplications(canaryConfigSummary)) {
+      idsByApplication.remove(application, canaryConfigId);
+    }
+  }
+
+  private static List<String> getApplications(Map<String, Object> canaryConfigSummary) {
+    List<String> applications = (List<String>)canaryConfigSummary.get("applications");
+
+    return applications != null ? applications : Collections.emptyList();
+  }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.kayenta.index;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.Transaction;
+import redis.clients.jedis.exceptions.JedisException;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.*;
+
+import static com.netflix.kayenta.index.CanaryConfigIndexingAgent.*;
+
+/**
+ * Keeps indexes in redis, shared by every instance. Each hash is a redis hash and the pending updates queue is a sorted
+ * set scored by the index version each entry was added at, which keeps the entries in queue order while letting any
+ * number of them be removed in one script call instead of one O(N) LREM apiece.
+ *
+ * Every change to a pending updates queue increments the index version and publishes the change on
+ * INDEX_UPDATES_CHANNEL in the same script, so subscribers see the changes in queue order.
+ *
+ * Each index's indexing lease is a key holding the id of the instance that holds it, checked and taken in one script so
+ * that two instances can't both take over the lease of an instance that has stopped recording heartbeats.
+ */
+@Slf4j
+public class RedisCanaryConfigIndexBackend implements CanaryConfigIndexBackend {
+
+  public static final String INDEX_UPDATES_CHANNEL = "kayenta:canaryConfig:index-updates";
+
+  private static final int HEARTBEAT_TTL_SEC = 15;
+
+  private static final String PUSH_PENDING_UPDATE_SCRIPT =
+    "local version = redis.call('INCR', KEYS[2]) " +
+    "redis.call('ZADD', KEYS[1], version, ARGV[1]) " +
+    "redis.call('PUBLISH', ARGV[2], cjson.encode({indexKey = ARGV[3], version = version, pendingUpdate = ARGV[1]})) " +
+    "return version";
+
+  // Removes the pending updates passed after the channel and index key, if any, and bumps the version, which tells every
+  // instance to rebuild its copy of the index.
+  private static final String REMOVE_PENDING_UPDATES_SCRIPT =
+    "local version = redis.call('INCR', KEYS[2]) " +
+    "for i = 3, #ARGV do redis.call('ZREM', KEYS[1], ARGV[i]) end " +
+    "redis.call('PUBLISH', ARGV[1], cjson.encode({indexKey = ARGV[2], version = version})) " +
+    "return version";
+
+  // Returns the previous holder ('' if there was none) if the lease was taken, or nil if a live instance holds it.
+  private static final String ACQUIRE_INDEXING_LEASE_SCRIPT =
+    "local holder = redis.call('GET', KEYS[1]) " +
+    "if holder and holder ~= ARGV[1] and redis.call('EXISTS', ARGV[3] .. holder) == 1 then return false end " +
+    "redis.call('SET', KEYS[1], ARGV[1], 'EX', ARGV[2]) " +
+    "return holder or ''";
+
+  private static final String RELEASE_INDEXING_LEASE_SCRIPT =
+    "if redis.call('GET', KEYS[1]) == ARGV[1] then return redis.call('DEL', KEYS[1]) end " +
+    "return 0";
+
+  private final JedisPool jedisPool;
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  private volatile boolean subscribed = false;
+  private JedisPubSub indexUpdatesSubscriber;
+
+  public RedisCanaryConfigIndexBackend(JedisPool jedisPool) {
+    this.jedisPool = jedisPool;
+  }
+
+  @Override
+  public long getTime() {
+    try (Jedis jedis = jedisPool.getResource()) {
+      List<String> redisTimeList = jedis.time();
+
+      return Long.parseLong(redisTimeList.get(0)) * 1000 + Long.parseLong(redisTimeList.get(1)) / 1000;
+    }
+  }
+
+  @Override
+  public boolean indexExists(String indexKey) {
+    try (Jedis jedis = jedisPool.getResource()) {
+      return jedis.exists(indexKey + MAP_BY_APPLICATION_KEY_SUFFIX);
+    }
+  }
+
+  @Override
+  public IndexRead readIndex(String indexKey) {
+    try (Jedis jedis = jedisPool.getResource()) {
+      Transaction transaction = jedis.multi();
+      Response<String> version = transaction.get(indexKey + INDEX_VERSION_KEY_SUFFIX);
+      Response<List<String>> appScopedCanaryConfigListJsons = transaction.hvals(indexKey + MAP_BY_APPLICATION_KEY_SUFFIX);
+      Response<Set<String>> pendingUpdates = transaction.zrange(indexKey + PENDING_UPDATES_KEY_SUFFIX, 0, -1);
+
+      transaction.exec();
+
+      return new IndexRead(!appScopedCanaryConfigListJsons.get().isEmpty(),
+                           parseVersion(version.get()),
+                           appScopedCanaryConfigListJsons.get(),
+                           pendingUpdates.get());
+    }
+  }
+
+  @Override
+  public IndexRead readFields(String indexKey, String hashKeySuffix, List<String> fields) {
+    try (Jedis jedis = jedisPool.getResource()) {
+      Transaction transaction = jedis.multi();
+      Response<Boolean> indexExists = transaction.exists(indexKey + MAP_BY_APPLICATION_KEY_SUFFIX);
+      Response<String> version = transaction.get(indexKey + INDEX_VERSION_KEY_SUFFIX);
+      Response<List<String>> values = transaction.hmget(indexKey + hashKeySuffix, fields.toArray(new String[0]));
+      Response<Set<String>> pendingUpdates = transaction.zrange(indexKey + PENDING_UPDATES_KEY_SUFFIX, 0, -1);
+
+      transaction.exec();
+
+      return new IndexRead(indexExists.get(), parseVersion(version.get()), values.get(), pendingUpdates.get());
+    }
+  }
+
+  @Override
+  public void replaceIndex(String indexKey, Map<String, Map<String, String>> hashesByKeySuffix) {
+    try (Jedis jedis = jedisPool.getResource()) {
+      Transaction transaction = jedis.multi();
+
+      transaction.del(hashesByKeySuffix.keySet().stream().map(hashKeySuffix -> indexKey + hashKeySuffix).toArray(String[]::new));
+      hashesByKeySuffix.forEach((hashKeySuffix, hash) -> {
+        if (!hash.isEmpty()) {
+          transaction.hmset(indexKey + hashKeySuffix, hash);
+        }
+      });
+      transaction.exec();
+    }
+  }
+
+  @Override
+  public long pushPendingUpdate(String indexKey, String pendingUpdate) {
+    try (Jedis jedis = jedisPool.getResource()) {
+      return (Long)jedis.eval(PUSH_PENDING_UPDATE_SCRIPT,
+                              Arrays.asList(indexKey + PENDING_UPDATES_KEY_SUFFIX, indexKey + INDEX_VERSION_KEY_SUFFIX),
+                              Arrays.asList(pendingUpdate, INDEX_UPDATES_CHANNEL, indexKey));
+    }
+  }
+
+  @Override
+  public long removePendingUpdates(String indexKey, Collection<String> pendingUpdates) {
+    List<String> args = new ArrayList<>(pendingUpdates.size() + 2);
+
+    args.add(INDEX_UPDATES_CHANNEL);
+    args.add(indexKey);
+    args.addAll(pendingUpdates);
+
+    try (Jedis jedis = jedisPool.getResource()) {
+      return (Long)jedis.eval(REMOVE_PENDING_UPDATES_SCRIPT,
+                              Arrays.asList(indexKey + PENDING_UPDATES_KEY_SUFFIX, indexKey + INDEX_VERSION_KEY_SUFFIX),
+                              args);
+    }
+  }
+
+  @Override
+  public void subscribe(IndexUpdateListener listener) {
+    subscribed = true;
+    indexUpdatesSubscriber = new JedisPubSub() {
+      @Override
+      public void onSubscribe(String channel, int subscribedChannels) {
+        // Changes may have been missed while we were not subscribed.
+        listener.onUpdatesMissed();
+      }
+
+      @Override
+      public void onMessage(String channel, String message) {
+        try {
+          Map<String, Object> indexUpdate = objectMapper.readValue(message, new TypeReference<Map<String, Object>>() {});
+
+          listener.onIndexUpdate((String)indexUpdate.get("indexKey"),
+                                 ((Number)indexUpdate.get("version")).longValue(),
+                                 (String)indexUpdate.get("pendingUpdate"));
+        } catch (IOException | RuntimeException e) {
+          log.error("Problem handling canary config index update -> {}: {}", message, e);
+        }
+      }
+    };
+
+    new ThreadFactoryBuilder().setNameFormat("canary-config-index-updates").setDaemon(true).build().newThread(() -> {
+      while (subscribed) {
+        try (Jedis jedis = jedisPool.getResource()) {
+          jedis.subscribe(indexUpdatesSubscriber, INDEX_UPDATES_CHANNEL);
+        } catch (JedisException e) {
+          if (subscribed) {
+            log.warn("Lost subscription to canary config index updates; resubscribing.", e);
+            sleepQuietly(Duration.ofSeconds(1).toMillis());
+          }
+        }
+      }
+    }).start();
+  }
+
+  @Override
+  public void unsubscribe() {
+    subscribed = false;
+
+    if (indexUpdatesSubscriber != null && indexUpdatesSubscriber.isSubscribed()) {
+      indexUpdatesSubscriber.unsubscribe();
+    }
+  }
+
+  @Override
+  public boolean tryAcquireIndexingLease(String indexKey, String instanceId, int leaseTTLSec) {
+    String previousHolderInstanceId;
+
+    try (Jedis jedis = jedisPool.getResource()) {
+      previousHolderInstanceId = (String)jedis.eval(ACQUIRE_INDEXING_LEASE_SCRIPT,
+                                                    Collections.singletonList(indexKey + INDEXING_LEASE_KEY_SUFFIX),
+                                                    Arrays.asList(instanceId, leaseTTLSec + "", HEARTBEAT_KEY_PREFIX));
+    }
+
+    if (previousHolderInstanceId != null && !previousHolderInstanceId.isEmpty() && !previousHolderInstanceId.equals(instanceId)) {
+      log.info("Purloined indexing lease of {} from instance {} because that instance has no heartbeat.", indexKey, previousHolderInstanceId);
+    }
+
+    return previousHolderInstanceId != null;
+  }
+
+  @Override
+  public void releaseIndexingLease(String indexKey, String instanceId) {
+    try (Jedis jedis = jedisPool.getResource()) {
+      jedis.eval(RELEASE_INDEXING_LEASE_SCRIPT, Collections.singletonList(indexKey + INDEXING_LEASE_KEY_SUFFIX), Collections.singletonList(instanceId));
+    }
+  }
+
+  @Override
+  public void recordHeartbeat(String instanceId) {
+    long timestamp = getTime();
+
+    try (Jedis jedis = jedisPool.getResource()) {
+      jedis.setex(HEARTBEAT_KEY_PREFIX + instanceId, HEARTBEAT_TTL_SEC, timestamp + "");
+    }
+  }
+
+  private static long parseVersion(String version) {
+    return version != null ? Long.parseLong(version) : 0;
+  }
+
+  private static void sleepQuietly(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -17,17 +17,26 @@
 package com.netflix.kayenta.index.config;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.netflix.kayenta.index.CanaryConfigCache;
 import com.netflix.kayenta.index.CanaryConfigIndex;
+import com.netflix.kayenta.index.CanaryConfigIndexBackend;
 import com.netflix.kayenta.index.CanaryConfigIndexingAgent;
+import com.netflix.kayenta.index.EmbeddedCanaryConfigIndexBackend;
+import com.netflix.kayenta.index.RedisCanaryConfigIndexBackend;
 import com.netflix.kayenta.security.AccountCredentialsRepository;
 import com.netflix.kayenta.storage.StorageServiceRepository;
+import com.netflix.spectator.api.Registry;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.util.StringUtils;
 import redis.clients.jedis.JedisPool;
 
+import java.nio.file.Paths;
+
 @Configuration
 @EnableConfigurationProperties
 public class IndexConfiguration {
@@ -38,33 +47,67 @@ public class IndexConfiguration {
     return new IndexConfigurationProperties();
   }
 
+  @Bean
+  @ConditionalOnProperty(value = "kayenta.index.backend", havingValue = "redis", matchIfMissing = true)
+  CanaryConfigIndexBackend redisCanaryConfigIndexBackend(JedisPool jedisPool) {
+    return new RedisCanaryConfigIndexBackend(jedisPool);
+  }
+
+  @Bean
+  @ConditionalOnProperty(value = "kayenta.index.backend", havingValue = "embedded")
+  CanaryConfigIndexBackend embeddedCanaryConfigIndexBackend(ObjectMapper kayentaObjectMapper,
+                                                            IndexConfigurationProperties indexConfigurationProperties) {
+    String embeddedBackendDirectory = indexConfigurationProperties.getEmbeddedBackendDirectory();
+
+    if (StringUtils.isEmpty(embeddedBackendDirectory)) {
+      throw new IllegalArgumentException("kayenta.index.embeddedBackendDirectory must be set when kayenta.index.backend is embedded.");
+    }
+
+    return new EmbeddedCanaryConfigIndexBackend(Paths.get(embeddedBackendDirectory), kayentaObjectMapper);
+  }
+
   @Bean
   CanaryConfigIndexingAgent canaryConfigIndexingAgent(String currentInstanceId,
-                                                      JedisPool jedisPool,
+                                                      CanaryConfigIndexBackend canaryConfigIndexBackend,
                                                       AccountCredentialsRepository accountCredentialsRepository,
                                                       StorageServiceRepository storageServiceRepository,
                                                       ObjectMapper kayentaObjectMapper,
                                                       CanaryConfigIndex canaryConfigIndex,
-                                                      IndexConfigurationProperties indexConfigurationProperties) {
+                                                      IndexConfigurationProperties indexConfigurationProperties,
+                                                      Registry registry) {
     return new CanaryConfigIndexingAgent(currentInstanceId,
-                                         jedisPool,
+                                         canaryConfigIndexBackend,
                                          accountCredentialsRepository,
                                          storageServiceRepository,
                                          kayentaObjectMapper,
                                          canaryConfigIndex,
-                                         indexConfigurationProperties);
+                                         indexConfigurationProperties,
+                                         registry);
+  }
+
+  @Bean
+  CanaryConfigIndex canaryConfigIndex(CanaryConfigIndexBackend canaryConfigIndexBackend,
+                                      ObjectMapper kayentaObjectMapper,
+                                      IndexConfigurationProperties indexConfigurationProperties) {
+    return new CanaryConfigIndex(canaryConfigIndexBackend, kayentaObjectMapper, indexConfigurationProperties.getMaterializedIndexMaxAgeMS());
   }
 
   @Bean
-  CanaryConfigIndex canaryConfigIndex(JedisPool jedisPool,
-                                      ObjectMapper kayentaObjectMapper) {
-    return new CanaryConfigIndex(jedisPool, kayentaObjectMapper);
+  CanaryConfigCache canaryConfigCache(AccountCredentialsRepository accountCredentialsRepository,
+                                      CanaryConfigIndex canaryConfigIndex,
+                                      Registry registry,
+                                      IndexConfigurationProperties indexConfigurationProperties) {
+    return new CanaryConfigCache(accountCredentialsRepository,
+                                 canaryConfigIndex,
+                                 registry,
+                                 indexConfigurationProperties.getCanaryConfigCacheMaximumSize());
   }
 
   @Bean
   public ThreadPoolTaskScheduler threadPoolTaskScheduler() {
     ThreadPoolTaskScheduler threadPoolTaskScheduler = new ThreadPoolTaskScheduler();
-    threadPoolTaskScheduler.setPoolSize(2);
+    // The retention sweep, when enabled, may hold a thread for a while, so leave room for the indexing heartbeat.
+    threadPoolTaskScheduler.setPoolSize(3);
     threadPoolTaskScheduler.setThreadNamePrefix("CanaryConfigIndexingAgentThreadPoolTaskScheduler");
 
     return threadPoolTaskScheduler;
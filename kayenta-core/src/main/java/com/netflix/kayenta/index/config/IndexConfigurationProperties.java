@@ -16,6 +16,7 @@
 
 package com.netflix.kayenta.index.config;
 
+import com.netflix.kayenta.storage.StorageServiceBatches;
 import lombok.Getter;
 import lombok.Setter;
 
@@ -23,6 +24,16 @@ import java.time.Duration;
 
 public class IndexConfigurationProperties {
 
+  @Getter
+  @Setter
+  // Either redis, shared by every instance, or embedded, kept on local disk, for deployments with a single instance.
+  private String backend = "redis";
+
+  @Getter
+  @Setter
+  // Required by the embedded backend; it must survive restarts, so somewhere under the instance's data directory.
+  private String embeddedBackendDirectory;
+
   @Getter
   @Setter
   private long heartbeatIntervalMS = Duration.ofSeconds(5).toMillis();
@@ -38,9 +49,29 @@ public class IndexConfigurationProperties {
 
   @Getter
   @Setter
+  // How many changed canary configs are loaded at once while re-indexing an account.
+  private int indexingConcurrency = StorageServiceBatches.DEFAULT_CONCURRENCY;
+
+  @Getter
+  @Setter
+  // Each account is indexed under its own lease; this bounds how long a lease outlives an instance that never released it.
   private int indexingLockTTLSec = (int)Duration.ofMinutes(15).getSeconds();
 
+  @Getter
+  @Setter
+  // Snapshots are written to each configuration store account whose storage service can hold them.
+  private boolean snapshotsEnabled = true;
+
   @Getter
   @Setter
   private long pendingUpdateStaleEntryThresholdMS = Duration.ofHours(1).toMillis();
+
+  @Getter
+  @Setter
+  // Each instance's copy of the index is kept up to date by the backend; this bounds how stale it can get if updates are missed.
+  private long materializedIndexMaxAgeMS = Duration.ofMinutes(1).toMillis();
+
+  @Getter
+  @Setter
+  private long canaryConfigCacheMaximumSize = 1000;
 }
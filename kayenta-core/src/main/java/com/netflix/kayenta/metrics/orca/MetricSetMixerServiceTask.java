@@ -24,6 +24,7 @@ import com.netflix.kayenta.security.AccountCredentialsRepository;
 import com.netflix.kayenta.security.CredentialsHelper;
 import com.netflix.kayenta.storage.ObjectType;
 import com.netflix.kayenta.storage.StorageService;
+import com.netflix.kayenta.storage.StorageServiceFutures;
 import com.netflix.kayenta.storage.StorageServiceRepository;
 import com.netflix.spinnaker.orca.ExecutionStatus;
 import com.netflix.spinnaker.orca.RetryableTask;
@@ -36,6 +37,7 @@ import org.springframework.stereotype.Component;
 import javax.annotation.Nonnull;
 import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 @Component
@@ -89,17 +91,23 @@ public class MetricSetMixerServiceTask implements RetryableTask {
                                          "match size of experimentMetricSetListIds (" + experimentMetricSetListIdsSize + ").");
     }
 
-    List<MetricSetPair> aggregatedMetricSetPairList = new ArrayList<>();
+    // Queue every load up front, and mix each pair of metric set lists as soon as both have arrived. The storage
+    // service bounds how many of the loads run at once.
+    List<CompletableFuture<List<MetricSetPair>>> metricSetPairListFutures = new ArrayList<>(controlMetricSetListIdsSize);
 
     for (int i = 0; i < controlMetricSetListIdsSize; i++) {
-      List<MetricSet> controlMetricSetList =
-        storageService.loadObject(resolvedAccountName, ObjectType.METRIC_SET_LIST, controlMetricSetListIds.get(i));
-      List<MetricSet> experimentMetricSetList =
-        storageService.loadObject(resolvedAccountName, ObjectType.METRIC_SET_LIST, experimentMetricSetListIds.get(i));
-      List<MetricSetPair> metricSetPairList =
-        metricSetMixerService.mixAll(controlMetricSetList, experimentMetricSetList);
-
-      aggregatedMetricSetPairList.addAll(metricSetPairList);
+      CompletableFuture<List<MetricSet>> controlMetricSetList =
+        storageService.loadObjectAsync(resolvedAccountName, ObjectType.METRIC_SET_LIST, controlMetricSetListIds.get(i));
+      CompletableFuture<List<MetricSet>> experimentMetricSetList =
+        storageService.loadObjectAsync(resolvedAccountName, ObjectType.METRIC_SET_LIST, experimentMetricSetListIds.get(i));
+
+      metricSetPairListFutures.add(controlMetricSetList.thenCombine(experimentMetricSetList, metricSetMixerService::mixAll));
+    }
+
+    List<MetricSetPair> aggregatedMetricSetPairList = new ArrayList<>();
+
+    for (CompletableFuture<List<MetricSetPair>> metricSetPairListFuture : metricSetPairListFutures) {
+      aggregatedMetricSetPairList.addAll(StorageServiceFutures.join(metricSetPairListFuture));
     }
 
     String aggregatedMetricSetPairListId = UUID.randomUUID() + "";
@@ -0,0 +1,339 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.kayenta.retention;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.netflix.kayenta.canary.orca.CanaryStageNames;
+import com.netflix.kayenta.retention.config.RetentionConfigurationProperties;
+import com.netflix.kayenta.storage.ObjectType;
+import com.netflix.kayenta.storage.StorageService;
+import com.netflix.kayenta.storage.StorageServiceRepository;
+import com.netflix.spectator.api.Id;
+import com.netflix.spectator.api.Registry;
+import com.netflix.spinnaker.kork.web.exceptions.NotFoundException;
+import com.netflix.spinnaker.orca.events.ExecutionComplete;
+import com.netflix.spinnaker.orca.pipeline.model.Execution;
+import com.netflix.spinnaker.orca.pipeline.model.Stage;
+import com.netflix.spinnaker.orca.pipeline.persistence.ExecutionRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Deletes the intermediate artifacts of canary executions (the metric set lists fetched for each metric, and the mixed
+ * metric set pair list) once the execution has been complete for the configured grace period. Canary results are kept.
+ *
+ * When an execution completes, the ids of its artifacts are recorded in a redis sorted set scored by the time they
+ * become due for deletion, so that they survive restarts and are shared by every instance. Each instance periodically
+ * claims due entries in batches (an entry is only claimed by the instance that removes it from the set) and deletes
+ * them concurrently with batch deletes, at a bounded rate. Failed deletions are retried a limited number of times.
+ */
+@Slf4j
+public class CanaryArtifactRetentionAgent implements ApplicationListener<ExecutionComplete> {
+
+  public static final String PENDING_DELETIONS_KEY = "kayenta:retention:pending-deletions";
+
+  private final JedisPool jedisPool;
+  private final ExecutionRepository executionRepository;
+  private final StorageServiceRepository storageServiceRepository;
+  private final ObjectMapper kayentaObjectMapper;
+  private final Registry registry;
+  private final RetentionConfigurationProperties retentionConfigurationProperties;
+  private final RateLimiter deletionRateLimiter;
+  private final ExecutorService deletionExecutorService;
+
+  private final Id recordedId;
+  private final Id deletionsId;
+  private final Id sweepTimeId;
+
+  public CanaryArtifactRetentionAgent(JedisPool jedisPool,
+                                      ExecutionRepository executionRepository,
+                                      StorageServiceRepository storageServiceRepository,
+                                      ObjectMapper kayentaObjectMapper,
+                                      Registry registry,
+                                      RetentionConfigurationProperties retentionConfigurationProperties) {
+    this.jedisPool = jedisPool;
+    this.executionRepository = executionRepository;
+    this.storageServiceRepository = storageServiceRepository;
+    this.kayentaObjectMapper = kayentaObjectMapper;
+    this.registry = registry;
+    this.retentionConfigurationProperties = retentionConfigurationProperties;
+    this.deletionRateLimiter = RateLimiter.create(retentionConfigurationProperties.getMaxDeletionsPerSecond());
+    this.deletionExecutorService =
+      Executors.newFixedThreadPool(retentionConfigurationProperties.getDeletionConcurrency(),
+                                   new ThreadFactoryBuilder().setNameFormat("retention-delete-%d").setDaemon(true).build());
+
+    this.recordedId = registry.createId("canary.retention.recorded");
+    this.deletionsId = registry.createId("canary.retention.deletions");
+    this.sweepTimeId = registry.createId("canary.retention.sweepTime");
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    deletionExecutorService.shutdownNow();
+  }
+
+  @Override
+  public void onApplicationEvent(ExecutionComplete event) {
+    if (event.getExecutionType() != Execution.ExecutionType.PIPELINE) {
+      return;
+    }
+
+    try {
+      recordArtifacts(executionRepository.retrieve(Execution.ExecutionType.PIPELINE, event.getExecutionId()));
+    } catch (Exception e) {
+      // Failing to record the artifacts only means they are kept, so this must never fail the execution.
+      log.warn("Unable to record intermediate artifacts of execution {} for deletion.", event.getExecutionId(), e);
+    }
+  }
+
+  public void recordArtifacts(Execution execution) throws JsonProcessingException {
+    Optional<Stage> contextStage = execution.getStages().stream()
+      .filter(stage -> CanaryStageNames.REFID_SET_CONTEXT.equals(stage.getRefId()))
+      .findFirst();
+
+    // Not a canary execution.
+    if (!contextStage.isPresent()) {
+      return;
+    }
+
+    String storageAccountName = (String)contextStage.get().getContext().get("storageAccountName");
+
+    if (storageAccountName == null) {
+      return;
+    }
+
+    List<PendingArtifactDeletion> pendingArtifactDeletions = new ArrayList<>();
+
+    for (Stage stage : execution.getStages()) {
+      String refId = stage.getRefId();
+
+      if (refId == null) {
+        continue;
+      }
+
+      if (refId.startsWith(CanaryStageNames.REFID_FETCH_CONTROL_PREFIX) || refId.startsWith(CanaryStageNames.REFID_FETCH_EXPERIMENT_PREFIX)) {
+        addPendingArtifactDeletion(pendingArtifactDeletions, storageAccountName, ObjectType.METRIC_SET_LIST, stage.getOutputs().get("metricSetId"));
+      } else if (refId.equals(CanaryStageNames.REFID_MIX_METRICS)) {
+        addPendingArtifactDeletion(pendingArtifactDeletions, storageAccountName, ObjectType.METRIC_SET_PAIR_LIST, stage.getOutputs().get("metricSetPairListId"));
+      }
+    }
+
+    if (pendingArtifactDeletions.isEmpty()) {
+      return;
+    }
+
+    try (Jedis jedis = jedisPool.getResource()) {
+      double dueTimestamp = getRedisTime(jedis) + retentionConfigurationProperties.getGracePeriodMS();
+      Map<String, Double> scoreMembers = new HashMap<>();
+
+      for (PendingArtifactDeletion pendingArtifactDeletion : pendingArtifactDeletions) {
+        scoreMembers.put(kayentaObjectMapper.writeValueAsString(pendingArtifactDeletion), dueTimestamp);
+        registry.counter(recordedId.withTag("objectType", pendingArtifactDeletion.getObjectType().name())).increment();
+      }
+
+      jedis.zadd(PENDING_DELETIONS_KEY, scoreMembers);
+    }
+
+    log.debug("Recorded {} intermediate artifacts of execution {} for deletion.", pendingArtifactDeletions.size(), execution.getId());
+  }
+
+  private static void addPendingArtifactDeletion(List<PendingArtifactDeletion> pendingArtifactDeletions,
+                                                 String accountName,
+                                                 ObjectType objectType,
+                                                 Object objectKey) {
+    if (objectKey instanceof String) {
+      pendingArtifactDeletions.add(new PendingArtifactDeletion(accountName, objectType, (String)objectKey, 0));
+    }
+  }
+
+  @Scheduled(initialDelayString = "#{@retentionConfigurationProperties.sweepIntervalMS}", fixedDelayString = "#{@retentionConfigurationProperties.sweepIntervalMS}")
+  public void sweep() {
+    long startTime = registry.clock().monotonicTime();
+    int maxDeletionsPerSweep = retentionConfigurationProperties.getMaxDeletionsPerSweep();
+    int deletionsAttempted = 0;
+
+    try {
+      while (deletionsAttempted < maxDeletionsPerSweep) {
+        List<PendingArtifactDeletion> claimedDeletions =
+          claimDueDeletions(Math.min(retentionConfigurationProperties.getBatchSize(), maxDeletionsPerSweep - deletionsAttempted));
+
+        if (claimedDeletions.isEmpty()) {
+          break;
+        }
+
+        Map<String, Map<ObjectType, List<PendingArtifactDeletion>>> claimedDeletionsByAccount = claimedDeletions.stream()
+          .collect(Collectors.groupingBy(PendingArtifactDeletion::getAccountName, Collectors.groupingBy(PendingArtifactDeletion::getObjectType)));
+        List<Future<?>> deletions = new ArrayList<>();
+
+        for (Map<ObjectType, List<PendingArtifactDeletion>> claimedDeletionsByType : claimedDeletionsByAccount.values()) {
+          for (List<PendingArtifactDeletion> pendingArtifactDeletions : claimedDeletionsByType.values()) {
+            deletionRateLimiter.acquire(pendingArtifactDeletions.size());
+            deletions.add(deletionExecutorService.submit(() -> delete(pendingArtifactDeletions)));
+          }
+        }
+
+        for (Future<?> deletion : deletions) {
+          deletion.get();
+        }
+
+        deletionsAttempted += claimedDeletions.size();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      log.error("Unexpected failure while deleting intermediate artifacts.", e.getCause());
+    } finally {
+      registry.timer(sweepTimeId).record(registry.clock().monotonicTime() - startTime, TimeUnit.NANOSECONDS);
+    }
+
+    if (deletionsAttempted > 0) {
+      log.info("Attempted deletion of {} intermediate artifacts.", deletionsAttempted);
+    }
+  }
+
+  // An entry is claimed by whichever instance removes it from the set. A claimed entry whose deletion is interrupted
+  // by a restart is lost, which only means the artifact is kept.
+  private List<PendingArtifactDeletion> claimDueDeletions(int count) {
+    List<PendingArtifactDeletion> claimedDeletions = new ArrayList<>();
+
+    try (Jedis jedis = jedisPool.getResource()) {
+      Set<String> dueMembers = jedis.zrangeByScore(PENDING_DELETIONS_KEY, Double.NEGATIVE_INFINITY, getRedisTime(jedis), 0, count);
+
+      if (dueMembers.isEmpty()) {
+        return claimedDeletions;
+      }
+
+      Pipeline pipeline = jedis.pipelined();
+      Map<String, Response<Long>> removals = new HashMap<>();
+
+      for (String dueMember : dueMembers) {
+        removals.put(dueMember, pipeline.zrem(PENDING_DELETIONS_KEY, dueMember));
+      }
+
+      pipeline.sync();
+
+      for (Map.Entry<String, Response<Long>> removal : removals.entrySet()) {
+        if (removal.getValue().get() == 1) {
+          try {
+            claimedDeletions.add(kayentaObjectMapper.readValue(removal.getKey(), PendingArtifactDeletion.class));
+          } catch (IOException e) {
+            log.warn("Discarding unreadable pending artifact deletion {}.", removal.getKey(), e);
+          }
+        }
+      }
+    }
+
+    return claimedDeletions;
+  }
+
+  // Deletes artifacts of the same account and type with a single batch delete. If that fails, each is retried on its own
+  // so that failures are accounted for per artifact.
+  private void delete(List<PendingArtifactDeletion> pendingArtifactDeletions) {
+    PendingArtifactDeletion first = pendingArtifactDeletions.get(0);
+    String accountName = first.getAccountName();
+    ObjectType objectType = first.getObjectType();
+    Optional<StorageService> storageService = storageServiceRepository.getOne(accountName);
+
+    if (storageService.isPresent() && pendingArtifactDeletions.size() > 1) {
+      List<String> objectKeys = pendingArtifactDeletions.stream().map(PendingArtifactDeletion::getObjectKey).collect(Collectors.toList());
+
+      try {
+        storageService.get().deleteObjects(accountName, objectType, objectKeys);
+        registry.counter(deletionsId.withTag("objectType", objectType.name()).withTag("result", "success")).increment(objectKeys.size());
+        return;
+      } catch (Exception e) {
+        log.debug("Batch deletion of {} {} objects in account {} failed; deleting them individually.", objectKeys.size(), objectType, accountName, e);
+      }
+    }
+
+    pendingArtifactDeletions.forEach(this::delete);
+  }
+
+  private void delete(PendingArtifactDeletion pendingArtifactDeletion) {
+    String accountName = pendingArtifactDeletion.getAccountName();
+    ObjectType objectType = pendingArtifactDeletion.getObjectType();
+    String objectKey = pendingArtifactDeletion.getObjectKey();
+    Optional<StorageService> storageService = storageServiceRepository.getOne(accountName);
+
+    if (!storageService.isPresent()) {
+      log.warn("Abandoning deletion of {} {} because account {} no longer has a storage service.", objectType, objectKey, accountName);
+      recordDeletion(objectType, "abandoned");
+      return;
+    }
+
+    try {
+      storageService.get().deleteObject(accountName, objectType, objectKey);
+      recordDeletion(objectType, "success");
+    } catch (NotFoundException e) {
+      recordDeletion(objectType, "notFound");
+    } catch (Exception e) {
+      int attempts = pendingArtifactDeletion.getAttempts() + 1;
+
+      if (attempts >= retentionConfigurationProperties.getMaxAttempts()) {
+        log.warn("Abandoning deletion of {} {} in account {} after {} attempts.", objectType, objectKey, accountName, attempts, e);
+        recordDeletion(objectType, "abandoned");
+        return;
+      }
+
+      log.debug("Failed to delete {} {} in account {}; will retry.", objectType, objectKey, accountName, e);
+      recordDeletion(objectType, "failure");
+      reschedule(new PendingArtifactDeletion(accountName, objectType, objectKey, attempts));
+    }
+  }
+
+  private void reschedule(PendingArtifactDeletion pendingArtifactDeletion) {
+    try (Jedis jedis = jedisPool.getResource()) {
+      double dueTimestamp = getRedisTime(jedis) + retentionConfigurationProperties.getRetryDelayMS();
+
+      jedis.zadd(PENDING_DELETIONS_KEY, dueTimestamp, kayentaObjectMapper.writeValueAsString(pendingArtifactDeletion));
+    } catch (Exception e) {
+      log.warn("Unable to reschedule deletion of {} {}.", pendingArtifactDeletion.getObjectType(), pendingArtifactDeletion.getObjectKey(), e);
+    }
+  }
+
+  private void recordDeletion(ObjectType objectType, String result) {
+    registry.counter(deletionsId.withTag("objectType", objectType.name()).withTag("result", result)).increment();
+  }
+
+  private static long getRedisTime(Jedis jedis) {
+    List<String> redisTimeList = jedis.time();
+
+    return Long.parseLong(redisTimeList.get(0)) * 1000 + Long.parseLong(redisTimeList.get(1)) / 1000;
+  }
+}
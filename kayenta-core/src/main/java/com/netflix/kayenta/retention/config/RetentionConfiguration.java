@@ -0,0 +1,63 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.kayenta.retention.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.netflix.kayenta.retention.CanaryArtifactRetentionAgent;
+import com.netflix.kayenta.storage.StorageServiceRepository;
+import com.netflix.spectator.api.Registry;
+import com.netflix.spinnaker.orca.pipeline.persistence.ExecutionRepository;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import redis.clients.jedis.JedisPool;
+
+@Configuration
+@EnableConfigurationProperties
+@ConditionalOnProperty("kayenta.retention.enabled")
+public class RetentionConfiguration {
+
+  @Bean
+  @ConfigurationProperties("kayenta.retention")
+  RetentionConfigurationProperties retentionConfigurationProperties() {
+    return new RetentionConfigurationProperties();
+  }
+
+  @Bean
+  CanaryArtifactRetentionAgent canaryArtifactRetentionAgent(JedisPool jedisPool,
+                                                            ExecutionRepository executionRepository,
+                                                            StorageServiceRepository storageServiceRepository,
+                                                            ObjectMapper kayentaObjectMapper,
+                                                            Registry registry,
+                                                            RetentionConfigurationProperties retentionConfigurationProperties) {
+    if (retentionConfigurationProperties.getDeletionConcurrency() <= 0) {
+      throw new IllegalArgumentException("kayenta.retention.deletionConcurrency must be positive.");
+    }
+
+    if (retentionConfigurationProperties.getMaxDeletionsPerSecond() <= 0) {
+      throw new IllegalArgumentException("kayenta.retention.maxDeletionsPerSecond must be positive.");
+    }
+
+    return new CanaryArtifactRetentionAgent(jedisPool,
+                                            executionRepository,
+                                            storageServiceRepository,
+                                            kayentaObjectMapper,
+                                            registry,
+                                            retentionConfigurationProperties);
+  }
+}
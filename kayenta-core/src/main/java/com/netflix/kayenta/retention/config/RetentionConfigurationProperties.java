@@ -0,0 +1,58 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.kayenta.retention.config;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.time.Duration;
+
+public class RetentionConfigurationProperties {
+
+  // How long the intermediate artifacts of a completed canary execution are kept, so that they can still be inspected.
+  @Getter
+  @Setter
+  private long gracePeriodMS = Duration.ofDays(1).toMillis();
+
+  @Getter
+  @Setter
+  private long sweepIntervalMS = Duration.ofMinutes(1).toMillis();
+
+  // The number of due deletions claimed from the pending deletions set at a time.
+  @Getter
+  @Setter
+  private int batchSize = 100;
+
+  @Getter
+  @Setter
+  private int maxDeletionsPerSweep = 10000;
+
+  @Getter
+  @Setter
+  private int deletionConcurrency = 4;
+
+  @Getter
+  @Setter
+  private double maxDeletionsPerSecond = 50;
+
+  @Getter
+  @Setter
+  private int maxAttempts = 5;
+
+  @Getter
+  @Setter
+  private long retryDelayMS = Duration.ofMinutes(5).toMillis();
+}
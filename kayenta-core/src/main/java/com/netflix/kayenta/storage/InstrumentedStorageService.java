@@ -0,0 +1,240 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.kayenta.storage;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+import com.netflix.spectator.api.Id;
+import com.netflix.spectator.api.Registry;
+import com.netflix.spinnaker.kork.web.exceptions.NotFoundException;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Records the latency and outcome of every operation on the wrapped storage service, tagged by operation, object type,
+ * account and storage service, along with the serialized size of the objects loaded and stored. Operations that take
+ * longer than the slow call threshold are logged.
+ *
+ * The storage services serialize objects internally, so their serialized size is measured by serializing them again
+ * into a counting stream. As that doubles the serialization cost, it is only done when
+ * kayenta.storage.recordSerializedBytes is turned on.
+ */
+@Slf4j
+class InstrumentedStorageService implements StorageService {
+
+  private final StorageService delegate;
+  private final Registry registry;
+  private final ObjectMapper objectMapper;
+  private final long slowCallThresholdMS;
+  private final String storageServiceName;
+
+  private final Id operationsId;
+  private final Id serializedBytesId;
+
+  InstrumentedStorageService(StorageService delegate, Registry registry, ObjectMapper objectMapper, long slowCallThresholdMS) {
+    this.delegate = delegate;
+    this.registry = registry;
+    this.objectMapper = objectMapper;
+    this.slowCallThresholdMS = slowCallThresholdMS;
+    this.storageServiceName = delegate.getClass().getSimpleName();
+
+    this.operationsId = registry.createId("storage.operations").withTag("storageService", storageServiceName);
+    this.serializedBytesId = registry.createId("storage.serializedBytes").withTag("storageService", storageServiceName);
+  }
+
+  @Override
+  public boolean servicesAccount(String accountName) {
+    return delegate.servicesAccount(accountName);
+  }
+
+  @Override
+  public boolean maintainsCanaryConfigIndex() {
+    return delegate.maintainsCanaryConfigIndex();
+  }
+
+  @Override
+  public boolean storesCanaryConfigIndexSnapshots() {
+    return delegate.storesCanaryConfigIndexSnapshots();
+  }
+
+  @Override
+  public <T> T loadObject(String accountName, ObjectType objectType, String objectKey) throws IllegalArgumentException, NotFoundException {
+    T obj = record("load", accountName, objectType, () -> delegate.loadObject(accountName, objectType, objectKey));
+
+    recordSerializedBytes("load", accountName, objectType, obj);
+
+    return obj;
+  }
+
+  @Override
+  public <T> void storeObject(String accountName, ObjectType objectType, String objectKey, T obj, String filename, boolean isAnUpdate) {
+    recordSerializedBytes("store", accountName, objectType, obj);
+    record("store", accountName, objectType, () -> {
+      delegate.storeObject(accountName, objectType, objectKey, obj, filename, isAnUpdate);
+      return null;
+    });
+  }
+
+  @Override
+  public void deleteObject(String accountName, ObjectType objectType, String objectKey) {
+    record("delete", accountName, objectType, () -> {
+      delegate.deleteObject(accountName, objectType, objectKey);
+      return null;
+    });
+  }
+
+  @Override
+  public List<Map<String, Object>> listObjectKeys(String accountName, ObjectType objectType, List<String> applications, boolean skipIndex) {
+    return record("list", accountName, objectType, () -> delegate.listObjectKeys(accountName, objectType, applications, skipIndex));
+  }
+
+  @Override
+  public void forEachObjectKey(String accountName, ObjectType objectType, List<String> applications, boolean skipIndex, Consumer<Map<String, Object>> consumer) {
+    record("list", accountName, objectType, () -> {
+      delegate.forEachObjectKey(accountName, objectType, applications, skipIndex, consumer);
+      return null;
+    });
+  }
+
+  // The batch and asynchronous operations are passed through to the delegate, rather than left to the default
+  // implementations, so that its own implementations of them are still used.
+
+  @Override
+  public <T> List<T> loadObjects(String accountName, ObjectType objectType, List<String> objectKeys) {
+    List<T> objs = record("loadBatch", accountName, objectType, () -> delegate.loadObjects(accountName, objectType, objectKeys));
+
+    objs.forEach(obj -> recordSerializedBytes("load", accountName, objectType, obj));
+
+    return objs;
+  }
+
+  @Override
+  public <T> void storeObjects(String accountName, ObjectType objectType, Map<String, T> objectsByKey) {
+    objectsByKey.values().forEach(obj -> recordSerializedBytes("store", accountName, objectType, obj));
+    record("storeBatch", accountName, objectType, () -> {
+      delegate.storeObjects(accountName, objectType, objectsByKey);
+      return null;
+    });
+  }
+
+  @Override
+  public void deleteObjects(String accountName, ObjectType objectType, List<String> objectKeys) {
+    record("deleteBatch", accountName, objectType, () -> {
+      delegate.deleteObjects(accountName, objectType, objectKeys);
+      return null;
+    });
+  }
+
+  @Override
+  public <T> CompletableFuture<T> loadObjectAsync(String accountName, ObjectType objectType, String objectKey) {
+    long startTime = registry.clock().monotonicTime();
+
+    return delegate.<T>loadObjectAsync(accountName, objectType, objectKey).whenComplete((obj, t) -> {
+      recordCompletion("load", accountName, objectType, startTime, t);
+
+      if (t == null) {
+        recordSerializedBytes("load", accountName, objectType, obj);
+      }
+    });
+  }
+
+  @Override
+  public <T> CompletableFuture<Void> storeObjectAsync(String accountName, ObjectType objectType, String objectKey, T obj) {
+    recordSerializedBytes("store", accountName, objectType, obj);
+
+    long startTime = registry.clock().monotonicTime();
+
+    return delegate.storeObjectAsync(accountName, objectType, objectKey, obj)
+      .whenComplete((result, t) -> recordCompletion("store", accountName, objectType, startTime, t));
+  }
+
+  @Override
+  public CompletableFuture<Void> deleteObjectAsync(String accountName, ObjectType objectType, String objectKey) {
+    long startTime = registry.clock().monotonicTime();
+
+    return delegate.deleteObjectAsync(accountName, objectType, objectKey)
+      .whenComplete((result, t) -> recordCompletion("delete", accountName, objectType, startTime, t));
+  }
+
+  private <T> T record(String operation, String accountName, ObjectType objectType, Supplier<T> call) {
+    long startTime = registry.clock().monotonicTime();
+    Throwable failure = null;
+
+    try {
+      return call.get();
+    } catch (RuntimeException | Error e) {
+      failure = e;
+      throw e;
+    } finally {
+      recordCompletion(operation, accountName, objectType, startTime, failure);
+    }
+  }
+
+  private void recordCompletion(String operation, String accountName, ObjectType objectType, long startTime, Throwable failure) {
+    long durationNanos = registry.clock().monotonicTime() - startTime;
+
+    if (failure instanceof CompletionException && failure.getCause() != null) {
+      failure = failure.getCause();
+    }
+
+    String result = failure == null ? "success" : failure instanceof NotFoundException ? "notFound" : "failure";
+    Id id = operationsId
+      .withTag("operation", operation)
+      .withTag("objectType", objectType.name())
+      .withTag("account", accountName)
+      .withTag("result", result);
+
+    registry.timer(id).record(durationNanos, TimeUnit.NANOSECONDS);
+
+    long durationMS = TimeUnit.NANOSECONDS.toMillis(durationNanos);
+
+    if (durationMS >= slowCallThresholdMS) {
+      log.warn("Slow {} of {} in account {} by {} took {}ms (result: {}).",
+               operation, objectType, accountName, storageServiceName, durationMS, result);
+    }
+  }
+
+  private void recordSerializedBytes(String operation, String accountName, ObjectType objectType, Object obj) {
+    if (objectMapper == null || obj == null) {
+      return;
+    }
+
+    CountingOutputStream countingOutputStream = new CountingOutputStream(ByteStreams.nullOutputStream());
+
+    try {
+      objectMapper.writeValue(countingOutputStream, obj);
+    } catch (IOException e) {
+      // The storage service reports its own serialization failures.
+      return;
+    }
+
+    Id id = serializedBytesId
+      .withTag("operation", operation)
+      .withTag("objectType", objectType.name())
+      .withTag("account", accountName);
+
+    registry.distributionSummary(id).record(countingOutputStream.getCount());
+  }
+}
@@ -16,22 +16,66 @@
 
 package com.netflix.kayenta.storage;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.netflix.kayenta.config.StorageConfigurationProperties;
+import com.netflix.spectator.api.Registry;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Collectors;
 
 public class MapBackedStorageServiceRepository implements StorageServiceRepository {
 
   @Autowired(required = false)
   List<StorageService> storageServices = Collections.emptyList();
 
+  @Autowired(required = false)
+  StorageConfigurationProperties storageConfigurationProperties;
+
+  @Autowired(required = false)
+  Registry registry;
+
+  @Autowired(required = false)
+  ObjectMapper kayentaObjectMapper;
+
+  // Each storage service is wrapped once, on first use, since the collaborators above are injected after construction.
+  private final Supplier<List<StorageService>> instrumentedStorageServices =
+    Suppliers.memoize(() -> storageServices.stream().map(this::instrument).collect(Collectors.toList()));
+
   @Override
   public Optional<StorageService> getOne(String accountName) {
-    return storageServices
+    Optional<StorageService> storageService = findStorageService(accountName);
+    Map<ObjectType, String> objectTypeAccounts =
+      storageConfigurationProperties != null ? storageConfigurationProperties.getObjectTypeAccounts() : Collections.emptyMap();
+
+    if (objectTypeAccounts.isEmpty()) {
+      return storageService;
+    }
+
+    return storageService.map(s -> new ObjectTypeRoutingStorageService(s, objectTypeAccounts, this::findStorageService));
+  }
+
+  private Optional<StorageService> findStorageService(String accountName) {
+    return instrumentedStorageServices
+      .get()
       .stream()
       .filter(s -> s.servicesAccount(accountName))
       .findFirst();
   }
+
+  private StorageService instrument(StorageService storageService) {
+    if (registry == null) {
+      return storageService;
+    }
+
+    boolean recordSerializedBytes = storageConfigurationProperties != null && storageConfigurationProperties.isRecordSerializedBytes();
+    long slowCallThresholdMS = storageConfigurationProperties != null ? storageConfigurationProperties.getSlowCallThresholdMS() : Long.MAX_VALUE;
+
+    return new InstrumentedStorageService(storageService, registry, recordSerializedBytes ? kayentaObjectMapper : null, slowCallThresholdMS);
+  }
 }
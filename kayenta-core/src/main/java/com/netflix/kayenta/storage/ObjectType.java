@@ -18,6 +18,7 @@ package com.netflix.kayenta.storage;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.netflix.kayenta.canary.CanaryConfig;
+import com.netflix.kayenta.canary.CanaryConfigIndexSnapshot;
 import com.netflix.kayenta.canary.results.CanaryResult;
 import com.netflix.kayenta.metrics.MetricSet;
 import com.netflix.kayenta.metrics.MetricSetPair;
@@ -31,7 +32,9 @@ public enum ObjectType {
   CANARY_CONFIG(new TypeReference<CanaryConfig>() {}, "canary_config", "canary_config.json"),
   METRIC_SET_LIST(new TypeReference<List<MetricSet>>() {}, "metrics", "metric_sets.json"),
   METRIC_SET_PAIR_LIST(new TypeReference<List<MetricSetPair>>() {}, "metric_pairs", "metric_set_pairs.json"),
-  CANARY_RESULT(new TypeReference<CanaryResult>() {}, "canary_results", "canary_results.json");
+  CANARY_RESULT(new TypeReference<CanaryResult>() {}, "canary_results", "canary_results.json"),
+  // The group must not start with another group's name, since some stores list a group by its bare prefix.
+  CANARY_CONFIG_INDEX_SNAPSHOT(new TypeReference<CanaryConfigIndexSnapshot>() {}, "index_snapshots", "canary_config_index.json");
 
   @Getter
   final TypeReference typeReference;
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.kayenta.storage;
+
+import com.netflix.spinnaker.kork.web.exceptions.NotFoundException;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Sends operations on the configured object types to the storage service (and account) they are routed to, and all
+ * other operations to the storage service servicing the requested account.
+ */
+class ObjectTypeRoutingStorageService implements StorageService {
+
+  private final StorageService defaultStorageService;
+  private final Map<ObjectType, String> objectTypeAccounts;
+  private final Function<String, Optional<StorageService>> storageServiceResolver;
+
+  ObjectTypeRoutingStorageService(StorageService defaultStorageService,
+                                  Map<ObjectType, String> objectTypeAccounts,
+                                  Function<String, Optional<StorageService>> storageServiceResolver) {
+    this.defaultStorageService = defaultStorageService;
+    this.objectTypeAccounts = objectTypeAccounts;
+    this.storageServiceResolver = storageServiceResolver;
+  }
+
+  @Override
+  public boolean servicesAccount(String accountName) {
+    return defaultStorageService.servicesAccount(accountName);
+  }
+
+  @Override
+  public boolean maintainsCanaryConfigIndex() {
+    // Canary configs routed to another account are indexed under that account, not the one they are requested from.
+    return !objectTypeAccounts.containsKey(ObjectType.CANARY_CONFIG) && defaultStorageService.maintainsCanaryConfigIndex();
+  }
+
+  @Override
+  public boolean storesCanaryConfigIndexSnapshots() {
+    return resolveStorageService(ObjectType.CANARY_CONFIG_INDEX_SNAPSHOT).storesCanaryConfigIndexSnapshots();
+  }
+
+  @Override
+  public <T> T loadObject(String accountName, ObjectType objectType, String objectKey) throws IllegalArgumentException, NotFoundException {
+    return resolveStorageService(objectType).loadObject(resolveAccountName(accountName, objectType), objectType, objectKey);
+  }
+
+  @Override
+  public <T> void storeObject(String accountName, ObjectType objectType, String objectKey, T obj, String filename, boolean isAnUpdate) {
+    resolveStorageService(objectType).storeObject(resolveAccountName(accountName, objectType), objectType, objectKey, obj, filename, isAnUpdate);
+  }
+
+  @Override
+  public void deleteObject(String accountName, ObjectType objectType, String objectKey) {
+    resolveStorageService(objectType).deleteObject(resolveAccountName(accountName, objectType), objectType, objectKey);
+  }
+
+  @Override
+  public <T> List<T> loadObjects(String accountName, ObjectType objectType, List<String> objectKeys) {
+    return resolveStorageService(objectType).loadObjects(resolveAccountName(accountName, objectType), objectType, objectKeys);
+  }
+
+  @Override
+  public <T> void storeObjects(String accountName, ObjectType objectType, Map<String, T> objectsByKey) {
+    resolveStorageService(objectType).storeObjects(resolveAccountName(accountName, objectType), objectType, objectsByKey);
+  }
+
+  @Override
+  public void deleteObjects(String accountName, ObjectType objectType, List<String> objectKeys) {
+    resolveStorageService(objectType).deleteObjects(resolveAccountName(accountName, objectType), objectType, objectKeys);
+  }
+
+  @Override
+  public <T> CompletableFuture<T> loadObjectAsync(String accountName, ObjectType objectType, String objectKey) {
+    return resolveStorageService(objectType).loadObjectAsync(resolveAccountName(accountName, objectType), objectType, objectKey);
+  }
+
+  @Override
+  public <T> CompletableFuture<Void> storeObjectAsync(String accountName, ObjectType objectType, String objectKey, T obj) {
+    return resolveStorageService(objectType).storeObjectAsync(resolveAccountName(accountName, objectType), objectType, objectKey, obj);
+  }
+
+  @Override
+  public CompletableFuture<Void> deleteObjectAsync(String accountName, ObjectType objectType, String objectKey) {
+    return resolveStorageService(objectType).deleteObjectAsync(resolveAccountName(accountName, objectType), objectType, objectKey);
+  }
+
+  @Override
+  public List<Map<String, Object>> listObjectKeys(String accountName, ObjectType objectType, List<String> applications, boolean skipIndex) {
+    return resolveStorageService(objectType).listObjectKeys(resolveAccountName(accountName, objectType), objectType, applications, skipIndex);
+  }
+
+  @Override
+  public void forEachObjectKey(String accountName, ObjectType objectType, List<String> applications, boolean skipIndex, Consumer<Map<String, Object>> consumer) {
+    resolveStorageService(objectType).forEachObjectKey(resolveAccountName(accountName, objectType), objectType, applications, skipIndex, consumer);
+  }
+
+  private String resolveAccountName(String accountName, ObjectType objectType) {
+    return objectTypeAccounts.getOrDefault(objectType, accountName);
+  }
+
+  private StorageService resolveStorageService(ObjectType objectType) {
+    String routedAccountName = objectTypeAccounts.get(objectType);
+
+    if (routedAccountName == null) {
+      return defaultStorageService;
+    }
+
+    return storageServiceResolver
+      .apply(routedAccountName)
+      .orElseThrow(() -> new IllegalArgumentException("No storage service was configured for account " + routedAccountName + ", which " + objectType + " objects are routed to."));
+  }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.kayenta.storage;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Object stores lay objects out as typedFolder/objectKey/filename, which sends every write of a type to the same key
+ * prefix. The sharded layout inserts a two hex digit folder derived from a hash of the object key, as in
+ * typedFolder/shard/objectKey/filename, so that writes are spread across 256 prefixes.
+ *
+ * Objects written before the sharded layout was enabled stay where they are, so lookups must try both layouts.
+ */
+public class ShardedKeyLayout {
+
+  private static final HashFunction SHARD_HASH_FUNCTION = Hashing.murmur3_32();
+
+  public static String shardFolder(String objectKey) {
+    int hash = SHARD_HASH_FUNCTION.hashString(objectKey, StandardCharsets.UTF_8).asInt();
+
+    return String.format("%02x", hash & 0xff);
+  }
+
+  public static String objectFolder(String typedFolder, String objectKey, boolean sharded) {
+    return sharded ? typedFolder + "/" + shardFolder(objectKey) + "/" + objectKey : typedFolder + "/" + objectKey;
+  }
+
+  /**
+   * The folders an object may be stored under, most likely first.
+   */
+  public static List<String> candidateObjectFolders(String typedFolder, String objectKey, boolean sharded) {
+    if (sharded) {
+      return Arrays.asList(objectFolder(typedFolder, objectKey, true), objectFolder(typedFolder, objectKey, false));
+    }
+
+    return Collections.singletonList(objectFolder(typedFolder, objectKey, false));
+  }
+
+  /**
+   * Extract the object key from the full name of a stored object, whichever layout it was stored with. The offset is
+   * the length of the typed folder plus its trailing slash.
+   */
+  public static String extractObjectKey(String objectName, int skipToOffset) {
+    String objectFolder = objectName.substring(skipToOffset, objectName.lastIndexOf("/"));
+    int indexOfSlash = objectFolder.indexOf("/");
+
+    return indexOfSlash == -1 ? objectFolder : objectFolder.substring(indexOfSlash + 1);
+  }
+}
@@ -18,8 +18,11 @@ package com.netflix.kayenta.storage;
 
 import com.netflix.spinnaker.kork.web.exceptions.NotFoundException;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 public interface StorageService {
   boolean servicesAccount(String accountName);
@@ -28,6 +31,22 @@ public interface StorageService {
   void deleteObject(String accountName, ObjectType objectType, String objectKey);
   List<Map<String, Object>> listObjectKeys(String accountName, ObjectType objectType, List<String> applications, boolean skipIndex);
 
+  /**
+   * Whether this storage service records each canary config store and delete in the canary config index before making
+   * it, so that the index always has the current version of each of its canary configs. Only then can loaded canary
+   * configs be cached against the index.
+   */
+  default boolean maintainsCanaryConfigIndex() {
+    return false;
+  }
+
+  /**
+   * Whether this storage service can hold canary config index snapshots alongside the canary configs of an account.
+   */
+  default boolean storesCanaryConfigIndexSnapshots() {
+    return true;
+  }
+
   default <T> void storeObject(String accountName, ObjectType objectType, String objectKey, T obj) {
     storeObject(accountName, objectType, objectKey, obj, null, true);
   }
@@ -35,4 +54,60 @@ public interface StorageService {
   default List<Map<String, Object>> listObjectKeys(String accountName, ObjectType objectType) {
     return listObjectKeys(accountName, objectType, null, false);
   }
+
+  /**
+   * Hands each object key to the consumer as it is listed. Implementations that can page through their listing should
+   * override this so that callers do not need to hold the entire listing in memory.
+   */
+  default void forEachObjectKey(String accountName, ObjectType objectType, List<String> applications, boolean skipIndex, Consumer<Map<String, Object>> consumer) {
+    listObjectKeys(accountName, objectType, applications, skipIndex).forEach(consumer);
+  }
+
+  /**
+   * Loads several objects of the same type, returning them in the same order as the keys. Fails if any of them can not be
+   * loaded.
+   */
+  default <T> List<T> loadObjects(String accountName, ObjectType objectType, List<String> objectKeys) {
+    return StorageServiceBatches.map(objectKeys,
+                                     StorageServiceBatches.DEFAULT_CONCURRENCY,
+                                     objectKey -> this.<T>loadObject(accountName, objectType, objectKey));
+  }
+
+  default <T> void storeObjects(String accountName, ObjectType objectType, Map<String, T> objectsByKey) {
+    StorageServiceBatches.forEach(new ArrayList<>(objectsByKey.entrySet()),
+                                  StorageServiceBatches.DEFAULT_CONCURRENCY,
+                                  entry -> storeObject(accountName, objectType, entry.getKey(), entry.getValue()));
+  }
+
+  /**
+   * Deletes several objects of the same type. Keys that do not exist are ignored. Implementations backed by a store with
+   * a bulk delete operation should override this.
+   */
+  default void deleteObjects(String accountName, ObjectType objectType, List<String> objectKeys) {
+    StorageServiceBatches.forEach(objectKeys, StorageServiceBatches.DEFAULT_CONCURRENCY, objectKey -> {
+      try {
+        deleteObject(accountName, objectType, objectKey);
+      } catch (NotFoundException e) {
+        // Already gone.
+      }
+    });
+  }
+
+  /**
+   * The asynchronous variants complete with the result of the corresponding blocking operation. By default they run it on
+   * a shared pool of StorageServiceBatches.ASYNC_CONCURRENCY threads; implementations that can complete an operation
+   * without blocking a thread should override them.
+   * Use StorageServiceFutures.join to wait for a result with the original exception type.
+   */
+  default <T> CompletableFuture<T> loadObjectAsync(String accountName, ObjectType objectType, String objectKey) {
+    return CompletableFuture.supplyAsync(() -> this.<T>loadObject(accountName, objectType, objectKey), StorageServiceBatches.asyncExecutorService());
+  }
+
+  default <T> CompletableFuture<Void> storeObjectAsync(String accountName, ObjectType objectType, String objectKey, T obj) {
+    return CompletableFuture.runAsync(() -> storeObject(accountName, objectType, objectKey, obj), StorageServiceBatches.asyncExecutorService());
+  }
+
+  default CompletableFuture<Void> deleteObjectAsync(String accountName, ObjectType objectType, String objectKey) {
+    return CompletableFuture.runAsync(() -> deleteObject(accountName, objectType, objectKey), StorageServiceBatches.asyncExecutorService());
+  }
 }
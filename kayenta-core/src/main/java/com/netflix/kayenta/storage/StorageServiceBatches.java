@@ -0,0 +1,108 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.kayenta.storage;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Runs a storage operation over many inputs with a bounded number of them in flight. The calling thread takes part in
+ * the work, so an operation over a single input runs inline. The first failure stops any inputs that have not been
+ * started yet and is rethrown to the caller.
+ */
+public class StorageServiceBatches {
+
+  public static final int DEFAULT_CONCURRENCY = 8;
+
+  // The asynchronous storage operations of all callers share this many threads; any more started at once are queued, so
+  // that a caller starting every operation up front can't open an unbounded number of requests to the store.
+  public static final int ASYNC_CONCURRENCY = 2 * DEFAULT_CONCURRENCY;
+
+  private static final ExecutorService executorService =
+    Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("storage-batch-%d").setDaemon(true).build());
+
+  private static final ExecutorService asyncExecutorService =
+    Executors.newFixedThreadPool(ASYNC_CONCURRENCY, new ThreadFactoryBuilder().setNameFormat("storage-async-%d").setDaemon(true).build());
+
+  static ExecutorService asyncExecutorService() {
+    return asyncExecutorService;
+  }
+
+  /**
+   * Apply the operation to each input, returning the results in the same order as the inputs.
+   */
+  public static <I, O> List<O> map(List<I> inputs, int concurrency, Function<I, O> operation) {
+    Object[] results = new Object[inputs.size()];
+
+    run(inputs.size(), concurrency, index -> results[index] = operation.apply(inputs.get(index)));
+
+    return (List<O>)Arrays.asList(results);
+  }
+
+  public static <I> void forEach(List<I> inputs, int concurrency, Consumer<I> operation) {
+    run(inputs.size(), concurrency, index -> operation.accept(inputs.get(index)));
+  }
+
+  private static void run(int inputCount, int concurrency, Consumer<Integer> operation) {
+    AtomicInteger nextIndex = new AtomicInteger();
+    AtomicReference<RuntimeException> failure = new AtomicReference<>();
+    Runnable worker = () -> {
+      int index;
+
+      while (failure.get() == null && (index = nextIndex.getAndIncrement()) < inputCount) {
+        try {
+          operation.accept(index);
+        } catch (RuntimeException e) {
+          failure.compareAndSet(null, e);
+        }
+      }
+    };
+    List<Future<?>> helpers = new ArrayList<>();
+
+    for (int i = 1; i < Math.min(concurrency, inputCount); i++) {
+      helpers.add(executorService.submit(worker));
+    }
+
+    worker.run();
+
+    try {
+      for (Future<?> helper : helpers) {
+        helper.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      failure.compareAndSet(null, new IllegalStateException("Interrupted while waiting for storage operations to finish.", e));
+      helpers.forEach(helper -> helper.cancel(true));
+    } catch (ExecutionException e) {
+      failure.compareAndSet(null, new IllegalStateException(e.getCause()));
+    }
+
+    if (failure.get() != null) {
+      throw failure.get();
+    }
+  }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.kayenta.index
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.netflix.kayenta.canary.CanaryConfig
+import com.netflix.kayenta.index.config.CanaryConfigIndexAction
+import com.netflix.kayenta.security.AccountCredentialsRepository
+import com.netflix.kayenta.storage.ObjectType
+import com.netflix.kayenta.storage.StorageService
+import com.netflix.spectator.api.DefaultRegistry
+import com.netflix.spectator.api.Registry
+import com.netflix.spinnaker.kork.jedis.EmbeddedRedis
+import spock.lang.AutoCleanup
+import spock.lang.Shared
+import spock.lang.Specification
+import spock.lang.Subject
+
+
+class CanaryConfigCacheSpec extends Specification {
+
+  static String ACCOUNT_NAME = "some-account"
+
+  @Shared
+  @AutoCleanup("destroy")
+  EmbeddedRedis embeddedRedis
+
+  TestNamedAccountCredentials testCredentials = new TestNamedAccountCredentials()
+  Registry registry = new DefaultRegistry()
+  StorageService configurationService = Mock(StorageService) {
+    maintainsCanaryConfigIndex() >> true
+  }
+  CanaryConfigIndex canaryConfigIndex
+
+  @Subject
+  CanaryConfigCache canaryConfigCache
+
+  def setupSpec() {
+    embeddedRedis = EmbeddedRedis.embed()
+  }
+
+  def setup() {
+    AccountCredentialsRepository accountCredentialsRepository = Mock(AccountCredentialsRepository) {
+      getOne(ACCOUNT_NAME) >> Optional.of(testCredentials)
+    }
+    canaryConfigIndex = new CanaryConfigIndex(new RedisCanaryConfigIndexBackend(embeddedRedis.pool), new ObjectMapper())
+
+    canaryConfigCache = new CanaryConfigCache(accountCredentialsRepository, canaryConfigIndex, registry, 100)
+  }
+
+  def cleanup() {
+    embeddedRedis.jedis.withCloseable { it.flushDB() }
+  }
+
+  void "config is only loaded once while the index has the same updated timestamp for it"() {
+    given:
+    indexConfig("id1", 1000)
+    CanaryConfig canaryConfig = CanaryConfig.builder().name("name1").updatedTimestamp(1000L).build()
+
+    when:
+    CanaryConfig firstCanaryConfig = canaryConfigCache.load(configurationService, ACCOUNT_NAME, "id1")
+    CanaryConfig secondCanaryConfig = canaryConfigCache.load(configurationService, ACCOUNT_NAME, "id1")
+
+    then:
+    1 * configurationService.loadObject(ACCOUNT_NAME, ObjectType.CANARY_CONFIG, "id1") >> canaryConfig
+    firstCanaryConfig.is(canaryConfig)
+    secondCanaryConfig.is(canaryConfig)
+    lookups("miss") == 1
+    lookups("hit") == 1
+  }
+
+  void "config is loaded again once the index has a new updated timestamp for it"() {
+    given:
+    indexConfig("id1", 1000)
+    CanaryConfig originalCanaryConfig = CanaryConfig.builder().name("name1").updatedTimestamp(1000L).build()
+    CanaryConfig updatedCanaryConfig = CanaryConfig.builder().name("name1").description("updated").updatedTimestamp(2000L).build()
+
+    when:
+    canaryConfigCache.load(configurationService, ACCOUNT_NAME, "id1")
+    indexConfig("id1", 2000)
+    CanaryConfig canaryConfig = canaryConfigCache.load(configurationService, ACCOUNT_NAME, "id1")
+
+    then:
+    2 * configurationService.loadObject(ACCOUNT_NAME, ObjectType.CANARY_CONFIG, "id1") >>> [originalCanaryConfig, updatedCanaryConfig]
+    canaryConfig.is(updatedCanaryConfig)
+    lookups("miss") == 2
+  }
+
+  void "config is not cached when it was loaded before the update the index already records"() {
+    given:
+    indexConfig("id1", 1000)
+    CanaryConfig originalCanaryConfig = CanaryConfig.builder().name("name1").updatedTimestamp(1000L).build()
+    CanaryConfig updatedCanaryConfig = CanaryConfig.builder().name("name1").description("updated").updatedTimestamp(2000L).build()
+
+    when:
+    // The store has recorded its update in the index, but not yet uploaded the updated config.
+    canaryConfigIndex.startPendingUpdate(testCredentials,
+                                         "2000",
+                                         CanaryConfigIndexAction.UPDATE,
+                                         "some-correlation-id",
+                                         '{"id":"id1","name":"name1","updatedTimestamp":2000,"applications":["a"]}')
+    CanaryConfig firstCanaryConfig = canaryConfigCache.load(configurationService, ACCOUNT_NAME, "id1")
+    CanaryConfig secondCanaryConfig = canaryConfigCache.load(configurationService, ACCOUNT_NAME, "id1")
+    CanaryConfig thirdCanaryConfig = canaryConfigCache.load(configurationService, ACCOUNT_NAME, "id1")
+
+    then:
+    2 * configurationService.loadObject(ACCOUNT_NAME, ObjectType.CANARY_CONFIG, "id1") >>> [originalCanaryConfig, updatedCanaryConfig]
+    firstCanaryConfig.is(originalCanaryConfig)
+    secondCanaryConfig.is(updatedCanaryConfig)
+    thirdCanaryConfig.is(updatedCanaryConfig)
+    lookups("miss") == 2
+    lookups("hit") == 1
+  }
+
+  void "config is always loaded from a configuration store that does not maintain the index"() {
+    given:
+    indexConfig("id1", 1000)
+    StorageService unindexedConfigurationService = Mock(StorageService) {
+      maintainsCanaryConfigIndex() >> false
+    }
+
+    when:
+    canaryConfigCache.load(unindexedConfigurationService, ACCOUNT_NAME, "id1")
+    canaryConfigCache.load(unindexedConfigurationService, ACCOUNT_NAME, "id1")
+
+    then:
+    2 * unindexedConfigurationService.loadObject(ACCOUNT_NAME, ObjectType.CANARY_CONFIG, "id1") >> CanaryConfig.builder().name("name1").updatedTimestamp(1000L).build()
+    lookups("unindexed") == 2
+  }
+
+  void "config is always loaded when the index is not ready"() {
+    when:
+    canaryConfigCache.load(configurationService, ACCOUNT_NAME, "id1")
+    canaryConfigCache.load(configurationService, ACCOUNT_NAME, "id1")
+
+    then:
+    2 * configurationService.loadObject(ACCOUNT_NAME, ObjectType.CANARY_CONFIG, "id1") >> CanaryConfig.builder().name("name1").build()
+    lookups("unindexed") == 2
+  }
+
+  private void indexConfig(String canaryConfigId, long updatedTimestamp) {
+    canaryConfigIndex.replaceIndex(testCredentials,
+                                   [a: "[{\"id\":\"$canaryConfigId\",\"name\":\"name1\",\"updatedTimestamp\":$updatedTimestamp,\"applications\":[\"a\"]}]".toString()],
+                                   "this-kayenta-instance")
+  }
+
+  private long lookups(String result) {
+    registry.counter(registry.createId("canary.configs.cache.lookups").withTag("result", result)).count()
+  }
+}
@@ -22,9 +22,13 @@ import com.netflix.spinnaker.kork.jedis.EmbeddedRedis
 import redis.clients.jedis.Jedis
 import redis.clients.jedis.JedisPool
 import spock.lang.*
+import spock.util.concurrent.PollingConditions
 
+import static com.netflix.kayenta.index.CanaryConfigIndexingAgent.ID_BY_APPLICATION_AND_NAME_KEY_SUFFIX
 import static com.netflix.kayenta.index.CanaryConfigIndexingAgent.MAP_BY_APPLICATION_KEY_SUFFIX
 import static com.netflix.kayenta.index.CanaryConfigIndexingAgent.NO_INDEXED_CONFIGS_SENTINEL_VALUE
+import static com.netflix.kayenta.index.CanaryConfigIndexingAgent.PENDING_UPDATES_KEY_SUFFIX
+import static com.netflix.kayenta.index.CanaryConfigIndexingAgent.SUMMARY_BY_ID_KEY_SUFFIX
 
 class CanaryConfigIndexSpec extends Specification {
 
@@ -42,6 +46,9 @@ class CanaryConfigIndexSpec extends Specification {
 
   TestNamedAccountCredentials testCredentials
   String mapByApplicationKey
+  String idByApplicationAndNameKey
+  String summaryByIdKey
+  String pendingUpdatesKey
   ObjectMapper objectMapper
   // We use the current redis time as a baseline to ensure the entries aren't flushed due to staleness.
   long currentTime
@@ -58,8 +65,11 @@ class CanaryConfigIndexSpec extends Specification {
     jedis = jedisPool.resource
     testCredentials = new TestNamedAccountCredentials()
     mapByApplicationKey = "kayenta:some-platform:$ACCOUNT_NAME$MAP_BY_APPLICATION_KEY_SUFFIX"
+    idByApplicationAndNameKey = "kayenta:some-platform:$ACCOUNT_NAME$ID_BY_APPLICATION_AND_NAME_KEY_SUFFIX"
+    summaryByIdKey = "kayenta:some-platform:$ACCOUNT_NAME$SUMMARY_BY_ID_KEY_SUFFIX"
+    pendingUpdatesKey = "kayenta:some-platform:$ACCOUNT_NAME$PENDING_UPDATES_KEY_SUFFIX"
     objectMapper = new ObjectMapper()
-    canaryConfigIndex = new CanaryConfigIndex(jedisPool, objectMapper)
+    canaryConfigIndex = new CanaryConfigIndex(new RedisCanaryConfigIndexBackend(jedisPool), objectMapper)
     // We use the current redis time as a baseline to ensure entries aren't inadvertently flushed during testing due to staleness.
     currentTime = canaryConfigIndex.getRedisTime()
   }
@@ -448,4 +458,117 @@ class CanaryConfigIndexSpec extends Specification {
     then:
     canaryConfigSummarySet.collect { it.id } as Set == ["id1", "id2", "id3", "id5"] as Set
   }
+
+  def "pending updates are kept in queue order and flushed in one call"() {
+    given:
+    jedis.hset(mapByApplicationKey, "not-a-real-application:" + CURRENT_INSTANCE_ID, NO_INDEXED_CONFIGS_SENTINEL_VALUE)
+    String id1Update = "{\"id\":\"id1\",\"name\":\"name1\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"a\"]}"
+    String id1Rename = "{\"id\":\"id1\",\"name\":\"renamed\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"a\"]}"
+
+    when:
+    // The rename is queued last despite having the earlier timestamp, so it wins.
+    canaryConfigIndex.startPendingUpdate(testCredentials, currentTime + 1 + "", CanaryConfigIndexAction.UPDATE, "1", id1Update)
+    canaryConfigIndex.startPendingUpdate(testCredentials, currentTime + "", CanaryConfigIndexAction.UPDATE, "2", id1Rename)
+
+    then:
+    jedis.zrange(pendingUpdatesKey, 0, -1) as List == ["${currentTime + 1}:UPDATE:start:1:$id1Update", "$currentTime:UPDATE:start:2:$id1Rename"]
+    canaryConfigIndex.getSummaryFromId(testCredentials, "id1").name == "renamed"
+    canaryConfigIndex.getCanaryConfigSummarySet(testCredentials, null).collect { it.name } == ["renamed"]
+
+    when:
+    canaryConfigIndex.flushPendingUpdates(testCredentials, ["${currentTime + 1}:UPDATE:start:1:$id1Update".toString(), "$currentTime:UPDATE:start:2:$id1Rename".toString()])
+
+    then:
+    jedis.zcard(pendingUpdatesKey) == 0
+    canaryConfigIndex.getSummaryFromId(testCredentials, "id1") == null
+    canaryConfigIndex.getCanaryConfigSummarySet(testCredentials, null) == [] as Set
+  }
+
+  def "canary configs are searched by prefixes of their search terms, optionally scoped to applications"() {
+    given:
+    canaryConfigIndex.replaceIndex(testCredentials,
+                                   [a: "[{\"id\":\"id1\",\"name\":\"cpu-check\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"a\"],\"searchTerms\":[\"cpu\",\"check\",\"utilization\",\"atlas\"]}]",
+                                    b: "[{\"id\":\"id2\",\"name\":\"latency-check\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"b\"],\"searchTerms\":[\"latency\",\"check\",\"p99\",\"atlas\"]}]"],
+                                   CURRENT_INSTANCE_ID)
+
+    expect:
+    canaryConfigIndex.searchCanaryConfigSummaries(testCredentials, "check", null, 0, 20).collect { it.id } == ["id1", "id2"]
+    canaryConfigIndex.searchCanaryConfigSummaries(testCredentials, "Atlas UTIL", null, 0, 20).collect { it.id } == ["id1"]
+    canaryConfigIndex.searchCanaryConfigSummaries(testCredentials, "check", ["b"], 0, 20).collect { it.id } == ["id2"]
+    canaryConfigIndex.searchCanaryConfigSummaries(testCredentials, "", null, 1, 20).collect { it.id } == ["id2"]
+    canaryConfigIndex.searchCanaryConfigSummaries(testCredentials, "check", null, 0, 1).collect { it.id } == ["id1"]
+    canaryConfigIndex.searchCanaryConfigSummaries(testCredentials, "memory", null, 0, 20) == []
+    !canaryConfigIndex.searchCanaryConfigSummaries(testCredentials, "cpu", null, 0, 20)[0].containsKey("searchTerms")
+    !canaryConfigIndex.getSummaryFromId(testCredentials, "id1").containsKey("searchTerms")
+
+    when:
+    canaryConfigIndex.startPendingUpdate(testCredentials, currentTime + "", CanaryConfigIndexAction.UPDATE, "1", "{\"id\":\"id1\",\"name\":\"memory-check\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"a\"]}")
+
+    then:
+    canaryConfigIndex.searchCanaryConfigSummaries(testCredentials, "mem", null, 0, 20).collect { it.id } == ["id1"]
+    canaryConfigIndex.searchCanaryConfigSummaries(testCredentials, "cpu", null, 0, 20) == []
+  }
+
+  def "ids are looked up by name, optionally scoped to applications"() {
+    given:
+    canaryConfigIndex.replaceIndex(testCredentials,
+                                   [a: "[{\"id\":\"id1\",\"name\":\"name1\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"a\"]}]",
+                                    b: "[{\"id\":\"id2\",\"name\":\"name2\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"b\"]}]"],
+                                   CURRENT_INSTANCE_ID)
+
+    when:
+    String canaryConfigId = canaryConfigIndex.getIdFromName(testCredentials, "name1", null)
+
+    then:
+    canaryConfigId == "id1"
+    jedis.hget(idByApplicationAndNameKey, "a:name1") == "id1"
+    jedis.hget(idByApplicationAndNameKey, "b:name2") == "id2"
+    jedis.hkeys(summaryByIdKey) == ["id1", "id2"] as Set
+    canaryConfigIndex.getIdFromName(testCredentials, "name1", ["a"]) == "id1"
+    canaryConfigIndex.getIdFromName(testCredentials, "name1", ["b"]) == null
+    canaryConfigIndex.getIdFromName(testCredentials, "name3", null) == null
+
+    when:
+    canaryConfigIndex.startPendingUpdate(testCredentials, currentTime + "", CanaryConfigIndexAction.UPDATE, "1", "{\"id\":\"id1\",\"name\":\"renamed\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"b\"]}")
+
+    then:
+    canaryConfigIndex.getIdFromName(testCredentials, "name1", null) == null
+    canaryConfigIndex.getIdFromName(testCredentials, "renamed", ["a"]) == null
+    canaryConfigIndex.getIdFromName(testCredentials, "renamed", ["b"]) == "id1"
+    canaryConfigIndex.getSummaryFromId(testCredentials, "id1").name == "renamed"
+  }
+
+  def "pending updates made by another instance are applied via pub/sub"() {
+    given:
+    jedis.hset(mapByApplicationKey, "a", "[{\"id\":\"id1\",\"name\":\"name1\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"a\"]}]")
+    // Without a subscription this instance would not rebuild its copy of the index for an hour.
+    CanaryConfigIndex subscribedCanaryConfigIndex = new CanaryConfigIndex(new RedisCanaryConfigIndexBackend(jedisPool), objectMapper, 3600000)
+    subscribedCanaryConfigIndex.subscribe()
+    PollingConditions conditions = new PollingConditions(timeout: 5)
+
+    when:
+    Set<Map<String, Object>> canaryConfigSummarySet = subscribedCanaryConfigIndex.getCanaryConfigSummarySet(testCredentials, null)
+
+    then:
+    canaryConfigSummarySet.collect { it.id } as Set == ["id1"] as Set
+
+    when:
+    canaryConfigIndex.startPendingUpdate(testCredentials, currentTime + "", CanaryConfigIndexAction.UPDATE, "1", "{\"id\":\"id2\",\"name\":\"name2\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"a\"]}")
+
+    then:
+    conditions.eventually {
+      assert subscribedCanaryConfigIndex.getCanaryConfigSummarySet(testCredentials, ["a"]).collect { it.id } as Set == ["id1", "id2"] as Set
+    }
+
+    when:
+    canaryConfigIndex.startPendingUpdate(testCredentials, currentTime + 1 + "", CanaryConfigIndexAction.DELETE, "2", "{\"id\":\"id1\",\"name\":\"name1\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"a\"]}")
+
+    then:
+    conditions.eventually {
+      assert subscribedCanaryConfigIndex.getSummaryFromId(testCredentials, "id1") == null
+    }
+
+    cleanup:
+    subscribedCanaryConfigIndex.unsubscribe()
+  }
 }
@@ -18,6 +18,7 @@ package com.netflix.kayenta.index
 
 import com.fasterxml.jackson.databind.ObjectMapper
 import com.netflix.kayenta.canary.CanaryConfig
+import com.netflix.kayenta.canary.CanaryConfigIndexSnapshot
 import com.netflix.kayenta.index.config.IndexConfigurationProperties
 import com.netflix.kayenta.security.AccountCredentialsRepository
 import com.netflix.kayenta.security.MapBackedAccountCredentialsRepository
@@ -25,6 +26,8 @@ import com.netflix.kayenta.storage.MapBackedStorageServiceRepository
 import com.netflix.kayenta.storage.ObjectType
 import com.netflix.kayenta.storage.StorageService
 import com.netflix.kayenta.storage.StorageServiceRepository
+import com.netflix.spectator.api.DefaultRegistry
+import com.netflix.spectator.api.Registry
 import com.netflix.spinnaker.kork.jedis.EmbeddedRedis
 import redis.clients.jedis.Jedis
 import redis.clients.jedis.JedisPool
@@ -51,6 +54,8 @@ class CanaryConfigIndexingAgentSpec extends Specification {
   TestNamedAccountCredentials testCredentials
   String mapByApplicationKey
   String pendingUpdatesKey
+  String indexVersionKey
+  String indexingLeaseKey
   StorageService configurationService
   ObjectMapper objectMapper
   CanaryConfigIndex canaryConfigIndex
@@ -58,6 +63,8 @@ class CanaryConfigIndexingAgentSpec extends Specification {
   long currentTime
   StorageServiceRepository storageServiceRepository
 
+  Registry registry
+
   @Subject
   CanaryConfigIndexingAgent canaryConfigIndexingAgent
 
@@ -72,46 +79,79 @@ class CanaryConfigIndexingAgentSpec extends Specification {
     testCredentials = new TestNamedAccountCredentials()
     mapByApplicationKey = "kayenta:some-platform:$ACCOUNT_NAME$MAP_BY_APPLICATION_KEY_SUFFIX"
     pendingUpdatesKey = "kayenta:$testCredentials.type:$testCredentials.name$PENDING_UPDATES_KEY_SUFFIX"
-    configurationService = Mock(StorageService)
+    indexVersionKey = "kayenta:$testCredentials.type:$testCredentials.name$INDEX_VERSION_KEY_SUFFIX"
+    indexingLeaseKey = "kayenta:$testCredentials.type:$testCredentials.name$INDEXING_LEASE_KEY_SUFFIX"
+    configurationService = Mock(StorageService) {
+      storesCanaryConfigIndexSnapshots() >> true
+    }
     objectMapper = new ObjectMapper()
-    canaryConfigIndex = new CanaryConfigIndex(jedisPool, objectMapper)
+    canaryConfigIndex = new CanaryConfigIndex(new RedisCanaryConfigIndexBackend(jedisPool), objectMapper)
     // We use the current redis time as a baseline to ensure entries aren't inadvertently flushed during testing due to staleness.
     currentTime = canaryConfigIndex.getRedisTime()
     storageServiceRepository = new MapBackedStorageServiceRepository(storageServices: [configurationService])
+    registry = new DefaultRegistry()
     canaryConfigIndexingAgent = new CanaryConfigIndexingAgent(CURRENT_INSTANCE_ID,
-                                                              jedisPool,
+                                                              new RedisCanaryConfigIndexBackend(jedisPool),
                                                               accountCredentialsRepository,
                                                               storageServiceRepository,
                                                               objectMapper,
                                                               canaryConfigIndex,
-                                                              new IndexConfigurationProperties())
+                                                              new IndexConfigurationProperties(),
+                                                              registry)
   }
 
   def cleanup() {
     embeddedRedis.jedis.withCloseable { it.flushDB() }
   }
 
-  def "agent should not run if lock is not acquired and lock-holding instance has heartbeat"() {
+  def "agent should skip an account whose lease is held by an instance with a heartbeat"() {
     given:
-    jedis.set(INDEXING_INSTANCE_KEY, OTHER_INSTANCE_ID)
+    accountCredentialsRepository.save(ACCOUNT_NAME, testCredentials)
+    jedis.set(indexingLeaseKey, OTHER_INSTANCE_ID)
     jedis.set("$HEARTBEAT_KEY_PREFIX$OTHER_INSTANCE_ID", "I'm here...")
 
     when:
     canaryConfigIndexingAgent.indexCanaryConfigs()
 
     then:
-    jedis.get(INDEXING_INSTANCE_KEY) == OTHER_INSTANCE_ID
+    1 * configurationService.servicesAccount(ACCOUNT_NAME) >> true
+    0 * configurationService.forEachObjectKey(*_)
+    jedis.get(indexingLeaseKey) == OTHER_INSTANCE_ID
   }
 
-  def "agent should steal lock if lock-holding instance has no heartbeat"() {
+  def "agent should take over the lease of an account if the lease-holding instance has no heartbeat"() {
     given:
-    jedis.set(INDEXING_INSTANCE_KEY, OTHER_INSTANCE_ID)
+    accountCredentialsRepository.save(ACCOUNT_NAME, testCredentials)
+    jedis.set(indexingLeaseKey, OTHER_INSTANCE_ID)
 
     when:
     canaryConfigIndexingAgent.indexCanaryConfigs()
 
     then:
-    !jedis.exists(INDEXING_INSTANCE_KEY)
+    1 * configurationService.servicesAccount(ACCOUNT_NAME) >> true
+    1 * configurationService.forEachObjectKey(ACCOUNT_NAME, ObjectType.CANARY_CONFIG, null, true, _)
+    jedis.hvals(mapByApplicationKey) == [NO_INDEXED_CONFIGS_SENTINEL_VALUE]
+    !jedis.exists(indexingLeaseKey)
+  }
+
+  def "agent should index accounts whose leases are free while another instance indexes a different account"() {
+    given:
+    TestNamedAccountCredentials otherCredentials = new TestNamedAccountCredentials(name: "some-other-account")
+    accountCredentialsRepository.save(ACCOUNT_NAME, testCredentials)
+    accountCredentialsRepository.save(otherCredentials.name, otherCredentials)
+    String otherIndexingLeaseKey = "kayenta:$otherCredentials.type:$otherCredentials.name$INDEXING_LEASE_KEY_SUFFIX"
+    jedis.set(otherIndexingLeaseKey, OTHER_INSTANCE_ID)
+    jedis.set("$HEARTBEAT_KEY_PREFIX$OTHER_INSTANCE_ID", "I'm here...")
+
+    when:
+    canaryConfigIndexingAgent.indexCanaryConfigs()
+
+    then:
+    _ * configurationService.servicesAccount(_) >> true
+    1 * configurationService.forEachObjectKey(ACCOUNT_NAME, ObjectType.CANARY_CONFIG, null, true, _)
+    0 * configurationService.forEachObjectKey(otherCredentials.name, *_)
+    jedis.hvals(mapByApplicationKey) == [NO_INDEXED_CONFIGS_SENTINEL_VALUE]
+    jedis.get(otherIndexingLeaseKey) == OTHER_INSTANCE_ID
   }
 
   def "agent should run if lock is acquired and should set placeholder value since no canary configs are found"() {
@@ -123,7 +163,7 @@ class CanaryConfigIndexingAgentSpec extends Specification {
 
     then:
     1 * configurationService.servicesAccount(ACCOUNT_NAME) >> true
-    1 * configurationService.listObjectKeys(ACCOUNT_NAME, ObjectType.CANARY_CONFIG, null, true) >> []
+    1 * configurationService.forEachObjectKey(ACCOUNT_NAME, ObjectType.CANARY_CONFIG, null, true, _)
     jedis.hvals(mapByApplicationKey) == [NO_INDEXED_CONFIGS_SENTINEL_VALUE]
   }
 
@@ -142,7 +182,7 @@ class CanaryConfigIndexingAgentSpec extends Specification {
 
     then:
     1 * configurationService.servicesAccount(ACCOUNT_NAME) >> true
-    1 * configurationService.listObjectKeys(ACCOUNT_NAME, ObjectType.CANARY_CONFIG, null, true) >> canaryConfigObjectKeys
+    1 * configurationService.forEachObjectKey(ACCOUNT_NAME, ObjectType.CANARY_CONFIG, null, true, _) >> listing(canaryConfigObjectKeys)
     1 * configurationService.loadObject(ACCOUNT_NAME, ObjectType.CANARY_CONFIG, "id1") >> new CanaryConfig(applications: scopedApplications["id1"])
     1 * configurationService.loadObject(ACCOUNT_NAME, ObjectType.CANARY_CONFIG, "id2") >> new CanaryConfig(applications: scopedApplications["id2"])
     jedis.hkeys(mapByApplicationKey) == expectedAllApplications as Set
@@ -160,18 +200,128 @@ class CanaryConfigIndexingAgentSpec extends Specification {
     [id1: ["a", "b"], id2: ["a", "b", "c"]] | "d"                || ["a", "b", "c"]         | []
   }
 
+  def "agent should only reload canary configs whose updated timestamp changed since they were indexed"() {
+    given:
+    accountCredentialsRepository.save(ACCOUNT_NAME, testCredentials)
+
+    when:
+    canaryConfigIndexingAgent.indexCanaryConfigs()
+
+    then:
+    1 * configurationService.servicesAccount(ACCOUNT_NAME) >> true
+    1 * configurationService.forEachObjectKey(ACCOUNT_NAME, ObjectType.CANARY_CONFIG, null, true, _) >> listing([buildCanaryConfigSummary("id1", "name1"), buildCanaryConfigSummary("id2", "name2")])
+    1 * configurationService.loadObject(ACCOUNT_NAME, ObjectType.CANARY_CONFIG, "id1") >> new CanaryConfig(applications: ["a"])
+    1 * configurationService.loadObject(ACCOUNT_NAME, ObjectType.CANARY_CONFIG, "id2") >> new CanaryConfig(applications: ["b"])
+
+    when:
+    canaryConfigIndexingAgent.indexCanaryConfigs()
+
+    then:
+    1 * configurationService.servicesAccount(ACCOUNT_NAME) >> true
+    1 * configurationService.forEachObjectKey(ACCOUNT_NAME, ObjectType.CANARY_CONFIG, null, true, _) >> listing([buildCanaryConfigSummary("id1", "name1"), [id: "id2", name: "name2", updatedTimestamp: (long)2, updatedTimestampIso: "2"]])
+    0 * configurationService.loadObject(ACCOUNT_NAME, ObjectType.CANARY_CONFIG, "id1")
+    1 * configurationService.loadObject(ACCOUNT_NAME, ObjectType.CANARY_CONFIG, "id2") >> new CanaryConfig(name: "renamed", applications: ["a", "b"], updatedTimestamp: 7)
+    jedis.hkeys(mapByApplicationKey) == ["a", "b"] as Set
+    objectMapper.readValue(jedis.hget(mapByApplicationKey, "a"), Set).collect { it.id } as Set == ["id1", "id2"] as Set
+    objectMapper.readValue(jedis.hget(mapByApplicationKey, "a"), Set).find { it.id == "id2" }.searchTerms == ["renamed"]
+    objectMapper.readValue(jedis.hget(mapByApplicationKey, "a"), Set).find { it.id == "id2" }.updatedTimestamp == 7
+    objectMapper.readValue(jedis.hget(mapByApplicationKey, "a"), Set).find { it.id == "id2" }.objectUpdatedTimestamp == 2
+    registry.counter("canary.configs.indexing.scanned", "account", ACCOUNT_NAME).count() == 4
+    registry.counter("canary.configs.indexing.loaded", "account", ACCOUNT_NAME).count() == 3
+    registry.timer("canary.configs.indexing.cycleTime").count() == 2
+  }
+
+  def "agent should keep the previous index if the listing fails part-way through"() {
+    given:
+    accountCredentialsRepository.save(ACCOUNT_NAME, testCredentials)
+
+    when:
+    canaryConfigIndexingAgent.indexCanaryConfigs()
+
+    then:
+    1 * configurationService.servicesAccount(ACCOUNT_NAME) >> true
+    1 * configurationService.forEachObjectKey(ACCOUNT_NAME, ObjectType.CANARY_CONFIG, null, true, _) >> listing([buildCanaryConfigSummary("id1", "name1"), buildCanaryConfigSummary("id2", "name2")])
+    1 * configurationService.loadObject(ACCOUNT_NAME, ObjectType.CANARY_CONFIG, "id1") >> new CanaryConfig(applications: ["a"])
+    1 * configurationService.loadObject(ACCOUNT_NAME, ObjectType.CANARY_CONFIG, "id2") >> new CanaryConfig(applications: ["b"])
+
+    when:
+    canaryConfigIndexingAgent.indexCanaryConfigs()
+
+    then:
+    1 * configurationService.servicesAccount(ACCOUNT_NAME) >> true
+    1 * configurationService.forEachObjectKey(ACCOUNT_NAME, ObjectType.CANARY_CONFIG, null, true, _) >> { args ->
+      args[4].accept(buildCanaryConfigSummary("id1", "name1"))
+      throw new IllegalStateException("Unable to list canary_config.")
+    }
+    0 * configurationService.storeObject(ACCOUNT_NAME, ObjectType.CANARY_CONFIG_INDEX_SNAPSHOT, *_)
+    jedis.hkeys(mapByApplicationKey) == ["a", "b"] as Set
+  }
+
+  def "agent should seed a missing index from its snapshot and only reload canary configs changed since"() {
+    given:
+    String indexedCanaryConfigListJson = objectMapper.writeValueAsString([[id: "id1", name: "name1", updatedTimestamp: 1, updatedTimestampIso: "1", objectUpdatedTimestamp: 1, applications: ["a"], searchTerms: ["name1"]]])
+    CanaryConfigIndexSnapshot snapshot = CanaryConfigIndexSnapshot.of(currentTime, [a: indexedCanaryConfigListJson], objectMapper)
+
+    accountCredentialsRepository.save(ACCOUNT_NAME, testCredentials)
+
+    when:
+    canaryConfigIndexingAgent.indexCanaryConfigs()
+
+    then:
+    1 * configurationService.servicesAccount(ACCOUNT_NAME) >> true
+    1 * configurationService.loadObject(ACCOUNT_NAME, ObjectType.CANARY_CONFIG_INDEX_SNAPSHOT, CanaryConfigIndexSnapshot.SNAPSHOT_OBJECT_KEY) >> snapshot
+    1 * configurationService.forEachObjectKey(ACCOUNT_NAME, ObjectType.CANARY_CONFIG, null, true, _) >> listing([buildCanaryConfigSummary("id1", "name1"), buildCanaryConfigSummary("id2", "name2")])
+    0 * configurationService.loadObject(ACCOUNT_NAME, ObjectType.CANARY_CONFIG, "id1")
+    1 * configurationService.loadObject(ACCOUNT_NAME, ObjectType.CANARY_CONFIG, "id2") >> new CanaryConfig(applications: ["b"])
+    1 * configurationService.storeObject(ACCOUNT_NAME, ObjectType.CANARY_CONFIG_INDEX_SNAPSHOT, CanaryConfigIndexSnapshot.SNAPSHOT_OBJECT_KEY, { CanaryConfigIndexSnapshot it ->
+      it.decompressMapByApplication(objectMapper).keySet() == ["a", "b"] as Set
+    })
+    jedis.hkeys(mapByApplicationKey) == ["a", "b"] as Set
+  }
+
+  def "agent should neither read nor write snapshots in a store that can't hold them"() {
+    given:
+    StorageService snapshotlessConfigurationService = Mock(StorageService) {
+      storesCanaryConfigIndexSnapshots() >> false
+    }
+    storageServiceRepository.storageServices = [snapshotlessConfigurationService]
+
+    accountCredentialsRepository.save(ACCOUNT_NAME, testCredentials)
+
+    when:
+    canaryConfigIndexingAgent.indexCanaryConfigs()
+
+    then:
+    1 * snapshotlessConfigurationService.servicesAccount(ACCOUNT_NAME) >> true
+    1 * snapshotlessConfigurationService.forEachObjectKey(ACCOUNT_NAME, ObjectType.CANARY_CONFIG, null, true, _) >> listing([buildCanaryConfigSummary("id1", "name1")])
+    1 * snapshotlessConfigurationService.loadObject(ACCOUNT_NAME, ObjectType.CANARY_CONFIG, "id1") >> new CanaryConfig(applications: ["a"])
+    0 * snapshotlessConfigurationService.loadObject(_, ObjectType.CANARY_CONFIG_INDEX_SNAPSHOT, _)
+    0 * snapshotlessConfigurationService.storeObject(_, ObjectType.CANARY_CONFIG_INDEX_SNAPSHOT, *_)
+    jedis.hkeys(mapByApplicationKey) == ["a"] as Set
+  }
+
+  // Entries are scored by index version, as CanaryConfigIndex does, so that they are read back in the order pushed.
+  void pushPendingUpdate(String pendingUpdate) {
+    jedis.zadd(pendingUpdatesKey, jedis.incr(indexVersionKey), pendingUpdate)
+  }
+
+  // Hands the summaries to the consumer given to forEachObjectKey.
+  Closure listing(List<Map> canaryConfigSummaries) {
+    return { args -> canaryConfigSummaries.each { args[4].accept(it) } }
+  }
+
   Map buildCanaryConfigSummary(String id, String name) {
     [id: id, name: name, updatedTimestamp: (long)1, updatedTimestampIso: "1"]
   }
 
   def "agent flushes matching start/finish entries from pending updates queue, while leaving unmatched start entries untouched"() {
     given:
-    jedis.rpush(pendingUpdatesKey, "$currentTime:update:start:1:{\"id\":\"id1\",\"name\":\"name1\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"a\"]}")
-    jedis.rpush(pendingUpdatesKey, "${currentTime + 1}:update:finish:1")
-    jedis.rpush(pendingUpdatesKey, "${currentTime + 2}:update:start:2:{\"id\":\"id1\",\"name\":\"name1\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"a\"]}")
-    jedis.rpush(pendingUpdatesKey, "${currentTime + 3}:update:finish:2")
-    jedis.rpush(pendingUpdatesKey, "${currentTime + 4}:update:start:3:{\"id\":\"id1\",\"name\":\"name1\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"a\"]}")
-    jedis.rpush(pendingUpdatesKey, "${currentTime + 5}:update:start:4:{\"id\":\"id1\",\"name\":\"name1\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"a\"]}")
+    pushPendingUpdate("$currentTime:update:start:1:{\"id\":\"id1\",\"name\":\"name1\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"a\"]}")
+    pushPendingUpdate("${currentTime + 1}:update:finish:1")
+    pushPendingUpdate("${currentTime + 2}:update:start:2:{\"id\":\"id1\",\"name\":\"name1\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"a\"]}")
+    pushPendingUpdate("${currentTime + 3}:update:finish:2")
+    pushPendingUpdate("${currentTime + 4}:update:start:3:{\"id\":\"id1\",\"name\":\"name1\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"a\"]}")
+    pushPendingUpdate("${currentTime + 5}:update:start:4:{\"id\":\"id1\",\"name\":\"name1\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"a\"]}")
 
     accountCredentialsRepository.save(ACCOUNT_NAME, testCredentials)
 
@@ -180,18 +330,18 @@ class CanaryConfigIndexingAgentSpec extends Specification {
 
     then:
     1 * configurationService.servicesAccount(ACCOUNT_NAME) >> true
-    1 * configurationService.listObjectKeys(ACCOUNT_NAME, ObjectType.CANARY_CONFIG, null, true) >> []
+    1 * configurationService.forEachObjectKey(ACCOUNT_NAME, ObjectType.CANARY_CONFIG, null, true, _)
     jedis.hvals(mapByApplicationKey) == [NO_INDEXED_CONFIGS_SENTINEL_VALUE]
-    jedis.lrange(pendingUpdatesKey, 0, -1) == ["${currentTime + 4}:update:start:3:{\"id\":\"id1\",\"name\":\"name1\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"a\"]}",
-                                               "${currentTime + 5}:update:start:4:{\"id\":\"id1\",\"name\":\"name1\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"a\"]}"]
+    jedis.zrange(pendingUpdatesKey, 0, -1) as List == ["${currentTime + 4}:update:start:3:{\"id\":\"id1\",\"name\":\"name1\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"a\"]}",
+                                                       "${currentTime + 5}:update:start:4:{\"id\":\"id1\",\"name\":\"name1\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"a\"]}"]
   }
 
   def "agent flushes matching start/finish entries from pending updates queue and behaves well when the queue ends up completely empty"() {
     given:
-    jedis.rpush(pendingUpdatesKey, "$currentTime:update:start:1:{\"id\":\"id1\",\"name\":\"name1\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"a\"]}")
-    jedis.rpush(pendingUpdatesKey, "${currentTime + 1}:update:finish:1")
-    jedis.rpush(pendingUpdatesKey, "${currentTime + 2}:update:start:2:{\"id\":\"id1\",\"name\":\"name1\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"a\"]}")
-    jedis.rpush(pendingUpdatesKey, "${currentTime + 3}:update:finish:2")
+    pushPendingUpdate("$currentTime:update:start:1:{\"id\":\"id1\",\"name\":\"name1\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"a\"]}")
+    pushPendingUpdate("${currentTime + 1}:update:finish:1")
+    pushPendingUpdate("${currentTime + 2}:update:start:2:{\"id\":\"id1\",\"name\":\"name1\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"a\"]}")
+    pushPendingUpdate("${currentTime + 3}:update:finish:2")
 
     accountCredentialsRepository.save(ACCOUNT_NAME, testCredentials)
 
@@ -200,20 +350,20 @@ class CanaryConfigIndexingAgentSpec extends Specification {
 
     then:
     1 * configurationService.servicesAccount(ACCOUNT_NAME) >> true
-    1 * configurationService.listObjectKeys(ACCOUNT_NAME, ObjectType.CANARY_CONFIG, null, true) >> []
+    1 * configurationService.forEachObjectKey(ACCOUNT_NAME, ObjectType.CANARY_CONFIG, null, true, _)
     jedis.hvals(mapByApplicationKey) == [NO_INDEXED_CONFIGS_SENTINEL_VALUE]
-    jedis.llen(pendingUpdatesKey) == 0
+    jedis.zcard(pendingUpdatesKey) == 0
   }
 
   def "agent flushes matching start/finish entries from pending updates queue, as well as stale start entries, while leaving unmatched/non-stale start entries untouched"() {
     given:
-    jedis.rpush(pendingUpdatesKey, "$currentTime:update:start:1:{\"id\":\"id1\",\"name\":\"name1\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"a\"]}")
-    jedis.rpush(pendingUpdatesKey, "${currentTime + 1}:update:finish:1")
-    jedis.rpush(pendingUpdatesKey, "${currentTime + 2}:update:start:2:{\"id\":\"id1\",\"name\":\"name1\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"a\"]}")
-    jedis.rpush(pendingUpdatesKey, "${currentTime + 3}:update:finish:2")
-    jedis.rpush(pendingUpdatesKey, "${currentTime - new IndexConfigurationProperties().pendingUpdateStaleEntryThresholdMS}:update:start:5:{\"id\":\"id1\",\"name\":\"name1\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"a\"]}")
-    jedis.rpush(pendingUpdatesKey, "${currentTime + 4}:update:start:3:{\"id\":\"id1\",\"name\":\"name1\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"a\"]}")
-    jedis.rpush(pendingUpdatesKey, "${currentTime + 5}:update:start:4:{\"id\":\"id1\",\"name\":\"name1\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"a\"]}")
+    pushPendingUpdate("$currentTime:update:start:1:{\"id\":\"id1\",\"name\":\"name1\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"a\"]}")
+    pushPendingUpdate("${currentTime + 1}:update:finish:1")
+    pushPendingUpdate("${currentTime + 2}:update:start:2:{\"id\":\"id1\",\"name\":\"name1\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"a\"]}")
+    pushPendingUpdate("${currentTime + 3}:update:finish:2")
+    pushPendingUpdate("${currentTime - new IndexConfigurationProperties().pendingUpdateStaleEntryThresholdMS}:update:start:5:{\"id\":\"id1\",\"name\":\"name1\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"a\"]}")
+    pushPendingUpdate("${currentTime + 4}:update:start:3:{\"id\":\"id1\",\"name\":\"name1\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"a\"]}")
+    pushPendingUpdate("${currentTime + 5}:update:start:4:{\"id\":\"id1\",\"name\":\"name1\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"a\"]}")
 
     accountCredentialsRepository.save(ACCOUNT_NAME, testCredentials)
 
@@ -222,20 +372,20 @@ class CanaryConfigIndexingAgentSpec extends Specification {
 
     then:
     1 * configurationService.servicesAccount(ACCOUNT_NAME) >> true
-    1 * configurationService.listObjectKeys(ACCOUNT_NAME, ObjectType.CANARY_CONFIG, null, true) >> []
+    1 * configurationService.forEachObjectKey(ACCOUNT_NAME, ObjectType.CANARY_CONFIG, null, true, _)
     jedis.hvals(mapByApplicationKey) == [NO_INDEXED_CONFIGS_SENTINEL_VALUE]
-    jedis.lrange(pendingUpdatesKey, 0, -1) == ["${currentTime + 4}:update:start:3:{\"id\":\"id1\",\"name\":\"name1\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"a\"]}",
-                                               "${currentTime + 5}:update:start:4:{\"id\":\"id1\",\"name\":\"name1\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"a\"]}"]
+    jedis.zrange(pendingUpdatesKey, 0, -1) as List == ["${currentTime + 4}:update:start:3:{\"id\":\"id1\",\"name\":\"name1\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"a\"]}",
+                                                       "${currentTime + 5}:update:start:4:{\"id\":\"id1\",\"name\":\"name1\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"a\"]}"]
   }
 
   def "agent flushes matching start/finish entries from pending updates queue, as well as stale start entries, and behaves well when the queue ends up completely empty"() {
     given:
-    jedis.rpush(pendingUpdatesKey, "$currentTime:update:start:1:{\"id\":\"id1\",\"name\":\"name1\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"a\"]}")
-    jedis.rpush(pendingUpdatesKey, "${currentTime + 1}:update:finish:1")
-    jedis.rpush(pendingUpdatesKey, "${currentTime - new IndexConfigurationProperties().pendingUpdateStaleEntryThresholdMS}:update:start:6:{\"id\":\"id1\",\"name\":\"name1\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"a\"]}")
-    jedis.rpush(pendingUpdatesKey, "${currentTime + 2}:update:start:2:{\"id\":\"id1\",\"name\":\"name1\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"a\"]}")
-    jedis.rpush(pendingUpdatesKey, "${currentTime + 3}:update:finish:2")
-    jedis.rpush(pendingUpdatesKey, "${currentTime - new IndexConfigurationProperties().pendingUpdateStaleEntryThresholdMS}:update:start:5:{\"id\":\"id1\",\"name\":\"name1\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"a\"]}")
+    pushPendingUpdate("$currentTime:update:start:1:{\"id\":\"id1\",\"name\":\"name1\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"a\"]}")
+    pushPendingUpdate("${currentTime + 1}:update:finish:1")
+    pushPendingUpdate("${currentTime - new IndexConfigurationProperties().pendingUpdateStaleEntryThresholdMS}:update:start:6:{\"id\":\"id1\",\"name\":\"name1\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"a\"]}")
+    pushPendingUpdate("${currentTime + 2}:update:start:2:{\"id\":\"id1\",\"name\":\"name1\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"a\"]}")
+    pushPendingUpdate("${currentTime + 3}:update:finish:2")
+    pushPendingUpdate("${currentTime - new IndexConfigurationProperties().pendingUpdateStaleEntryThresholdMS}:update:start:5:{\"id\":\"id1\",\"name\":\"name1\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"a\"]}")
 
     accountCredentialsRepository.save(ACCOUNT_NAME, testCredentials)
 
@@ -244,20 +394,20 @@ class CanaryConfigIndexingAgentSpec extends Specification {
 
     then:
     1 * configurationService.servicesAccount(ACCOUNT_NAME) >> true
-    1 * configurationService.listObjectKeys(ACCOUNT_NAME, ObjectType.CANARY_CONFIG, null, true) >> []
+    1 * configurationService.forEachObjectKey(ACCOUNT_NAME, ObjectType.CANARY_CONFIG, null, true, _)
     jedis.hvals(mapByApplicationKey) == [NO_INDEXED_CONFIGS_SENTINEL_VALUE]
-    jedis.llen(pendingUpdatesKey) == 0
+    jedis.zcard(pendingUpdatesKey) == 0
   }
 
   def "agent flushes matching start/finish entries from pending updates queue, while leaving unmatched start entries untouched, and behaves well when in-flight operation fails and open start entry is removed by storage service during indexing window"() {
     given:
-    jedis.rpush(pendingUpdatesKey, "$currentTime:update:start:1:{\"id\":\"id1\",\"name\":\"name1\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"a\"]}")
-    jedis.rpush(pendingUpdatesKey, "${currentTime + 1}:update:finish:1")
-    jedis.rpush(pendingUpdatesKey, "${currentTime + 2}:update:start:2:{\"id\":\"id1\",\"name\":\"name1\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"a\"]}")
-    jedis.rpush(pendingUpdatesKey, "${currentTime + 3}:update:finish:2")
-    jedis.rpush(pendingUpdatesKey, "${currentTime + 4}:update:start:5:{\"id\":\"id1\",\"name\":\"name1\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"a\"]}")
-    jedis.rpush(pendingUpdatesKey, "${currentTime + 5}:update:start:3:{\"id\":\"id1\",\"name\":\"name1\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"a\"]}")
-    jedis.rpush(pendingUpdatesKey, "${currentTime + 6}:update:start:4:{\"id\":\"id1\",\"name\":\"name1\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"a\"]}")
+    pushPendingUpdate("$currentTime:update:start:1:{\"id\":\"id1\",\"name\":\"name1\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"a\"]}")
+    pushPendingUpdate("${currentTime + 1}:update:finish:1")
+    pushPendingUpdate("${currentTime + 2}:update:start:2:{\"id\":\"id1\",\"name\":\"name1\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"a\"]}")
+    pushPendingUpdate("${currentTime + 3}:update:finish:2")
+    pushPendingUpdate("${currentTime + 4}:update:start:5:{\"id\":\"id1\",\"name\":\"name1\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"a\"]}")
+    pushPendingUpdate("${currentTime + 5}:update:start:3:{\"id\":\"id1\",\"name\":\"name1\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"a\"]}")
+    pushPendingUpdate("${currentTime + 6}:update:start:4:{\"id\":\"id1\",\"name\":\"name1\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"a\"]}")
 
     accountCredentialsRepository.save(ACCOUNT_NAME, testCredentials)
 
@@ -269,13 +419,13 @@ class CanaryConfigIndexingAgentSpec extends Specification {
 
     then:
     // A storage service will remove an open start entry if the operation fails. This test simulates such a failure during the indexing window.
-    1 * configurationService.listObjectKeys(ACCOUNT_NAME, ObjectType.CANARY_CONFIG, null, {
-      jedis.lrem(pendingUpdatesKey, 1, "${currentTime + 4}:update:start:5:{\"id\":\"id1\",\"name\":\"name1\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"a\"]}") == 1
-    }) >> []
+    1 * configurationService.forEachObjectKey(ACCOUNT_NAME, ObjectType.CANARY_CONFIG, null, {
+      jedis.zrem(pendingUpdatesKey, "${currentTime + 4}:update:start:5:{\"id\":\"id1\",\"name\":\"name1\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"a\"]}") == 1
+    }, _)
 
     then:
     jedis.hvals(mapByApplicationKey) == [NO_INDEXED_CONFIGS_SENTINEL_VALUE]
-    jedis.lrange(pendingUpdatesKey, 0, -1) == ["${currentTime + 5}:update:start:3:{\"id\":\"id1\",\"name\":\"name1\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"a\"]}",
-                                               "${currentTime + 6}:update:start:4:{\"id\":\"id1\",\"name\":\"name1\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"a\"]}"]
+    jedis.zrange(pendingUpdatesKey, 0, -1) as List == ["${currentTime + 5}:update:start:3:{\"id\":\"id1\",\"name\":\"name1\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"a\"]}",
+                                                       "${currentTime + 6}:update:start:4:{\"id\":\"id1\",\"name\":\"name1\",\"updatedTimestamp\":1507570197295,\"updatedTimestampIso\":\"2017-10-09T15:07:23.677Z\",\"applications\":[\"a\"]}"]
   }
 }
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.kayenta.index
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.netflix.kayenta.canary.CanaryConfig
+import com.netflix.kayenta.canary.CanaryMetricConfig
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class CanaryConfigSearchTermsSpec extends Specification {
+
+  @Unroll
+  void "should tokenize '#text'"() {
+    expect:
+    CanaryConfigSearchTerms.tokenize(text) == expectedTokens
+
+    where:
+    text                     || expectedTokens
+    null                     || []
+    ""                       || []
+    "CPU-Utilization"        || ["cpu", "utilization"]
+    "name,cpu,:eq,:sum"      || ["name", "cpu", "eq", "sum"]
+    "  latency   p99 "       || ["latency", "p99"]
+  }
+
+  void "should collect terms from the name, templates, metric names and groups"() {
+    given:
+    CanaryConfig canaryConfig = CanaryConfig.builder()
+      .name("my-canary_config")
+      .templates([clusterFilter: "resource.type=gce_instance"])
+      .metric(CanaryMetricConfig.builder().name("CPU Utilization").group("system").build())
+      .build()
+
+    expect:
+    CanaryConfigSearchTerms.of(canaryConfig, new ObjectMapper()) == ["canary", "clusterfilter", "config", "cpu", "my", "system", "utilization"]
+  }
+}
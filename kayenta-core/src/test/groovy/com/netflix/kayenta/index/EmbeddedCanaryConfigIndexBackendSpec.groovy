@@ -0,0 +1,93 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.kayenta.index
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import spock.lang.Specification
+
+import java.nio.file.Files
+import java.nio.file.Path
+
+import static com.netflix.kayenta.index.CanaryConfigIndexingAgent.ID_BY_APPLICATION_AND_NAME_KEY_SUFFIX
+import static com.netflix.kayenta.index.CanaryConfigIndexingAgent.MAP_BY_APPLICATION_KEY_SUFFIX
+
+class EmbeddedCanaryConfigIndexBackendSpec extends Specification {
+
+  static final String INDEX_KEY = "kayenta:CONFIGURATION_STORE:some-account"
+
+  Path directory
+  ObjectMapper objectMapper = new ObjectMapper()
+
+  def setup() {
+    directory = Files.createTempDirectory("canary-config-index")
+  }
+
+  def cleanup() {
+    directory.toFile().deleteDir()
+  }
+
+  def "index and pending updates should survive a restart"() {
+    given:
+    EmbeddedCanaryConfigIndexBackend backend = new EmbeddedCanaryConfigIndexBackend(directory, objectMapper)
+    backend.replaceIndex(INDEX_KEY, [(MAP_BY_APPLICATION_KEY_SUFFIX): [app1: "[]"],
+                                     (ID_BY_APPLICATION_AND_NAME_KEY_SUFFIX): ["app1:some-config": "id1"]])
+    backend.pushPendingUpdate(INDEX_KEY, "1:UPDATE:start:corr1:{}")
+    backend.pushPendingUpdate(INDEX_KEY, "2:UPDATE:finish:corr1")
+
+    when:
+    EmbeddedCanaryConfigIndexBackend restartedBackend = new EmbeddedCanaryConfigIndexBackend(directory, objectMapper)
+    CanaryConfigIndexBackend.IndexRead indexRead =
+      restartedBackend.readFields(INDEX_KEY, ID_BY_APPLICATION_AND_NAME_KEY_SUFFIX, ["app1:some-config", "app2:some-config"])
+
+    then:
+    indexRead.indexExists
+    indexRead.version == 2
+    indexRead.values == ["id1", null]
+    indexRead.pendingUpdates as List == ["1:UPDATE:start:corr1:{}", "2:UPDATE:finish:corr1"]
+  }
+
+  def "removing pending updates should keep the rest in queue order and bump the version"() {
+    given:
+    EmbeddedCanaryConfigIndexBackend backend = new EmbeddedCanaryConfigIndexBackend(directory, objectMapper)
+    backend.pushPendingUpdate(INDEX_KEY, "a")
+    backend.pushPendingUpdate(INDEX_KEY, "b")
+    backend.pushPendingUpdate(INDEX_KEY, "c")
+
+    when:
+    long version = backend.removePendingUpdates(INDEX_KEY, ["a", "c"])
+
+    then:
+    version == 4
+    backend.readIndex(INDEX_KEY).pendingUpdates as List == ["b"]
+    !backend.indexExists(INDEX_KEY)
+  }
+
+  def "replacing an index should drop hashes that are no longer given"() {
+    given:
+    EmbeddedCanaryConfigIndexBackend backend = new EmbeddedCanaryConfigIndexBackend(directory, objectMapper)
+    backend.replaceIndex(INDEX_KEY, [(MAP_BY_APPLICATION_KEY_SUFFIX): [app1: "[]"],
+                                     (ID_BY_APPLICATION_AND_NAME_KEY_SUFFIX): ["app1:some-config": "id1"]])
+
+    when:
+    backend.replaceIndex(INDEX_KEY, [(MAP_BY_APPLICATION_KEY_SUFFIX): [app2: "[]"],
+                                     (ID_BY_APPLICATION_AND_NAME_KEY_SUFFIX): [:]])
+
+    then:
+    backend.readIndex(INDEX_KEY).values == ["[]"]
+    backend.readFields(INDEX_KEY, ID_BY_APPLICATION_AND_NAME_KEY_SUFFIX, ["app1:some-config"]).values == [null]
+  }
+}
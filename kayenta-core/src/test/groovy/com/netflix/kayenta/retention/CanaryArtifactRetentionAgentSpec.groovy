@@ -0,0 +1,166 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.kayenta.retention
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.netflix.kayenta.canary.orca.CanaryStageNames
+import com.netflix.kayenta.retention.config.RetentionConfigurationProperties
+import com.netflix.kayenta.storage.MapBackedStorageServiceRepository
+import com.netflix.kayenta.storage.ObjectType
+import com.netflix.kayenta.storage.StorageService
+import com.netflix.spectator.api.DefaultRegistry
+import com.netflix.spinnaker.kork.jedis.EmbeddedRedis
+import com.netflix.spinnaker.kork.web.exceptions.NotFoundException
+import com.netflix.spinnaker.orca.pipeline.model.Execution
+import com.netflix.spinnaker.orca.pipeline.model.Stage
+import com.netflix.spinnaker.orca.pipeline.persistence.ExecutionRepository
+import redis.clients.jedis.Jedis
+import spock.lang.*
+
+import static com.netflix.kayenta.retention.CanaryArtifactRetentionAgent.PENDING_DELETIONS_KEY
+
+class CanaryArtifactRetentionAgentSpec extends Specification {
+
+  static String ACCOUNT_NAME = "some-account"
+
+  @Shared
+  @AutoCleanup("destroy")
+  EmbeddedRedis embeddedRedis
+
+  @AutoCleanup
+  Jedis jedis
+
+  StorageService storageService
+  RetentionConfigurationProperties retentionConfigurationProperties
+
+  @Subject
+  CanaryArtifactRetentionAgent canaryArtifactRetentionAgent
+
+  def setupSpec() {
+    embeddedRedis = EmbeddedRedis.embed()
+  }
+
+  def setup() {
+    jedis = embeddedRedis.pool.resource
+    storageService = Mock(StorageService) {
+      servicesAccount(ACCOUNT_NAME) >> true
+    }
+    retentionConfigurationProperties = new RetentionConfigurationProperties(gracePeriodMS: 0, maxDeletionsPerSecond: 1000)
+    canaryArtifactRetentionAgent = new CanaryArtifactRetentionAgent(embeddedRedis.pool,
+                                                                    Mock(ExecutionRepository),
+                                                                    new MapBackedStorageServiceRepository(storageServices: [storageService]),
+                                                                    new ObjectMapper(),
+                                                                    new DefaultRegistry(),
+                                                                    retentionConfigurationProperties)
+  }
+
+  def cleanup() {
+    canaryArtifactRetentionAgent.shutdown()
+    embeddedRedis.jedis.withCloseable { it.flushDB() }
+  }
+
+  def "intermediate artifacts of a canary execution are recorded and then deleted"() {
+    given:
+    canaryArtifactRetentionAgent.recordArtifacts(buildCanaryExecution())
+
+    expect:
+    jedis.zcard(PENDING_DELETIONS_KEY) == 3
+
+    when:
+    canaryArtifactRetentionAgent.sweep()
+
+    then:
+    1 * storageService.deleteObjects(ACCOUNT_NAME, ObjectType.METRIC_SET_LIST, { it as Set == ["control-metric-set-id", "experiment-metric-set-id"] as Set })
+    1 * storageService.deleteObject(ACCOUNT_NAME, ObjectType.METRIC_SET_PAIR_LIST, "metric-set-pair-list-id")
+    0 * storageService.deleteObject(_, ObjectType.CANARY_RESULT, _)
+    jedis.zcard(PENDING_DELETIONS_KEY) == 0
+  }
+
+  def "artifacts are not deleted before the grace period has elapsed"() {
+    given:
+    retentionConfigurationProperties.gracePeriodMS = 60000
+    canaryArtifactRetentionAgent.recordArtifacts(buildCanaryExecution())
+
+    when:
+    canaryArtifactRetentionAgent.sweep()
+
+    then:
+    0 * storageService.deleteObjects(_, _, _)
+    0 * storageService.deleteObject(_, _, _)
+    jedis.zcard(PENDING_DELETIONS_KEY) == 3
+  }
+
+  def "artifacts are deleted individually when a batch deletion fails, and those already gone are not retried"() {
+    given:
+    canaryArtifactRetentionAgent.recordArtifacts(buildCanaryExecution())
+
+    when:
+    canaryArtifactRetentionAgent.sweep()
+
+    then:
+    1 * storageService.deleteObjects(ACCOUNT_NAME, ObjectType.METRIC_SET_LIST, _) >> { throw new IllegalStateException("unavailable") }
+    3 * storageService.deleteObject(ACCOUNT_NAME, _, _) >> { throw new NotFoundException("gone") }
+    jedis.zcard(PENDING_DELETIONS_KEY) == 0
+  }
+
+  def "failed deletions are rescheduled until the maximum number of attempts is reached"() {
+    given:
+    retentionConfigurationProperties.retryDelayMS = 0
+    retentionConfigurationProperties.maxAttempts = 2
+    canaryArtifactRetentionAgent.recordArtifacts(buildCanaryExecution())
+
+    when:
+    canaryArtifactRetentionAgent.sweep()
+
+    then:
+    2 * storageService.deleteObjects(ACCOUNT_NAME, ObjectType.METRIC_SET_LIST, _) >> { throw new IllegalStateException("unavailable") }
+    6 * storageService.deleteObject(ACCOUNT_NAME, _, _) >> { throw new IllegalStateException("unavailable") }
+    jedis.zcard(PENDING_DELETIONS_KEY) == 0
+  }
+
+  def "executions that are not canary executions are ignored"() {
+    given:
+    Execution execution = new Execution(Execution.ExecutionType.PIPELINE, "some-application")
+    execution.stages << new Stage(execution, "wait", [:])
+
+    when:
+    canaryArtifactRetentionAgent.recordArtifacts(execution)
+
+    then:
+    !jedis.exists(PENDING_DELETIONS_KEY)
+  }
+
+  private static Execution buildCanaryExecution() {
+    Execution execution = new Execution(Execution.ExecutionType.PIPELINE, "some-application")
+
+    execution.stages << buildStage(execution, CanaryStageNames.REFID_SET_CONTEXT, [storageAccountName: ACCOUNT_NAME], [:])
+    execution.stages << buildStage(execution, CanaryStageNames.REFID_FETCH_CONTROL_PREFIX + 0, [:], [metricSetId: "control-metric-set-id"])
+    execution.stages << buildStage(execution, CanaryStageNames.REFID_FETCH_EXPERIMENT_PREFIX + 0, [:], [metricSetId: "experiment-metric-set-id"])
+    execution.stages << buildStage(execution, CanaryStageNames.REFID_MIX_METRICS, [:], [metricSetPairListId: "metric-set-pair-list-id"])
+    execution.stages << buildStage(execution, CanaryStageNames.REFID_JUDGE, [:], [canaryJudgeResultId: "canary-result-id"])
+
+    return execution
+  }
+
+  private static Stage buildStage(Execution execution, String refId, Map<String, Object> context, Map<String, Object> outputs) {
+    Stage stage = new Stage(execution, refId, context)
+
+    stage.refId = refId
+    stage.outputs.putAll(outputs)
+
+    return stage
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.kayenta.storage
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.netflix.spectator.api.DefaultRegistry
+import com.netflix.spectator.api.Registry
+import com.netflix.spinnaker.kork.web.exceptions.NotFoundException
+import spock.lang.Specification
+import spock.lang.Subject
+
+class InstrumentedStorageServiceSpec extends Specification {
+
+  static String ACCOUNT_NAME = "some-account"
+
+  Registry registry = new DefaultRegistry()
+  StorageService storageService = Mock(StorageService)
+
+  @Subject
+  InstrumentedStorageService instrumentedStorageService = new InstrumentedStorageService(storageService, registry, new ObjectMapper(), Long.MAX_VALUE)
+
+  void "operations should be timed and tagged with their result"() {
+    when:
+    instrumentedStorageService.loadObject(ACCOUNT_NAME, ObjectType.METRIC_SET_LIST, "present")
+
+    then:
+    1 * storageService.loadObject(ACCOUNT_NAME, ObjectType.METRIC_SET_LIST, "present") >> [[name: "some-metric"]]
+
+    when:
+    instrumentedStorageService.loadObject(ACCOUNT_NAME, ObjectType.METRIC_SET_LIST, "missing")
+
+    then:
+    1 * storageService.loadObject(ACCOUNT_NAME, ObjectType.METRIC_SET_LIST, "missing") >> { throw new NotFoundException("No such object named missing") }
+    thrown(NotFoundException)
+    timerCount("load", "success") == 1
+    timerCount("load", "notFound") == 1
+  }
+
+  void "the serialized size of stored objects should be recorded"() {
+    when:
+    instrumentedStorageService.storeObject(ACCOUNT_NAME, ObjectType.METRIC_SET_LIST, "some-key", [1, 2, 3])
+
+    then:
+    1 * storageService.storeObject(ACCOUNT_NAME, ObjectType.METRIC_SET_LIST, "some-key", [1, 2, 3], null, true)
+    registry.distributionSummary(registry.createId("storage.serializedBytes")
+                                   .withTag("storageService", storageService.getClass().getSimpleName())
+                                   .withTag("operation", "store")
+                                   .withTag("objectType", "METRIC_SET_LIST")
+                                   .withTag("account", ACCOUNT_NAME)).totalAmount() == "[1,2,3]".length()
+  }
+
+  void "batch operations should be passed through to the storage service"() {
+    when:
+    instrumentedStorageService.deleteObjects(ACCOUNT_NAME, ObjectType.METRIC_SET_LIST, ["a", "b"])
+
+    then:
+    1 * storageService.deleteObjects(ACCOUNT_NAME, ObjectType.METRIC_SET_LIST, ["a", "b"])
+    0 * storageService.deleteObject(_, _, _)
+    timerCount("deleteBatch", "success") == 1
+  }
+
+  private long timerCount(String operation, String result) {
+    registry.timer(registry.createId("storage.operations")
+                     .withTag("storageService", storageService.getClass().getSimpleName())
+                     .withTag("operation", operation)
+                     .withTag("objectType", "METRIC_SET_LIST")
+                     .withTag("account", ACCOUNT_NAME)
+                     .withTag("result", result)).count()
+  }
+}
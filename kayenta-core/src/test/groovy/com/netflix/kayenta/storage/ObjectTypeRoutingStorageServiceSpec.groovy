@@ -0,0 +1,155 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.kayenta.storage
+
+import com.netflix.kayenta.config.StorageConfigurationProperties
+import spock.lang.Specification
+import spock.lang.Subject
+
+import java.util.concurrent.CompletableFuture
+import java.util.function.Consumer
+
+class ObjectTypeRoutingStorageServiceSpec extends Specification {
+
+  static String DURABLE_ACCOUNT_NAME = "durable-account"
+  static String ROUTED_ACCOUNT_NAME = "routed-account"
+
+  StorageService durableStorageService = Mock(StorageService) {
+    servicesAccount(DURABLE_ACCOUNT_NAME) >> true
+    maintainsCanaryConfigIndex() >> true
+  }
+  StorageService routedStorageService = Mock(StorageService) {
+    servicesAccount(ROUTED_ACCOUNT_NAME) >> true
+  }
+  StorageConfigurationProperties storageConfigurationProperties =
+    new StorageConfigurationProperties(objectTypeAccounts: [(ObjectType.METRIC_SET_LIST): ROUTED_ACCOUNT_NAME])
+
+  @Subject
+  MapBackedStorageServiceRepository storageServiceRepository =
+    new MapBackedStorageServiceRepository(storageServices: [durableStorageService, routedStorageService],
+                                          storageConfigurationProperties: storageConfigurationProperties)
+
+  void "single-object operations on a routed object type should go to the routed account"() {
+    given:
+    StorageService storageService = storageServiceRepository.getOne(DURABLE_ACCOUNT_NAME).get()
+
+    when:
+    def loaded = storageService.loadObject(DURABLE_ACCOUNT_NAME, ObjectType.METRIC_SET_LIST, "id1")
+    storageService.storeObject(DURABLE_ACCOUNT_NAME, ObjectType.METRIC_SET_LIST, "id1", [], null, false)
+    storageService.deleteObject(DURABLE_ACCOUNT_NAME, ObjectType.METRIC_SET_LIST, "id1")
+
+    then:
+    1 * routedStorageService.loadObject(ROUTED_ACCOUNT_NAME, ObjectType.METRIC_SET_LIST, "id1") >> [[name: "cpu"]]
+    1 * routedStorageService.storeObject(ROUTED_ACCOUNT_NAME, ObjectType.METRIC_SET_LIST, "id1", [], null, false)
+    1 * routedStorageService.deleteObject(ROUTED_ACCOUNT_NAME, ObjectType.METRIC_SET_LIST, "id1")
+    0 * durableStorageService.loadObject(*_)
+    0 * durableStorageService.storeObject(*_)
+    0 * durableStorageService.deleteObject(*_)
+    loaded == [[name: "cpu"]]
+  }
+
+  void "object types that are not routed should go to the requested account"() {
+    given:
+    StorageService storageService = storageServiceRepository.getOne(DURABLE_ACCOUNT_NAME).get()
+
+    when:
+    storageService.loadObject(DURABLE_ACCOUNT_NAME, ObjectType.CANARY_RESULT, "id1")
+    storageService.listObjectKeys(DURABLE_ACCOUNT_NAME, ObjectType.CANARY_CONFIG, ["app1"], false)
+
+    then:
+    1 * durableStorageService.loadObject(DURABLE_ACCOUNT_NAME, ObjectType.CANARY_RESULT, "id1")
+    1 * durableStorageService.listObjectKeys(DURABLE_ACCOUNT_NAME, ObjectType.CANARY_CONFIG, ["app1"], false) >> []
+    0 * routedStorageService.loadObject(*_)
+    0 * routedStorageService.listObjectKeys(*_)
+  }
+
+  void "batch operations on a routed object type should go to the routed account"() {
+    given:
+    StorageService storageService = storageServiceRepository.getOne(DURABLE_ACCOUNT_NAME).get()
+
+    when:
+    storageService.loadObjects(DURABLE_ACCOUNT_NAME, ObjectType.METRIC_SET_LIST, ["id1", "id2"])
+    storageService.storeObjects(DURABLE_ACCOUNT_NAME, ObjectType.METRIC_SET_LIST, [id1: [], id2: []])
+    storageService.deleteObjects(DURABLE_ACCOUNT_NAME, ObjectType.METRIC_SET_LIST, ["id1", "id2"])
+
+    then:
+    1 * routedStorageService.loadObjects(ROUTED_ACCOUNT_NAME, ObjectType.METRIC_SET_LIST, ["id1", "id2"]) >> [[], []]
+    1 * routedStorageService.storeObjects(ROUTED_ACCOUNT_NAME, ObjectType.METRIC_SET_LIST, [id1: [], id2: []])
+    1 * routedStorageService.deleteObjects(ROUTED_ACCOUNT_NAME, ObjectType.METRIC_SET_LIST, ["id1", "id2"])
+    0 * durableStorageService.loadObjects(*_)
+    0 * durableStorageService.storeObjects(*_)
+    0 * durableStorageService.deleteObjects(*_)
+  }
+
+  void "asynchronous operations on a routed object type should go to the routed account"() {
+    given:
+    StorageService storageService = storageServiceRepository.getOne(DURABLE_ACCOUNT_NAME).get()
+
+    when:
+    storageService.loadObjectAsync(DURABLE_ACCOUNT_NAME, ObjectType.METRIC_SET_LIST, "id1")
+    storageService.storeObjectAsync(DURABLE_ACCOUNT_NAME, ObjectType.METRIC_SET_LIST, "id1", [])
+    storageService.deleteObjectAsync(DURABLE_ACCOUNT_NAME, ObjectType.METRIC_SET_LIST, "id1")
+
+    then:
+    1 * routedStorageService.loadObjectAsync(ROUTED_ACCOUNT_NAME, ObjectType.METRIC_SET_LIST, "id1") >> CompletableFuture.completedFuture([])
+    1 * routedStorageService.storeObjectAsync(ROUTED_ACCOUNT_NAME, ObjectType.METRIC_SET_LIST, "id1", []) >> CompletableFuture.completedFuture(null)
+    1 * routedStorageService.deleteObjectAsync(ROUTED_ACCOUNT_NAME, ObjectType.METRIC_SET_LIST, "id1") >> CompletableFuture.completedFuture(null)
+    0 * durableStorageService.loadObjectAsync(*_)
+    0 * durableStorageService.storeObjectAsync(*_)
+    0 * durableStorageService.deleteObjectAsync(*_)
+  }
+
+  void "listing a routed object type should go to the routed account"() {
+    given:
+    StorageService storageService = storageServiceRepository.getOne(DURABLE_ACCOUNT_NAME).get()
+    Consumer<Map<String, Object>> consumer = Mock(Consumer)
+
+    when:
+    storageService.listObjectKeys(DURABLE_ACCOUNT_NAME, ObjectType.METRIC_SET_LIST, null, true)
+    storageService.forEachObjectKey(DURABLE_ACCOUNT_NAME, ObjectType.METRIC_SET_LIST, null, true, consumer)
+
+    then:
+    1 * routedStorageService.listObjectKeys(ROUTED_ACCOUNT_NAME, ObjectType.METRIC_SET_LIST, null, true) >> []
+    1 * routedStorageService.forEachObjectKey(ROUTED_ACCOUNT_NAME, ObjectType.METRIC_SET_LIST, null, true, consumer)
+    0 * durableStorageService.listObjectKeys(*_)
+    0 * durableStorageService.forEachObjectKey(*_)
+  }
+
+  void "the canary config index should only be maintained if canary configs are not routed elsewhere"() {
+    given:
+    storageConfigurationProperties.objectTypeAccounts = objectTypeAccounts
+
+    expect:
+    storageServiceRepository.getOne(DURABLE_ACCOUNT_NAME).get().maintainsCanaryConfigIndex() == maintainsCanaryConfigIndex
+
+    where:
+    objectTypeAccounts                                     || maintainsCanaryConfigIndex
+    [(ObjectType.METRIC_SET_LIST): ROUTED_ACCOUNT_NAME]    || true
+    [(ObjectType.CANARY_CONFIG): ROUTED_ACCOUNT_NAME]      || false
+  }
+
+  void "an object type routed to an account without a storage service should be rejected"() {
+    given:
+    storageConfigurationProperties.objectTypeAccounts = [(ObjectType.METRIC_SET_LIST): "unknown-account"]
+
+    when:
+    storageServiceRepository.getOne(DURABLE_ACCOUNT_NAME).get().loadObject(DURABLE_ACCOUNT_NAME, ObjectType.METRIC_SET_LIST, "id1")
+
+    then:
+    thrown(IllegalArgumentException)
+  }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.kayenta.storage
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class ShardedKeyLayoutSpec extends Specification {
+
+  void "shard folder should be two stable hex digits"() {
+    when:
+    String shardFolder = ShardedKeyLayout.shardFolder("some-object-key")
+
+    then:
+    shardFolder ==~ /[0-9a-f]{2}/
+    shardFolder == ShardedKeyLayout.shardFolder("some-object-key")
+  }
+
+  void "shard folders should be spread across many prefixes"() {
+    when:
+    Set<String> shardFolders = (1..1000).collect { ShardedKeyLayout.shardFolder(UUID.randomUUID().toString()) } as Set
+
+    then:
+    shardFolders.size() > 200
+  }
+
+  void "sharded layout should try the sharded folder before the legacy folder"() {
+    given:
+    String shardFolder = ShardedKeyLayout.shardFolder("abc")
+
+    expect:
+    ShardedKeyLayout.candidateObjectFolders("root/metrics", "abc", true) == ["root/metrics/$shardFolder/abc".toString(), "root/metrics/abc"]
+    ShardedKeyLayout.candidateObjectFolders("root/metrics", "abc", false) == ["root/metrics/abc"]
+  }
+
+  @Unroll
+  void "should extract object key from #objectName"() {
+    expect:
+    ShardedKeyLayout.extractObjectKey(objectName, "root/metrics/".length()) == "abc"
+
+    where:
+    objectName << ["root/metrics/abc/metric_sets.json", "root/metrics/7f/abc/metric_sets.json"]
+  }
+}
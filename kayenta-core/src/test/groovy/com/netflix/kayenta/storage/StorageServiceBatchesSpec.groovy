@@ -0,0 +1,102 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.kayenta.storage
+
+import com.netflix.spinnaker.kork.web.exceptions.NotFoundException
+import spock.lang.Specification
+
+import java.util.concurrent.atomic.AtomicInteger
+
+class StorageServiceBatchesSpec extends Specification {
+
+  void "results should be in the same order as the inputs"() {
+    when:
+    List<Integer> results = StorageServiceBatches.map((1..100).toList(), 8) { Integer i -> Thread.sleep(100 - i); i * 2 }
+
+    then:
+    results == (1..100).collect { it * 2 }
+  }
+
+  void "no more than the given number of operations should run at once"() {
+    given:
+    AtomicInteger running = new AtomicInteger()
+    AtomicInteger maxRunning = new AtomicInteger()
+
+    when:
+    StorageServiceBatches.forEach((1..50).toList(), 4) { Integer i ->
+      maxRunning.accumulateAndGet(running.incrementAndGet(), Math.&max)
+      Thread.sleep(5)
+      running.decrementAndGet()
+    }
+
+    then:
+    maxRunning.get() <= 4
+  }
+
+  void "the first failure should be rethrown unchanged"() {
+    when:
+    StorageServiceBatches.map((1..10).toList(), 4) { Integer i ->
+      if (i == 5) {
+        throw new NotFoundException("No such object named " + i)
+      }
+      i
+    }
+
+    then:
+    NotFoundException e = thrown()
+    e.message == "No such object named 5"
+  }
+
+  void "batch deletes should ignore objects that are already gone"() {
+    given:
+    DeleteRecordingStorageService storageService = new DeleteRecordingStorageService(missingObjectKeys: ["b"])
+
+    when:
+    storageService.deleteObjects("some-account", ObjectType.METRIC_SET_LIST, ["a", "b", "c"])
+
+    then:
+    storageService.deletedObjectKeys == ["a", "c"] as Set
+  }
+
+  static class DeleteRecordingStorageService implements StorageService {
+
+    List<String> missingObjectKeys = []
+    Set<String> deletedObjectKeys = Collections.synchronizedSet(new HashSet<String>())
+
+    boolean servicesAccount(String accountName) {
+      true
+    }
+
+    def <T> T loadObject(String accountName, ObjectType objectType, String objectKey) {
+      throw new UnsupportedOperationException()
+    }
+
+    def <T> void storeObject(String accountName, ObjectType objectType, String objectKey, T obj, String filename, boolean isAnUpdate) {
+      throw new UnsupportedOperationException()
+    }
+
+    void deleteObject(String accountName, ObjectType objectType, String objectKey) {
+      if (objectKey in missingObjectKeys) {
+        throw new NotFoundException("No such object named " + objectKey)
+      }
+      deletedObjectKeys << objectKey
+    }
+
+    List<Map<String, Object>> listObjectKeys(String accountName, ObjectType objectType, List<String> applications, boolean skipIndex) {
+      []
+    }
+  }
+}
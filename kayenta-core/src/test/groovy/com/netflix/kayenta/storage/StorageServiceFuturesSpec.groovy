@@ -0,0 +1,46 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.kayenta.storage
+
+import com.netflix.spinnaker.kork.web.exceptions.NotFoundException
+import spock.lang.Specification
+
+import static com.netflix.kayenta.storage.StorageServiceBatchesSpec.DeleteRecordingStorageService
+
+class StorageServiceFuturesSpec extends Specification {
+
+  void "asynchronous operations should complete with the result of the blocking operation"() {
+    given:
+    DeleteRecordingStorageService storageService = new DeleteRecordingStorageService()
+
+    when:
+    StorageServiceFutures.join(storageService.deleteObjectAsync("some-account", ObjectType.METRIC_SET_LIST, "a"))
+
+    then:
+    storageService.deletedObjectKeys == ["a"] as Set
+  }
+
+  void "joining should rethrow the exception the storage operation threw"() {
+    given:
+    DeleteRecordingStorageService storageService = new DeleteRecordingStorageService(missingObjectKeys: ["a"])
+
+    when:
+    StorageServiceFutures.join(storageService.deleteObjectAsync("some-account", ObjectType.METRIC_SET_LIST, "a"))
+
+    then:
+    thrown(NotFoundException)
+  }
+}
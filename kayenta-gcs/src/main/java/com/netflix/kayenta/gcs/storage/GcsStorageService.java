@@ -16,24 +16,33 @@
 
 package com.netflix.kayenta.gcs.storage;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.api.client.http.ByteArrayContent;
+import com.google.api.client.googleapis.batch.BatchRequest;
+import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.http.HttpHeaders;
 import com.google.api.client.http.HttpResponseException;
 import com.google.api.services.storage.Storage;
 import com.google.api.services.storage.model.Bucket;
 import com.google.api.services.storage.model.Objects;
 import com.google.api.services.storage.model.StorageObject;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.netflix.kayenta.canary.CanaryConfig;
 import com.netflix.kayenta.google.security.GoogleNamedAccountCredentials;
 import com.netflix.kayenta.index.CanaryConfigIndex;
+import com.netflix.kayenta.index.CanaryConfigSearchTerms;
 import com.netflix.kayenta.index.config.CanaryConfigIndexAction;
 import com.netflix.kayenta.security.AccountCredentialsRepository;
 import com.netflix.kayenta.storage.ObjectType;
+import com.netflix.kayenta.storage.ShardedKeyLayout;
 import com.netflix.kayenta.storage.StorageService;
+import com.netflix.kayenta.storage.StorageServiceBatches;
 import com.netflix.spinnaker.kork.web.exceptions.NotFoundException;
 import lombok.Builder;
 import lombok.Getter;
@@ -43,15 +52,23 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.util.StringUtils;
 
 import javax.validation.constraints.NotNull;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 
 @Builder
 @Slf4j
 public class GcsStorageService implements StorageService {
 
+  private static final int MAX_REQUESTS_PER_BATCH = 100;
+
   @Autowired
   private ObjectMapper kayentaObjectMapper;
 
@@ -66,15 +83,36 @@ public class GcsStorageService implements StorageService {
   @Autowired
   private CanaryConfigIndex canaryConfigIndex;
 
+  // Maps account name and canary config id to the name of the object the canary config is stored in, which embeds the config's name.
+  private final Cache<String, String> canaryConfigObjectNameCache = CacheBuilder.newBuilder().maximumSize(10000).build();
+
+  // Names of the accounts whose bucket is known to exist, so we only check (and possibly create) each bucket once.
+  private final Set<String> accountsWithVerifiedBuckets = ConcurrentHashMap.newKeySet();
+
+  private final ExecutorService uploadExecutorService =
+    Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("gcs-upload-%d").setDaemon(true).build());
+
+  private final ExecutorService listingExecutorService =
+    Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("gcs-list-%d").setDaemon(true).build());
+
   @Override
   public boolean servicesAccount(String accountName) {
     return accountNames.contains(accountName);
   }
 
+  @Override
+  public boolean maintainsCanaryConfigIndex() {
+    return true;
+  }
+
   /**
-   * Check to see if the bucket exists, creating it if it is not there.
+   * Check to see if the bucket exists, creating it if it is not there. The check is only made once per account.
    */
   public void ensureBucketExists(String accountName) {
+    if (accountsWithVerifiedBuckets.contains(accountName)) {
+      return;
+    }
+
     GoogleNamedAccountCredentials credentials = (GoogleNamedAccountCredentials)accountCredentialsRepository
       .getOne(accountName)
       .orElseThrow(() -> new IllegalArgumentException("Unable to resolve account " + accountName + "."));
@@ -112,6 +150,8 @@ public class GcsStorageService implements StorageService {
       log.error("Could not get bucket {}: {}", bucketName, e);
       throw new IllegalArgumentException(e);
     }
+
+    accountsWithVerifiedBuckets.add(accountName);
   }
 
   @Override
@@ -121,55 +161,89 @@ public class GcsStorageService implements StorageService {
       .orElseThrow(() -> new IllegalArgumentException("Unable to resolve account " + accountName + "."));
     Storage storage = credentials.getStorage();
     String bucketName = credentials.getBucket();
-    StorageObject item;
+    String objectName = resolveDirectObjectName(objectType, objectKey, credentials);
 
-    try {
-      item = resolveSingularItem(objectType, objectKey, credentials, storage, bucketName);
-    } catch (IllegalArgumentException e) {
-      throw new NotFoundException(e.getMessage());
+    if (objectName == null) {
+      objectName = resolveSingularObjectNameOrThrowNotFound(objectType, objectKey, credentials, storage, bucketName);
     }
 
     try {
-      StorageObject storageObject = storage.objects().get(bucketName, item.getName()).execute();
+      return getObject(objectType, objectKey, storage, bucketName, objectName);
+    } catch (NotFoundException e) {
+      // The direct name can miss if the canary config was renamed by another instance, or if the object was stored under
+      // a non-default filename. Fall back to resolving the name via a listing before giving up.
+      canaryConfigObjectNameCache.invalidate(buildObjectNameCacheKey(credentials, objectKey));
+
+      String resolvedObjectName = resolveSingularObjectNameOrThrowNotFound(objectType, objectKey, credentials, storage, bucketName);
+
+      if (resolvedObjectName.equals(objectName)) {
+        throw e;
+      }
+
+      return getObject(objectType, objectKey, storage, bucketName, resolvedObjectName);
+    }
+  }
 
-      return deserialize(storage, storageObject, objectType.getTypeReference());
+  // Parse the object as it is downloaded, rather than fetching its metadata and buffering its content first.
+  private <T> T getObject(ObjectType objectType, String objectKey, Storage storage, String bucketName, String objectName) {
+    try (InputStream inputStream = storage.objects().get(bucketName, objectName).executeMediaAsInputStream()) {
+      return kayentaObjectMapper.readValue(inputStream, objectType.getTypeReference());
     } catch (IOException e) {
       if (e instanceof HttpResponseException) {
         HttpResponseException hre = (HttpResponseException)e;
-        log.error("Failed to load {} {}: {} {}", objectType.getGroup(), objectKey, hre.getStatusCode(), hre.getStatusMessage());
         if (hre.getStatusCode() == 404) {
-          throw new NotFoundException("No file at path " + item.getName() + ".");
+          throw new NotFoundException("No file at path " + objectName + ".");
         }
+        log.error("Failed to load {} {}: {} {}", objectType.getGroup(), objectKey, hre.getStatusCode(), hre.getStatusMessage());
       }
       throw new IllegalStateException(e);
     }
   }
 
-  private StorageObject resolveSingularItem(ObjectType objectType, String objectKey, GoogleNamedAccountCredentials credentials, Storage storage, String bucketName) {
-    String rootFolder = daoRoot(credentials, objectType.getGroup()) + "/" + objectKey;
+  private String resolveDirectObjectName(ObjectType objectType, String objectKey, GoogleNamedAccountCredentials credentials) {
+    if (objectType == ObjectType.CANARY_CONFIG) {
+      return canaryConfigObjectNameCache.getIfPresent(buildObjectNameCacheKey(credentials, objectKey));
+    }
 
+    return keyToPath(credentials, objectType, objectKey, null);
+  }
+
+  private String resolveSingularObjectNameOrThrowNotFound(ObjectType objectType, String objectKey, GoogleNamedAccountCredentials credentials, Storage storage, String bucketName) {
     try {
-      Storage.Objects.List objectsList = storage.objects().list(bucketName).setPrefix(rootFolder);
-      Objects objects = objectsList.execute();
-      List<StorageObject> items = objects.getItems();
+      return resolveSingularObjectName(objectType, objectKey, credentials, storage, bucketName);
+    } catch (IllegalArgumentException e) {
+      throw new NotFoundException(e.getMessage());
+    }
+  }
 
-      if (items != null && items.size() == 1) {
-        return items.get(0);
-      } else {
-        throw new IllegalArgumentException("Unable to resolve singular " + objectType + " at " + daoRoot(credentials, objectType.getGroup()) + '/' + objectKey + ".");
+  private String resolveSingularObjectName(ObjectType objectType, String objectKey, GoogleNamedAccountCredentials credentials, Storage storage, String bucketName) {
+    String typedFolder = daoRoot(credentials, objectType.getGroup());
+
+    try {
+      for (String rootFolder : ShardedKeyLayout.candidateObjectFolders(typedFolder, objectKey, credentials.isShardedKeyLayout())) {
+        Storage.Objects.List objectsList = storage.objects().list(bucketName).setPrefix(rootFolder);
+        Objects objects = objectsList.execute();
+        List<StorageObject> items = objects.getItems();
+
+        if (items != null && items.size() == 1) {
+          String objectName = items.get(0).getName();
+
+          if (objectType == ObjectType.CANARY_CONFIG) {
+            canaryConfigObjectNameCache.put(buildObjectNameCacheKey(credentials, objectKey), objectName);
+          }
+
+          return objectName;
+        }
       }
     } catch (IOException e) {
       throw new IllegalArgumentException("Could not fetch items from Google Cloud Storage: " + e.getMessage(), e);
     }
-  }
 
-  private <T> T deserialize(Storage storage, StorageObject object, TypeReference typeReference) throws IOException {
-    ByteArrayOutputStream output = new java.io.ByteArrayOutputStream();
-    Storage.Objects.Get getter = storage.objects().get(object.getBucket(), object.getName());
-    getter.executeMediaAndDownloadTo(output);
-    String json = output.toString("UTF8");
+    throw new IllegalArgumentException("Unable to resolve singular " + objectType + " at " + typedFolder + '/' + objectKey + ".");
+  }
 
-    return kayentaObjectMapper.readValue(json, typeReference);
+  private String buildObjectNameCacheKey(GoogleNamedAccountCredentials credentials, String objectKey) {
+    return credentials.getName() + ":" + objectKey;
   }
 
   @Override
@@ -186,7 +260,7 @@ public class GcsStorageService implements StorageService {
     long updatedTimestamp = -1;
     String correlationId = null;
     String canaryConfigSummaryJson = null;
-    StorageObject originalItem = null;
+    String originalObjectName = null;
 
     if (objectType == ObjectType.CANARY_CONFIG) {
       updatedTimestamp = canaryConfigIndex.getRedisTime();
@@ -197,17 +271,23 @@ public class GcsStorageService implements StorageService {
 
       if (isAnUpdate) {
         // Storing a canary config while not checking for naming collisions can only be a PUT (i.e. an update to an existing config).
-        originalItem = resolveSingularItem(objectType, objectKey, credentials, storage, bucketName);
+        originalObjectName = resolveSingularObjectName(objectType, objectKey, credentials, storage, bucketName);
       }
 
       correlationId = UUID.randomUUID().toString();
 
+      // The stored config carries the version recorded in the index, so that a cached copy of it can be matched against
+      // the index.
+      canaryConfig.setUpdatedTimestamp(updatedTimestamp);
+      canaryConfig.setUpdatedTimestampIso(Instant.ofEpochMilli(updatedTimestamp).toString());
+
       Map<String, Object> canaryConfigSummary = new ImmutableMap.Builder<String, Object>()
         .put("id", objectKey)
         .put("name", canaryConfig.getName())
         .put("updatedTimestamp", updatedTimestamp)
         .put("updatedTimestampIso", Instant.ofEpochMilli(updatedTimestamp).toString())
         .put("applications", canaryConfig.getApplications())
+        .put(CanaryConfigSearchTerms.SEARCH_TERMS_KEY, CanaryConfigSearchTerms.of(canaryConfig, kayentaObjectMapper))
         .build();
 
       try {
@@ -226,18 +306,16 @@ public class GcsStorageService implements StorageService {
     }
 
     try {
-      byte[] bytes = kayentaObjectMapper.writeValueAsBytes(obj);
-      StorageObject object = new StorageObject().setBucket(bucketName).setName(path);
-      ByteArrayContent content = new ByteArrayContent("application/json", bytes);
-
-      storage.objects().insert(bucketName, object, content).execute();
+      uploadObject(credentials, storage, bucketName, path, obj);
 
       if (objectType == ObjectType.CANARY_CONFIG) {
         // This will be true if the canary config is renamed.
-        if (originalItem != null && !originalItem.getName().equals(path)) {
-          storage.objects().delete(bucketName, originalItem.getName()).execute();
+        if (originalObjectName != null && !originalObjectName.equals(path)) {
+          storage.objects().delete(bucketName, originalObjectName).execute();
         }
 
+        canaryConfigObjectNameCache.put(buildObjectNameCacheKey(credentials, objectKey), path);
+
         canaryConfigIndex.finishPendingUpdate(credentials, CanaryConfigIndexAction.UPDATE, correlationId);
       }
     } catch (IOException e) {
@@ -257,6 +335,27 @@ public class GcsStorageService implements StorageService {
     }
   }
 
+  // Serialize the object directly into the upload rather than materializing it as a byte array first.
+  private void uploadObject(GoogleNamedAccountCredentials credentials, Storage storage, String bucketName, String path, Object obj) throws IOException {
+    GcsUploadOutputStream outputStream =
+      new GcsUploadOutputStream(storage,
+                                bucketName,
+                                path,
+                                credentials.getResumableUploadThresholdBytes(),
+                                credentials.getResumableUploadChunkSizeBytes(),
+                                uploadExecutorService);
+
+    try {
+      // The stream must not be closed (which stores the object) if serialization fails part way through.
+      kayentaObjectMapper.writer().without(JsonGenerator.Feature.AUTO_CLOSE_TARGET).writeValue(outputStream, obj);
+    } catch (IOException | RuntimeException e) {
+      outputStream.abort();
+      throw e;
+    }
+
+    outputStream.close();
+  }
+
   private void checkForDuplicateCanaryConfig(CanaryConfig canaryConfig, String canaryConfigId, GoogleNamedAccountCredentials credentials) {
     String canaryConfigName = canaryConfig.getName();
     List<String> applications = canaryConfig.getApplications();
@@ -275,7 +374,11 @@ public class GcsStorageService implements StorageService {
       .orElseThrow(() -> new IllegalArgumentException("Unable to resolve account " + accountName + "."));
     Storage storage = credentials.getStorage();
     String bucketName = credentials.getBucket();
-    StorageObject item = resolveSingularItem(objectType, objectKey, credentials, storage, bucketName);
+    // Deleting a canary config must remove whatever object it currently lives in, so resolve it rather than trust the cache.
+    // Likewise with the sharded layout, since the object may have been written before the layout was enabled.
+    String objectName = objectType == ObjectType.CANARY_CONFIG || credentials.isShardedKeyLayout()
+      ? resolveSingularObjectName(objectType, objectKey, credentials, storage, bucketName)
+      : resolveDirectObjectName(objectType, objectKey, credentials);
 
     long updatedTimestamp = -1;
     String correlationId = null;
@@ -317,13 +420,16 @@ public class GcsStorageService implements StorageService {
     }
 
     try {
-      storage.objects().delete(bucketName, item.getName()).execute();
+      storage.objects().delete(bucketName, objectName).execute();
+      canaryConfigObjectNameCache.invalidate(buildObjectNameCacheKey(credentials, objectKey));
 
       if (correlationId != null) {
         canaryConfigIndex.finishPendingUpdate(credentials, CanaryConfigIndexAction.DELETE, correlationId);
       }
     } catch (HttpResponseException e) {
       if (e.getStatusCode() == 404) {
+        canaryConfigObjectNameCache.invalidate(buildObjectNameCacheKey(credentials, objectKey));
+
         if (correlationId != null) {
           canaryConfigIndex.finishPendingUpdate(credentials, CanaryConfigIndexAction.DELETE, correlationId);
         }
@@ -343,7 +449,7 @@ public class GcsStorageService implements StorageService {
 
       throw new IllegalArgumentException(e);
     } catch (IOException ioex) {
-      log.error("Failed to delete path {}: {}", item.getName(), ioex);
+      log.error("Failed to delete path {}: {}", objectName, ioex);
 
       if (correlationId != null) {
         canaryConfigIndex.removeFailedPendingUpdate(
@@ -359,8 +465,79 @@ public class GcsStorageService implements StorageService {
     }
   }
 
+  /**
+   * Deletes everything but canary configs with batch requests of up to 100 deletes each. Canary configs are deleted one
+   * at a time, since each deletion must be recorded in the canary config index.
+   */
+  @Override
+  public void deleteObjects(String accountName, ObjectType objectType, List<String> objectKeys) {
+    if (objectType == ObjectType.CANARY_CONFIG) {
+      StorageService.super.deleteObjects(accountName, objectType, objectKeys);
+      return;
+    }
+
+    GoogleNamedAccountCredentials credentials = (GoogleNamedAccountCredentials)accountCredentialsRepository
+      .getOne(accountName)
+      .orElseThrow(() -> new IllegalArgumentException("Unable to resolve account " + accountName + "."));
+    Storage storage = credentials.getStorage();
+    String bucketName = credentials.getBucket();
+    String typedFolder = daoRoot(credentials, objectType.getGroup());
+    List<String> objectNames = new ArrayList<>();
+
+    // Rather than resolving each object with a listing as deleteObject does, delete every name it may have been stored
+    // under and ignore the ones that are not found.
+    for (String objectKey : objectKeys) {
+      for (String objectFolder : ShardedKeyLayout.candidateObjectFolders(typedFolder, objectKey, credentials.isShardedKeyLayout())) {
+        objectNames.add(objectFolder + '/' + objectType.getDefaultFilename());
+      }
+    }
+
+    StorageServiceBatches.forEach(Lists.partition(objectNames, MAX_REQUESTS_PER_BATCH), StorageServiceBatches.DEFAULT_CONCURRENCY, batch -> {
+      List<String> failedObjectNames = new ArrayList<>();
+
+      try {
+        BatchRequest batchRequest = storage.batch();
+
+        for (String objectName : batch) {
+          storage.objects().delete(bucketName, objectName).queue(batchRequest, new JsonBatchCallback<Void>() {
+            @Override
+            public void onSuccess(Void result, HttpHeaders responseHeaders) {
+            }
+
+            @Override
+            public void onFailure(GoogleJsonError error, HttpHeaders responseHeaders) {
+              if (error.getCode() != 404) {
+                log.error("Failed to delete path {}: {} {}", objectName, error.getCode(), error.getMessage());
+                failedObjectNames.add(objectName);
+              }
+            }
+          });
+        }
+
+        batchRequest.execute();
+      } catch (IOException e) {
+        log.error("Failed to delete {} paths: {}", batch.size(), e);
+
+        throw new IllegalArgumentException(e);
+      }
+
+      if (!failedObjectNames.isEmpty()) {
+        throw new IllegalArgumentException("Failed to delete " + failedObjectNames.size() + " of " + batch.size() + " paths, including " + failedObjectNames.get(0) + ".");
+      }
+    });
+  }
+
   @Override
   public List<Map<String, Object>> listObjectKeys(String accountName, ObjectType objectType, List<String> applications, boolean skipIndex) {
+    List<Map<String, Object>> result = new ArrayList<>();
+
+    forEachObjectKey(accountName, objectType, applications, skipIndex, result::add);
+
+    return result;
+  }
+
+  @Override
+  public void forEachObjectKey(String accountName, ObjectType objectType, List<String> applications, boolean skipIndex, Consumer<Map<String, Object>> consumer) {
     GoogleNamedAccountCredentials credentials = (GoogleNamedAccountCredentials)accountCredentialsRepository
       .getOne(accountName)
       .orElseThrow(() -> new IllegalArgumentException("Unable to resolve account " + accountName + "."));
@@ -368,7 +545,7 @@ public class GcsStorageService implements StorageService {
     if (!skipIndex && objectType == ObjectType.CANARY_CONFIG) {
       Set<Map<String, Object>> canaryConfigSet = canaryConfigIndex.getCanaryConfigSummarySet(credentials, applications);
 
-      return Lists.newArrayList(canaryConfigSet);
+      canaryConfigSet.forEach(consumer);
     } else {
       Storage storage = credentials.getStorage();
       String bucketName = credentials.getBucket();
@@ -377,16 +554,21 @@ public class GcsStorageService implements StorageService {
       ensureBucketExists(accountName);
 
       int skipToOffset = rootFolder.length() + 1;  // + Trailing slash
-      List<Map<String, Object>> result = new ArrayList<>();
 
       log.debug("Listing {}", objectType.getGroup());
 
+      Future<Objects> nextPage = listingExecutorService.submit(() -> listPage(storage, bucketName, rootFolder, null));
+
       try {
-        Storage.Objects.List objectsList = storage.objects().list(bucketName).setPrefix(rootFolder);
-        Objects objects;
+        while (nextPage != null) {
+          Objects objects = nextPage.get();
+          String nextPageToken = objects.getNextPageToken();
+
+          // Fetch the next page while this one is being processed.
+          nextPage = nextPageToken != null
+            ? listingExecutorService.submit(() -> listPage(storage, bucketName, rootFolder, nextPageToken))
+            : null;
 
-        do {
-          objects = objectsList.execute();
           List<StorageObject> items = objects.getItems();
 
           if (items != null) {
@@ -396,7 +578,7 @@ public class GcsStorageService implements StorageService {
               Map<String, Object> objectMetadataMap = new HashMap<>();
               long updatedTimestamp = item.getUpdated().getValue();
 
-              objectMetadataMap.put("id", itemName.substring(skipToOffset, indexOfLastSlash));
+              objectMetadataMap.put("id", ShardedKeyLayout.extractObjectKey(itemName, skipToOffset));
               objectMetadataMap.put("updatedTimestamp", updatedTimestamp);
               objectMetadataMap.put("updatedTimestampIso", Instant.ofEpochMilli(updatedTimestamp).toString());
 
@@ -410,20 +592,35 @@ public class GcsStorageService implements StorageService {
                 objectMetadataMap.put("name", name);
               }
 
-              result.add(objectMetadataMap);
+              consumer.accept(objectMetadataMap);
             }
           }
-
-          objectsList.setPageToken(objects.getNextPageToken());
-        } while (objects.getNextPageToken() != null);
-      } catch (IOException e) {
-        log.error("Could not fetch items from Google Cloud Storage: {}", e);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while listing " + rootFolder + ".", e);
+      } catch (ExecutionException e) {
+        // A partial listing would look complete to the caller, so a page that can't be fetched fails the whole listing.
+        throw new IllegalStateException("Unable to list " + rootFolder + ".", e.getCause());
+      } finally {
+        if (nextPage != null) {
+          nextPage.cancel(true);
+        }
       }
-
-      return result;
     }
   }
 
+  // Only the fields needed to build the object keys are requested, which keeps each page small.
+  private Objects listPage(Storage storage, String bucketName, String rootFolder, String pageToken) throws IOException {
+    return storage
+      .objects()
+      .list(bucketName)
+      .setPrefix(rootFolder)
+      .setFields("items(name,updated),nextPageToken")
+      .setPageToken(pageToken)
+      .execute();
+  }
+
   private String daoRoot(GoogleNamedAccountCredentials credentials, String daoTypeName) {
     return credentials.getRootFolder() + '/' + daoTypeName;
   }
@@ -433,6 +630,6 @@ public class GcsStorageService implements StorageService {
       filename = objectType.getDefaultFilename();
     }
 
-    return daoRoot(credentials, objectType.getGroup()) + '/' + objectKey + '/' + filename;
+    return ShardedKeyLayout.objectFolder(daoRoot(credentials, objectType.getGroup()), objectKey, credentials.isShardedKeyLayout()) + '/' + filename;
   }
 }
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.kayenta.gcs.storage;
+
+import com.google.api.client.http.ByteArrayContent;
+import com.google.api.client.http.InputStreamContent;
+import com.google.api.services.storage.Storage;
+import com.google.api.services.storage.model.StorageObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Buffers written bytes in memory up to the resumable upload threshold. If close() is reached without crossing the
+ * threshold, the object is stored with a single direct upload. Once the threshold is crossed, a resumable upload is
+ * started in the background and everything written (including the bytes buffered so far) is piped into it, so that no
+ * more than one chunk of the object is held in memory at a time.
+ *
+ * Callers must call abort() instead of close() if writing fails, so that a partially written object is never stored.
+ */
+class GcsUploadOutputStream extends OutputStream {
+
+  private static final String CONTENT_TYPE = "application/json";
+  private static final int PIPE_SIZE_BYTES = 64 * 1024;
+
+  private final Storage storage;
+  private final String bucketName;
+  private final String objectName;
+  private final int resumableUploadThresholdBytes;
+  private final int resumableUploadChunkSizeBytes;
+  private final ExecutorService executorService;
+
+  private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+  private PipedOutputStream pipedOutputStream;
+  private Future<?> resumableUpload;
+  private volatile boolean aborted = false;
+  private boolean closed = false;
+
+  GcsUploadOutputStream(Storage storage,
+                        String bucketName,
+                        String objectName,
+                        int resumableUploadThresholdBytes,
+                        int resumableUploadChunkSizeBytes,
+                        ExecutorService executorService) {
+    this.storage = storage;
+    this.bucketName = bucketName;
+    this.objectName = objectName;
+    this.resumableUploadThresholdBytes = resumableUploadThresholdBytes;
+    this.resumableUploadChunkSizeBytes = resumableUploadChunkSizeBytes;
+    this.executorService = executorService;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    write(new byte[] {(byte)b}, 0, 1);
+  }
+
+  @Override
+  public void write(byte[] bytes, int offset, int length) throws IOException {
+    ensureOpen();
+
+    if (pipedOutputStream == null) {
+      buffer.write(bytes, offset, length);
+
+      if (buffer.size() > resumableUploadThresholdBytes) {
+        startResumableUpload();
+      }
+    } else {
+      try {
+        pipedOutputStream.write(bytes, offset, length);
+      } catch (IOException e) {
+        // The pipe is closed by the reading side when the upload fails, so report why the upload failed.
+        throw resumableUploadFailure(e);
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+
+    closed = true;
+
+    if (pipedOutputStream == null) {
+      Storage.Objects.Insert insert =
+        storage.objects().insert(bucketName, newStorageObject(), new ByteArrayContent(CONTENT_TYPE, buffer.toByteArray()));
+
+      buffer = null;
+      insert.getMediaHttpUploader().setDirectUploadEnabled(true);
+      insert.execute();
+    } else {
+      pipedOutputStream.close();
+
+      try {
+        resumableUpload.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while uploading " + objectName + ".", e);
+      } catch (ExecutionException e) {
+        throw asIOException(e.getCause());
+      }
+    }
+  }
+
+  /**
+   * Discard everything written so far without storing anything.
+   */
+  void abort() {
+    if (closed) {
+      return;
+    }
+
+    closed = true;
+    aborted = true;
+    buffer = null;
+
+    if (pipedOutputStream != null) {
+      try {
+        // The resumable upload sees the end of the pipe, notices the abort and fails without finalizing the object.
+        pipedOutputStream.close();
+      } catch (IOException e) {
+        // The upload has already failed, which is all we wanted.
+      }
+    }
+  }
+
+  private void ensureOpen() throws IOException {
+    if (closed) {
+      throw new IOException("Upload of " + objectName + " has already been closed.");
+    }
+  }
+
+  private StorageObject newStorageObject() {
+    return new StorageObject().setBucket(bucketName).setName(objectName);
+  }
+
+  private void startResumableUpload() throws IOException {
+    PipedInputStream pipedInputStream = new PipedInputStream(PIPE_SIZE_BYTES);
+    InputStream uploadInputStream = new FilterInputStream(pipedInputStream) {
+      @Override
+      public int read() throws IOException {
+        return checkNotAborted(super.read());
+      }
+
+      @Override
+      public int read(byte[] bytes, int offset, int length) throws IOException {
+        return checkNotAborted(super.read(bytes, offset, length));
+      }
+    };
+
+    pipedOutputStream = new PipedOutputStream(pipedInputStream);
+    resumableUpload = executorService.submit(() -> {
+      try {
+        Storage.Objects.Insert insert =
+          storage.objects().insert(bucketName, newStorageObject(), new InputStreamContent(CONTENT_TYPE, uploadInputStream));
+
+        insert.getMediaHttpUploader().setDirectUploadEnabled(false).setChunkSize(resumableUploadChunkSizeBytes);
+        insert.execute();
+
+        return null;
+      } finally {
+        // Unblocks the writer if the upload failed before consuming everything.
+        pipedInputStream.close();
+      }
+    });
+
+    try {
+      buffer.writeTo(pipedOutputStream);
+    } catch (IOException e) {
+      throw resumableUploadFailure(e);
+    }
+
+    buffer = null;
+  }
+
+  private int checkNotAborted(int result) throws IOException {
+    if (result == -1 && aborted) {
+      throw new IOException("Upload of " + objectName + " was aborted.");
+    }
+
+    return result;
+  }
+
+  // The pipe is only ever closed from the reading side once the upload has finished, so this does not block for long.
+  private IOException resumableUploadFailure(IOException pipeException) {
+    try {
+      resumableUpload.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      return asIOException(e.getCause());
+    }
+
+    return pipeException;
+  }
+
+  private IOException asIOException(Throwable t) {
+    return t instanceof IOException ? (IOException)t : new IOException("Failed to upload " + objectName + ".", t);
+  }
+}
@@ -16,6 +16,7 @@
 
 package com.netflix.kayenta.google.config;
 
+import com.google.api.client.googleapis.media.MediaHttpUploader;
 import com.netflix.kayenta.google.security.GoogleCredentials;
 import com.netflix.kayenta.google.security.GoogleJsonCredentials;
 import com.netflix.kayenta.google.security.GoogleNamedAccountCredentials;
@@ -88,9 +89,22 @@ public class GoogleConfiguration {
               throw new IllegalArgumentException("Google/GCS account " + name + " is required to specify a rootFolder.");
             }
 
+            if (googleManagedAccount.getResumableUploadThresholdBytes() < 0) {
+              throw new IllegalArgumentException("Google/GCS account " + name + " must specify a non-negative resumableUploadThresholdBytes.");
+            }
+
+            int resumableUploadChunkSizeBytes = googleManagedAccount.getResumableUploadChunkSizeBytes();
+
+            if (resumableUploadChunkSizeBytes <= 0 || resumableUploadChunkSizeBytes % MediaHttpUploader.MINIMUM_CHUNK_SIZE != 0) {
+              throw new IllegalArgumentException("Google/GCS account " + name + " must specify a resumableUploadChunkSizeBytes that is a positive multiple of 256KB.");
+            }
+
             googleNamedAccountCredentialsBuilder.bucket(bucket);
             googleNamedAccountCredentialsBuilder.bucketLocation(googleManagedAccount.getBucketLocation());
             googleNamedAccountCredentialsBuilder.rootFolder(rootFolder);
+            googleNamedAccountCredentialsBuilder.resumableUploadThresholdBytes(googleManagedAccount.getResumableUploadThresholdBytes());
+            googleNamedAccountCredentialsBuilder.resumableUploadChunkSizeBytes(resumableUploadChunkSizeBytes);
+            googleNamedAccountCredentialsBuilder.shardedKeyLayout(googleManagedAccount.isShardedKeyLayout());
             googleNamedAccountCredentialsBuilder.storage(googleCredentials.getStorage());
           }
 
@@ -40,6 +40,15 @@ public class GoogleManagedAccount {
   private String bucketLocation;
   private String rootFolder;
 
+  // Objects no larger than resumableUploadThresholdBytes are stored with a single request. Larger objects are streamed
+  // as a resumable upload in chunks of resumableUploadChunkSizeBytes, which GCS requires to be a multiple of 256KB.
+  private int resumableUploadThresholdBytes = 8 * 1024 * 1024;
+  private int resumableUploadChunkSizeBytes = 8 * 1024 * 1024;
+
+  // Store objects under a hash-derived folder (rootFolder/group/shard/objectKey/filename) to spread writes across key
+  // prefixes. Objects stored before this was enabled remain readable.
+  private boolean shardedKeyLayout;
+
   private List<AccountCredentials.Type> supportedTypes;
 
   private InputStream getInputStream() throws FileNotFoundException {
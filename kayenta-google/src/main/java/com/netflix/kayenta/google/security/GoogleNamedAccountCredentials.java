@@ -47,6 +47,9 @@ public class GoogleNamedAccountCredentials implements AccountCredentials<GoogleC
   private String bucket;
   private String bucketLocation;
   private String rootFolder;
+  private int resumableUploadThresholdBytes;
+  private int resumableUploadChunkSizeBytes;
+  private boolean shardedKeyLayout;
 
   @Override
   public String getType() {
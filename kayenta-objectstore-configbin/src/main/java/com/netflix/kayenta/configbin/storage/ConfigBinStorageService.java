@@ -25,6 +25,7 @@ import com.netflix.kayenta.canary.CanaryConfig;
 import com.netflix.kayenta.configbin.security.ConfigBinNamedAccountCredentials;
 import com.netflix.kayenta.configbin.service.ConfigBinRemoteService;
 import com.netflix.kayenta.index.CanaryConfigIndex;
+import com.netflix.kayenta.index.CanaryConfigSearchTerms;
 import com.netflix.kayenta.index.config.CanaryConfigIndexAction;
 import com.netflix.kayenta.security.AccountCredentialsRepository;
 import com.netflix.kayenta.storage.ObjectType;
@@ -69,8 +70,23 @@ public class ConfigBinStorageService implements StorageService {
     return accountNames.contains(accountName);
   }
 
+  @Override
+  public boolean maintainsCanaryConfigIndex() {
+    return true;
+  }
+
+  // Everything stored under the config type is listed as a canary config, so a snapshot would break indexing.
+  @Override
+  public boolean storesCanaryConfigIndexSnapshots() {
+    return false;
+  }
+
   @Override
   public <T> T loadObject(String accountName, ObjectType objectType, String objectKey) throws IllegalArgumentException, NotFoundException {
+    if (objectType == ObjectType.CANARY_CONFIG_INDEX_SNAPSHOT) {
+      throw new NotFoundException("ConfigBin does not store canary config index snapshots.");
+    }
+
     ConfigBinNamedAccountCredentials credentials = (ConfigBinNamedAccountCredentials)accountCredentialsRepository
       .getOne(accountName)
       .orElseThrow(() -> new IllegalArgumentException("Unable to resolve account " + accountName + "."));
@@ -95,6 +111,10 @@ public class ConfigBinStorageService implements StorageService {
 
   @Override
   public <T> void storeObject(String accountName, ObjectType objectType, String objectKey, T obj, String filename, boolean isAnUpdate) {
+    if (objectType == ObjectType.CANARY_CONFIG_INDEX_SNAPSHOT) {
+      throw new IllegalArgumentException("ConfigBin does not store canary config index snapshots.");
+    }
+
     ConfigBinNamedAccountCredentials credentials = (ConfigBinNamedAccountCredentials) accountCredentialsRepository
       .getOne(accountName)
       .orElseThrow(() -> new IllegalArgumentException("Unable to resolve account " + accountName + "."));
@@ -115,12 +135,18 @@ public class ConfigBinStorageService implements StorageService {
 
       correlationId = UUID.randomUUID().toString();
 
+      // The stored config carries the version recorded in the index, so that a cached copy of it can be matched against
+      // the index.
+      canaryConfig.setUpdatedTimestamp(updatedTimestamp);
+      canaryConfig.setUpdatedTimestampIso(Instant.ofEpochMilli(updatedTimestamp).toString());
+
       Map<String, Object> canaryConfigSummary = new ImmutableMap.Builder<String, Object>()
         .put("id", objectKey)
         .put("name", canaryConfig.getName())
         .put("updatedTimestamp", updatedTimestamp)
         .put("updatedTimestampIso", Instant.ofEpochMilli(updatedTimestamp).toString())
         .put("applications", canaryConfig.getApplications())
+        .put(CanaryConfigSearchTerms.SEARCH_TERMS_KEY, CanaryConfigSearchTerms.of(canaryConfig, kayentaObjectMapper))
         .build();
 
       try {
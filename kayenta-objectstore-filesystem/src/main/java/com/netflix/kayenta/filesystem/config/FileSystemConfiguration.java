@@ -0,0 +1,88 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.kayenta.filesystem.config;
+
+import com.netflix.kayenta.filesystem.security.FileSystemAccountCredentials;
+import com.netflix.kayenta.filesystem.security.FileSystemNamedAccountCredentials;
+import com.netflix.kayenta.filesystem.storage.FileSystemStorageService;
+import com.netflix.kayenta.security.AccountCredentials;
+import com.netflix.kayenta.security.AccountCredentialsRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.CollectionUtils;
+import org.springframework.util.StringUtils;
+
+import java.util.List;
+
+@Configuration
+@EnableConfigurationProperties
+@ConditionalOnProperty("kayenta.filesystem.enabled")
+@ComponentScan({"com.netflix.kayenta.filesystem"})
+@Slf4j
+public class FileSystemConfiguration {
+
+  @Bean
+  @ConfigurationProperties("kayenta.filesystem")
+  FileSystemConfigurationProperties fileSystemConfigurationProperties() {
+    return new FileSystemConfigurationProperties();
+  }
+
+  @Bean
+  FileSystemStorageService fileSystemStorageService(FileSystemConfigurationProperties fileSystemConfigurationProperties,
+                                                    AccountCredentialsRepository accountCredentialsRepository) {
+    FileSystemStorageService.FileSystemStorageServiceBuilder fileSystemStorageServiceBuilder = FileSystemStorageService.builder();
+
+    for (FileSystemManagedAccount fileSystemManagedAccount : fileSystemConfigurationProperties.getAccounts()) {
+      String name = fileSystemManagedAccount.getName();
+      String rootFolder = fileSystemManagedAccount.getRootFolder();
+      List<AccountCredentials.Type> supportedTypes = fileSystemManagedAccount.getSupportedTypes();
+
+      log.info("Registering File System account {} with supported types {}.", name, supportedTypes);
+
+      if (StringUtils.isEmpty(rootFolder)) {
+        throw new IllegalArgumentException("File System account " + name + " is required to specify a rootFolder.");
+      }
+
+      FileSystemAccountCredentials fileSystemAccountCredentials = FileSystemAccountCredentials.builder().build();
+      FileSystemNamedAccountCredentials.FileSystemNamedAccountCredentialsBuilder fileSystemNamedAccountCredentialsBuilder =
+        FileSystemNamedAccountCredentials.builder()
+          .name(name)
+          .credentials(fileSystemAccountCredentials)
+          .rootFolder(rootFolder)
+          .memoryMappedReadThresholdBytes(fileSystemManagedAccount.getMemoryMappedReadThresholdBytes())
+          .directoryIndexMaxAgeMS(fileSystemManagedAccount.getDirectoryIndexMaxAgeMS());
+
+      if (!CollectionUtils.isEmpty(supportedTypes)) {
+        fileSystemNamedAccountCredentialsBuilder.supportedTypes(supportedTypes);
+      }
+
+      FileSystemNamedAccountCredentials fileSystemNamedAccountCredentials = fileSystemNamedAccountCredentialsBuilder.build();
+      accountCredentialsRepository.save(name, fileSystemNamedAccountCredentials);
+      fileSystemStorageServiceBuilder.accountName(name);
+    }
+
+    FileSystemStorageService fileSystemStorageService = fileSystemStorageServiceBuilder.build();
+
+    log.info("Populated FileSystemStorageService with {} file system accounts.", fileSystemStorageService.getAccountNames().size());
+
+    return fileSystemStorageService;
+  }
+}
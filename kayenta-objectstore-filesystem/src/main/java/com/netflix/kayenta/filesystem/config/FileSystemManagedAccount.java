@@ -0,0 +1,42 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.kayenta.filesystem.config;
+
+import com.netflix.kayenta.security.AccountCredentials;
+import lombok.Data;
+
+import javax.validation.constraints.NotNull;
+import java.util.List;
+
+@Data
+public class FileSystemManagedAccount {
+
+  @NotNull
+  private String name;
+
+  // Local or shared directory that objects are stored under, laid out as rootFolder/group/objectKey/filename.
+  @NotNull
+  private String rootFolder;
+
+  // Objects at least this large are read through a memory-mapped file rather than being copied onto the heap first.
+  private int memoryMappedReadThresholdBytes = 64 * 1024;
+
+  // Listings rescan the folder at least this often, catching changes by other writers that the folder's modification
+  // time missed. Zero or less disables the rescan, which is only safe when this instance is the folder's sole writer.
+  private long directoryIndexMaxAgeMS = 60000;
+
+  private List<AccountCredentials.Type> supportedTypes;
+}
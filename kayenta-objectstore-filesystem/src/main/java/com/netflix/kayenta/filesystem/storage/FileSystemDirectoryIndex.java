@@ -0,0 +1,122 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.kayenta.filesystem.storage;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+
+/**
+ * Summaries of every object of one type in one account, so that listing does not need to walk the directory tree.
+ *
+ * The index is built with a single walk when it is first used, and assumes this instance is the only writer to the
+ * typed folder. Every store and delete bumps the modification time of the folder, so when it is shared with other
+ * instances, a modification time that differs from the one recorded when the index was built (or last updated by this
+ * instance) means the index is stale and is rebuilt. That check is best-effort: modification times can be coarse, and
+ * two instances writing within the same tick (or a writer that doesn't bump the folder at all) go unnoticed. So the
+ * index is also rebuilt once it is older than maxAgeMS, which bounds how long such changes can be missed.
+ */
+@Slf4j
+class FileSystemDirectoryIndex {
+
+  private final Path typedFolder;
+
+  // Builds the summary of an object from its key and the file it is stored in, or returns null if it can't be read.
+  private final BiFunction<String, Path, Map<String, Object>> summarizer;
+
+  // Longest time the index is trusted without walking the folder again; zero or less relies on the modification time alone.
+  private final long maxAgeMS;
+
+  private volatile Map<String, Map<String, Object>> summaries;
+  private volatile FileTime indexedModifiedTime;
+  private volatile long indexedAtMillis;
+
+  FileSystemDirectoryIndex(Path typedFolder, BiFunction<String, Path, Map<String, Object>> summarizer, long maxAgeMS) {
+    this.typedFolder = typedFolder;
+    this.summarizer = summarizer;
+    this.maxAgeMS = maxAgeMS;
+  }
+
+  Collection<Map<String, Object>> getSummaries() throws IOException {
+    refreshIfStale();
+
+    return summaries.values();
+  }
+
+  synchronized void recordStore(String objectKey, Map<String, Object> summary) throws IOException {
+    refreshIfStale();
+
+    summaries.put(objectKey, summary);
+    touchTypedFolder();
+  }
+
+  synchronized void recordDelete(String objectKey) throws IOException {
+    refreshIfStale();
+
+    summaries.remove(objectKey);
+    touchTypedFolder();
+  }
+
+  private synchronized void refreshIfStale() throws IOException {
+    Files.createDirectories(typedFolder);
+
+    FileTime modifiedTime = Files.getLastModifiedTime(typedFolder);
+    long now = System.currentTimeMillis();
+    boolean expired = maxAgeMS > 0 && now - indexedAtMillis >= maxAgeMS;
+
+    if (summaries != null && modifiedTime.equals(indexedModifiedTime) && !expired) {
+      return;
+    }
+
+    Map<String, Map<String, Object>> rebuiltSummaries = new ConcurrentHashMap<>();
+
+    log.debug("Indexing {}", typedFolder);
+
+    try (DirectoryStream<Path> objectFolders = Files.newDirectoryStream(typedFolder, Files::isDirectory)) {
+      for (Path objectFolder : objectFolders) {
+        String objectKey = objectFolder.getFileName().toString();
+        Path objectFile = FileSystemStorageService.findObjectFile(objectFolder);
+
+        if (objectFile != null) {
+          Map<String, Object> summary = summarizer.apply(objectKey, objectFile);
+
+          if (summary != null) {
+            rebuiltSummaries.put(objectKey, summary);
+          }
+        }
+      }
+    }
+
+    summaries = rebuiltSummaries;
+    // Anything changed while walking will have moved the modification time past this, causing another rebuild.
+    indexedModifiedTime = modifiedTime;
+    indexedAtMillis = now;
+  }
+
+  // Lets other instances sharing the folder know their index is stale, without making our own (just updated) index stale.
+  private void touchTypedFolder() throws IOException {
+    Files.setLastModifiedTime(typedFolder, FileTime.fromMillis(System.currentTimeMillis()));
+    indexedModifiedTime = Files.getLastModifiedTime(typedFolder);
+  }
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.kayenta.filesystem.storage;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+import com.netflix.kayenta.canary.CanaryConfig;
+import com.netflix.kayenta.filesystem.security.FileSystemNamedAccountCredentials;
+import com.netflix.kayenta.index.CanaryConfigIndex;
+import com.netflix.kayenta.security.AccountCredentialsRepository;
+import com.netflix.kayenta.storage.ObjectType;
+import com.netflix.kayenta.storage.StorageService;
+import com.netflix.spinnaker.kork.web.exceptions.NotFoundException;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.Singular;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import javax.validation.constraints.NotNull;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+@Builder
+@Slf4j
+public class FileSystemStorageService implements StorageService {
+
+  @Autowired
+  private ObjectMapper kayentaObjectMapper;
+
+  @NotNull
+  @Singular
+  @Getter
+  private List<String> accountNames;
+
+  @Autowired
+  private AccountCredentialsRepository accountCredentialsRepository;
+
+  // Keyed by account name and object type.
+  private final Map<String, FileSystemDirectoryIndex> directoryIndexes = new ConcurrentHashMap<>();
+
+  @Override
+  public boolean servicesAccount(String accountName) {
+    return accountNames.contains(accountName);
+  }
+
+  private FileSystemNamedAccountCredentials getCredentials(String accountName) {
+    return (FileSystemNamedAccountCredentials)accountCredentialsRepository
+      .getOne(accountName)
+      .orElseThrow(() -> new IllegalArgumentException("Unable to resolve account " + accountName + "."));
+  }
+
+  @Override
+  public <T> T loadObject(String accountName, ObjectType objectType, String objectKey) throws IllegalArgumentException, NotFoundException {
+    FileSystemNamedAccountCredentials credentials = getCredentials(accountName);
+    Path objectFolder = buildObjectFolder(credentials, objectType, objectKey);
+    Path objectFile;
+
+    try {
+      // Only canary configs are stored under a filename other than the default one, so only they need a lookup.
+      objectFile = objectType == ObjectType.CANARY_CONFIG
+        ? findObjectFile(objectFolder)
+        : objectFolder.resolve(objectType.getDefaultFilename());
+    } catch (NoSuchFileException e) {
+      objectFile = null;
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to read " + objectFolder + ".", e);
+    }
+
+    if (objectFile == null) {
+      throw new NotFoundException("No file at path " + objectFolder + ".");
+    }
+
+    try {
+      return readObject(credentials, objectType, objectFile);
+    } catch (NoSuchFileException e) {
+      throw new NotFoundException("No file at path " + objectFile + ".");
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to deserialize object (key: " + objectKey + ")", e);
+    }
+  }
+
+  /**
+   * Small objects are read onto the heap in one go and parsed from the byte array, which is the cheapest path through
+   * Jackson. Larger objects are parsed straight out of a memory-mapped view of the file, so they are never copied into
+   * a heap buffer as a whole.
+   */
+  private <T> T readObject(FileSystemNamedAccountCredentials credentials, ObjectType objectType, Path objectFile) throws IOException {
+    try (FileChannel channel = FileChannel.open(objectFile, StandardOpenOption.READ)) {
+      long size = channel.size();
+
+      if (size < credentials.getMemoryMappedReadThresholdBytes()) {
+        ByteBuffer buffer = ByteBuffer.allocate((int)size);
+
+        while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+          // Keep reading until the buffer is full.
+        }
+
+        return kayentaObjectMapper.readValue(buffer.array(), 0, buffer.position(), objectType.getTypeReference());
+      }
+
+      ByteBuffer mappedBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+      return kayentaObjectMapper.readValue(new ByteBufferBackedInputStream(mappedBuffer), objectType.getTypeReference());
+    }
+  }
+
+  @Override
+  public <T> void storeObject(String accountName, ObjectType objectType, String objectKey, T obj, String filename, boolean isAnUpdate) {
+    FileSystemNamedAccountCredentials credentials = getCredentials(accountName);
+    Path objectFolder = buildObjectFolder(credentials, objectType, objectKey);
+    Path objectFile = objectFolder.resolve(filename != null ? filename : objectType.getDefaultFilename());
+    CanaryConfig canaryConfig = null;
+
+    if (objectType == ObjectType.CANARY_CONFIG) {
+      canaryConfig = (CanaryConfig)obj;
+
+      checkForDuplicateCanaryConfig(accountName, objectType, canaryConfig, objectKey);
+    }
+
+    try {
+      Files.createDirectories(objectFolder);
+      writeAtomically(objectFile, obj);
+
+      if (objectType == ObjectType.CANARY_CONFIG) {
+        // A renamed canary config leaves its previous file behind.
+        try (DirectoryStream<Path> objectFiles = Files.newDirectoryStream(objectFolder, "*.json")) {
+          for (Path existingObjectFile : objectFiles) {
+            if (!existingObjectFile.equals(objectFile)) {
+              Files.deleteIfExists(existingObjectFile);
+            }
+          }
+        }
+      }
+
+      long updatedTimestamp = Files.getLastModifiedTime(objectFile).toMillis();
+
+      getDirectoryIndex(credentials, objectType).recordStore(objectKey, buildSummary(objectKey, updatedTimestamp, canaryConfig));
+    } catch (IOException e) {
+      log.error("Update failed on path {}: {}", objectFile, e);
+      throw new IllegalArgumentException(e);
+    }
+  }
+
+  /**
+   * Write the object to a temporary file in the same folder and then rename it over the target, so that readers (and
+   * other instances sharing the folder) only ever see either the previous or the new contents.
+   */
+  private void writeAtomically(Path objectFile, Object obj) throws IOException {
+    Path tempFile = Files.createTempFile(objectFile.getParent(), ".", ".tmp");
+
+    try {
+      try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+        OutputStream outputStream = new BufferedOutputStream(Channels.newOutputStream(channel));
+
+        // Leave the stream open so that the channel can still be forced once everything has been written to it.
+        kayentaObjectMapper.writer().without(JsonGenerator.Feature.AUTO_CLOSE_TARGET).writeValue(outputStream, obj);
+        outputStream.flush();
+        channel.force(true);
+      }
+
+      Files.move(tempFile, objectFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(tempFile);
+    }
+  }
+
+  private void checkForDuplicateCanaryConfig(String accountName, ObjectType objectType, CanaryConfig canaryConfig, String canaryConfigId) {
+    String canaryConfigName = canaryConfig.getName();
+    List<String> applications = canaryConfig.getApplications();
+    List<Map<String, Object>> canaryConfigSummaries = listObjectKeys(accountName, objectType, applications, false);
+    Map<String, Object> existingCanaryConfigSummary = canaryConfigSummaries
+      .stream()
+      .filter(it -> it.get("name").equals(canaryConfigName))
+      .findFirst()
+      .orElse(null);
+
+    // We want to avoid creating a naming collision due to the renaming of an existing canary config.
+    if (existingCanaryConfigSummary != null && !existingCanaryConfigSummary.get("id").equals(canaryConfigId)) {
+      throw new IllegalArgumentException("Canary config with name '" + canaryConfigName + "' already exists in the scope of applications " + applications + ".");
+    }
+  }
+
+  @Override
+  public void deleteObject(String accountName, ObjectType objectType, String objectKey) {
+    FileSystemNamedAccountCredentials credentials = getCredentials(accountName);
+    Path objectFolder = buildObjectFolder(credentials, objectType, objectKey);
+
+    if (!Files.isDirectory(objectFolder)) {
+      throw new IllegalArgumentException("Does not exist");
+    }
+
+    try {
+      try (DirectoryStream<Path> objectFiles = Files.newDirectoryStream(objectFolder)) {
+        for (Path objectFile : objectFiles) {
+          Files.deleteIfExists(objectFile);
+        }
+      }
+
+      Files.deleteIfExists(objectFolder);
+      getDirectoryIndex(credentials, objectType).recordDelete(objectKey);
+    } catch (IOException e) {
+      log.error("Failed to delete path {}: {}", objectFolder, e);
+      throw new IllegalArgumentException(e);
+    }
+  }
+
+  @Override
+  public List<Map<String, Object>> listObjectKeys(String accountName, ObjectType objectType, List<String> applications, boolean skipIndex) {
+    FileSystemNamedAccountCredentials credentials = getCredentials(accountName);
+    boolean filterOnApplications = objectType == ObjectType.CANARY_CONFIG && applications != null && applications.size() > 0;
+    List<Map<String, Object>> result = new ArrayList<>();
+
+    try {
+      for (Map<String, Object> summary : getDirectoryIndex(credentials, objectType).getSummaries()) {
+        if (!filterOnApplications || CanaryConfigIndex.haveCommonElements(applications, (List<String>)summary.get("applications"))) {
+          result.add(new HashMap<>(summary));
+        }
+      }
+    } catch (IOException e) {
+      log.error("Could not list {}: {}", objectType.getGroup(), e);
+    }
+
+    return result;
+  }
+
+  private FileSystemDirectoryIndex getDirectoryIndex(FileSystemNamedAccountCredentials credentials, ObjectType objectType) {
+    return directoryIndexes.computeIfAbsent(
+      credentials.getName() + ":" + objectType,
+      key -> new FileSystemDirectoryIndex(buildTypedFolder(credentials, objectType),
+                                          (objectKey, objectFile) -> summarizeObjectFile(credentials, objectType, objectKey, objectFile),
+                                          credentials.getDirectoryIndexMaxAgeMS()));
+  }
+
+  private Map<String, Object> summarizeObjectFile(FileSystemNamedAccountCredentials credentials, ObjectType objectType, String objectKey, Path objectFile) {
+    try {
+      long updatedTimestamp = Files.getLastModifiedTime(objectFile).toMillis();
+      CanaryConfig canaryConfig = objectType == ObjectType.CANARY_CONFIG ? readObject(credentials, objectType, objectFile) : null;
+
+      return buildSummary(objectKey, updatedTimestamp, canaryConfig);
+    } catch (IOException e) {
+      // The object may have been deleted or replaced while we were indexing; it will be picked up on the next rebuild.
+      log.warn("Unable to index {}: {}", objectFile, e.getMessage());
+
+      return null;
+    }
+  }
+
+  private Map<String, Object> buildSummary(String objectKey, long updatedTimestamp, CanaryConfig canaryConfig) {
+    Map<String, Object> objectMetadataMap = new HashMap<>();
+    objectMetadataMap.put("id", objectKey);
+    objectMetadataMap.put("updatedTimestamp", updatedTimestamp);
+    objectMetadataMap.put("updatedTimestampIso", Instant.ofEpochMilli(updatedTimestamp).toString());
+
+    if (canaryConfig != null) {
+      objectMetadataMap.put("name", canaryConfig.getName());
+      objectMetadataMap.put("applications", canaryConfig.getApplications());
+    }
+
+    return objectMetadataMap;
+  }
+
+  /**
+   * Find the file an object is stored in, ignoring any temporary files left behind by interrupted writes. If there is
+   * more than one (which is only possible for a moment while a canary config is being renamed) the newest one wins.
+   */
+  static Path findObjectFile(Path objectFolder) throws IOException {
+    Path newestObjectFile = null;
+
+    try (DirectoryStream<Path> objectFiles = Files.newDirectoryStream(objectFolder, "*.json")) {
+      for (Path objectFile : objectFiles) {
+        if (newestObjectFile == null || Files.getLastModifiedTime(objectFile).compareTo(Files.getLastModifiedTime(newestObjectFile)) > 0) {
+          newestObjectFile = objectFile;
+        }
+      }
+    }
+
+    return newestObjectFile;
+  }
+
+  private Path buildTypedFolder(FileSystemNamedAccountCredentials credentials, ObjectType objectType) {
+    return Paths.get(credentials.getRootFolder(), objectType.getGroup());
+  }
+
+  private Path buildObjectFolder(FileSystemNamedAccountCredentials credentials, ObjectType objectType, String objectKey) {
+    Path typedFolder = buildTypedFolder(credentials, objectType);
+    Path objectFolder = typedFolder.resolve(objectKey).normalize();
+
+    // Object keys come from request paths, so make sure they can't be used to reach outside of the typed folder.
+    if (!objectFolder.getParent().equals(typedFolder.normalize())) {
+      throw new IllegalArgumentException("Invalid object key '" + objectKey + "'.");
+    }
+
+    return objectFolder;
+  }
+}
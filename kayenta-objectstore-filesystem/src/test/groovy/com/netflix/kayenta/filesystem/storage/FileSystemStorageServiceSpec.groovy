@@ -0,0 +1,142 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.kayenta.filesystem.storage
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.netflix.kayenta.canary.CanaryConfig
+import com.netflix.kayenta.config.KayentaConfiguration
+import com.netflix.kayenta.filesystem.security.FileSystemAccountCredentials
+import com.netflix.kayenta.filesystem.security.FileSystemNamedAccountCredentials
+import com.netflix.kayenta.metrics.MetricSet
+import com.netflix.kayenta.security.AccountCredentials
+import com.netflix.kayenta.security.MapBackedAccountCredentialsRepository
+import com.netflix.kayenta.storage.ObjectType
+import com.netflix.spinnaker.kork.web.exceptions.NotFoundException
+import spock.lang.Specification
+import spock.lang.Subject
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.attribute.FileTime
+
+class FileSystemStorageServiceSpec extends Specification {
+
+  static String ACCOUNT_NAME = "some-account"
+
+  Path rootFolder
+
+  @Subject
+  FileSystemStorageService fileSystemStorageService
+
+  def setup() {
+    rootFolder = Files.createTempDirectory("kayenta-filesystem")
+
+    ObjectMapper objectMapper = new ObjectMapper()
+    KayentaConfiguration.configureObjectMapperFeatures(objectMapper)
+
+    MapBackedAccountCredentialsRepository accountCredentialsRepository = new MapBackedAccountCredentialsRepository()
+    accountCredentialsRepository.save(ACCOUNT_NAME, FileSystemNamedAccountCredentials.builder()
+      .name(ACCOUNT_NAME)
+      .supportedType(AccountCredentials.Type.OBJECT_STORE)
+      .supportedType(AccountCredentials.Type.CONFIGURATION_STORE)
+      .credentials(FileSystemAccountCredentials.builder().build())
+      .rootFolder(rootFolder.toString())
+      .memoryMappedReadThresholdBytes(1024 * 1024)
+      .build())
+
+    fileSystemStorageService = FileSystemStorageService.builder()
+      .kayentaObjectMapper(objectMapper)
+      .accountCredentialsRepository(accountCredentialsRepository)
+      .accountName(ACCOUNT_NAME)
+      .build()
+  }
+
+  def cleanup() {
+    rootFolder.toFile().deleteDir()
+  }
+
+  def "stored objects should be loaded back"() {
+    given:
+    List<MetricSet> metricSets = [MetricSet.builder().name("cpu").value(1.0d).value(2.5d).build()]
+
+    when:
+    fileSystemStorageService.storeObject(ACCOUNT_NAME, ObjectType.METRIC_SET_LIST, "some-id", metricSets)
+    List<MetricSet> loadedMetricSets = fileSystemStorageService.loadObject(ACCOUNT_NAME, ObjectType.METRIC_SET_LIST, "some-id")
+
+    then:
+    loadedMetricSets.size() == 1
+    loadedMetricSets[0].name == "cpu"
+    loadedMetricSets[0].values == [1.0d, 2.5d]
+    // Nothing but the object itself is left behind in its folder.
+    rootFolder.resolve("metrics").resolve("some-id").toFile().list() as List == ["metric_sets.json"]
+  }
+
+  def "canary configs should be listed, renamed and deleted"() {
+    given:
+    CanaryConfig canaryConfig = CanaryConfig.builder().name("some-config").application("app1").build()
+    CanaryConfig renamedCanaryConfig = CanaryConfig.builder().name("renamed-config").application("app1").build()
+
+    when:
+    fileSystemStorageService.storeObject(ACCOUNT_NAME, ObjectType.CANARY_CONFIG, "config-id", canaryConfig, "some-config.json", false)
+    fileSystemStorageService.storeObject(ACCOUNT_NAME, ObjectType.CANARY_CONFIG, "config-id", renamedCanaryConfig, "renamed-config.json", true)
+
+    then:
+    fileSystemStorageService.<CanaryConfig>loadObject(ACCOUNT_NAME, ObjectType.CANARY_CONFIG, "config-id").name == "renamed-config"
+    fileSystemStorageService.listObjectKeys(ACCOUNT_NAME, ObjectType.CANARY_CONFIG, ["app1"], false).collect { it.name } == ["renamed-config"]
+    fileSystemStorageService.listObjectKeys(ACCOUNT_NAME, ObjectType.CANARY_CONFIG, ["app2"], false).isEmpty()
+
+    when:
+    fileSystemStorageService.deleteObject(ACCOUNT_NAME, ObjectType.CANARY_CONFIG, "config-id")
+    fileSystemStorageService.loadObject(ACCOUNT_NAME, ObjectType.CANARY_CONFIG, "config-id")
+
+    then:
+    thrown(NotFoundException)
+    fileSystemStorageService.listObjectKeys(ACCOUNT_NAME, ObjectType.CANARY_CONFIG).isEmpty()
+  }
+
+  def "object keys should not reach outside of the typed folder"() {
+    when:
+    fileSystemStorageService.loadObject(ACCOUNT_NAME, ObjectType.CANARY_RESULT, "../canary_config")
+
+    then:
+    thrown(IllegalArgumentException)
+  }
+
+  def "directory index should pick up unannounced changes once it is older than its max age"() {
+    given:
+    Path typedFolder = Files.createDirectories(rootFolder.resolve("metrics"))
+    Files.createDirectories(typedFolder.resolve("some-id")).resolve("metric_sets.json").text = "[]"
+    FileSystemDirectoryIndex directoryIndex =
+      new FileSystemDirectoryIndex(typedFolder, { String objectKey, Path objectFile -> [name: objectKey] }, maxAgeMS)
+    directoryIndex.getSummaries()
+
+    when:
+    // Another writer adds an object without the folder's modification time changing.
+    FileTime modifiedTime = Files.getLastModifiedTime(typedFolder)
+    Files.createDirectories(typedFolder.resolve("other-id")).resolve("metric_sets.json").text = "[]"
+    Files.setLastModifiedTime(typedFolder, modifiedTime)
+    sleep(5)
+
+    then:
+    directoryIndex.getSummaries().collect { it.name }.sort() == expectedNames
+
+    where:
+    maxAgeMS || expectedNames
+    0        || ["some-id"]
+    1        || ["other-id", "some-id"]
+  }
+}
@@ -18,11 +18,14 @@ package com.netflix.kayenta.memory.config;
 
 import com.netflix.kayenta.memory.security.MemoryAccountCredentials;
 import com.netflix.kayenta.memory.security.MemoryNamedAccountCredentials;
+import com.netflix.kayenta.memory.storage.MemoryObjectStore;
 import com.netflix.kayenta.memory.storage.MemoryStorageService;
 import com.netflix.kayenta.security.AccountCredentials;
 import com.netflix.kayenta.security.AccountCredentialsRepository;
 import com.netflix.kayenta.storage.ObjectType;
 import com.netflix.kayenta.storage.StorageService;
+import com.netflix.spectator.api.Id;
+import com.netflix.spectator.api.Registry;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.ConfigurationProperties;
@@ -33,8 +36,6 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.util.CollectionUtils;
 
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 @Configuration
 @EnableConfigurationProperties
@@ -51,7 +52,8 @@ public class MemoryConfiguration {
 
   @Bean
   StorageService storageService(MemoryConfigurationProperties memoryConfigurationProperties,
-                                AccountCredentialsRepository accountCredentialsRepository) {
+                                AccountCredentialsRepository accountCredentialsRepository,
+                                Registry registry) {
     MemoryStorageService.MemoryStorageServiceBuilder memoryStorageServiceBuilder = MemoryStorageService.builder();
 
     for (MemoryManagedAccount memoryManagedAccount : memoryConfigurationProperties.getAccounts()) {
@@ -60,21 +62,26 @@ public class MemoryConfiguration {
 
       log.info("Registering Memory account {} with supported types {}.", name, supportedTypes);
 
+      if (memoryManagedAccount.getMaxWeightBytes() <= 0) {
+        throw new IllegalArgumentException("Memory account " + name + " must have a positive maxWeightBytes.");
+      }
+
       MemoryAccountCredentials memoryAccountCredentials = MemoryAccountCredentials.builder().build();
       MemoryNamedAccountCredentials.MemoryNamedAccountCredentialsBuilder memoryNamedAccountCredentialsBuilder =
         MemoryNamedAccountCredentials.builder()
           .name(name)
-          .credentials(memoryAccountCredentials);
+          .credentials(memoryAccountCredentials)
+          .offHeap(memoryManagedAccount.isOffHeap());
 
       if (!CollectionUtils.isEmpty(supportedTypes)) {
         memoryNamedAccountCredentialsBuilder.supportedTypes(supportedTypes);
       }
 
-      // Set up the data maps for this in-memory storage account
-      Map<ObjectType, Map<String, Object>> objectStorage = new ConcurrentHashMap<>();
-      memoryNamedAccountCredentialsBuilder.objects(objectStorage);
-      Map<ObjectType, Map<String, Map<String, Object>>> metadataStorage = new ConcurrentHashMap<>();
-      memoryNamedAccountCredentialsBuilder.metadata(metadataStorage);
+      // Set up the object store for this in-memory storage account
+      MemoryObjectStore objectStore =
+        new MemoryObjectStore(memoryManagedAccount.getMaxWeightBytes(), memoryManagedAccount.getExpireAfterAccessSeconds());
+      memoryNamedAccountCredentialsBuilder.objectStore(objectStore);
+      registerGauges(registry, name, objectStore);
 
       MemoryNamedAccountCredentials memoryNamedAccountCredentials = memoryNamedAccountCredentialsBuilder.build();
       accountCredentialsRepository.save(name, memoryNamedAccountCredentials);
@@ -87,4 +94,14 @@ public class MemoryConfiguration {
 
     return memoryStorageService;
   }
+
+  private static void registerGauges(Registry registry, String accountName, MemoryObjectStore objectStore) {
+    for (ObjectType objectType : ObjectType.values()) {
+      Id objectsId = registry.createId("kayenta.memory.objects").withTag("account", accountName).withTag("objectType", objectType.name());
+      Id weightId = registry.createId("kayenta.memory.weightBytes").withTag("account", accountName).withTag("objectType", objectType.name());
+
+      registry.gauge(objectsId, objectStore, s -> s.size(objectType));
+      registry.gauge(weightId, objectStore, s -> s.weight(objectType));
+    }
+  }
 }
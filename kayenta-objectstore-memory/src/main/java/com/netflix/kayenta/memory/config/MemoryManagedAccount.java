@@ -29,4 +29,15 @@ public class MemoryManagedAccount {
   private String name;
 
   private List<AccountCredentials.Type> supportedTypes;
+
+  // The total size of the objects other than canary configs that may be held before the least recently used are evicted.
+  // Off-heap objects are weighed by their serialized size; objects on the heap by an estimate of the heap they hold.
+  private long maxWeightBytes = 256L * 1024 * 1024;
+
+  // Evict objects other than canary configs that have not been read or written for this long; zero disables this.
+  private long expireAfterAccessSeconds = 0;
+
+  // Hold objects other than canary configs serialized in direct buffers instead of on the heap. The JVM's
+  // -XX:MaxDirectMemorySize must leave room for maxWeightBytes.
+  private boolean offHeap = false;
 }
@@ -16,15 +16,14 @@
 
 package com.netflix.kayenta.memory.security;
 
+import com.netflix.kayenta.memory.storage.MemoryObjectStore;
 import com.netflix.kayenta.security.AccountCredentials;
-import com.netflix.kayenta.storage.ObjectType;
 import lombok.Builder;
 import lombok.Data;
 import lombok.Singular;
 
 import javax.validation.constraints.NotNull;
 import java.util.List;
-import java.util.Map;
 
 @Builder
 @Data
@@ -41,10 +40,9 @@ public class MemoryNamedAccountCredentials implements AccountCredentials<MemoryA
   private MemoryAccountCredentials credentials;
 
   @NotNull
-  private Map<ObjectType, Map<String, Object>> objects;
+  private MemoryObjectStore objectStore;
 
-  @NotNull
-  private Map<ObjectType, Map<String, Map<String, Object>>> metadata;
+  private boolean offHeap;
 
   @Override
   public String getType() {
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.kayenta.memory.storage;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalNotification;
+import com.netflix.kayenta.storage.ObjectType;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The objects of a single in-memory account.
+ *
+ * Canary configs can not be regenerated, so they are kept until deleted, along with an index of config ids by
+ * application. Every other object type is held in a cache bounded by the total weight (approximate size in bytes) of its
+ * entries, evicting the least recently used entries first, and optionally expiring entries that have not been accessed
+ * for a while. A per-type index of the cached keys lets listing avoid scanning the whole cache.
+ */
+public class MemoryObjectStore {
+
+  @Getter
+  private final long maxWeightBytes;
+
+  private final Map<String, MemoryStoredObject> canaryConfigs = new ConcurrentHashMap<>();
+
+  private final Map<String, Set<String>> canaryConfigIdsByApplication = new ConcurrentHashMap<>();
+
+  private final Cache<CacheKey, MemoryStoredObject> objects;
+
+  private final Map<ObjectType, Set<String>> objectKeysByType = new EnumMap<>(ObjectType.class);
+
+  private final Map<ObjectType, AtomicLong> weightByType = new EnumMap<>(ObjectType.class);
+
+  public MemoryObjectStore(long maxWeightBytes, long expireAfterAccessSeconds) {
+    this.maxWeightBytes = maxWeightBytes;
+
+    for (ObjectType objectType : ObjectType.values()) {
+      objectKeysByType.put(objectType, ConcurrentHashMap.newKeySet());
+      weightByType.put(objectType, new AtomicLong());
+    }
+
+    CacheBuilder<CacheKey, MemoryStoredObject> cacheBuilder =
+      CacheBuilder.newBuilder()
+        .maximumWeight(maxWeightBytes)
+        .weigher((CacheKey key, MemoryStoredObject storedObject) -> storedObject.getWeight())
+        .removalListener(this::onRemoval);
+
+    if (expireAfterAccessSeconds > 0) {
+      cacheBuilder.expireAfterAccess(expireAfterAccessSeconds, TimeUnit.SECONDS);
+    }
+
+    this.objects = cacheBuilder.build();
+  }
+
+  MemoryStoredObject get(ObjectType objectType, String objectKey) {
+    if (objectType == ObjectType.CANARY_CONFIG) {
+      return canaryConfigs.get(objectKey);
+    }
+
+    return objects.getIfPresent(new CacheKey(objectType, objectKey));
+  }
+
+  void put(ObjectType objectType, String objectKey, MemoryStoredObject storedObject, List<String> applications) {
+    if (objectType == ObjectType.CANARY_CONFIG) {
+      putCanaryConfig(objectKey, storedObject, applications);
+      return;
+    }
+
+    // The index and weight are updated first, so that the removal of a replaced or immediately evicted entry balances.
+    objectKeysByType.get(objectType).add(objectKey);
+    weightByType.get(objectType).addAndGet(storedObject.getWeight());
+    objects.put(new CacheKey(objectType, objectKey), storedObject);
+  }
+
+  MemoryStoredObject remove(ObjectType objectType, String objectKey) {
+    if (objectType == ObjectType.CANARY_CONFIG) {
+      return removeCanaryConfig(objectKey);
+    }
+
+    return objects.asMap().remove(new CacheKey(objectType, objectKey));
+  }
+
+  /**
+   * The metadata of every stored object of the given type. Canary configs may be restricted to those associated with at
+   * least one of the given applications.
+   */
+  List<Map<String, Object>> listMetadata(ObjectType objectType, Collection<String> applications) {
+    List<Map<String, Object>> result = new ArrayList<>();
+
+    if (objectType == ObjectType.CANARY_CONFIG) {
+      Collection<String> canaryConfigIds = applications == null || applications.isEmpty()
+        ? canaryConfigs.keySet()
+        : canaryConfigIdsForApplications(applications);
+
+      for (String canaryConfigId : canaryConfigIds) {
+        MemoryStoredObject storedObject = canaryConfigs.get(canaryConfigId);
+
+        if (storedObject != null) {
+          result.add(storedObject.getMetadata());
+        }
+      }
+    } else {
+      Map<CacheKey, MemoryStoredObject> objectsMap = objects.asMap();
+
+      for (String objectKey : objectKeysByType.get(objectType)) {
+        MemoryStoredObject storedObject = objectsMap.get(new CacheKey(objectType, objectKey));
+
+        if (storedObject != null) {
+          result.add(storedObject.getMetadata());
+        }
+      }
+    }
+
+    return result;
+  }
+
+  public long size(ObjectType objectType) {
+    return objectType == ObjectType.CANARY_CONFIG ? canaryConfigs.size() : objectKeysByType.get(objectType).size();
+  }
+
+  public long weight(ObjectType objectType) {
+    return objectType == ObjectType.CANARY_CONFIG ? 0 : weightByType.get(objectType).get();
+  }
+
+  private synchronized void putCanaryConfig(String canaryConfigId, MemoryStoredObject storedObject, List<String> applications) {
+    removeCanaryConfig(canaryConfigId);
+    canaryConfigs.put(canaryConfigId, storedObject);
+
+    if (applications != null) {
+      for (String application : applications) {
+        canaryConfigIdsByApplication.computeIfAbsent(application, a -> ConcurrentHashMap.newKeySet()).add(canaryConfigId);
+      }
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private synchronized MemoryStoredObject removeCanaryConfig(String canaryConfigId) {
+    MemoryStoredObject storedObject = canaryConfigs.remove(canaryConfigId);
+
+    if (storedObject != null) {
+      List<String> applications = (List<String>)storedObject.getMetadata().get("applications");
+
+      if (applications != null) {
+        for (String application : applications) {
+          Set<String> canaryConfigIds = canaryConfigIdsByApplication.get(application);
+
+          if (canaryConfigIds != null) {
+            canaryConfigIds.remove(canaryConfigId);
+
+            if (canaryConfigIds.isEmpty()) {
+              canaryConfigIdsByApplication.remove(application);
+            }
+          }
+        }
+      }
+    }
+
+    return storedObject;
+  }
+
+  private Set<String> canaryConfigIdsForApplications(Collection<String> applications) {
+    Set<String> canaryConfigIds = new HashSet<>();
+
+    for (String application : applications) {
+      canaryConfigIds.addAll(canaryConfigIdsByApplication.getOrDefault(application, Collections.emptySet()));
+    }
+
+    return canaryConfigIds;
+  }
+
+  private void onRemoval(RemovalNotification<CacheKey, MemoryStoredObject> notification) {
+    CacheKey key = notification.getKey();
+
+    weightByType.get(key.objectType).addAndGet(-notification.getValue().getWeight());
+
+    // A replaced key is still present. Otherwise the key may have been stored again since it was removed.
+    if (notification.getCause() == RemovalCause.REPLACED) {
+      return;
+    }
+
+    Set<String> objectKeys = objectKeysByType.get(key.objectType);
+
+    objectKeys.remove(key.objectKey);
+
+    if (objects.asMap().containsKey(key)) {
+      objectKeys.add(key.objectKey);
+    }
+  }
+
+  @EqualsAndHashCode
+  private static class CacheKey {
+
+    private final ObjectType objectType;
+
+    private final String objectKey;
+
+    CacheKey(ObjectType objectType, String objectKey) {
+      this.objectType = objectType;
+      this.objectKey = objectKey;
+    }
+  }
+}
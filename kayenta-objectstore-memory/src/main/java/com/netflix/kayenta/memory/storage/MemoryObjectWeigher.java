@@ -0,0 +1,133 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.kayenta.memory.storage;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+import com.netflix.kayenta.metrics.MetricSet;
+import com.netflix.kayenta.metrics.MetricSetPair;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Estimates how many bytes an object stored on the heap holds onto, without serializing it.
+ *
+ * Metric set lists and metric set pair lists make up nearly all of the weight, and are estimated by walking their
+ * values and strings. Anything else is stored rarely enough that it is simply serialized once and counted.
+ */
+final class MemoryObjectWeigher {
+
+  // A boxed double and the list slot referring to it.
+  static final int BYTES_PER_VALUE = 24;
+
+  // The header and fields of an object, or an entry in a map; the characters of each string are weighed on top of this.
+  static final int BYTES_PER_OBJECT = 48;
+
+  private MemoryObjectWeigher() {
+  }
+
+  static int weigh(Object object, ObjectMapper objectMapper) {
+    long weight = 0;
+
+    if (object instanceof List) {
+      for (Object element : (List<?>)object) {
+        if (element instanceof MetricSet) {
+          weight += weighMetricSet((MetricSet)element);
+        } else if (element instanceof MetricSetPair) {
+          weight += weighMetricSetPair((MetricSetPair)element);
+        } else {
+          return weighSerialized(object, objectMapper);
+        }
+      }
+    } else {
+      return weighSerialized(object, objectMapper);
+    }
+
+    return (int)Math.min(weight, Integer.MAX_VALUE);
+  }
+
+  private static long weighMetricSet(MetricSet metricSet) {
+    return BYTES_PER_OBJECT
+      + weighString(metricSet.getName())
+      + weighString(metricSet.getStartTimeIso())
+      + weighString(metricSet.getEndTimeIso())
+      + weighStringMap(metricSet.getTags())
+      + weighStringMap(metricSet.getAttributes())
+      + weighValues(metricSet.getValues());
+  }
+
+  private static long weighMetricSetPair(MetricSetPair metricSetPair) {
+    long weight = BYTES_PER_OBJECT
+      + weighString(metricSetPair.getName())
+      + weighString(metricSetPair.getId())
+      + weighStringMap(metricSetPair.getTags());
+
+    if (metricSetPair.getValues() != null) {
+      for (Map.Entry<String, List<Double>> entry : metricSetPair.getValues().entrySet()) {
+        weight += BYTES_PER_OBJECT + weighString(entry.getKey()) + weighValues(entry.getValue());
+      }
+    }
+
+    if (metricSetPair.getScopes() != null) {
+      for (Map.Entry<String, MetricSetPair.MetricSetScope> entry : metricSetPair.getScopes().entrySet()) {
+        weight += 2 * BYTES_PER_OBJECT + weighString(entry.getKey()) + weighString(entry.getValue().getStartTimeIso());
+      }
+    }
+
+    if (metricSetPair.getAttributes() != null) {
+      for (Map.Entry<String, Map<String, String>> entry : metricSetPair.getAttributes().entrySet()) {
+        weight += BYTES_PER_OBJECT + weighString(entry.getKey()) + weighStringMap(entry.getValue());
+      }
+    }
+
+    return weight;
+  }
+
+  private static long weighValues(List<Double> values) {
+    return values == null ? 0 : (long)values.size() * BYTES_PER_VALUE;
+  }
+
+  private static long weighStringMap(Map<String, String> map) {
+    long weight = 0;
+
+    if (map != null) {
+      for (Map.Entry<String, String> entry : map.entrySet()) {
+        weight += BYTES_PER_OBJECT + weighString(entry.getKey()) + weighString(entry.getValue());
+      }
+    }
+
+    return weight;
+  }
+
+  private static long weighString(String string) {
+    return string == null ? 0 : BYTES_PER_OBJECT + 2L * string.length();
+  }
+
+  private static int weighSerialized(Object object, ObjectMapper objectMapper) {
+    CountingOutputStream countingOutputStream = new CountingOutputStream(ByteStreams.nullOutputStream());
+
+    try {
+      objectMapper.writeValue(countingOutputStream, object);
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Unable to serialize object to weigh it", e);
+    }
+
+    return (int)Math.min(countingOutputStream.getCount(), Integer.MAX_VALUE);
+  }
+}
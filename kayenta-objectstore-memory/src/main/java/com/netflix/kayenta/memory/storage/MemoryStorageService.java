@@ -16,12 +16,14 @@
 
 package com.netflix.kayenta.memory.storage;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
 import com.netflix.kayenta.canary.CanaryConfig;
-import com.netflix.kayenta.index.CanaryConfigIndex;
 import com.netflix.kayenta.memory.security.MemoryNamedAccountCredentials;
 import com.netflix.kayenta.security.AccountCredentialsRepository;
 import com.netflix.kayenta.storage.ObjectType;
 import com.netflix.kayenta.storage.StorageService;
+import com.netflix.kayenta.storage.StorageServiceFutures;
 import com.netflix.spinnaker.kork.web.exceptions.NotFoundException;
 import lombok.Builder;
 import lombok.Getter;
@@ -29,15 +31,20 @@ import lombok.Singular;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import javax.validation.constraints.NotNull;
+import java.io.IOException;
+import java.io.InputStream;
 import java.time.Instant;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
 
 @Builder
 public class MemoryStorageService implements StorageService {
+
+  @Autowired
+  ObjectMapper kayentaObjectMapper;
+
   @NotNull
   @Singular
   @Getter
@@ -51,30 +58,35 @@ public class MemoryStorageService implements StorageService {
     return accountNames.contains(accountName);
   }
 
-  private MemoryNamedAccountCredentials getCredentials(String accountName, ObjectType objectType) {
-    MemoryNamedAccountCredentials credentials = (MemoryNamedAccountCredentials)accountCredentialsRepository
+  private MemoryNamedAccountCredentials getCredentials(String accountName) {
+    return (MemoryNamedAccountCredentials)accountCredentialsRepository
       .getOne(accountName)
       .orElseThrow(() -> new IllegalArgumentException("Unable to resolve account " + accountName + "."));
-    credentials.getObjects().putIfAbsent(objectType, new ConcurrentHashMap<>());
-    credentials.getMetadata().putIfAbsent(objectType, new ConcurrentHashMap<>());
-    return credentials;
   }
 
   @Override
   public <T> T loadObject(String accountName, ObjectType objectType, String objectKey) throws IllegalArgumentException {
-    MemoryNamedAccountCredentials credentials = getCredentials(accountName, objectType);
-    Object entry = credentials.getObjects().get(objectType).get(objectKey);
+    MemoryNamedAccountCredentials credentials = getCredentials(accountName);
+    MemoryStoredObject entry = credentials.getObjectStore().get(objectType, objectKey);
 
     if (entry == null) {
       throw new NotFoundException("No such object named " + objectKey);
     }
 
-    return (T)entry;
+    if (!entry.isOffHeap()) {
+      return (T)entry.getObject();
+    }
+
+    try (InputStream inputStream = new ByteBufferBackedInputStream(entry.getSerializedObject())) {
+      return kayentaObjectMapper.readValue(inputStream, objectType.getTypeReference());
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to deserialize object (key: " + objectKey + ")", e);
+    }
   }
 
   @Override
   public <T> void storeObject(String accountName, ObjectType objectType, String objectKey, T obj, String filename, boolean isAnUpdate) {
-    MemoryNamedAccountCredentials credentials = getCredentials(accountName, objectType);
+    MemoryNamedAccountCredentials credentials = getCredentials(accountName);
 
     long currentTimestamp = System.currentTimeMillis();
     Map<String, Object> objectMetadataMap = new HashMap<>();
@@ -89,10 +101,26 @@ public class MemoryStorageService implements StorageService {
 
       objectMetadataMap.put("name", canaryConfig.getName());
       objectMetadataMap.put("applications", canaryConfig.getApplications());
+
+      // Canary configs are small and are never evicted, so they are not weighed and always stay on the heap.
+      credentials.getObjectStore().put(objectType, objectKey, MemoryStoredObject.onHeap(obj, 0, objectMetadataMap), canaryConfig.getApplications());
+      return;
+    }
+
+    MemoryStoredObject storedObject;
+
+    if (credentials.isOffHeap()) {
+      try {
+        storedObject = MemoryStoredObject.offHeap(kayentaObjectMapper.writeValueAsBytes(obj), objectMetadataMap);
+      } catch (IOException e) {
+        throw new IllegalArgumentException("Unable to serialize object (key: " + objectKey + ")", e);
+      }
+    } else {
+      // Objects kept on the heap are weighed by an estimate, rather than by serializing them just to count the bytes.
+      storedObject = MemoryStoredObject.onHeap(obj, MemoryObjectWeigher.weigh(obj, kayentaObjectMapper), objectMetadataMap);
     }
 
-    credentials.getObjects().get(objectType).put(objectKey, obj);
-    credentials.getMetadata().get(objectType).put(objectKey, objectMetadataMap);
+    credentials.getObjectStore().put(objectType, objectKey, storedObject, null);
   }
 
   private void checkForDuplicateCanaryConfig(String accountName, ObjectType objectType, CanaryConfig canaryConfig, String canaryConfigId) {
@@ -113,10 +141,9 @@ public class MemoryStorageService implements StorageService {
 
   @Override
   public void deleteObject(String accountName, ObjectType objectType, String objectKey) {
-    MemoryNamedAccountCredentials credentials = getCredentials(accountName, objectType);
+    MemoryNamedAccountCredentials credentials = getCredentials(accountName);
 
-    Object oldValue = credentials.getObjects().get(objectType).remove(objectKey);
-    credentials.getMetadata().get(objectType).remove(objectKey);
+    MemoryStoredObject oldValue = credentials.getObjectStore().remove(objectType, objectKey);
 
     if (oldValue == null) {
       throw new IllegalArgumentException("Does not exist");
@@ -125,28 +152,39 @@ public class MemoryStorageService implements StorageService {
 
   @Override
   public List<Map<String, Object>> listObjectKeys(String accountName, ObjectType objectType, List<String> applications, boolean skipIndex) {
-    MemoryNamedAccountCredentials credentials = getCredentials(accountName, objectType);
-
-    boolean filterOnApplications = applications != null && applications.size() > 0;
-    List<Map<String, Object>> result = new ArrayList<>();
-
-    for (Map.Entry<String, Object> entry : credentials.getObjects().get(objectType).entrySet()) {
-      String entryKey = entry.getKey();
-      if (objectType == ObjectType.CANARY_CONFIG) {
-        if (filterOnApplications) {
-          CanaryConfig canaryConfig = (CanaryConfig)entry.getValue();
-
-          if (CanaryConfigIndex.haveCommonElements(applications, canaryConfig.getApplications())) {
-            result.add(credentials.getMetadata().get(objectType).get(entryKey));
-          }
-        } else {
-          result.add(credentials.getMetadata().get(objectType).get(entryKey));
-        }
-      } else {
-        result.add(credentials.getMetadata().get(objectType).get(entryKey));
-      }
+    MemoryNamedAccountCredentials credentials = getCredentials(accountName);
+
+    return credentials.getObjectStore().listMetadata(objectType, applications);
+  }
+
+  // Nothing here waits on I/O, so the asynchronous variants complete in the calling thread rather than handing off to a pool.
+
+  @Override
+  public <T> CompletableFuture<T> loadObjectAsync(String accountName, ObjectType objectType, String objectKey) {
+    try {
+      return CompletableFuture.completedFuture(loadObject(accountName, objectType, objectKey));
+    } catch (RuntimeException e) {
+      return StorageServiceFutures.failedFuture(e);
+    }
+  }
+
+  @Override
+  public <T> CompletableFuture<Void> storeObjectAsync(String accountName, ObjectType objectType, String objectKey, T obj) {
+    try {
+      storeObject(accountName, objectType, objectKey, obj);
+      return CompletableFuture.completedFuture(null);
+    } catch (RuntimeException e) {
+      return StorageServiceFutures.failedFuture(e);
     }
+  }
 
-    return result;
+  @Override
+  public CompletableFuture<Void> deleteObjectAsync(String accountName, ObjectType objectType, String objectKey) {
+    try {
+      deleteObject(accountName, objectType, objectKey);
+      return CompletableFuture.completedFuture(null);
+    } catch (RuntimeException e) {
+      return StorageServiceFutures.failedFuture(e);
+    }
   }
 }
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.kayenta.memory.storage;
+
+import lombok.Getter;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * A stored object and its listing metadata. The object is held either as the instance that was stored, or serialized
+ * into a direct buffer so that it does not occupy the heap.
+ */
+class MemoryStoredObject {
+
+  private final Object object;
+
+  private final ByteBuffer serializedObject;
+
+  @Getter
+  private final int weight;
+
+  @Getter
+  private final Map<String, Object> metadata;
+
+  private MemoryStoredObject(Object object, ByteBuffer serializedObject, int weight, Map<String, Object> metadata) {
+    this.object = object;
+    this.serializedObject = serializedObject;
+    this.weight = weight;
+    this.metadata = metadata;
+  }
+
+  static MemoryStoredObject onHeap(Object object, int weight, Map<String, Object> metadata) {
+    return new MemoryStoredObject(object, null, weight, metadata);
+  }
+
+  static MemoryStoredObject offHeap(byte[] serializedObject, Map<String, Object> metadata) {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(serializedObject.length);
+
+    buffer.put(serializedObject).flip();
+
+    return new MemoryStoredObject(null, buffer.asReadOnlyBuffer(), serializedObject.length, metadata);
+  }
+
+  boolean isOffHeap() {
+    return serializedObject != null;
+  }
+
+  Object getObject() {
+    return object;
+  }
+
+  /**
+   * A view of the serialized object that the caller is free to consume.
+   */
+  ByteBuffer getSerializedObject() {
+    return serializedObject.duplicate();
+  }
+}
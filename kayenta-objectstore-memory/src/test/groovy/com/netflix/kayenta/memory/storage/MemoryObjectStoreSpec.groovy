@@ -0,0 +1,137 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.kayenta.memory.storage
+
+import com.netflix.kayenta.storage.ObjectType
+import spock.lang.Specification
+import spock.lang.Subject
+
+class MemoryObjectStoreSpec extends Specification {
+
+  static final long MAX_WEIGHT_BYTES = 1000
+
+  @Subject
+  MemoryObjectStore memoryObjectStore = new MemoryObjectStore(MAX_WEIGHT_BYTES, 0)
+
+  def "storing a key again should replace its weight rather than add to it"() {
+    when:
+    memoryObjectStore.put(ObjectType.METRIC_SET_LIST, "id1", storedObject("id1", 10), null)
+    memoryObjectStore.put(ObjectType.METRIC_SET_LIST, "id1", storedObject("id1", 20), null)
+
+    then:
+    memoryObjectStore.weight(ObjectType.METRIC_SET_LIST) == 20
+    memoryObjectStore.size(ObjectType.METRIC_SET_LIST) == 1
+    memoryObjectStore.listMetadata(ObjectType.METRIC_SET_LIST, null).collect { it.weight } == [20]
+  }
+
+  def "an evicted entry should give back its weight and leave the key index and listing"() {
+    when:
+    memoryObjectStore.put(ObjectType.METRIC_SET_LIST, "id1", storedObject("id1", 10), null)
+    // Heavier than the whole store, so it is evicted as soon as it is stored.
+    memoryObjectStore.put(ObjectType.METRIC_SET_LIST, "id2", storedObject("id2", MAX_WEIGHT_BYTES + 1), null)
+
+    then:
+    memoryObjectStore.get(ObjectType.METRIC_SET_LIST, "id2") == null
+    memoryObjectStore.weight(ObjectType.METRIC_SET_LIST) == 10
+    memoryObjectStore.size(ObjectType.METRIC_SET_LIST) == 1
+    memoryObjectStore.listMetadata(ObjectType.METRIC_SET_LIST, null).collect { it.id } == ["id1"]
+  }
+
+  def "an expired entry should give back its weight and leave the key index and listing"() {
+    given:
+    memoryObjectStore = new MemoryObjectStore(MAX_WEIGHT_BYTES, 1)
+
+    when:
+    memoryObjectStore.put(ObjectType.METRIC_SET_PAIR_LIST, "id1", storedObject("id1", 10), null)
+    sleep(1100)
+    memoryObjectStore.objects.cleanUp()
+
+    then:
+    memoryObjectStore.weight(ObjectType.METRIC_SET_PAIR_LIST) == 0
+    memoryObjectStore.size(ObjectType.METRIC_SET_PAIR_LIST) == 0
+    memoryObjectStore.listMetadata(ObjectType.METRIC_SET_PAIR_LIST, null).isEmpty()
+  }
+
+  def "a key stored again after being evicted should be back in the key index"() {
+    when:
+    memoryObjectStore.put(ObjectType.METRIC_SET_LIST, "id1", storedObject("id1", MAX_WEIGHT_BYTES + 1), null)
+    memoryObjectStore.put(ObjectType.METRIC_SET_LIST, "id1", storedObject("id1", 10), null)
+
+    then:
+    memoryObjectStore.weight(ObjectType.METRIC_SET_LIST) == 10
+    memoryObjectStore.size(ObjectType.METRIC_SET_LIST) == 1
+    memoryObjectStore.listMetadata(ObjectType.METRIC_SET_LIST, null).collect { it.id } == ["id1"]
+  }
+
+  def "removing an entry should give back its weight and leave the key index"() {
+    given:
+    memoryObjectStore.put(ObjectType.CANARY_RESULT, "id1", storedObject("id1", 10), null)
+
+    when:
+    MemoryStoredObject removed = memoryObjectStore.remove(ObjectType.CANARY_RESULT, "id1")
+
+    then:
+    removed.weight == 10
+    memoryObjectStore.weight(ObjectType.CANARY_RESULT) == 0
+    memoryObjectStore.size(ObjectType.CANARY_RESULT) == 0
+    memoryObjectStore.remove(ObjectType.CANARY_RESULT, "id1") == null
+  }
+
+  def "canary configs should never be evicted"() {
+    when:
+    (1..5).each {
+      memoryObjectStore.put(ObjectType.CANARY_CONFIG, "id$it", canaryConfig("id$it", MAX_WEIGHT_BYTES, ["app1"]), ["app1"])
+    }
+
+    then:
+    memoryObjectStore.size(ObjectType.CANARY_CONFIG) == 5
+    memoryObjectStore.weight(ObjectType.CANARY_CONFIG) == 0
+    memoryObjectStore.listMetadata(ObjectType.CANARY_CONFIG, ["app1"]).collect { it.id }.sort() == ["id1", "id2", "id3", "id4", "id5"]
+  }
+
+  def "canary configs should only be listed under their current applications after a rename or delete"() {
+    given:
+    memoryObjectStore.put(ObjectType.CANARY_CONFIG, "id1", canaryConfig("id1", 0, ["app1", "app2"]), ["app1", "app2"])
+    memoryObjectStore.put(ObjectType.CANARY_CONFIG, "id2", canaryConfig("id2", 0, ["app2"]), ["app2"])
+
+    when:
+    memoryObjectStore.put(ObjectType.CANARY_CONFIG, "id1", canaryConfig("id1", 0, ["app3"]), ["app3"])
+
+    then:
+    memoryObjectStore.listMetadata(ObjectType.CANARY_CONFIG, ["app1"]).isEmpty()
+    memoryObjectStore.listMetadata(ObjectType.CANARY_CONFIG, ["app2"]).collect { it.id } == ["id2"]
+    memoryObjectStore.listMetadata(ObjectType.CANARY_CONFIG, ["app3"]).collect { it.id } == ["id1"]
+    memoryObjectStore.canaryConfigIdsByApplication.keySet() == ["app2", "app3"] as Set
+
+    when:
+    memoryObjectStore.remove(ObjectType.CANARY_CONFIG, "id1")
+    memoryObjectStore.remove(ObjectType.CANARY_CONFIG, "id2")
+
+    then:
+    memoryObjectStore.size(ObjectType.CANARY_CONFIG) == 0
+    memoryObjectStore.listMetadata(ObjectType.CANARY_CONFIG, null).isEmpty()
+    memoryObjectStore.canaryConfigIdsByApplication.isEmpty()
+  }
+
+  MemoryStoredObject storedObject(String id, long weight) {
+    MemoryStoredObject.onHeap(new Object(), (int)weight, [id: id, weight: weight])
+  }
+
+  MemoryStoredObject canaryConfig(String id, long weight, List<String> applications) {
+    MemoryStoredObject.onHeap(new Object(), (int)weight, [id: id, applications: applications])
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.kayenta.redis.config;
+
+import com.netflix.kayenta.redis.security.RedisAccountCredentials;
+import com.netflix.kayenta.redis.security.RedisNamedAccountCredentials;
+import com.netflix.kayenta.redis.storage.RedisStorageService;
+import com.netflix.kayenta.security.AccountCredentials;
+import com.netflix.kayenta.security.AccountCredentialsRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.CollectionUtils;
+
+import java.util.List;
+
+@Configuration
+@EnableConfigurationProperties
+@ConditionalOnProperty("kayenta.redis.enabled")
+@ComponentScan({"com.netflix.kayenta.redis"})
+@Slf4j
+public class RedisConfiguration {
+
+  @Bean
+  @ConfigurationProperties("kayenta.redis")
+  RedisConfigurationProperties redisConfigurationProperties() {
+    return new RedisConfigurationProperties();
+  }
+
+  @Bean
+  RedisStorageService redisStorageService(RedisConfigurationProperties redisConfigurationProperties,
+                                          AccountCredentialsRepository accountCredentialsRepository) {
+    RedisStorageService.RedisStorageServiceBuilder redisStorageServiceBuilder = RedisStorageService.builder();
+
+    for (RedisManagedAccount redisManagedAccount : redisConfigurationProperties.getAccounts()) {
+      String name = redisManagedAccount.getName();
+      List<AccountCredentials.Type> supportedTypes = redisManagedAccount.getSupportedTypes();
+
+      log.info("Registering Redis account {} with supported types {}.", name, supportedTypes);
+
+      if (redisManagedAccount.getTtlSeconds() <= 0) {
+        throw new IllegalArgumentException("Redis account " + name + " must specify a positive ttlSeconds.");
+      }
+
+      RedisAccountCredentials redisAccountCredentials = RedisAccountCredentials.builder().build();
+      RedisNamedAccountCredentials.RedisNamedAccountCredentialsBuilder redisNamedAccountCredentialsBuilder =
+        RedisNamedAccountCredentials.builder()
+          .name(name)
+          .credentials(redisAccountCredentials)
+          .ttlSeconds(redisManagedAccount.getTtlSeconds())
+          .compressionEnabled(redisManagedAccount.isCompressionEnabled());
+
+      if (!CollectionUtils.isEmpty(supportedTypes)) {
+        redisNamedAccountCredentialsBuilder.supportedTypes(supportedTypes);
+      }
+
+      RedisNamedAccountCredentials redisNamedAccountCredentials = redisNamedAccountCredentialsBuilder.build();
+      accountCredentialsRepository.save(name, redisNamedAccountCredentials);
+      redisStorageServiceBuilder.accountName(name);
+    }
+
+    RedisStorageService redisStorageService = redisStorageServiceBuilder.build();
+
+    log.info("Populated RedisStorageService with {} Redis accounts.", redisStorageService.getAccountNames().size());
+
+    return redisStorageService;
+  }
+}
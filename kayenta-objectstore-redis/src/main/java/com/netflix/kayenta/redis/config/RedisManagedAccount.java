@@ -0,0 +1,37 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.kayenta.redis.config;
+
+import com.netflix.kayenta.security.AccountCredentials;
+import lombok.Data;
+
+import javax.validation.constraints.NotNull;
+import java.time.Duration;
+import java.util.List;
+
+@Data
+public class RedisManagedAccount {
+
+  @NotNull
+  private String name;
+
+  // Objects stored in this account expire this long after they were last stored.
+  private int ttlSeconds = (int)Duration.ofDays(1).getSeconds();
+
+  private boolean compressionEnabled = true;
+
+  private List<AccountCredentials.Type> supportedTypes;
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.kayenta.redis.storage;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.netflix.kayenta.redis.security.RedisNamedAccountCredentials;
+import com.netflix.kayenta.security.AccountCredentialsRepository;
+import com.netflix.kayenta.storage.ObjectType;
+import com.netflix.kayenta.storage.StorageService;
+import com.netflix.spinnaker.kork.web.exceptions.NotFoundException;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.Singular;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Tuple;
+
+import javax.validation.constraints.NotNull;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Stores objects in the Redis instance Kayenta already uses, with every object expiring a fixed time after it was
+ * stored. This is intended for intermediate artifacts (metric set lists and pair lists) that are only needed while a
+ * canary is being judged; see kayenta.storage.objectTypeAccounts for routing those object types here.
+ *
+ * Each object type also has a sorted set of object keys scored by the time they were stored, which is what listing
+ * reads from. Entries older than the TTL are trimmed from it whenever an object of that type is stored.
+ */
+@Builder
+@Slf4j
+public class RedisStorageService implements StorageService {
+
+  @Autowired
+  private ObjectMapper kayentaObjectMapper;
+
+  @Autowired
+  private JedisPool jedisPool;
+
+  @NotNull
+  @Singular
+  @Getter
+  private List<String> accountNames;
+
+  @Autowired
+  private AccountCredentialsRepository accountCredentialsRepository;
+
+  @Override
+  public boolean servicesAccount(String accountName) {
+    return accountNames.contains(accountName);
+  }
+
+  private RedisNamedAccountCredentials getCredentials(String accountName, ObjectType objectType) {
+    RedisNamedAccountCredentials credentials = (RedisNamedAccountCredentials)accountCredentialsRepository
+      .getOne(accountName)
+      .orElseThrow(() -> new IllegalArgumentException("Unable to resolve account " + accountName + "."));
+
+    // Canary configs must outlive any TTL, and their listing depends on the canary config index.
+    if (objectType == ObjectType.CANARY_CONFIG) {
+      throw new IllegalArgumentException("Redis account " + accountName + " can not be used to store canary configs.");
+    }
+
+    return credentials;
+  }
+
+  @Override
+  public <T> T loadObject(String accountName, ObjectType objectType, String objectKey) throws IllegalArgumentException, NotFoundException {
+    RedisNamedAccountCredentials credentials = getCredentials(accountName, objectType);
+    byte[] value;
+
+    try (Jedis jedis = jedisPool.getResource()) {
+      value = jedis.get(buildObjectKey(credentials, objectType, objectKey));
+    }
+
+    if (value == null) {
+      throw new NotFoundException("No such object named " + objectKey);
+    }
+
+    try {
+      return deserialize(value, objectType);
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to deserialize object (key: " + objectKey + ")", e);
+    }
+  }
+
+  @Override
+  public <T> void storeObject(String accountName, ObjectType objectType, String objectKey, T obj, String filename, boolean isAnUpdate) {
+    RedisNamedAccountCredentials credentials = getCredentials(accountName, objectType);
+    String indexKey = buildIndexKey(credentials, objectType);
+    int ttlSeconds = credentials.getTtlSeconds();
+    long currentTimestamp = System.currentTimeMillis();
+    byte[] value;
+
+    try {
+      value = serialize(obj, credentials.isCompressionEnabled());
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Unable to serialize object (key: " + objectKey + ")", e);
+    }
+
+    try (Jedis jedis = jedisPool.getResource()) {
+      Pipeline pipeline = jedis.pipelined();
+
+      pipeline.setex(buildObjectKey(credentials, objectType, objectKey), ttlSeconds, value);
+      pipeline.zadd(indexKey, currentTimestamp, objectKey);
+      pipeline.zremrangeByScore(indexKey, 0, currentTimestamp - ttlSeconds * 1000L);
+      pipeline.expire(indexKey, ttlSeconds);
+      pipeline.sync();
+    }
+  }
+
+  @Override
+  public void deleteObject(String accountName, ObjectType objectType, String objectKey) {
+    RedisNamedAccountCredentials credentials = getCredentials(accountName, objectType);
+
+    try (Jedis jedis = jedisPool.getResource()) {
+      Pipeline pipeline = jedis.pipelined();
+
+      pipeline.del(buildObjectKey(credentials, objectType, objectKey));
+      pipeline.zrem(buildIndexKey(credentials, objectType), objectKey);
+      pipeline.sync();
+    }
+  }
+
+  @Override
+  public List<Map<String, Object>> listObjectKeys(String accountName, ObjectType objectType, List<String> applications, boolean skipIndex) {
+    RedisNamedAccountCredentials credentials = getCredentials(accountName, objectType);
+    long oldestLiveTimestamp = System.currentTimeMillis() - credentials.getTtlSeconds() * 1000L;
+    Set<Tuple> indexEntries;
+
+    try (Jedis jedis = jedisPool.getResource()) {
+      indexEntries = jedis.zrangeByScoreWithScores(buildIndexKey(credentials, objectType), oldestLiveTimestamp, Double.POSITIVE_INFINITY);
+    }
+
+    List<Map<String, Object>> result = new ArrayList<>(indexEntries.size());
+
+    for (Tuple indexEntry : indexEntries) {
+      Map<String, Object> objectMetadataMap = new HashMap<>();
+      long updatedTimestamp = (long)indexEntry.getScore();
+
+      objectMetadataMap.put("id", indexEntry.getElement());
+      objectMetadataMap.put("updatedTimestamp", updatedTimestamp);
+      objectMetadataMap.put("updatedTimestampIso", Instant.ofEpochMilli(updatedTimestamp).toString());
+      result.add(objectMetadataMap);
+    }
+
+    return result;
+  }
+
+  private byte[] serialize(Object obj, boolean compressionEnabled) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+    try (OutputStream outputStream = compressionEnabled ? new GZIPOutputStream(bytes) : bytes) {
+      kayentaObjectMapper.writeValue(outputStream, obj);
+    }
+
+    return bytes.toByteArray();
+  }
+
+  // Values are checked for the gzip header rather than relying on the current setting, so that toggling compression
+  // does not make previously stored values unreadable.
+  private <T> T deserialize(byte[] value, ObjectType objectType) throws IOException {
+    boolean compressed = value.length >= 2 && value[0] == (byte)GZIPInputStream.GZIP_MAGIC && value[1] == (byte)(GZIPInputStream.GZIP_MAGIC >> 8);
+
+    if (!compressed) {
+      return kayentaObjectMapper.readValue(value, objectType.getTypeReference());
+    }
+
+    try (InputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(value))) {
+      return kayentaObjectMapper.readValue(inputStream, objectType.getTypeReference());
+    }
+  }
+
+  private byte[] buildObjectKey(RedisNamedAccountCredentials credentials, ObjectType objectType, String objectKey) {
+    return ("kayenta:" + credentials.getType() + ":" + credentials.getName() + ":" + objectType.getGroup() + ":" + objectKey).getBytes(StandardCharsets.UTF_8);
+  }
+
+  private String buildIndexKey(RedisNamedAccountCredentials credentials, ObjectType objectType) {
+    return "kayenta:" + credentials.getType() + ":" + credentials.getName() + ":" + objectType.getGroup() + ":by-updated-timestamp";
+  }
+}
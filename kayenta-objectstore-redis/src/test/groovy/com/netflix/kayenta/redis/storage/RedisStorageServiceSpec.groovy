@@ -0,0 +1,170 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.kayenta.redis.storage
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.netflix.kayenta.canary.CanaryConfig
+import com.netflix.kayenta.config.KayentaConfiguration
+import com.netflix.kayenta.metrics.MetricSet
+import com.netflix.kayenta.redis.security.RedisAccountCredentials
+import com.netflix.kayenta.redis.security.RedisNamedAccountCredentials
+import com.netflix.kayenta.security.AccountCredentials
+import com.netflix.kayenta.security.MapBackedAccountCredentialsRepository
+import com.netflix.kayenta.storage.ObjectType
+import com.netflix.spinnaker.kork.jedis.EmbeddedRedis
+import com.netflix.spinnaker.kork.web.exceptions.NotFoundException
+import redis.clients.jedis.Jedis
+import spock.lang.AutoCleanup
+import spock.lang.Shared
+import spock.lang.Specification
+import spock.lang.Subject
+
+class RedisStorageServiceSpec extends Specification {
+
+  static String ACCOUNT_NAME = "some-account"
+  static int TTL_SECONDS = 60
+  static String INDEX_KEY = "kayenta:redis:$ACCOUNT_NAME:metrics:by-updated-timestamp"
+
+  @Shared
+  @AutoCleanup("destroy")
+  EmbeddedRedis embeddedRedis
+
+  @AutoCleanup
+  Jedis jedis
+
+  MapBackedAccountCredentialsRepository accountCredentialsRepository
+
+  @Subject
+  RedisStorageService redisStorageService
+
+  def setupSpec() {
+    embeddedRedis = EmbeddedRedis.embed()
+  }
+
+  def setup() {
+    jedis = embeddedRedis.pool.resource
+
+    ObjectMapper objectMapper = new ObjectMapper()
+    KayentaConfiguration.configureObjectMapperFeatures(objectMapper)
+
+    accountCredentialsRepository = new MapBackedAccountCredentialsRepository()
+    saveCredentials(TTL_SECONDS, false)
+
+    redisStorageService = RedisStorageService.builder()
+      .kayentaObjectMapper(objectMapper)
+      .jedisPool(embeddedRedis.pool)
+      .accountCredentialsRepository(accountCredentialsRepository)
+      .accountName(ACCOUNT_NAME)
+      .build()
+  }
+
+  def cleanup() {
+    embeddedRedis.jedis.withCloseable { it.flushDB() }
+  }
+
+  def "stored objects should be loaded back and expire after the TTL; compressed: #compressionEnabled"() {
+    given:
+    saveCredentials(TTL_SECONDS, compressionEnabled)
+    List<MetricSet> metricSets = [MetricSet.builder().name("cpu").value(1.0d).value(2.5d).build()]
+
+    when:
+    redisStorageService.storeObject(ACCOUNT_NAME, ObjectType.METRIC_SET_LIST, "some-id", metricSets)
+    List<MetricSet> loadedMetricSets = redisStorageService.loadObject(ACCOUNT_NAME, ObjectType.METRIC_SET_LIST, "some-id")
+
+    then:
+    loadedMetricSets.size() == 1
+    loadedMetricSets[0].name == "cpu"
+    loadedMetricSets[0].values == [1.0d, 2.5d]
+    jedis.ttl("kayenta:redis:$ACCOUNT_NAME:metrics:some-id") in 1..TTL_SECONDS
+    jedis.ttl(INDEX_KEY) in 1..TTL_SECONDS
+
+    where:
+    compressionEnabled << [false, true]
+  }
+
+  def "expired objects should no longer be found"() {
+    given:
+    saveCredentials(1, false)
+
+    when:
+    redisStorageService.storeObject(ACCOUNT_NAME, ObjectType.METRIC_SET_LIST, "some-id", [])
+    sleep(2100)
+    redisStorageService.loadObject(ACCOUNT_NAME, ObjectType.METRIC_SET_LIST, "some-id")
+
+    then:
+    thrown(NotFoundException)
+    redisStorageService.listObjectKeys(ACCOUNT_NAME, ObjectType.METRIC_SET_LIST).isEmpty()
+  }
+
+  def "storing an object should trim index entries older than the TTL"() {
+    given:
+    long currentTime = System.currentTimeMillis()
+    jedis.zadd(INDEX_KEY, currentTime - (TTL_SECONDS + 1) * 1000L, "expired-id")
+    jedis.zadd(INDEX_KEY, currentTime - 1000L, "live-id")
+
+    when:
+    redisStorageService.storeObject(ACCOUNT_NAME, ObjectType.METRIC_SET_LIST, "new-id", [])
+
+    then:
+    jedis.zrange(INDEX_KEY, 0, -1) == ["live-id", "new-id"] as LinkedHashSet
+  }
+
+  def "listing should leave out index entries older than the TTL"() {
+    given:
+    long currentTime = System.currentTimeMillis()
+    jedis.zadd(INDEX_KEY, currentTime - (TTL_SECONDS + 1) * 1000L, "expired-id")
+    jedis.zadd(INDEX_KEY, currentTime - 1000L, "live-id")
+
+    when:
+    List<Map<String, Object>> objectKeys = redisStorageService.listObjectKeys(ACCOUNT_NAME, ObjectType.METRIC_SET_LIST)
+
+    then:
+    objectKeys.collect { it.id } == ["live-id"]
+    objectKeys[0].updatedTimestamp == currentTime - 1000L
+  }
+
+  def "deleted objects should be gone from the index too"() {
+    given:
+    redisStorageService.storeObject(ACCOUNT_NAME, ObjectType.METRIC_SET_LIST, "some-id", [])
+
+    when:
+    redisStorageService.deleteObject(ACCOUNT_NAME, ObjectType.METRIC_SET_LIST, "some-id")
+
+    then:
+    !jedis.exists("kayenta:redis:$ACCOUNT_NAME:metrics:some-id")
+    redisStorageService.listObjectKeys(ACCOUNT_NAME, ObjectType.METRIC_SET_LIST).isEmpty()
+  }
+
+  def "canary configs should be rejected"() {
+    when:
+    redisStorageService.storeObject(ACCOUNT_NAME, ObjectType.CANARY_CONFIG, "some-id", CanaryConfig.builder().name("some-config").build())
+
+    then:
+    thrown(IllegalArgumentException)
+    jedis.keys("kayenta:*").isEmpty()
+  }
+
+  void saveCredentials(int ttlSeconds, boolean compressionEnabled) {
+    accountCredentialsRepository.save(ACCOUNT_NAME, RedisNamedAccountCredentials.builder()
+      .name(ACCOUNT_NAME)
+      .supportedType(AccountCredentials.Type.OBJECT_STORE)
+      .credentials(RedisAccountCredentials.builder().build())
+      .ttlSeconds(ttlSeconds)
+      .compressionEnabled(compressionEnabled)
+      .build())
+  }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.kayenta.s3.storage;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.*;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Buffers at most one part's worth of bytes at a time. If everything written fits in a single part, close() stores the
+ * object with a plain PUT. Otherwise each full part is uploaded in the background as part of a multipart upload (with a
+ * bounded number of parts in flight), and close() completes the upload.
+ *
+ * Callers must call abort() instead of close() if writing fails, so that a partially written object is never stored.
+ */
+@Slf4j
+class S3MultipartUploadOutputStream extends OutputStream {
+
+  private final AmazonS3 amazonS3;
+  private final String bucket;
+  private final String key;
+  private final int partSizeBytes;
+  private final ExecutorService executorService;
+  private final Semaphore partsInFlight;
+  private final List<Future<PartETag>> partETagFutures = new ArrayList<>();
+
+  // Most objects are far smaller than a part, so the buffer starts small and grows as needed up to the part size.
+  private static final int INITIAL_BUFFER_SIZE_BYTES = 64 * 1024;
+
+  private byte[] buffer;
+  private int bufferPosition = 0;
+  private int nextPartNumber = 1;
+  private String uploadId;
+  private boolean closed = false;
+
+  S3MultipartUploadOutputStream(AmazonS3 amazonS3,
+                                String bucket,
+                                String key,
+                                int partSizeBytes,
+                                int maxPartsInFlight,
+                                ExecutorService executorService) {
+    this.amazonS3 = amazonS3;
+    this.bucket = bucket;
+    this.key = key;
+    this.partSizeBytes = partSizeBytes;
+    this.executorService = executorService;
+    this.partsInFlight = new Semaphore(maxPartsInFlight);
+    this.buffer = new byte[Math.min(INITIAL_BUFFER_SIZE_BYTES, partSizeBytes)];
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    ensureOpen();
+
+    if (bufferPosition == partSizeBytes) {
+      uploadBufferAsPart();
+    }
+
+    ensureBufferCapacity(bufferPosition + 1);
+    buffer[bufferPosition++] = (byte)b;
+  }
+
+  @Override
+  public void write(byte[] bytes, int offset, int length) throws IOException {
+    ensureOpen();
+
+    while (length > 0) {
+      if (bufferPosition == partSizeBytes) {
+        uploadBufferAsPart();
+      }
+
+      int chunkLength = Math.min(length, partSizeBytes - bufferPosition);
+
+      ensureBufferCapacity(bufferPosition + chunkLength);
+      System.arraycopy(bytes, offset, buffer, bufferPosition, chunkLength);
+      bufferPosition += chunkLength;
+      offset += chunkLength;
+      length -= chunkLength;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+
+    closed = true;
+
+    try {
+      if (uploadId == null) {
+        putSinglePart();
+      } else {
+        if (bufferPosition > 0) {
+          uploadBufferAsPart();
+        }
+
+        List<PartETag> partETags = new ArrayList<>();
+
+        for (Future<PartETag> partETagFuture : partETagFutures) {
+          partETags.add(partETagFuture.get());
+        }
+
+        amazonS3.completeMultipartUpload(new CompleteMultipartUploadRequest(bucket, key, uploadId, partETags));
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      abortMultipartUpload();
+      throw new IOException("Interrupted while uploading " + key + ".", e);
+    } catch (ExecutionException e) {
+      abortMultipartUpload();
+      throw new IOException("Failed to upload part of " + key + ".", e.getCause());
+    } catch (RuntimeException e) {
+      abortMultipartUpload();
+      throw e;
+    } finally {
+      buffer = null;
+    }
+  }
+
+  /**
+   * Discard everything written so far without storing anything.
+   */
+  void abort() {
+    if (closed) {
+      return;
+    }
+
+    closed = true;
+    buffer = null;
+    abortMultipartUpload();
+  }
+
+  private void ensureBufferCapacity(int requiredCapacity) {
+    if (requiredCapacity > buffer.length) {
+      int newCapacity = Math.min(Math.max(buffer.length * 2, requiredCapacity), partSizeBytes);
+
+      buffer = Arrays.copyOf(buffer, newCapacity);
+    }
+  }
+
+  private void ensureOpen() throws IOException {
+    if (closed) {
+      throw new IOException("Upload of " + key + " has already been closed.");
+    }
+  }
+
+  private void putSinglePart() {
+    ObjectMetadata objectMetadata = new ObjectMetadata();
+    objectMetadata.setContentLength(bufferPosition);
+    objectMetadata.setContentMD5(md5Base64(buffer, bufferPosition));
+
+    amazonS3.putObject(bucket, key, new ByteArrayInputStream(buffer, 0, bufferPosition), objectMetadata);
+  }
+
+  private void uploadBufferAsPart() throws IOException {
+    if (uploadId == null) {
+      uploadId = amazonS3.initiateMultipartUpload(new InitiateMultipartUploadRequest(bucket, key)).getUploadId();
+    }
+
+    byte[] partBytes = buffer;
+    int partLength = bufferPosition;
+    int partNumber = nextPartNumber++;
+
+    try {
+      // Bounds both the memory held by pending parts and the number of concurrent connections used by this upload.
+      partsInFlight.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while uploading " + key + ".", e);
+    }
+
+    try {
+      partETagFutures.add(executorService.submit(() -> {
+        try {
+          UploadPartRequest uploadPartRequest = new UploadPartRequest()
+            .withBucketName(bucket)
+            .withKey(key)
+            .withUploadId(uploadId)
+            .withPartNumber(partNumber)
+            .withPartSize(partLength)
+            .withMD5Digest(md5Base64(partBytes, partLength))
+            .withInputStream(new ByteArrayInputStream(partBytes, 0, partLength));
+
+          return amazonS3.uploadPart(uploadPartRequest).getPartETag();
+        } finally {
+          partsInFlight.release();
+        }
+      }));
+    } catch (RuntimeException e) {
+      partsInFlight.release();
+      throw e;
+    }
+
+    buffer = new byte[partSizeBytes];
+    bufferPosition = 0;
+  }
+
+  private void abortMultipartUpload() {
+    if (uploadId == null) {
+      return;
+    }
+
+    partETagFutures.forEach(f -> f.cancel(true));
+
+    try {
+      amazonS3.abortMultipartUpload(new AbortMultipartUploadRequest(bucket, key, uploadId));
+    } catch (Exception e) {
+      log.error("Failed to abort multipart upload {} of {}: {}", uploadId, key, e);
+    }
+  }
+
+  private static String md5Base64(byte[] bytes, int length) {
+    MessageDigest md5Digest = DigestUtils.getMd5Digest();
+    md5Digest.update(bytes, 0, length);
+
+    return new String(Base64.encodeBase64(md5Digest.digest()));
+  }
+}
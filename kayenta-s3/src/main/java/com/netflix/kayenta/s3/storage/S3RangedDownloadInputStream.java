@@ -0,0 +1,193 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.kayenta.s3.storage;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
+import com.amazonaws.util.IOUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Presents an S3 object as a single stream while fetching it as a sequence of byte-range GETs. The first part is
+ * streamed directly from the response that was used to discover the object's length; the following parts are fetched
+ * concurrently ahead of the reader (with a bounded number of parts in flight) and handed out in order.
+ *
+ * Every range after the first is constrained to the first response's ETag, so an object that is overwritten while it
+ * is being read fails the read instead of yielding a mix of old and new bytes.
+ */
+class S3RangedDownloadInputStream extends InputStream {
+
+  private final AmazonS3 amazonS3;
+  private final String bucket;
+  private final String key;
+  private final String eTag;
+  private final long objectLength;
+  private final long partSizeBytes;
+  private final int maxPartsInFlight;
+  private final ExecutorService executorService;
+  private final Deque<Future<byte[]>> pendingParts = new ArrayDeque<>();
+
+  private InputStream currentPart;
+  private boolean currentPartDrained = false;
+  private long nextRangeStart;
+  private boolean closed = false;
+
+  S3RangedDownloadInputStream(AmazonS3 amazonS3,
+                              String bucket,
+                              String key,
+                              S3Object firstPart,
+                              long objectLength,
+                              long partSizeBytes,
+                              int maxPartsInFlight,
+                              ExecutorService executorService) {
+    this.amazonS3 = amazonS3;
+    this.bucket = bucket;
+    this.key = key;
+    this.eTag = firstPart.getObjectMetadata().getETag();
+    this.objectLength = objectLength;
+    this.partSizeBytes = partSizeBytes;
+    this.maxPartsInFlight = maxPartsInFlight;
+    this.executorService = executorService;
+    this.currentPart = firstPart.getObjectContent();
+    this.nextRangeStart = Math.min(partSizeBytes, objectLength);
+
+    schedulePartFetches();
+  }
+
+  @Override
+  public int read() throws IOException {
+    while (!closed) {
+      int b = currentPart.read();
+
+      if (b != -1) {
+        return b;
+      }
+
+      currentPartDrained = true;
+
+      if (!advanceToNextPart()) {
+        return -1;
+      }
+    }
+
+    throw new IOException("Download of " + key + " has already been closed.");
+  }
+
+  @Override
+  public int read(byte[] bytes, int offset, int length) throws IOException {
+    if (length == 0) {
+      return 0;
+    }
+
+    while (!closed) {
+      int bytesRead = currentPart.read(bytes, offset, length);
+
+      if (bytesRead != -1) {
+        return bytesRead;
+      }
+
+      currentPartDrained = true;
+
+      if (!advanceToNextPart()) {
+        return -1;
+      }
+    }
+
+    throw new IOException("Download of " + key + " has already been closed.");
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+
+    closed = true;
+    pendingParts.forEach(f -> f.cancel(true));
+    pendingParts.clear();
+
+    // Closing an S3 stream that has not been fully read drains the remainder of the response, so abort it instead.
+    if (currentPart instanceof S3ObjectInputStream && !currentPartDrained) {
+      ((S3ObjectInputStream)currentPart).abort();
+    } else {
+      currentPart.close();
+    }
+  }
+
+  private boolean advanceToNextPart() throws IOException {
+    Future<byte[]> nextPart = pendingParts.poll();
+
+    if (nextPart == null) {
+      return false;
+    }
+
+    currentPart.close();
+
+    try {
+      currentPart = new ByteArrayInputStream(nextPart.get());
+      currentPartDrained = false;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while downloading " + key + ".", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+
+      throw cause instanceof IOException ? (IOException)cause : new IOException("Failed to download part of " + key + ".", cause);
+    }
+
+    schedulePartFetches();
+
+    return true;
+  }
+
+  private void schedulePartFetches() {
+    while (pendingParts.size() < maxPartsInFlight && nextRangeStart < objectLength) {
+      long rangeStart = nextRangeStart;
+      long rangeEnd = Math.min(rangeStart + partSizeBytes, objectLength) - 1;
+
+      pendingParts.add(executorService.submit(() -> fetchRange(rangeStart, rangeEnd)));
+      nextRangeStart = rangeEnd + 1;
+    }
+  }
+
+  private byte[] fetchRange(long rangeStart, long rangeEnd) throws IOException {
+    GetObjectRequest getObjectRequest =
+      new GetObjectRequest(bucket, key)
+        .withRange(rangeStart, rangeEnd)
+        .withMatchingETagConstraint(eTag);
+    S3Object s3Object = amazonS3.getObject(getObjectRequest);
+
+    // The client returns null rather than throwing when the ETag constraint is not met.
+    if (s3Object == null) {
+      throw new IOException("Object " + key + " was modified while it was being downloaded.");
+    }
+
+    try (InputStream inputStream = s3Object.getObjectContent()) {
+      return IOUtils.toByteArray(inputStream);
+    }
+  }
+}
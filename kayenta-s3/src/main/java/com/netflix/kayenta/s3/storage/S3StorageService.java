@@ -19,37 +19,53 @@ package com.netflix.kayenta.s3.storage;
 import com.amazonaws.AmazonServiceException;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.model.*;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.netflix.kayenta.aws.security.AwsNamedAccountCredentials;
 import com.netflix.kayenta.canary.CanaryConfig;
 import com.netflix.kayenta.index.CanaryConfigIndex;
+import com.netflix.kayenta.index.CanaryConfigSearchTerms;
 import com.netflix.kayenta.index.config.CanaryConfigIndexAction;
 import com.netflix.kayenta.security.AccountCredentialsRepository;
 import com.netflix.kayenta.storage.ObjectType;
+import com.netflix.kayenta.storage.ShardedKeyLayout;
 import com.netflix.kayenta.storage.StorageService;
+import com.netflix.kayenta.storage.StorageServiceBatches;
 import com.netflix.spinnaker.kork.web.exceptions.NotFoundException;
+import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Getter;
 import lombok.Singular;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.codec.digest.DigestUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.util.StringUtils;
 
 import javax.validation.constraints.NotNull;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 
 @Builder
 @Slf4j
 public class S3StorageService implements StorageService {
 
+  private static final String LISTING_SHARD_BOUNDARIES = "123456789abcdef";
+  private static final int MAX_KEYS_PER_MULTI_OBJECT_DELETE = 1000;
+
   @NotNull
   private ObjectMapper objectMapper;
 
@@ -64,15 +80,39 @@ public class S3StorageService implements StorageService {
   @Autowired
   CanaryConfigIndex canaryConfigIndex;
 
+  // Maps account name and canary config id to the key the canary config is stored under, which embeds the config's name.
+  private final Cache<String, String> canaryConfigPathCache = CacheBuilder.newBuilder().maximumSize(10000).build();
+
+  // Names of the accounts whose bucket is known to exist, so we only check (and possibly create) each bucket once.
+  private final Set<String> accountsWithVerifiedBuckets = ConcurrentHashMap.newKeySet();
+
+  private final ExecutorService uploadExecutorService =
+    Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("s3-upload-%d").setDaemon(true).build());
+
+  private final ExecutorService downloadExecutorService =
+    Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("s3-download-%d").setDaemon(true).build());
+
+  private final ExecutorService listingExecutorService =
+    Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("s3-list-%d").setDaemon(true).build());
+
   @Override
   public boolean servicesAccount(String accountName) {
     return accountNames.contains(accountName);
   }
 
+  @Override
+  public boolean maintainsCanaryConfigIndex() {
+    return true;
+  }
+
   /**
-   * Check to see if the bucket exists, creating it if it is not there.
+   * Check to see if the bucket exists, creating it if it is not there. The check is only made once per account.
    */
   public void ensureBucketExists(String accountName) {
+    if (accountsWithVerifiedBuckets.contains(accountName)) {
+      return;
+    }
+
     AwsNamedAccountCredentials credentials = (AwsNamedAccountCredentials)accountCredentialsRepository
       .getOne(accountName)
       .orElseThrow(() -> new IllegalArgumentException("Unable to resolve account " + accountName + "."));
@@ -99,6 +139,8 @@ public class S3StorageService implements StorageService {
         throw e;
       }
     }
+
+    accountsWithVerifiedBuckets.add(accountName);
   }
 
   @Override
@@ -108,45 +150,110 @@ public class S3StorageService implements StorageService {
       .orElseThrow(() -> new IllegalArgumentException("Unable to resolve account " + accountName + "."));
     AmazonS3 amazonS3 = credentials.getAmazonS3();
     String bucket = credentials.getBucket();
-    String path;
+    String path = resolveDirectPath(objectType, objectKey, credentials);
 
-    try {
-      path = resolveSingularPath(objectType, objectKey, credentials, amazonS3, bucket);
-    } catch (IllegalArgumentException e) {
-      throw new NotFoundException(e.getMessage());
+    if (path == null) {
+      path = resolveSingularPathOrThrowNotFound(objectType, objectKey, credentials, amazonS3, bucket);
     }
 
     try {
-      S3Object s3Object = amazonS3.getObject(bucket, path);
+      return getObject(credentials, objectType, objectKey, amazonS3, bucket, path);
+    } catch (NotFoundException e) {
+      // The direct key can miss if the canary config was renamed by another instance, or if the object was stored under
+      // a non-default filename. Fall back to resolving the key via a listing before giving up.
+      canaryConfigPathCache.invalidate(buildPathCacheKey(credentials, objectKey));
+
+      String resolvedPath = resolveSingularPathOrThrowNotFound(objectType, objectKey, credentials, amazonS3, bucket);
 
-      return deserialize(s3Object, objectType.getTypeReference());
+      if (resolvedPath.equals(path)) {
+        throw e;
+      }
+
+      return getObject(credentials, objectType, objectKey, amazonS3, bucket, resolvedPath);
+    }
+  }
+
+  private <T> T getObject(AwsNamedAccountCredentials credentials, ObjectType objectType, String objectKey, AmazonS3 amazonS3, String bucket, String path) {
+    try (InputStream inputStream = openObject(credentials, amazonS3, bucket, path)) {
+      return objectMapper.readValue(inputStream, objectType.getTypeReference());
     } catch (AmazonS3Exception e) {
-      log.error("Failed to load {} {}: {}", objectType.getGroup(), objectKey, e.getStatusCode());
       if (e.getStatusCode() == 404) {
         throw new NotFoundException("No file at path " + path + ".");
       }
+      log.error("Failed to load {} {}: {}", objectType.getGroup(), objectKey, e.getStatusCode());
       throw e;
     } catch (IOException e) {
       throw new IllegalStateException("Unable to deserialize object (key: " + objectKey + ")", e);
     }
   }
 
+  // Fetch the first part of the object with a ranged GET. If that turns out to be the entire object it is simply streamed;
+  // otherwise the remaining parts are fetched concurrently while the caller parses the bytes already received.
+  private InputStream openObject(AwsNamedAccountCredentials credentials, AmazonS3 amazonS3, String bucket, String path) {
+    long partSizeBytes = credentials.getRangedDownloadPartSizeBytes();
+    S3Object firstPart = amazonS3.getObject(new GetObjectRequest(bucket, path).withRange(0, partSizeBytes - 1));
+    long objectLength = firstPart.getObjectMetadata().getInstanceLength();
+
+    if (objectLength <= partSizeBytes) {
+      return firstPart.getObjectContent();
+    }
+
+    return new S3RangedDownloadInputStream(amazonS3,
+                                           bucket,
+                                           path,
+                                           firstPart,
+                                           objectLength,
+                                           partSizeBytes,
+                                           credentials.getRangedDownloadConcurrency(),
+                                           downloadExecutorService);
+  }
+
+  /**
+   * Build the key of an object without listing the bucket. Every object type other than canary configs is stored under
+   * its default filename, so its key is fully determined by the object key. Canary configs are stored under their
+   * (mutable) name, so we can only use a key we have previously resolved. Returns null if the key is not known.
+   */
+  private String resolveDirectPath(ObjectType objectType, String objectKey, AwsNamedAccountCredentials credentials) {
+    if (objectType == ObjectType.CANARY_CONFIG) {
+      return canaryConfigPathCache.getIfPresent(buildPathCacheKey(credentials, objectKey));
+    }
+
+    return buildS3Key(credentials, objectType, objectType.getGroup(), objectKey, null);
+  }
+
+  private String resolveSingularPathOrThrowNotFound(ObjectType objectType, String objectKey, AwsNamedAccountCredentials credentials, AmazonS3 amazonS3, String bucket) {
+    try {
+      return resolveSingularPath(objectType, objectKey, credentials, amazonS3, bucket);
+    } catch (IllegalArgumentException e) {
+      throw new NotFoundException(e.getMessage());
+    }
+  }
+
   private String resolveSingularPath(ObjectType objectType, String objectKey, AwsNamedAccountCredentials credentials, AmazonS3 amazonS3, String bucket) {
-    String rootFolder = daoRoot(credentials, objectType.getGroup()) + "/" + objectKey;
-    ObjectListing bucketListing = amazonS3.listObjects(
-      new ListObjectsRequest(bucket, rootFolder, null, null, 10000)
-    );
-    List<S3ObjectSummary> summaries = bucketListing.getObjectSummaries();
-
-    if (summaries != null && summaries.size() == 1) {
-      return summaries.get(0).getKey();
-    } else {
-      throw new IllegalArgumentException("Unable to resolve singular " + objectType + " at " + daoRoot(credentials, objectType.getGroup()) + '/' + objectKey + ".");
+    String typedFolder = buildTypedFolder(credentials, objectType.getGroup());
+
+    for (String rootFolder : ShardedKeyLayout.candidateObjectFolders(typedFolder, objectKey, credentials.isShardedKeyLayout())) {
+      ObjectListing bucketListing = amazonS3.listObjects(
+        new ListObjectsRequest(bucket, rootFolder, null, null, 10000)
+      );
+      List<S3ObjectSummary> summaries = bucketListing.getObjectSummaries();
+
+      if (summaries != null && summaries.size() == 1) {
+        String path = summaries.get(0).getKey();
+
+        if (objectType == ObjectType.CANARY_CONFIG) {
+          canaryConfigPathCache.put(buildPathCacheKey(credentials, objectKey), path);
+        }
+
+        return path;
+      }
     }
+
+    throw new IllegalArgumentException("Unable to resolve singular " + objectType + " at " + daoRoot(credentials, objectType.getGroup()) + '/' + objectKey + ".");
   }
 
-  private <T> T deserialize(S3Object s3Object, TypeReference typeReference) throws IOException {
-    return objectMapper.readValue(s3Object.getObjectContent(), typeReference);
+  private String buildPathCacheKey(AwsNamedAccountCredentials credentials, String objectKey) {
+    return credentials.getName() + ":" + objectKey;
   }
 
   @Override
@@ -180,12 +287,18 @@ public class S3StorageService implements StorageService {
 
       correlationId = UUID.randomUUID().toString();
 
+      // The stored config carries the version recorded in the index, so that a cached copy of it can be matched against
+      // the index.
+      canaryConfig.setUpdatedTimestamp(updatedTimestamp);
+      canaryConfig.setUpdatedTimestampIso(Instant.ofEpochMilli(updatedTimestamp).toString());
+
       Map<String, Object> canaryConfigSummary = new ImmutableMap.Builder<String, Object>()
         .put("id", objectKey)
         .put("name", canaryConfig.getName())
         .put("updatedTimestamp", updatedTimestamp)
         .put("updatedTimestampIso", Instant.ofEpochMilli(updatedTimestamp).toString())
         .put("applications", canaryConfig.getApplications())
+        .put(CanaryConfigSearchTerms.SEARCH_TERMS_KEY, CanaryConfigSearchTerms.of(canaryConfig, objectMapper))
         .build();
 
       try {
@@ -204,17 +317,7 @@ public class S3StorageService implements StorageService {
     }
 
     try {
-      byte[] bytes = objectMapper.writeValueAsBytes(obj);
-      ObjectMetadata objectMetadata = new ObjectMetadata();
-      objectMetadata.setContentLength(bytes.length);
-      objectMetadata.setContentMD5(new String(org.apache.commons.codec.binary.Base64.encodeBase64(DigestUtils.md5(bytes))));
-
-      amazonS3.putObject(
-        bucket,
-        path,
-        new ByteArrayInputStream(bytes),
-        objectMetadata
-      );
+      uploadObject(credentials, amazonS3, bucket, path, obj);
 
       if (objectType == ObjectType.CANARY_CONFIG) {
         // This will be true if the canary config is renamed.
@@ -222,6 +325,8 @@ public class S3StorageService implements StorageService {
           amazonS3.deleteObject(bucket, originalPath);
         }
 
+        canaryConfigPathCache.put(buildPathCacheKey(credentials, objectKey), path);
+
         canaryConfigIndex.finishPendingUpdate(credentials, CanaryConfigIndexAction.UPDATE, correlationId);
       }
     } catch (Exception e) {
@@ -241,6 +346,27 @@ public class S3StorageService implements StorageService {
     }
   }
 
+  // Serialize the object directly into the upload rather than materializing it as a byte array first.
+  private void uploadObject(AwsNamedAccountCredentials credentials, AmazonS3 amazonS3, String bucket, String path, Object obj) throws IOException {
+    S3MultipartUploadOutputStream outputStream =
+      new S3MultipartUploadOutputStream(amazonS3,
+                                        bucket,
+                                        path,
+                                        credentials.getMultipartUploadPartSizeBytes(),
+                                        credentials.getMultipartUploadConcurrency(),
+                                        uploadExecutorService);
+
+    try {
+      // The stream must not be closed (which completes the upload) if serialization fails part way through.
+      objectMapper.writer().without(JsonGenerator.Feature.AUTO_CLOSE_TARGET).writeValue(outputStream, obj);
+    } catch (IOException | RuntimeException e) {
+      outputStream.abort();
+      throw e;
+    }
+
+    outputStream.close();
+  }
+
   private void checkForDuplicateCanaryConfig(CanaryConfig canaryConfig, String canaryConfigId, AwsNamedAccountCredentials credentials) {
     String canaryConfigName = canaryConfig.getName();
     List<String> applications = canaryConfig.getApplications();
@@ -259,7 +385,10 @@ public class S3StorageService implements StorageService {
       .orElseThrow(() -> new IllegalArgumentException("Unable to resolve account " + accountName + "."));
     AmazonS3 amazonS3 = credentials.getAmazonS3();
     String bucket = credentials.getBucket();
-    String path = resolveSingularPath(objectType, objectKey, credentials, amazonS3, bucket);
+    // Deleting a canary config must remove whatever key it currently lives under, so resolve it rather than trust the cache.
+    String path = objectType == ObjectType.CANARY_CONFIG
+      ? resolveSingularPath(objectType, objectKey, credentials, amazonS3, bucket)
+      : resolveDirectPath(objectType, objectKey, credentials);
 
     long updatedTimestamp = -1;
     String correlationId = null;
@@ -303,6 +432,16 @@ public class S3StorageService implements StorageService {
     try {
       amazonS3.deleteObject(bucket, path);
 
+      // An object written before the sharded layout was enabled is still under its legacy key. Deletes of missing keys
+      // succeed, so there is no need to find out which one it is.
+      if (objectType != ObjectType.CANARY_CONFIG && credentials.isShardedKeyLayout()) {
+        amazonS3.deleteObject(bucket, buildS3Key(credentials, objectType, objectType.getGroup(), objectKey, null, false));
+      }
+
+      if (objectType == ObjectType.CANARY_CONFIG) {
+        canaryConfigPathCache.invalidate(buildPathCacheKey(credentials, objectKey));
+      }
+
       if (correlationId != null) {
         canaryConfigIndex.finishPendingUpdate(credentials, CanaryConfigIndexAction.DELETE, correlationId);
       }
@@ -323,8 +462,61 @@ public class S3StorageService implements StorageService {
     }
   }
 
+  /**
+   * Deletes everything but canary configs with multi-object deletes of up to 1000 keys each. Canary configs are deleted
+   * one at a time, since each deletion must be recorded in the canary config index.
+   */
+  @Override
+  public void deleteObjects(String accountName, ObjectType objectType, List<String> objectKeys) {
+    if (objectType == ObjectType.CANARY_CONFIG) {
+      StorageService.super.deleteObjects(accountName, objectType, objectKeys);
+      return;
+    }
+
+    AwsNamedAccountCredentials credentials = (AwsNamedAccountCredentials)accountCredentialsRepository
+      .getOne(accountName)
+      .orElseThrow(() -> new IllegalArgumentException("Unable to resolve account " + accountName + "."));
+    AmazonS3 amazonS3 = credentials.getAmazonS3();
+    String bucket = credentials.getBucket();
+    List<DeleteObjectsRequest.KeyVersion> keys = new ArrayList<>();
+
+    for (String objectKey : objectKeys) {
+      keys.add(new DeleteObjectsRequest.KeyVersion(resolveDirectPath(objectType, objectKey, credentials)));
+
+      // Deletes of missing keys succeed, so also delete the legacy key of objects written before sharding was enabled.
+      if (credentials.isShardedKeyLayout()) {
+        keys.add(new DeleteObjectsRequest.KeyVersion(buildS3Key(credentials, objectType, objectType.getGroup(), objectKey, null, false)));
+      }
+    }
+
+    StorageServiceBatches.forEach(Lists.partition(keys, MAX_KEYS_PER_MULTI_OBJECT_DELETE), StorageServiceBatches.DEFAULT_CONCURRENCY, batch -> {
+      try {
+        amazonS3.deleteObjects(new DeleteObjectsRequest(bucket).withKeys(batch).withQuiet(true));
+      } catch (MultiObjectDeleteException e) {
+        MultiObjectDeleteException.DeleteError firstError = e.getErrors().get(0);
+
+        log.error("Failed to delete {} of {} keys, including {}: {}", e.getErrors().size(), batch.size(), firstError.getKey(), firstError.getMessage());
+
+        throw new IllegalArgumentException(e);
+      } catch (Exception e) {
+        log.error("Failed to delete {} keys: {}", batch.size(), e);
+
+        throw new IllegalArgumentException(e);
+      }
+    });
+  }
+
   @Override
   public List<Map<String, Object>> listObjectKeys(String accountName, ObjectType objectType, List<String> applications, boolean skipIndex) {
+    List<Map<String, Object>> result = new ArrayList<>();
+
+    forEachObjectKey(accountName, objectType, applications, skipIndex, result::add);
+
+    return result;
+  }
+
+  @Override
+  public void forEachObjectKey(String accountName, ObjectType objectType, List<String> applications, boolean skipIndex, Consumer<Map<String, Object>> consumer) {
     AwsNamedAccountCredentials credentials = (AwsNamedAccountCredentials)accountCredentialsRepository
       .getOne(accountName)
       .orElseThrow(() -> new IllegalArgumentException("Unable to resolve account " + accountName + "."));
@@ -332,7 +524,7 @@ public class S3StorageService implements StorageService {
     if (!skipIndex && objectType == ObjectType.CANARY_CONFIG) {
       Set<Map<String, Object>> canaryConfigSet = canaryConfigIndex.getCanaryConfigSummarySet(credentials, applications);
 
-      return Lists.newArrayList(canaryConfigSet);
+      canaryConfigSet.forEach(consumer);
     } else {
       AmazonS3 amazonS3 = credentials.getAmazonS3();
       String bucket = credentials.getBucket();
@@ -342,55 +534,135 @@ public class S3StorageService implements StorageService {
       ensureBucketExists(accountName);
 
       int skipToOffset = prefix.length() + 1;  // + Trailing slash
-      List<Map<String, Object>> result = new ArrayList<>();
 
       log.debug("Listing {}", group);
 
-      ObjectListing bucketListing = amazonS3.listObjects(
-        new ListObjectsRequest(bucket, prefix, null, null, 10000)
-      );
+      listShardsConcurrently(amazonS3, bucket, prefix + "/", summary -> {
+        String itemName = summary.getKey();
+        int indexOfLastSlash = itemName.lastIndexOf("/");
+        Map<String, Object> objectMetadataMap = new HashMap<>();
+        long updatedTimestamp = summary.getLastModified().getTime();
 
-      List<S3ObjectSummary> summaries = bucketListing.getObjectSummaries();
+        objectMetadataMap.put("id", ShardedKeyLayout.extractObjectKey(itemName, skipToOffset));
+        objectMetadataMap.put("updatedTimestamp", updatedTimestamp);
+        objectMetadataMap.put("updatedTimestampIso", Instant.ofEpochMilli(updatedTimestamp).toString());
+
+        if (objectType == ObjectType.CANARY_CONFIG) {
+          String name = itemName.substring(indexOfLastSlash + 1);
+
+          if (name.endsWith(".json")) {
+            name = name.substring(0, name.length() - 5);
+          }
+
+          objectMetadataMap.put("name", name);
+        }
+
+        consumer.accept(objectMetadataMap);
+      });
+    }
+  }
+
+  /**
+   * Splits the keys under the prefix into ranges by the first character following the prefix, and walks each range
+   * concurrently. Object keys are generally UUIDs, so the ranges are bounded by hex digits; keys that are not still
+   * land in exactly one range since the first and last ranges are open-ended. Pages are handed back to the calling
+   * thread through a bounded queue, so the consumer is never called concurrently and never more than a few pages are
+   * held in memory.
+   */
+  private void listShardsConcurrently(AmazonS3 amazonS3, String bucket, String prefix, Consumer<S3ObjectSummary> consumer) {
+    BlockingQueue<ListingShardPage> pages = new ArrayBlockingQueue<>(LISTING_SHARD_BOUNDARIES.length() * 2);
+    List<Future<?>> shardFutures = new ArrayList<>();
+
+    try {
+      for (int i = 0; i <= LISTING_SHARD_BOUNDARIES.length(); i++) {
+        String startAfter = i > 0 ? prefix + LISTING_SHARD_BOUNDARIES.charAt(i - 1) : null;
+        String endBefore = i < LISTING_SHARD_BOUNDARIES.length() ? prefix + LISTING_SHARD_BOUNDARIES.charAt(i) : null;
 
-      while (bucketListing.isTruncated()) {
-        bucketListing = amazonS3.listNextBatchOfObjects(bucketListing);
-        summaries.addAll(bucketListing.getObjectSummaries());
+        shardFutures.add(listingExecutorService.submit(() -> listShard(amazonS3, bucket, prefix, startAfter, endBefore, pages)));
       }
 
-      if (summaries != null) {
-        for (S3ObjectSummary summary : summaries) {
-          String itemName = summary.getKey();
-          int indexOfLastSlash = itemName.lastIndexOf("/");
-          Map<String, Object> objectMetadataMap = new HashMap<>();
-          long updatedTimestamp = summary.getLastModified().getTime();
+      int remainingShards = shardFutures.size();
 
-          objectMetadataMap.put("id", itemName.substring(skipToOffset, indexOfLastSlash));
-          objectMetadataMap.put("updatedTimestamp", updatedTimestamp);
-          objectMetadataMap.put("updatedTimestampIso", Instant.ofEpochMilli(updatedTimestamp).toString());
+      while (remainingShards > 0) {
+        ListingShardPage page = pages.take();
 
-          if (objectType == ObjectType.CANARY_CONFIG) {
-            String name = itemName.substring(indexOfLastSlash + 1);
+        if (page.error != null) {
+          throw page.error;
+        }
+
+        page.summaries.forEach(consumer);
 
-            if (name.endsWith(".json")) {
-              name = name.substring(0, name.length() - 5);
-            }
+        if (page.last) {
+          remainingShards--;
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while listing " + prefix + ".", e);
+    } finally {
+      shardFutures.forEach(f -> f.cancel(true));
+    }
+  }
 
-            objectMetadataMap.put("name", name);
+  // Since object keys always continue past the first character after the prefix, starting after that bare character
+  // includes every key in the range.
+  private void listShard(AmazonS3 amazonS3, String bucket, String prefix, String startAfter, String endBefore, BlockingQueue<ListingShardPage> pages) {
+    try {
+      ListObjectsV2Request listObjectsRequest =
+        new ListObjectsV2Request()
+          .withBucketName(bucket)
+          .withPrefix(prefix)
+          .withStartAfter(startAfter);
+      boolean moreKeys;
+
+      do {
+        ListObjectsV2Result listing = amazonS3.listObjectsV2(listObjectsRequest);
+        List<S3ObjectSummary> summaries = listing.getObjectSummaries();
+        moreKeys = listing.isTruncated();
+
+        if (endBefore != null) {
+          int endIndex = 0;
+
+          while (endIndex < summaries.size() && summaries.get(endIndex).getKey().compareTo(endBefore) < 0) {
+            endIndex++;
           }
 
-          result.add(objectMetadataMap);
+          if (endIndex < summaries.size()) {
+            summaries = summaries.subList(0, endIndex);
+            moreKeys = false;
+          }
         }
-      }
 
-      return result;
+        pages.put(new ListingShardPage(summaries, !moreKeys, null));
+        listObjectsRequest.setContinuationToken(listing.getNextContinuationToken());
+      } while (moreKeys);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (RuntimeException e) {
+      try {
+        pages.put(new ListingShardPage(Collections.emptyList(), true, e));
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+      }
     }
   }
 
+  @AllArgsConstructor
+  private static class ListingShardPage {
+    private final List<S3ObjectSummary> summaries;
+    private final boolean last;
+    private final RuntimeException error;
+  }
+
   private String daoRoot(AwsNamedAccountCredentials credentials, String daoTypeName) {
     return credentials.getRootFolder() + '/' + daoTypeName;
   }
 
   private String buildS3Key(AwsNamedAccountCredentials credentials, ObjectType objectType, String group, String objectKey, String metadataFilename) {
+    return buildS3Key(credentials, objectType, group, objectKey, metadataFilename, credentials.isShardedKeyLayout());
+  }
+
+  private String buildS3Key(AwsNamedAccountCredentials credentials, ObjectType objectType, String group, String objectKey, String metadataFilename, boolean sharded) {
     if (metadataFilename == null) {
       metadataFilename = objectType.getDefaultFilename();
     }
@@ -399,7 +671,7 @@ public class S3StorageService implements StorageService {
       return objectKey;
     }
 
-    return (buildTypedFolder(credentials, group) + "/" + objectKey + "/" + metadataFilename).replace("//", "/");
+    return (ShardedKeyLayout.objectFolder(buildTypedFolder(credentials, group), objectKey, sharded) + "/" + metadataFilename).replace("//", "/");
   }
 
   private String buildTypedFolder(AwsNamedAccountCredentials credentials, String type) {
@@ -35,12 +35,14 @@ import com.netflix.kayenta.config.KayentaConfiguration;
 import com.netflix.kayenta.config.WebConfiguration;
 import com.netflix.kayenta.configbin.config.ConfigBinConfiguration;
 import com.netflix.kayenta.datadog.config.DatadogConfiguration;
+import com.netflix.kayenta.filesystem.config.FileSystemConfiguration;
 import com.netflix.kayenta.gcs.config.GcsConfiguration;
 import com.netflix.kayenta.google.config.GoogleConfiguration;
 import com.netflix.kayenta.influxdb.config.InfluxDbConfiguration;
 import com.netflix.kayenta.judge.config.NetflixJudgeConfiguration;
 import com.netflix.kayenta.memory.config.MemoryConfiguration;
 import com.netflix.kayenta.prometheus.config.PrometheusConfiguration;
+import com.netflix.kayenta.redis.config.RedisConfiguration;
 import com.netflix.kayenta.s3.config.S3Configuration;
 import com.netflix.kayenta.stackdriver.config.StackdriverConfiguration;
 
@@ -50,12 +52,14 @@ import com.netflix.kayenta.stackdriver.config.StackdriverConfiguration;
   AwsConfiguration.class,
   ConfigBinConfiguration.class,
   DatadogConfiguration.class,
+  FileSystemConfiguration.class,
   GcsConfiguration.class,
   GoogleConfiguration.class,
   InfluxDbConfiguration.class,
   KayentaConfiguration.class,
   MemoryConfiguration.class,
   PrometheusConfiguration.class,
+  RedisConfiguration.class,
   S3Configuration.class,
   StackdriverConfiguration.class,
   WebConfiguration.class,
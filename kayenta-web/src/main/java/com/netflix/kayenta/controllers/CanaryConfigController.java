@@ -18,6 +18,7 @@ package com.netflix.kayenta.controllers;
 
 import com.netflix.kayenta.canary.CanaryConfig;
 import com.netflix.kayenta.canary.CanaryConfigUpdateResponse;
+import com.netflix.kayenta.index.CanaryConfigIndex;
 import com.netflix.kayenta.security.AccountCredentials;
 import com.netflix.kayenta.security.AccountCredentialsRepository;
 import com.netflix.kayenta.security.CredentialsHelper;
@@ -49,11 +50,15 @@ public class CanaryConfigController {
 
   private final AccountCredentialsRepository accountCredentialsRepository;
   private final StorageServiceRepository storageServiceRepository;
+  private final CanaryConfigIndex canaryConfigIndex;
 
   @Autowired
-  public CanaryConfigController(AccountCredentialsRepository accountCredentialsRepository, StorageServiceRepository storageServiceRepository) {
+  public CanaryConfigController(AccountCredentialsRepository accountCredentialsRepository,
+                                StorageServiceRepository storageServiceRepository,
+                                CanaryConfigIndex canaryConfigIndex) {
     this.accountCredentialsRepository = accountCredentialsRepository;
     this.storageServiceRepository = storageServiceRepository;
+    this.canaryConfigIndex = canaryConfigIndex;
   }
 
   @ApiOperation(value = "Retrieve a canary config from object storage")
@@ -186,4 +191,22 @@ public class CanaryConfigController {
 
     return configurationService.listObjectKeys(resolvedConfigurationAccountName, ObjectType.CANARY_CONFIG, applications, false);
   }
+
+  @ApiOperation(value = "Search canary configs by name, metric name, metric query fields and template name")
+  @RequestMapping(value = "/search", method = RequestMethod.GET)
+  public List<Map<String, Object>> searchCanaryConfigs(@RequestParam(required = false) final String configurationAccountName,
+                                                       @RequestParam(value = "q", defaultValue = "") final String query,
+                                                       @RequestParam(required = false, value = "application") final List<String> applications,
+                                                       @RequestParam(value = "offset", defaultValue = "0") int offset,
+                                                       @RequestParam(value = "limit", defaultValue = "20") int limit) {
+    String resolvedConfigurationAccountName = CredentialsHelper.resolveAccountByNameOrType(configurationAccountName,
+                                                                                           AccountCredentials.Type.CONFIGURATION_STORE,
+                                                                                           accountCredentialsRepository);
+    AccountCredentials credentials =
+      accountCredentialsRepository
+        .getOne(resolvedConfigurationAccountName)
+        .orElseThrow(() -> new IllegalArgumentException("Unable to resolve account " + resolvedConfigurationAccountName + "."));
+
+    return canaryConfigIndex.searchCanaryConfigSummaries(credentials, query, applications, offset, limit);
+  }
 }
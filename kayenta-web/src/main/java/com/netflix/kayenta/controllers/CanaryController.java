@@ -18,10 +18,10 @@ package com.netflix.kayenta.controllers;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.netflix.kayenta.canary.*;
+import com.netflix.kayenta.index.CanaryConfigCache;
 import com.netflix.kayenta.security.AccountCredentials;
 import com.netflix.kayenta.security.AccountCredentialsRepository;
 import com.netflix.kayenta.security.CredentialsHelper;
-import com.netflix.kayenta.storage.ObjectType;
 import com.netflix.kayenta.storage.StorageService;
 import com.netflix.kayenta.storage.StorageServiceRepository;
 import com.netflix.spinnaker.orca.ExecutionStatus;
@@ -49,16 +49,19 @@ public class CanaryController {
   private final AccountCredentialsRepository accountCredentialsRepository;
   private final StorageServiceRepository storageServiceRepository;
   private final ExecutionMapper executionMapper;
+  private final CanaryConfigCache canaryConfigCache;
 
   @Autowired
   public CanaryController(ExecutionRepository executionRepository,
                           AccountCredentialsRepository accountCredentialsRepository,
                           StorageServiceRepository storageServiceRepository,
-                          ExecutionMapper executionMapper) {
+                          ExecutionMapper executionMapper,
+                          CanaryConfigCache canaryConfigCache) {
     this.executionRepository = executionRepository;
     this.accountCredentialsRepository = accountCredentialsRepository;
     this.storageServiceRepository = storageServiceRepository;
     this.executionMapper = executionMapper;
+    this.canaryConfigCache = canaryConfigCache;
   }
 
   //
@@ -88,7 +91,7 @@ public class CanaryController {
       storageServiceRepository
         .getOne(resolvedConfigurationAccountName)
         .orElseThrow(() -> new IllegalArgumentException("No configuration service was configured."));
-    CanaryConfig canaryConfig = configurationService.loadObject(resolvedConfigurationAccountName, ObjectType.CANARY_CONFIG, canaryConfigId);
+    CanaryConfig canaryConfig = canaryConfigCache.load(configurationService, resolvedConfigurationAccountName, canaryConfigId);
 
     return executionMapper.buildExecution(application,
                                           parentPipelineExecutionId,